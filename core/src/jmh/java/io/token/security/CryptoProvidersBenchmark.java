@@ -0,0 +1,89 @@
+package io.token.security;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+
+import io.token.security.crypto.CryptoType;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares signing and verifying with the crypto library against a pinned JCA provider.
+ * <br>
+ * Run with {@code ./gradlew :core:jmh -Pjmh.include=CryptoProvidersBenchmark}. The provider
+ * is {@code library}, a provider name, or {@code pinned} for the first installed provider
+ * that supports the crypto type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CryptoProvidersBenchmark {
+    private static final String PAYLOAD = "{\"transferId\":\"t:1\",\"status\":\"SUCCESS\"}";
+
+    @Param({"EDDSA", "ECDSA_SHA256", "RS256"})
+    public CryptoType cryptoType;
+
+    @Param({"library", "pinned"})
+    public String provider;
+
+    private Signer signer;
+    private Verifier verifier;
+    private String signature;
+
+    @Setup
+    public void setUp() {
+        CryptoEngine crypto = new TokenCryptoEngine(
+                "m",
+                new InMemoryKeyStore(),
+                cryptoType,
+                providers());
+        String keyId = crypto.generateKey(STANDARD).getId();
+        signer = crypto.createSigner(STANDARD);
+        verifier = crypto.createVerifier(keyId);
+        signature = signer.sign(PAYLOAD);
+    }
+
+    @Benchmark
+    public String sign() {
+        return signer.sign(PAYLOAD);
+    }
+
+    @Benchmark
+    public void verify() {
+        verifier.verify(PAYLOAD, signature);
+    }
+
+    private CryptoProviders providers() {
+        switch (provider) {
+            case "library":
+                return CryptoProviders.none();
+            case "pinned":
+                for (Provider installed : Security.getProviders()) {
+                    try {
+                        return CryptoProviders.builder().pin(cryptoType, installed).build();
+                    } catch (IllegalArgumentException e) {
+                        // the provider does not support the crypto type
+                    }
+                }
+                throw new IllegalStateException("No provider supports " + cryptoType);
+            default:
+                return CryptoProviders.builder().pin(cryptoType, provider).build();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package io.token.security;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the key stores that keep keys on disk, with a million members stored.
+ * <br>
+ * Run with {@code ./gradlew :core:jmh -Pjmh.include=KeyStoreBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class KeyStoreBenchmark {
+    @Param({"packed", "packed-nosync", "unsecured"})
+    public String store;
+
+    @Param({"1000000"})
+    public int members;
+
+    private File root;
+    private SecretKey key;
+    private KeyStore keyStore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("key-store-benchmark").toFile();
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        key = SecretKey.create("laptop", STANDARD, keyGen.genKeyPair());
+
+        // Stores the members without flushing each change, then reopens the store as
+        // configured.
+        KeyStore loading = open(false);
+        for (int i = 0; i < members; i++) {
+            loading.put(memberId(i), key);
+        }
+        close(loading);
+        keyStore = open(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        close(keyStore);
+        try (Stream<Path> files = Files.walk(root.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public SecretKey getByLevel() {
+        return keyStore.getByLevel(randomMember(), STANDARD);
+    }
+
+    @Benchmark
+    public SecretKey getById() {
+        return keyStore.getById(randomMember(), "laptop");
+    }
+
+    @Benchmark
+    public void put() {
+        keyStore.put(randomMember(), key);
+    }
+
+    private KeyStore open(boolean asConfigured) {
+        switch (store) {
+            case "packed":
+            case "packed-nosync":
+                return PackedFileSystemKeyStore.builder(root)
+                        .syncWrites(asConfigured && store.equals("packed"))
+                        .build();
+            case "unsecured":
+                return new UnsecuredFileSystemKeyStore(root);
+            default:
+                throw new IllegalArgumentException("Unknown key store: " + store);
+        }
+    }
+
+    private String randomMember() {
+        return memberId(ThreadLocalRandom.current().nextInt(members));
+    }
+
+    private static String memberId(int i) {
+        return "m:" + i;
+    }
+
+    private static void close(KeyStore keyStore) throws IOException {
+        if (keyStore instanceof Closeable) {
+            ((Closeable) keyStore).close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.token.util;
+
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures nonce and sortable ID generation under 64 threads, against creating a
+ * {@link SecureRandom} per nonce as {@link Util#generateNonce} used to.
+ * <br>
+ * Run with {@code ./gradlew :core:jmh -Pjmh.include=NonceGeneratorBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(64)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NonceGeneratorBenchmark {
+    private static final NonceGenerator GENERATOR = NonceGenerator.getInstance();
+
+    @Benchmark
+    public String nonce() {
+        return GENERATOR.nonce();
+    }
+
+    @Benchmark
+    public String sortableId() {
+        return GENERATOR.sortableId();
+    }
+
+    @Benchmark
+    public List<String> sortableIdsInBulk() {
+        return GENERATOR.sortableIds(100);
+    }
+
+    @Benchmark
+    public byte[] newSecureRandom() {
+        byte[] bytes = new byte[12];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.List;
+
+/**
+ * The outcome of shutting down a {@link TokenClient}: which calls completed while it was
+ * draining, and which ones had to be cancelled.
+ */
+@AutoValue
+public abstract class DrainReport {
+    public static DrainReport create(
+            int completedCount,
+            List<String> cancelledCalls,
+            long rejectedCount,
+            long durationMs,
+            boolean terminated) {
+        return new AutoValue_DrainReport(
+                completedCount,
+                cancelledCalls,
+                rejectedCount,
+                durationMs,
+                terminated);
+    }
+
+    /**
+     * Get the number of calls in flight at the start of the shutdown that completed.
+     *
+     * @return completed count
+     */
+    public abstract int getCompletedCount();
+
+    /**
+     * Get the calls cancelled because they were still in flight at the deadline.
+     *
+     * @return full gRPC method names of the cancelled calls
+     */
+    public abstract List<String> getCancelledCalls();
+
+    /**
+     * Get the number of calls refused because the client was shutting down.
+     *
+     * @return rejected count
+     */
+    public abstract long getRejectedCount();
+
+    /**
+     * Get the time the shutdown took.
+     *
+     * @return time in milliseconds
+     */
+    public abstract long getDurationMs();
+
+    /**
+     * Get whether the connection to the gateway was closed when the shutdown ended.
+     *
+     * @return true if the channel terminated
+     */
+    public abstract boolean isTerminated();
+}
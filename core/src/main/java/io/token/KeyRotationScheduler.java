@@ -0,0 +1,554 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.security.BulkKeyStore;
+import io.token.security.CryptoEngine;
+import io.token.security.CryptoEngineFactory;
+import io.token.security.SecretKey;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces the keys of the members in a {@link BulkKeyStore} before they expire.
+ * <br>
+ * The key store is scanned periodically. A member with keys expiring within the rotation
+ * lead time is scheduled for rotation at a random point of the jitter window. Rotating a
+ * member generates a replacement for each of its expiring keys, of the same level, and
+ * approves them in one call; the replaced keys are removed from the member, and then from
+ * the key store, once the grace period has passed, so that requests signed with them in the
+ * meantime still verify.
+ * <br>
+ * Rotations and removals are run one at a time, at most one per spacing interval, so that
+ * members whose keys expire together never cause a burst of calls to the gateway. Their
+ * calls to the gateway are made without holding the lock of the scheduler and fail after the
+ * call timeout. A failed rotation is retried after the next scan with the keys generated by
+ * the first attempt; a failed removal is retried after a scan interval.
+ */
+public final class KeyRotationScheduler implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(KeyRotationScheduler.class);
+
+    private final BulkKeyStore keyStore;
+    private final CryptoEngineFactory cryptoFactory;
+    private final MemberRegistry.Fetcher<? extends Member> members;
+    private final long rotateAheadMs;
+    private final long keyLifetimeMs;
+    private final long gracePeriodMs;
+    private final long jitterMs;
+    private final long scanIntervalMs;
+    private final long spacingMs;
+    private final long callTimeoutMs;
+    private final Clock clock;
+    private final PriorityQueue<Task> queue = new PriorityQueue<>(
+            Comparator.comparingLong((Task task) -> task.atMs).thenComparingLong(task -> task.seq));
+    private final Set<String> scheduled = new HashSet<>();
+    private final Map<String, Rotation> unapproved = new HashMap<>();
+    private final Map<String, Long> replaced = new HashMap<>();
+    private final AtomicLong rotatedKeyCount = new AtomicLong();
+    private final AtomicLong removedKeyCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private long taskSeq;
+    private ScheduledExecutorService scheduler;
+
+    private KeyRotationScheduler(Builder builder) {
+        this.keyStore = builder.keyStore;
+        this.cryptoFactory = builder.cryptoFactory;
+        this.members = builder.members;
+        this.rotateAheadMs = builder.rotateAheadMs;
+        this.keyLifetimeMs = builder.keyLifetimeMs;
+        this.gracePeriodMs = builder.gracePeriodMs;
+        this.jitterMs = builder.jitterMs;
+        this.scanIntervalMs = builder.scanIntervalMs;
+        this.spacingMs = builder.spacingMs;
+        this.callTimeoutMs = builder.callTimeoutMs;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * Creates a builder with the default settings.
+     *
+     * @param keyStore key store holding the keys of the members to rotate
+     * @param cryptoFactory crypto factory over the same key store
+     * @param members fetches a member by ID, e.g. {@code tokenClient::getMember}
+     * @return builder
+     */
+    public static Builder builder(
+            BulkKeyStore keyStore,
+            CryptoEngineFactory cryptoFactory,
+            MemberRegistry.Fetcher<? extends Member> members) {
+        return new Builder(keyStore, cryptoFactory, members);
+    }
+
+    /**
+     * Starts scanning the key store and rotating keys in the background.
+     */
+    public synchronized void start() {
+        checkState(scheduler == null, "Scheduler already started");
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("token-key-rotation-%d")
+                .setDaemon(true)
+                .build());
+        scheduler.scheduleWithFixedDelay(this::scanSafely, 0, scanIntervalMs, MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::runSafely, spacingMs, spacingMs, MILLISECONDS);
+    }
+
+    /**
+     * Stops rotating keys. Rotations and removals not run yet are dropped.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the number of keys replaced and approved so far.
+     *
+     * @return rotated key count
+     */
+    public long getRotatedKeyCount() {
+        return rotatedKeyCount.get();
+    }
+
+    /**
+     * Returns the number of replaced keys removed from their members so far.
+     *
+     * @return removed key count
+     */
+    public long getRemovedKeyCount() {
+        return removedKeyCount.get();
+    }
+
+    /**
+     * Returns the number of failed rotations and removals.
+     *
+     * @return failure count
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Returns the number of rotations and removals waiting to run.
+     *
+     * @return pending count
+     */
+    public synchronized int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Schedules a rotation for each member with keys due for rotation that has none scheduled.
+     */
+    @VisibleForTesting
+    synchronized void scan() {
+        long now = clock.getTime();
+        replaced.values().removeIf(expiresAtMs -> expiresAtMs < now);
+        for (String memberId : keyStore.listMembers()) {
+            if (scheduled.contains(memberId)) {
+                continue;
+            }
+            long expiresAtMs = Long.MAX_VALUE;
+            for (SecretKey key : keyStore.listKeys(memberId)) {
+                if (isDue(memberId, key, now)) {
+                    expiresAtMs = Math.min(expiresAtMs, key.getExpiresAtMs());
+                }
+            }
+            if (expiresAtMs != Long.MAX_VALUE) {
+                long window = Math.min(jitterMs, (expiresAtMs - now) / 2);
+                long delayMs = window > 0 ? ThreadLocalRandom.current().nextLong(window + 1) : 0;
+                scheduled.add(memberId);
+                enqueue(new Rotation(memberId, now + delayMs));
+            }
+        }
+    }
+
+    /**
+     * Runs the next rotation or removal, if one is due.
+     *
+     * @return whether one was run
+     */
+    @VisibleForTesting
+    boolean runNext() {
+        Task task;
+        synchronized (this) {
+            task = queue.peek();
+            if (task == null || task.atMs > clock.getTime()) {
+                return false;
+            }
+            queue.poll();
+        }
+        try {
+            boolean proceed;
+            synchronized (this) {
+                proceed = task.prepare();
+            }
+            if (proceed) {
+                task.call();
+                synchronized (this) {
+                    task.complete();
+                }
+            }
+        } catch (RuntimeException ex) {
+            failureCount.incrementAndGet();
+            logger.warn("Key rotation task failed for member {}", task.memberId, ex);
+            synchronized (this) {
+                task.retry();
+            }
+        }
+        return true;
+    }
+
+    private void scanSafely() {
+        try {
+            scan();
+        } catch (RuntimeException ex) {
+            logger.warn("Unable to scan the key store for keys to rotate", ex);
+        }
+    }
+
+    private void runSafely() {
+        try {
+            runNext();
+        } catch (RuntimeException ex) {
+            logger.warn("Unable to run key rotation task", ex);
+        }
+    }
+
+    private boolean isDue(String memberId, SecretKey key, long now) {
+        return key.getExpiresAtMs() != null
+                && key.getExpiresAtMs() - now <= rotateAheadMs
+                && !replaced.containsKey(replacedKey(memberId, key.getId()));
+    }
+
+    private void enqueue(Task task) {
+        task.seq = taskSeq++;
+        queue.add(task);
+    }
+
+    private static String replacedKey(String memberId, String keyId) {
+        return memberId + '\n' + keyId;
+    }
+
+    private Member fetchMember(String memberId) {
+        return members.fetch(memberId)
+                .timeout(callTimeoutMs, MILLISECONDS)
+                .blockingSingle();
+    }
+
+    /**
+     * A rotation or removal. {@link #prepare}, {@link #complete} and {@link #retry} run
+     * holding the lock of the scheduler, {@link #call} runs without it.
+     */
+    private abstract static class Task {
+        final String memberId;
+        final long atMs;
+        long seq;
+
+        Task(String memberId, long atMs) {
+            this.memberId = memberId;
+            this.atMs = atMs;
+        }
+
+        /**
+         * Prepares the calls to the gateway.
+         *
+         * @return false if there is nothing to do
+         */
+        abstract boolean prepare();
+
+        abstract void call();
+
+        abstract void complete();
+
+        abstract void retry();
+    }
+
+    /**
+     * Replaces the due keys of a member.
+     */
+    private final class Rotation extends Task {
+        private final List<SecretKey> replacedKeys = new ArrayList<>();
+        private final List<Key> replacements = new ArrayList<>();
+
+        private Rotation(String memberId, long atMs) {
+            super(memberId, atMs);
+        }
+
+        @Override
+        boolean prepare() {
+            long now = clock.getTime();
+            Rotation pending = unapproved.get(memberId);
+            if (pending != null) {
+                replacedKeys.addAll(pending.replacedKeys);
+                replacements.addAll(pending.replacements);
+                return true;
+            }
+            for (SecretKey key : keyStore.listKeys(memberId)) {
+                if (isDue(memberId, key, now)) {
+                    replacedKeys.add(key);
+                }
+            }
+            if (replacedKeys.isEmpty()) {
+                scheduled.remove(memberId);
+                return false;
+            }
+            CryptoEngine crypto = cryptoFactory.create(memberId);
+            for (SecretKey key : replacedKeys) {
+                replacements.add(crypto.generateKey(key.getLevel(), now + keyLifetimeMs));
+            }
+            unapproved.put(memberId, this);
+            return true;
+        }
+
+        @Override
+        void call() {
+            fetchMember(memberId)
+                    .approveKeys(replacements)
+                    .timeout(callTimeoutMs, MILLISECONDS)
+                    .blockingAwait();
+        }
+
+        @Override
+        void complete() {
+            long now = clock.getTime();
+            unapproved.remove(memberId);
+            scheduled.remove(memberId);
+            List<String> keyIds = new ArrayList<>();
+            for (SecretKey key : replacedKeys) {
+                keyIds.add(key.getId());
+                replaced.put(replacedKey(memberId, key.getId()), key.getExpiresAtMs());
+            }
+            rotatedKeyCount.addAndGet(keyIds.size());
+            logger.info("Rotated {} keys of member {}", keyIds.size(), memberId);
+            enqueue(new Removal(memberId, keyIds, now + gracePeriodMs));
+        }
+
+        @Override
+        void retry() {
+            scheduled.remove(memberId);
+        }
+    }
+
+    /**
+     * Removes the replaced keys of a member.
+     */
+    private final class Removal extends Task {
+        private final List<String> keyIds;
+
+        private Removal(String memberId, List<String> keyIds, long atMs) {
+            super(memberId, atMs);
+            this.keyIds = keyIds;
+        }
+
+        @Override
+        boolean prepare() {
+            return true;
+        }
+
+        @Override
+        void call() {
+            fetchMember(memberId)
+                    .removeKeys(keyIds)
+                    .timeout(callTimeoutMs, MILLISECONDS)
+                    .blockingAwait();
+            // Keys the member no longer has must not be used to sign.
+            for (String keyId : keyIds) {
+                keyStore.deleteKey(memberId, keyId);
+            }
+        }
+
+        @Override
+        void complete() {
+            removedKeyCount.addAndGet(keyIds.size());
+        }
+
+        @Override
+        void retry() {
+            enqueue(new Removal(memberId, keyIds, clock.getTime() + scanIntervalMs));
+        }
+    }
+
+    /**
+     * Builds a {@link KeyRotationScheduler}.
+     */
+    public static final class Builder {
+        private final BulkKeyStore keyStore;
+        private final CryptoEngineFactory cryptoFactory;
+        private final MemberRegistry.Fetcher<? extends Member> members;
+        private long rotateAheadMs = 7 * 24 * 3_600_000L;
+        private long keyLifetimeMs = 90 * 24 * 3_600_000L;
+        private long gracePeriodMs = 24 * 3_600_000L;
+        private long jitterMs = 24 * 3_600_000L;
+        private long scanIntervalMs = 3_600_000L;
+        private long spacingMs = 1_000L;
+        private long callTimeoutMs = 30_000L;
+        private Clock clock = new SystemTimeClock();
+
+        private Builder(
+                BulkKeyStore keyStore,
+                CryptoEngineFactory cryptoFactory,
+                MemberRegistry.Fetcher<? extends Member> members) {
+            this.keyStore = keyStore;
+            this.cryptoFactory = cryptoFactory;
+            this.members = members;
+        }
+
+        /**
+         * Sets how long before their expiry keys are rotated.
+         *
+         * @param rotateAheadMs rotation lead time in milliseconds
+         * @return this builder
+         */
+        public Builder rotateAhead(long rotateAheadMs) {
+            checkArgument(rotateAheadMs > 0, "Rotation lead time must be positive");
+            this.rotateAheadMs = rotateAheadMs;
+            return this;
+        }
+
+        /**
+         * Sets how long the replacement keys are valid for.
+         *
+         * @param keyLifetimeMs key lifetime in milliseconds
+         * @return this builder
+         */
+        public Builder keyLifetime(long keyLifetimeMs) {
+            checkArgument(keyLifetimeMs > 0, "Key lifetime must be positive");
+            this.keyLifetimeMs = keyLifetimeMs;
+            return this;
+        }
+
+        /**
+         * Sets how long replaced keys stay approved after their replacements were approved.
+         *
+         * @param gracePeriodMs grace period in milliseconds
+         * @return this builder
+         */
+        public Builder gracePeriod(long gracePeriodMs) {
+            checkArgument(gracePeriodMs >= 0, "Grace period must not be negative");
+            this.gracePeriodMs = gracePeriodMs;
+            return this;
+        }
+
+        /**
+         * Sets the window over which rotations found by one scan are spread at random. A
+         * rotation is never delayed by more than half the remaining lifetime of its keys.
+         *
+         * @param jitterMs jitter window in milliseconds
+         * @return this builder
+         */
+        public Builder jitter(long jitterMs) {
+            checkArgument(jitterMs >= 0, "Jitter must not be negative");
+            this.jitterMs = jitterMs;
+            return this;
+        }
+
+        /**
+         * Sets how often the key store is scanned for keys due for rotation.
+         *
+         * @param scanIntervalMs scan interval in milliseconds
+         * @return this builder
+         */
+        public Builder scanInterval(long scanIntervalMs) {
+            checkArgument(scanIntervalMs > 0, "Scan interval must be positive");
+            this.scanIntervalMs = scanIntervalMs;
+            return this;
+        }
+
+        /**
+         * Sets the minimum time between two rotations or removals.
+         *
+         * @param spacingMs spacing in milliseconds
+         * @return this builder
+         */
+        public Builder spacing(long spacingMs) {
+            checkArgument(spacingMs > 0, "Spacing must be positive");
+            this.spacingMs = spacingMs;
+            return this;
+        }
+
+        /**
+         * Sets how long a call to the gateway made by a rotation or removal may take before
+         * it fails and is retried.
+         *
+         * @param callTimeoutMs call timeout in milliseconds
+         * @return this builder
+         */
+        public Builder callTimeout(long callTimeoutMs) {
+            checkArgument(callTimeoutMs > 0, "Call timeout must be positive");
+            this.callTimeoutMs = callTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Sets the clock, for testing.
+         *
+         * @param clock clock
+         * @return this builder
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Builds the scheduler; call {@link KeyRotationScheduler#start()} to start it.
+         *
+         * @return key rotation scheduler
+         */
+        public KeyRotationScheduler build() {
+            checkArgument(
+                    keyLifetimeMs > rotateAheadMs,
+                    "Key lifetime must exceed the rotation lead time");
+            checkArgument(
+                    scanIntervalMs < rotateAheadMs,
+                    "Scan interval must be shorter than the rotation lead time");
+            return new KeyRotationScheduler(this);
+        }
+    }
+}
@@ -26,8 +26,10 @@ import static io.reactivex.Completable.fromObservable;
 import static io.token.proto.AliasHasher.normalizeAndHash;
 import static io.token.util.Util.TOKEN_REALM;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
 
+import io.grpc.Deadline;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.functions.Function;
@@ -127,6 +129,52 @@ public class Member {
         return realmId;
     }
 
+    /**
+     * Returns a view of this member whose calls all have to complete within the given
+     * timeout, counted from now. Use it to bound an operation that makes several calls,
+     * e.g. {@code member.withTimeout(2000).addAliases(aliases)}; the per-method deadlines
+     * configured on the client do not apply to it.
+     *
+     * @param timeoutMs timeout in milliseconds
+     * @return member
+     */
+    public Member withTimeout(long timeoutMs) {
+        return withDeadline(Deadline.after(timeoutMs, MILLISECONDS));
+    }
+
+    /**
+     * Returns a view of this member whose calls all have to complete before the given
+     * deadline.
+     *
+     * @param deadline deadline of the calls
+     * @return member
+     */
+    public Member withDeadline(Deadline deadline) {
+        return new Member(
+                memberId,
+                partnerId,
+                realmId,
+                client.withDeadline(deadline),
+                cluster);
+    }
+
+    /**
+     * Returns a view of this member whose account and balance reads accept data cached up
+     * to the given age, e.g. {@code member.withMaxStaleness(30_000).getBalance(id, LOW)}.
+     * Needs an {@link io.token.rpc.AccountCache} set on the client.
+     *
+     * @param maxStalenessMs max age of cached data in milliseconds
+     * @return member
+     */
+    public Member withMaxStaleness(long maxStalenessMs) {
+        return new Member(
+                memberId,
+                partnerId,
+                realmId,
+                client.withMaxStaleness(maxStalenessMs),
+                cluster);
+    }
+
     /**
      * Gets the last hash.
      *
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.reactivex.Observable;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the members a {@link TokenClient} looked up, so that looking a member up again
+ * returns the same instance instead of creating a client and fetching the member.
+ * <br>
+ * The registry holds a bounded number of members, each for a limited time. Lookups of a
+ * member that is being fetched wait for that fetch. A member older than the refresh age is
+ * still returned, and fetched again in the background to pick up changes of its partner
+ * or realm; a failed fetch is not kept.
+ *
+ * @param <M> member type
+ */
+public final class MemberRegistry<M extends Member> {
+    private final Cache<String, Handle<M>> handles;
+    private final Fetcher<M> fetcher;
+    private final long refreshAfterMs;
+    private final Clock clock;
+    private final AtomicLong fetchCount = new AtomicLong();
+
+    private MemberRegistry(Builder builder, Fetcher<M> fetcher) {
+        this.handles = CacheBuilder.newBuilder()
+                .maximumSize(builder.maxMembers)
+                .expireAfterWrite(builder.ttlMs, MILLISECONDS)
+                .build();
+        this.fetcher = fetcher;
+        this.refreshAfterMs = builder.refreshAfterMs;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * Creates a builder with the default settings.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a member, fetching it if it is not registered yet.
+     *
+     * @param memberId member ID
+     * @return member
+     */
+    public Observable<M> get(String memberId) {
+        Handle<M> handle;
+        try {
+            handle = handles.get(memberId, () -> load(memberId));
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            return Observable.error(ex.getCause());
+        }
+        if (clock.getTime() - handle.loadedAtMs >= refreshAfterMs
+                && handle.refreshing.compareAndSet(false, true)) {
+            refresh(memberId, handle);
+        }
+        return handle.member;
+    }
+
+    /**
+     * Drops a member, e.g. after its keys changed, so that the next lookup fetches it.
+     *
+     * @param memberId member ID
+     */
+    public void evict(String memberId) {
+        handles.invalidate(memberId);
+    }
+
+    /**
+     * Drops all the members.
+     */
+    public void evictAll() {
+        handles.invalidateAll();
+    }
+
+    /**
+     * Returns the number of registered members.
+     *
+     * @return member count
+     */
+    public long size() {
+        return handles.size();
+    }
+
+    /**
+     * Returns the number of member fetches, including background refreshes.
+     *
+     * @return fetch count
+     */
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+
+    private Handle<M> load(String memberId) {
+        Handle<M> handle = new Handle<>(clock.getTime());
+        fetchCount.incrementAndGet();
+        handle.member = fetcher.fetch(memberId)
+                .doOnError(error -> handles.asMap().remove(memberId, handle))
+                .cache();
+        return handle;
+    }
+
+    private void refresh(String memberId, Handle<M> stale) {
+        fetchCount.incrementAndGet();
+        long startedAtMs = clock.getTime();
+        fetcher.fetch(memberId).subscribe(
+                member -> {
+                    Handle<M> fresh = new Handle<>(startedAtMs);
+                    fresh.member = Observable.just(member);
+                    handles.asMap().replace(memberId, stale, fresh);
+                },
+                error -> stale.refreshing.set(false));
+    }
+
+    /**
+     * Fetches a member from the gateway.
+     *
+     * @param <M> member type
+     */
+    public interface Fetcher<M> {
+        /**
+         * Fetches a member.
+         *
+         * @param memberId member ID
+         * @return member
+         */
+        Observable<M> fetch(String memberId);
+    }
+
+    /**
+     * A registered member, or its fetch in progress.
+     */
+    private static final class Handle<M> {
+        private final long loadedAtMs;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile Observable<M> member;
+
+        private Handle(long loadedAtMs) {
+            this.loadedAtMs = loadedAtMs;
+        }
+    }
+
+    /**
+     * Builds a {@link MemberRegistry}.
+     */
+    public static final class Builder {
+        private long maxMembers = 10_000L;
+        private long ttlMs = 600_000L;
+        private long refreshAfterMs = 60_000L;
+        private Clock clock = new SystemTimeClock();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets how many members are kept at most; the least recently used ones are dropped
+         * first.
+         *
+         * @param maxMembers max number of members
+         * @return this builder
+         */
+        public Builder maxMembers(long maxMembers) {
+            checkArgument(maxMembers > 0, "Max members must be positive");
+            this.maxMembers = maxMembers;
+            return this;
+        }
+
+        /**
+         * Sets how long a member is kept after it was fetched.
+         *
+         * @param ttlMs time to live in milliseconds
+         * @return this builder
+         */
+        public Builder ttl(long ttlMs) {
+            checkArgument(ttlMs > 0, "Time to live must be positive");
+            this.ttlMs = ttlMs;
+            return this;
+        }
+
+        /**
+         * Sets the age after which a member is fetched again in the background when looked
+         * up.
+         *
+         * @param refreshAfterMs refresh age in milliseconds
+         * @return this builder
+         */
+        public Builder refreshAfter(long refreshAfterMs) {
+            checkArgument(refreshAfterMs > 0, "Refresh age must be positive");
+            this.refreshAfterMs = refreshAfterMs;
+            return this;
+        }
+
+        /**
+         * Sets the clock, for testing.
+         *
+         * @param clock clock
+         * @return this builder
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Builds a registry that fetches members with the given fetcher.
+         *
+         * @param fetcher fetches a member by ID
+         * @param <M> member type
+         * @return member registry
+         */
+        public <M extends Member> MemberRegistry<M> build(Fetcher<M> fetcher) {
+            return new MemberRegistry<>(this, fetcher);
+        }
+    }
+}
@@ -34,13 +34,19 @@ import static io.token.util.Util.toAddAliasOperationMetadata;
 import static io.token.util.Util.toAddKeyOperation;
 import static io.token.util.Util.toRecoveryAgentOperation;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
+import io.grpc.ClientInterceptor;
+import io.grpc.ConnectivityState;
 import io.grpc.ManagedChannel;
 import io.grpc.Metadata;
 import io.grpc.StatusRuntimeException;
 import io.reactivex.Observable;
 import io.reactivex.functions.Function;
 import io.token.exceptions.VerificationException;
+import io.token.idempotency.IdempotencyLedger;
+import io.token.idempotency.IdempotencyStore;
 import io.token.proto.common.alias.AliasProtos.Alias;
 import io.token.proto.common.bank.BankProtos.Bank;
 import io.token.proto.common.bank.BankProtos.BankFeatures;
@@ -53,34 +59,69 @@ import io.token.proto.common.member.MemberProtos.MemberRecoveryOperation.Authori
 import io.token.proto.common.security.SecurityProtos;
 import io.token.proto.common.security.SecurityProtos.Key;
 import io.token.proto.common.token.TokenProtos.TokenMember;
+import io.token.rpc.AccountCache;
+import io.token.rpc.BankCircuitBreaker;
+import io.token.rpc.BankResolver;
 import io.token.rpc.Client;
 import io.token.rpc.ClientFactory;
+import io.token.rpc.CompressionInterceptor;
+import io.token.rpc.ConcurrencyLimiter;
+import io.token.rpc.DeadlineInterceptor;
+import io.token.rpc.DeadlinePolicy;
+import io.token.rpc.DrainableChannel;
+import io.token.rpc.FailoverChannel;
+import io.token.rpc.GatewayEndpoint;
+import io.token.rpc.InterceptedManagedChannel;
+import io.token.rpc.RequestCoalescer;
+import io.token.rpc.RetryInterceptor;
+import io.token.rpc.RetryPolicy;
 import io.token.rpc.SslConfig;
 import io.token.rpc.TracingInterceptor;
 import io.token.rpc.UnauthenticatedClient;
 import io.token.rpc.client.lite.RpcChannelFactoryLite;
+import io.token.security.BulkKeyStore;
+import io.token.security.BulkKeyStore.PreloadListener;
 import io.token.security.CryptoEngine;
 import io.token.security.CryptoEngineFactory;
 import io.token.security.InMemoryKeyStore;
 import io.token.security.KeyStore;
+import io.token.security.PreloadReport;
 import io.token.security.Signer;
 import io.token.security.TokenCryptoEngineFactory;
 
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CountDownLatch;
 import javax.annotation.Nullable;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public class TokenClient implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TokenClient.class);
     private static final long SHUTDOWN_DURATION_MS = 10000L;
+    private static final long TERMINATION_GRACE_MS = 1000L;
+    private static final String WARM_UP_PAYLOAD = "warm-up";
 
     protected final ManagedChannel channel;
     protected final CryptoEngineFactory cryptoFactory;
     protected final TokenCluster tokenCluster;
+    protected final @Nullable IdempotencyLedger idempotencyLedger;
+    private final DrainableChannel drainableChannel;
+    private volatile long shutdownTimeoutMs = SHUTDOWN_DURATION_MS;
+    private volatile @Nullable WarmUpReport warmUpReport;
+    private volatile @Nullable PreloadReport preloadReport;
+    private volatile @Nullable MemberRegistry.Builder memberRegistrySettings;
+    private volatile @Nullable MemberRegistry<?> memberRegistry;
+    private volatile @Nullable BankResolver bankResolver;
+    private volatile @Nullable ConcurrencyLimiter concurrencyLimiter;
+    private volatile @Nullable BankCircuitBreaker bankCircuitBreaker;
 
     /**
      * Creates an instance of a Token SDK.
@@ -93,19 +134,273 @@ public class TokenClient implements Closeable {
             ManagedChannel channel,
             CryptoEngineFactory cryptoFactory,
             TokenCluster tokenCluster) {
-        this.channel = channel;
+        this(channel, cryptoFactory, tokenCluster, null);
+    }
+
+    /**
+     * Creates an instance of a Token SDK.
+     *
+     * @param channel GRPC channel
+     * @param cryptoFactory crypto factory instance
+     * @param tokenCluster token cluster
+     * @param idempotencyLedger ledger used to deduplicate retried creations, or null
+     */
+    protected TokenClient(
+            ManagedChannel channel,
+            CryptoEngineFactory cryptoFactory,
+            TokenCluster tokenCluster,
+            @Nullable IdempotencyLedger idempotencyLedger) {
+        this.drainableChannel = DrainableChannel.wrap(channel);
+        this.channel = drainableChannel;
         this.cryptoFactory = cryptoFactory;
         this.tokenCluster = tokenCluster;
+        this.idempotencyLedger = idempotencyLedger;
     }
 
+    /**
+     * Shuts the client down gracefully, see {@link #shutdown(long)}, waiting for the calls
+     * in flight up to the shutdown timeout set on the builder.
+     */
     @Override
     public void close() {
-        channel.shutdown();
+        shutdown(shutdownTimeoutMs);
+    }
+
+    /**
+     * Shuts the client down without dropping the calls in flight: new calls fail right
+     * away, the calls in flight get up to the given time to complete, and the ones still
+     * running then are cancelled. Subscribers of cancelled calls get an error.
+     *
+     * @param timeoutMs how long to wait for the calls in flight
+     * @return report of the completed and cancelled calls
+     */
+    public DrainReport shutdown(long timeoutMs) {
+        long start = System.nanoTime();
+        int inFlight = drainableChannel.getInFlightCount();
+        List<String> cancelled = drainableChannel.drain(timeoutMs);
+        boolean terminated = false;
         try {
-            channel.awaitTermination(SHUTDOWN_DURATION_MS, TimeUnit.MILLISECONDS);
+            terminated = drainableChannel.awaitTermination(TERMINATION_GRACE_MS, MILLISECONDS);
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
         }
+        if (!terminated) {
+            drainableChannel.shutdownNow();
+        }
+        DrainReport report = DrainReport.create(
+                Math.max(0, inFlight - cancelled.size()),
+                cancelled,
+                drainableChannel.getRejectedCount(),
+                NANOSECONDS.toMillis(System.nanoTime() - start),
+                terminated);
+        if (cancelled.isEmpty()) {
+            logger.info("Client shut down in {} ms: {}", report.getDurationMs(), report);
+        } else {
+            logger.warn("Client shut down with {} calls cancelled: {}", cancelled.size(), report);
+        }
+        return report;
+    }
+
+    /**
+     * Shuts the client down right away, cancelling all the calls in flight.
+     *
+     * @return report of the cancelled calls
+     */
+    public DrainReport shutdownNow() {
+        return shutdown(0);
+    }
+
+    /**
+     * Returns the number of gateway calls in flight.
+     *
+     * @return in-flight count
+     */
+    public int getInFlightCount() {
+        return drainableChannel.getInFlightCount();
+    }
+
+    /**
+     * Returns the number of gateway calls in flight per method.
+     *
+     * @return in-flight counts by full gRPC method name
+     */
+    public Map<String, Integer> getInFlightCounts() {
+        return drainableChannel.getInFlightCounts();
+    }
+
+    /**
+     * Drops a member from the member registry, e.g. after its keys changed, so that the
+     * next {@code getMember} fetches it again.
+     *
+     * @param memberId member ID
+     */
+    public void evictMember(String memberId) {
+        MemberRegistry<?> registry = memberRegistry;
+        if (registry != null) {
+            registry.evict(memberId);
+        }
+    }
+
+    /**
+     * Drops all the members from the member registry.
+     */
+    public void evictAllMembers() {
+        MemberRegistry<?> registry = memberRegistry;
+        if (registry != null) {
+            registry.evictAll();
+        }
+    }
+
+    /**
+     * Returns the member registry, if the client was built with one and a member was
+     * looked up.
+     *
+     * @return member registry
+     */
+    public Optional<MemberRegistry<?>> getMemberRegistry() {
+        return Optional.ofNullable(memberRegistry);
+    }
+
+    /**
+     * Records the bank of an account, for accounts not seen in a gateway response, so that
+     * the concurrency limiter and the circuit breaker know where calls on it go.
+     *
+     * @param accountId account ID
+     * @param bankId bank ID
+     */
+    public void learnAccountBank(String accountId, String bankId) {
+        BankResolver banks = bankResolver;
+        if (banks != null) {
+            banks.learnAccountBank(accountId, bankId);
+        }
+    }
+
+    /**
+     * Returns the limiter of the calls in flight, if the client was built with one.
+     *
+     * @return concurrency limiter
+     */
+    public Optional<ConcurrencyLimiter> getConcurrencyLimiter() {
+        return Optional.ofNullable(concurrencyLimiter);
+    }
+
+    /**
+     * Returns the bank circuit breaker, if the client was built with one.
+     *
+     * @return circuit breaker
+     */
+    public Optional<BankCircuitBreaker> getBankCircuitBreaker() {
+        return Optional.ofNullable(bankCircuitBreaker);
+    }
+
+    /**
+     * Prepares the client to serve calls at steady-state latency: connects to the gateway
+     * and waits for the connection to get ready, loads the keys of the given members and
+     * creates signers for their keys that did not expire, and optionally makes a cheap call
+     * to the gateway. Blocks until done; a client whose connection did not get ready in time
+     * still works, its first calls wait for the connection. A step that fails is recorded in
+     * the report and does not stop the others.
+     *
+     * @param timeoutMs how long to wait for the connection to get ready
+     * @param memberIds members whose keys to load
+     * @param call whether to make a warm-up call
+     * @return warm-up report, also available from {@link #getWarmUpReport}
+     */
+    public WarmUpReport warmUp(long timeoutMs, List<String> memberIds, boolean call) {
+        long start = System.nanoTime();
+        List<String> failures = new ArrayList<>();
+        boolean ready;
+        try {
+            ready = awaitReady(timeoutMs);
+        } catch (RuntimeException ex) {
+            ready = false;
+            failures.add("connect: " + ex);
+        }
+        long connected = System.nanoTime();
+        int keyCount = 0;
+        for (String memberId : memberIds) {
+            try {
+                CryptoEngine crypto = cryptoFactory.create(memberId);
+                long now = System.currentTimeMillis();
+                for (Key key : crypto.getPublicKeys()) {
+                    if (key.getExpiresAtMs() != 0 && key.getExpiresAtMs() <= now) {
+                        continue;
+                    }
+                    crypto.createSigner(key.getId()).sign(WARM_UP_PAYLOAD);
+                    keyCount++;
+                }
+            } catch (RuntimeException ex) {
+                failures.add("keys of " + memberId + ": " + ex);
+            }
+        }
+        long keysLoaded = System.nanoTime();
+        long callMs = -1;
+        if (call) {
+            try {
+                ClientFactory.unauthenticated(channel).getCountries(null).blockingSingle();
+            } catch (RuntimeException ex) {
+                // The connection got warmed up even if the call failed.
+                failures.add("call: " + ex);
+            }
+            callMs = NANOSECONDS.toMillis(System.nanoTime() - keysLoaded);
+        }
+        WarmUpReport report = WarmUpReport.create(
+                ready,
+                NANOSECONDS.toMillis(connected - start),
+                keyCount,
+                NANOSECONDS.toMillis(keysLoaded - connected),
+                callMs,
+                NANOSECONDS.toMillis(System.nanoTime() - start),
+                Collections.unmodifiableList(failures));
+        warmUpReport = report;
+        if (!failures.isEmpty()) {
+            logger.warn("Client warm-up steps failed: {}", report);
+        } else if (ready) {
+            logger.info("Client ready in {} ms: {}", report.getTotalMs(), report);
+        } else {
+            logger.warn("Client not connected after {} ms: {}", timeoutMs, report);
+        }
+        return report;
+    }
+
+    /**
+     * Returns the report of the last warm-up of this client.
+     *
+     * @return warm-up report, or empty if the client was not warmed up
+     */
+    public Optional<WarmUpReport> getWarmUpReport() {
+        return Optional.ofNullable(warmUpReport);
+    }
+
+    /**
+     * Returns the report of the key preload the builder ran.
+     *
+     * @return preload report, or empty if keys were not preloaded
+     */
+    public Optional<PreloadReport> getPreloadReport() {
+        return Optional.ofNullable(preloadReport);
+    }
+
+    private boolean awaitReady(long timeoutMs) {
+        long deadline = System.nanoTime() + MILLISECONDS.toNanos(timeoutMs);
+        ConnectivityState state = channel.getState(true);
+        while (state != ConnectivityState.READY) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (state == ConnectivityState.SHUTDOWN || remainingNanos <= 0) {
+                return false;
+            }
+            CountDownLatch changed = new CountDownLatch(1);
+            channel.notifyWhenStateChanged(state, changed::countDown);
+            try {
+                changed.await(remainingNanos, NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            // A channel that went idle after a failed attempt only reconnects when asked to.
+            state = channel.getState(true);
+        }
+        return true;
     }
 
     /**
@@ -292,6 +587,36 @@ public class TokenClient implements Closeable {
                 });
     }
 
+    /**
+     * Looks a member up in the member registry, if the client was built with one, fetching
+     * it on a miss; otherwise fetches it.
+     *
+     * @param memberId member id
+     * @param fetcher fetches the member
+     * @param <M> member type
+     * @return member
+     */
+    @SuppressWarnings("unchecked")
+    protected <M extends Member> Observable<M> getRegisteredMember(
+            String memberId,
+            MemberRegistry.Fetcher<M> fetcher) {
+        MemberRegistry.Builder settings = memberRegistrySettings;
+        if (settings == null) {
+            return fetcher.fetch(memberId);
+        }
+        MemberRegistry<?> registry = memberRegistry;
+        if (registry == null) {
+            synchronized (this) {
+                registry = memberRegistry;
+                if (registry == null) {
+                    registry = settings.build(fetcher);
+                    memberRegistry = registry;
+                }
+            }
+        }
+        return ((MemberRegistry<M>) registry).get(memberId);
+    }
+
     /**
      * Completes account recovery.
      *
@@ -715,6 +1040,30 @@ public class TokenClient implements Closeable {
         protected String devKey;
         protected SslConfig sslConfig;
         protected List<String> featureCodes;
+        protected IdempotencyStore idempotencyStore;
+        protected final DeadlinePolicy.Builder deadlines = DeadlinePolicy.builder();
+        protected RetryPolicy retryPolicy;
+        protected ConcurrencyLimiter.Builder concurrencyLimiter;
+        protected BankCircuitBreaker.Builder bankCircuitBreaker;
+        protected RequestCoalescer requestCoalescer;
+        protected AccountCache accountCache;
+        protected MemberRegistry.Builder memberRegistry;
+        protected KeyStore keyStore;
+        protected Collection<String> preloadMemberIds = Collections.emptyList();
+        protected boolean preloadAllMembers;
+        protected int preloadParallelism = 4;
+        protected PreloadListener preloadListener;
+        protected CompressionInterceptor compression;
+        protected long warmUpTimeoutMs;
+        protected List<String> warmUpMemberIds = Collections.emptyList();
+        protected boolean warmUpCall;
+        protected long shutdownTimeoutMs = SHUTDOWN_DURATION_MS;
+        protected final List<GatewayEndpoint> endpoints = new ArrayList<>();
+        protected long endpointProbeIntervalMs = 5_000L;
+        protected long endpointProbeTimeoutMs = 2_000L;
+        private final BankResolver bankResolver = new BankResolver();
+        private @Nullable ConcurrencyLimiter builtConcurrencyLimiter;
+        private @Nullable BankCircuitBreaker builtBankCircuitBreaker;
 
         /**
          * Creates new builder instance with the defaults initialized.
@@ -749,6 +1098,40 @@ public class TokenClient implements Closeable {
             return (T) this;
         }
 
+        /**
+         * Adds a gateway endpoint, e.g. one per region. Once endpoints are added, calls go to
+         * the healthy endpoints of the best priority instead of the host name set on this
+         * builder, and move to the next priority when none of them is healthy; see
+         * {@link FailoverChannel}.
+         *
+         * @param hostName host name of the endpoint
+         * @param port port of the endpoint
+         * @param priority priority of the endpoint, lower values are preferred
+         * @return this builder instance
+         */
+        public T endpoint(String hostName, int port, int priority) {
+            this.endpoints.add(GatewayEndpoint.create(
+                    hostName,
+                    port,
+                    port == DEFAULT_SSL_PORT,
+                    priority));
+            return (T) this;
+        }
+
+        /**
+         * Sets how often the gateway endpoints are probed, and how long a probe may take.
+         * Defaults to every 5 seconds, with a 2 second timeout.
+         *
+         * @param probeIntervalMs time between probes in milliseconds
+         * @param probeTimeoutMs probe timeout in milliseconds
+         * @return this builder instance
+         */
+        public T endpointProbe(long probeIntervalMs, long probeTimeoutMs) {
+            this.endpointProbeIntervalMs = probeIntervalMs;
+            this.endpointProbeTimeoutMs = probeTimeoutMs;
+            return (T) this;
+        }
+
         /**
          * Sets Token cluster to connect to.
          *
@@ -762,7 +1145,8 @@ public class TokenClient implements Closeable {
         }
 
         /**
-         * Sets timeoutMs that is used for the RPC calls.
+         * Sets timeoutMs that is used for the RPC calls. Calls whose method or timeout class
+         * has a timeout of its own use that one instead.
          *
          * @param timeoutMs RPC call timeoutMs
          * @return this builder instance
@@ -772,6 +1156,44 @@ public class TokenClient implements Closeable {
             return (T) this;
         }
 
+        /**
+         * Sets the timeout of a class of gateway methods, e.g. {@link DeadlinePolicy#READ}
+         * for reads served by Token or {@link DeadlinePolicy#BANK} for calls that reach
+         * the bank.
+         *
+         * @param timeoutClass timeout class name
+         * @param timeoutMs timeout in milliseconds
+         * @return this builder instance
+         */
+        public T timeoutClass(String timeoutClass, long timeoutMs) {
+            this.deadlines.timeoutClass(timeoutClass, timeoutMs);
+            return (T) this;
+        }
+
+        /**
+         * Moves a gateway method, e.g. "GetTransactions", to a timeout class.
+         *
+         * @param method gateway method name
+         * @param timeoutClass timeout class name
+         * @return this builder instance
+         */
+        public T methodTimeoutClass(String method, String timeoutClass) {
+            this.deadlines.methodTimeoutClass(method, timeoutClass);
+            return (T) this;
+        }
+
+        /**
+         * Sets the timeout of a single gateway method, e.g. "LinkAccounts".
+         *
+         * @param method gateway method name
+         * @param timeoutMs timeout in milliseconds
+         * @return this builder instance
+         */
+        public T methodTimeout(String method, long timeoutMs) {
+            this.deadlines.methodTimeout(method, timeoutMs);
+            return (T) this;
+        }
+
         /**
          * Sets the keystore to be used with the SDK.
          *
@@ -779,6 +1201,7 @@ public class TokenClient implements Closeable {
          * @return this builder instance
          */
         public T withKeyStore(KeyStore keyStore) {
+            this.keyStore = keyStore;
             this.cryptoEngine = new TokenCryptoEngineFactory(keyStore);
             return (T) this;
         }
@@ -828,24 +1251,346 @@ public class TokenClient implements Closeable {
             return (T) this;
         }
 
+        /**
+         * Sets the policy used to retry gateway calls that fail with a transient error.
+         * Reads are retried with backoff and, if enabled, hedged; writes are retried only
+         * when they carry a refId. Without a policy, calls are not retried.
+         *
+         * @param retryPolicy retry policy, e.g. {@link RetryPolicy#defaults()}
+         * @return this builder instance
+         */
+        public T withRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return (T) this;
+        }
+
+        /**
+         * Sets the limiter of the calls in flight per bank and per member. Calls over the
+         * limit fail right away instead of queuing on the channel. The limiter, available
+         * from {@link TokenClient#getConcurrencyLimiter}, exposes its current limits. It
+         * finds the banks of calls with the resolver the circuit breaker uses.
+         *
+         * @param concurrencyLimiter concurrency limiter settings
+         * @return this builder instance
+         */
+        public T withConcurrencyLimiter(ConcurrencyLimiter.Builder concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return (T) this;
+        }
+
+        /**
+         * Sets the circuit breaker that stops calling banks whose recent calls failed too
+         * often. Bank-backed calls to such a bank fail with a
+         * {@link io.token.exceptions.BankCircuitOpenException}. The circuit breaker is
+         * available from {@link TokenClient#getBankCircuitBreaker}, and finds the banks of
+         * calls with the resolver the concurrency limiter uses.
+         *
+         * @param bankCircuitBreaker circuit breaker settings
+         * @return this builder instance
+         */
+        public T withBankCircuitBreaker(BankCircuitBreaker.Builder bankCircuitBreaker) {
+            this.bankCircuitBreaker = bankCircuitBreaker;
+            return (T) this;
+        }
+
+        /**
+         * Sets the coalescer that lets identical reads in flight at the same time, e.g.
+         * several threads fetching the balance of one account, share one gateway call.
+         * The coalescer counts the calls it saved.
+         *
+         * @param requestCoalescer request coalescer
+         * @return this builder instance
+         */
+        public T withRequestCoalescer(RequestCoalescer requestCoalescer) {
+            this.requestCoalescer = requestCoalescer;
+            return (T) this;
+        }
+
+        /**
+         * Sets the cache of account and balance reads. Reads made through
+         * {@link Member#withMaxStaleness} are answered from it when its data is recent
+         * enough; the cache counts its hits and misses.
+         *
+         * @param accountCache account cache
+         * @return this builder instance
+         */
+        public T withAccountCache(AccountCache accountCache) {
+            this.accountCache = accountCache;
+            return (T) this;
+        }
+
+        /**
+         * Makes {@code getMember} keep the members it looked up and return the same
+         * instances, instead of fetching the member every time. The registry settings bound
+         * how many members are kept and for how long.
+         *
+         * @param memberRegistry member registry settings
+         * @return this builder instance
+         */
+        public T withMemberRegistry(MemberRegistry.Builder memberRegistry) {
+            this.memberRegistry = memberRegistry;
+            return (T) this;
+        }
+
+        /**
+         * Sets how long {@link TokenClient#close} waits for the calls in flight before
+         * cancelling them. Defaults to 10 seconds.
+         *
+         * @param shutdownTimeoutMs shutdown timeout in milliseconds
+         * @return this builder instance
+         */
+        public T shutdownTimeout(long shutdownTimeoutMs) {
+            this.shutdownTimeoutMs = shutdownTimeoutMs;
+            return (T) this;
+        }
+
+        /**
+         * Makes {@link #build} connect to the gateway and wait up to the given time for the
+         * connection to get ready, so that the first calls do not pay for name resolution
+         * and the TLS handshake. The time it took is reported by
+         * {@link TokenClient#getWarmUpReport}.
+         *
+         * @param timeoutMs how long to wait for the connection
+         * @return this builder instance
+         */
+        public T warmUp(long timeoutMs) {
+            this.warmUpTimeoutMs = timeoutMs;
+            return (T) this;
+        }
+
+        /**
+         * Makes {@link #build} load the keys of the given members and create their signers
+         * when warming up, e.g. the members the service acts as.
+         *
+         * @param memberIds member IDs
+         * @return this builder instance
+         */
+        public T warmUpKeys(String... memberIds) {
+            this.warmUpMemberIds = Arrays.asList(memberIds);
+            return (T) this;
+        }
+
+        /**
+         * Makes {@link #build} send a cheap call to the gateway when warming up, which also
+         * warms up the call path of the gateway itself.
+         *
+         * @return this builder instance
+         */
+        public T warmUpCall() {
+            this.warmUpCall = true;
+            return (T) this;
+        }
+
+        /**
+         * Makes {@link #build} load the keys of the given members from the key store, e.g.
+         * the members expected to be used first after a restart. Needs a
+         * {@link BulkKeyStore} set with {@link #withKeyStore}. The outcome is reported by
+         * {@link TokenClient#getPreloadReport}.
+         *
+         * @param memberIds member IDs
+         * @return this builder instance
+         */
+        public T preloadKeys(Collection<String> memberIds) {
+            this.preloadMemberIds = memberIds;
+            return (T) this;
+        }
+
+        /**
+         * Makes {@link #build} load the keys of all the members in the key store. Needs a
+         * {@link BulkKeyStore} set with {@link #withKeyStore}.
+         *
+         * @return this builder instance
+         */
+        public T preloadAllKeys() {
+            this.preloadAllMembers = true;
+            return (T) this;
+        }
+
+        /**
+         * Sets how many threads load keys when preloading. Defaults to 4.
+         *
+         * @param parallelism number of threads
+         * @return this builder instance
+         */
+        public T preloadParallelism(int parallelism) {
+            this.preloadParallelism = parallelism;
+            return (T) this;
+        }
+
+        /**
+         * Sets the listener notified of the progress of preloading keys.
+         *
+         * @param listener preload listener
+         * @return this builder instance
+         */
+        public T preloadListener(PreloadListener listener) {
+            this.preloadListener = listener;
+            return (T) this;
+        }
+
+        /**
+         * Sets the interceptor that compresses the requests of chosen methods, e.g. the ones
+         * with large payloads, and measures the compression ratio of every method.
+         *
+         * @param compression compression interceptor
+         * @return this builder instance
+         */
+        public T withCompression(CompressionInterceptor compression) {
+            this.compression = compression;
+            return (T) this;
+        }
+
+        /**
+         * Sets the store used to record transfer and token creations by refId. When set,
+         * retrying a creation with the same refId returns the resource created by the
+         * earlier attempt instead of submitting it again.
+         *
+         * @param idempotencyStore the idempotency store to use
+         * @return this builder instance
+         */
+        public T withIdempotencyStore(IdempotencyStore idempotencyStore) {
+            this.idempotencyStore = idempotencyStore;
+            return (T) this;
+        }
+
         /**
          * Builds and returns a new {@link TokenClient} instance.
          *
          * @return {@link TokenClient} instance
          */
         public TokenClient build() {
-            Metadata headers = getHeaders();
-            return new TokenClient(
-                    RpcChannelFactoryLite.getInstance()
-                            .builder(hostName, port, useSsl)
-                            .withTimeout(timeoutMs)
-                            .withMetadata(headers)
-                            .withClientSsl(sslConfig)
-                            .build(),
+            return configured(new TokenClient(
+                    buildChannel(),
                     cryptoEngine != null
                             ? cryptoEngine
                             : new TokenCryptoEngineFactory(new InMemoryKeyStore()),
-                    tokenCluster == null ? SANDBOX : tokenCluster);
+                    tokenCluster == null ? SANDBOX : tokenCluster,
+                    getIdempotencyLedger()));
+        }
+
+        /**
+         * Applies the settings that take effect on a newly built client: the shutdown
+         * timeout, the member registry, the interceptors that find the banks of calls, and
+         * the key preload and warm-up if the builder asks for them.
+         *
+         * @param client client
+         * @param <C> client type
+         * @return the client
+         */
+        protected <C extends TokenClient> C configured(C client) {
+            client.shutdownTimeoutMs = shutdownTimeoutMs;
+            client.memberRegistrySettings = memberRegistry;
+            client.bankResolver = bankResolver;
+            client.concurrencyLimiter = builtConcurrencyLimiter;
+            client.bankCircuitBreaker = builtBankCircuitBreaker;
+            if (preloadAllMembers || !preloadMemberIds.isEmpty()) {
+                client.preloadReport = preloadKeys();
+            }
+            if (warmUpTimeoutMs > 0 || !warmUpMemberIds.isEmpty() || warmUpCall) {
+                client.warmUp(
+                        warmUpTimeoutMs > 0 ? warmUpTimeoutMs : timeoutMs,
+                        warmUpMemberIds,
+                        warmUpCall);
+            }
+            return client;
+        }
+
+        private PreloadReport preloadKeys() {
+            if (!(keyStore instanceof BulkKeyStore)) {
+                throw new IllegalStateException(
+                        "Preloading keys needs a BulkKeyStore set with withKeyStore");
+            }
+            BulkKeyStore store = (BulkKeyStore) keyStore;
+            PreloadReport report = store.preload(
+                    preloadAllMembers ? store.listMembers() : preloadMemberIds,
+                    preloadParallelism,
+                    preloadListener);
+            logger.info(
+                    "Preloaded keys of {} members in {} ms: {}",
+                    report.getMemberCount(),
+                    report.getDurationMs(),
+                    report);
+            return report;
+        }
+
+        /**
+         * Builds the channel to the gateway, or to each of the gateway endpoints if several
+         * are set. Each call gets the deadline of its method, set per call; the channel-wide
+         * timeout is only an upper bound. Retries, if configured, happen within that deadline.
+         *
+         * @return channel
+         */
+        protected ManagedChannel buildChannel() {
+            DeadlinePolicy policy = deadlines.build(timeoutMs);
+            ManagedChannel channel;
+            if (endpoints.isEmpty()) {
+                channel = buildEndpointChannel(hostName, port, useSsl, policy);
+            } else {
+                FailoverChannel.Builder failover = FailoverChannel.builder()
+                        .probe(endpointProbeIntervalMs, endpointProbeTimeoutMs)
+                        .channelFactory(endpoint -> buildEndpointChannel(
+                                endpoint.getHostName(),
+                                endpoint.getPort(),
+                                endpoint.isUseSsl(),
+                                policy));
+                for (GatewayEndpoint endpoint : endpoints) {
+                    failover.endpoint(endpoint);
+                }
+                channel = failover.build();
+            }
+            // The last interceptor sees a call first: the deadline is set once for all the
+            // attempts, cached reads do not reach the gateway, identical reads share them,
+            // calls rejected by the circuit breaker are not retried, and each attempt is
+            // compressed and measured.
+            List<ClientInterceptor> interceptors = new ArrayList<>();
+            if (compression != null) {
+                interceptors.add(compression);
+            }
+            // The limiter and the circuit breaker share one resolver, so that the banks one
+            // of them learns, or the application records, apply to both.
+            builtConcurrencyLimiter = concurrencyLimiter != null
+                    ? concurrencyLimiter.bankResolver(bankResolver).build()
+                    : null;
+            builtBankCircuitBreaker = bankCircuitBreaker != null
+                    ? bankCircuitBreaker.bankResolver(bankResolver).build()
+                    : null;
+            if (builtConcurrencyLimiter != null) {
+                interceptors.add(builtConcurrencyLimiter);
+            }
+            if (retryPolicy != null) {
+                interceptors.add(new RetryInterceptor(retryPolicy));
+            }
+            if (builtBankCircuitBreaker != null) {
+                interceptors.add(builtBankCircuitBreaker);
+            }
+            if (requestCoalescer != null) {
+                interceptors.add(requestCoalescer);
+            }
+            if (accountCache != null) {
+                interceptors.add(accountCache);
+            }
+            interceptors.add(new DeadlineInterceptor(policy));
+            return InterceptedManagedChannel.intercept(
+                    channel,
+                    interceptors.toArray(new ClientInterceptor[0]));
+        }
+
+        private ManagedChannel buildEndpointChannel(
+                String hostName,
+                int port,
+                boolean useSsl,
+                DeadlinePolicy policy) {
+            return RpcChannelFactoryLite.getInstance()
+                    .builder(hostName, port, useSsl)
+                    .withTimeout(policy.maxTimeoutMs())
+                    .withMetadata(getHeaders())
+                    .withClientSsl(sslConfig)
+                    .build();
+        }
+
+        @Nullable
+        protected IdempotencyLedger getIdempotencyLedger() {
+            return idempotencyStore != null ? new IdempotencyLedger(idempotencyStore) : null;
         }
 
         protected Metadata getHeaders() {
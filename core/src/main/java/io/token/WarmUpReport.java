@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.List;
+
+/**
+ * The outcome of warming up a {@link TokenClient}: how long each step took before the
+ * client could serve calls at steady-state latency, and which steps failed. A failed step
+ * does not fail the warm-up; the client still works and pays for the step on first use.
+ */
+@AutoValue
+public abstract class WarmUpReport {
+    public static WarmUpReport create(
+            boolean ready,
+            long connectMs,
+            int keyCount,
+            long keysMs,
+            long callMs,
+            long totalMs,
+            List<String> failures) {
+        return new AutoValue_WarmUpReport(
+                ready,
+                connectMs,
+                keyCount,
+                keysMs,
+                callMs,
+                totalMs,
+                failures);
+    }
+
+    /**
+     * Get whether the channel to the gateway was ready when the warm-up ended.
+     *
+     * @return true if the channel was ready
+     */
+    public abstract boolean isReady();
+
+    /**
+     * Get the time it took to connect to the gateway, including name resolution and the
+     * TLS handshake.
+     *
+     * @return time in milliseconds, or the timeout if the channel did not get ready
+     */
+    public abstract long getConnectMs();
+
+    /**
+     * Get the number of member keys loaded. Expired keys are not loaded.
+     *
+     * @return key count
+     */
+    public abstract int getKeyCount();
+
+    /**
+     * Get the time it took to load the member keys and create their signers.
+     *
+     * @return time in milliseconds
+     */
+    public abstract long getKeysMs();
+
+    /**
+     * Get the time the warm-up call took.
+     *
+     * @return time in milliseconds, or -1 if no call was made
+     */
+    public abstract long getCallMs();
+
+    /**
+     * Get the time from the start of the warm-up until the client was handed out.
+     *
+     * @return readiness time in milliseconds
+     */
+    public abstract long getTotalMs();
+
+    /**
+     * Get the steps that failed, e.g. loading the keys of a member.
+     *
+     * @return descriptions of the failed steps, empty if all steps succeeded
+     */
+    public abstract List<String> getFailures();
+}
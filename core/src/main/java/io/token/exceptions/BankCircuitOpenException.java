@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.exceptions;
+
+/**
+ * Thrown when a call to a bank is not attempted because recent calls to the bank failed
+ * too often. Calls to the bank are tried again once the retry delay has passed.
+ */
+public class BankCircuitOpenException extends RuntimeException {
+    private final String bankId;
+    private final long retryAfterMs;
+
+    /**
+     * Creates an exception.
+     *
+     * @param bankId bank ID
+     * @param retryAfterMs time until calls to the bank are tried again
+     */
+    public BankCircuitOpenException(String bankId, long retryAfterMs) {
+        super("Calls to bank " + bankId + " are suspended for " + retryAfterMs + " ms");
+        this.bankId = bankId;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public String getBankId() {
+        return bankId;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.idempotency;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import io.token.exceptions.IdempotencyStoreException;
+import io.token.idempotency.IdempotencyRecord.Status;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * An {@link IdempotencyStore} that persists records in a single append-only file.
+ * <br>
+ * Every change is appended to the file as one line; the file is replayed into memory
+ * when the store is opened. A line that was only partially written (e.g. because the
+ * process crashed) is discarded on open. The file is rewritten with only the live records
+ * once it accumulates enough superseded lines.
+ * <br>
+ * Records of operations that succeeded or failed are kept for a retention period after
+ * their last update, 30 days by default, and dropped when the store is opened or compacted.
+ * Compaction runs at least every tenth of the retention period once the file has reached
+ * the compaction threshold. A retry is therefore only recognized as a duplicate within the
+ * retention period, and up to a tenth more, after its operation completed. Records of
+ * operations in flight are kept until they are resolved.
+ */
+public final class FileIdempotencyStore implements IdempotencyStore, Closeable {
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 10_000;
+    private static final long DEFAULT_RETENTION_MS = 30L * 24 * 60 * 60 * 1000;
+    private static final String REMOVED = "REMOVED";
+    private static final char SEPARATOR = '\t';
+    private static final char NEWLINE = '\n';
+
+    private final File file;
+    private final boolean sync;
+    private final int compactionThreshold;
+    private final long retentionMs;
+    private final Clock clock;
+    private final ConcurrentMap<String, IdempotencyRecord> records = new ConcurrentHashMap<>();
+    private FileOutputStream out;
+    private int lines;
+    private long nextPruneAtMs;
+
+    /**
+     * Opens a store backed by the given file, creating the file if it does not exist.
+     * Every write is synced to the storage device before returning.
+     *
+     * @param file the ledger file
+     */
+    public FileIdempotencyStore(File file) {
+        this(file, DEFAULT_RETENTION_MS);
+    }
+
+    /**
+     * Opens a store backed by the given file, creating the file if it does not exist.
+     * Every write is synced to the storage device before returning.
+     *
+     * @param file the ledger file
+     * @param retentionMs how long records of completed operations are kept, in milliseconds
+     */
+    public FileIdempotencyStore(File file, long retentionMs) {
+        this(file, true, DEFAULT_COMPACTION_THRESHOLD, retentionMs, new SystemTimeClock());
+    }
+
+    /**
+     * Opens a store backed by the given file, creating the file if it does not exist.
+     *
+     * @param file the ledger file
+     * @param sync whether to sync every write to the storage device before returning
+     * @param compactionThreshold minimum number of lines in the file before it is compacted
+     */
+    @VisibleForTesting
+    public FileIdempotencyStore(File file, boolean sync, int compactionThreshold) {
+        this(file, sync, compactionThreshold, DEFAULT_RETENTION_MS, new SystemTimeClock());
+    }
+
+    /**
+     * Opens a store backed by the given file, creating the file if it does not exist.
+     *
+     * @param file the ledger file
+     * @param sync whether to sync every write to the storage device before returning
+     * @param compactionThreshold minimum number of lines in the file before it is compacted
+     * @param retentionMs how long records of completed operations are kept, in milliseconds
+     * @param clock clock the age of records is measured with
+     */
+    @VisibleForTesting
+    public FileIdempotencyStore(
+            File file,
+            boolean sync,
+            int compactionThreshold,
+            long retentionMs,
+            Clock clock) {
+        Preconditions.checkArgument(compactionThreshold > 0, "compactionThreshold must be > 0");
+        Preconditions.checkArgument(retentionMs > 0, "retentionMs must be > 0");
+        this.file = file;
+        this.sync = sync;
+        this.compactionThreshold = compactionThreshold;
+        this.retentionMs = retentionMs;
+        this.clock = clock;
+        try {
+            replay();
+            if (prune()) {
+                rewrite();
+            }
+            this.out = new FileOutputStream(file, true);
+        } catch (IOException e) {
+            throw new IdempotencyStoreException("Failed to open idempotency ledger " + file, e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public IdempotencyRecord get(String key) {
+        return records.get(key);
+    }
+
+    @Override
+    public synchronized void put(IdempotencyRecord record) {
+        checkField(record.getKey());
+        if (record.getResultId() != null) {
+            checkField(record.getResultId());
+        }
+        append(encode(record));
+        records.put(record.getKey(), record);
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        if (records.remove(key) != null) {
+            append(key + SEPARATOR + REMOVED + SEPARATOR + SEPARATOR + 0 + NEWLINE);
+        }
+    }
+
+    /**
+     * Rewrites the ledger file so that it only contains the live records, dropping the
+     * records of operations that completed longer than the retention period ago.
+     */
+    public synchronized void compact() {
+        prune();
+        try {
+            try {
+                out.close();
+                rewrite();
+            } finally {
+                // Reopened even if the rewrite failed, so that later appends still work.
+                out = new FileOutputStream(file, true);
+            }
+        } catch (IOException e) {
+            throw new IdempotencyStoreException("Failed to compact idempotency ledger " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void append(String line) {
+        try {
+            out.write(line.getBytes(UTF_8));
+            if (sync) {
+                out.getFD().sync();
+            }
+        } catch (IOException e) {
+            throw new IdempotencyStoreException("Failed to write idempotency ledger " + file, e);
+        }
+        if (++lines >= compactionThreshold
+                && (lines > 2 * records.size() || clock.getTime() >= nextPruneAtMs)) {
+            compact();
+        }
+    }
+
+    /**
+     * Drops the records of operations that completed longer than the retention period ago.
+     *
+     * @return true if any record was dropped
+     */
+    private boolean prune() {
+        long now = clock.getTime();
+        boolean pruned = false;
+        Iterator<IdempotencyRecord> it = records.values().iterator();
+        while (it.hasNext()) {
+            IdempotencyRecord record = it.next();
+            if (record.getStatus() != Status.IN_FLIGHT
+                    && now - record.getUpdatedAtMs() > retentionMs) {
+                it.remove();
+                pruned = true;
+            }
+        }
+        nextPruneAtMs = now + retentionMs / 10;
+        return pruned;
+    }
+
+    private void rewrite() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream compacted = new FileOutputStream(tmp)) {
+            StringBuilder buffer = new StringBuilder();
+            for (IdempotencyRecord record : records.values()) {
+                buffer.append(encode(record));
+            }
+            compacted.write(buffer.toString().getBytes(UTF_8));
+            compacted.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        lines = records.size();
+    }
+
+    private void replay() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        int start = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == NEWLINE) {
+                apply(new String(data, start, i - start, UTF_8));
+                start = i + 1;
+                lines++;
+            }
+        }
+        if (start < data.length) {
+            // The last line was torn by a crash; drop it so that new lines start cleanly.
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(start);
+            }
+        }
+    }
+
+    private void apply(String line) {
+        String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length != 4) {
+            throw new IdempotencyStoreException("Corrupt idempotency ledger line: " + line);
+        }
+        if (fields[1].equals(REMOVED)) {
+            records.remove(fields[0]);
+            return;
+        }
+        records.put(fields[0], IdempotencyRecord.create(
+                fields[0],
+                Status.valueOf(fields[1]),
+                fields[2].isEmpty() ? null : fields[2],
+                Long.parseLong(fields[3])));
+    }
+
+    private static String encode(IdempotencyRecord record) {
+        return record.getKey()
+                + SEPARATOR + record.getStatus().name()
+                + SEPARATOR + (record.getResultId() == null ? "" : record.getResultId())
+                + SEPARATOR + record.getUpdatedAtMs()
+                + NEWLINE;
+    }
+
+    private static void checkField(String value) {
+        Preconditions.checkArgument(
+                value.indexOf(SEPARATOR) < 0 && value.indexOf(NEWLINE) < 0,
+                "Idempotency keys and result IDs must not contain tabs or newlines");
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.idempotency;
+
+import static io.grpc.Status.Code.CANCELLED;
+import static io.grpc.Status.Code.DEADLINE_EXCEEDED;
+import static io.grpc.Status.Code.UNAVAILABLE;
+import static io.grpc.Status.Code.UNKNOWN;
+import static io.token.idempotency.IdempotencyRecord.Status.FAILED;
+import static io.token.idempotency.IdempotencyRecord.Status.IN_FLIGHT;
+import static io.token.idempotency.IdempotencyRecord.Status.SUCCEEDED;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.grpc.StatusRuntimeException;
+import io.reactivex.Observable;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Makes retries of non-idempotent gateway calls safe by recording their outcome under
+ * a caller supplied key (typically the member ID and the refId).
+ * <br>
+ * A retry of a call that is known to have succeeded returns the previously created resource
+ * instead of submitting again. A retry of a call whose outcome is unknown (it timed out or
+ * the process died) first searches the gateway for the resource and only resubmits if it
+ * was not created. Concurrent submissions under the same key share a single gateway call.
+ */
+public final class IdempotencyLedger {
+    private final IdempotencyStore store;
+    private final Clock clock;
+    private final ConcurrentMap<String, Observable<?>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a ledger backed by the given store.
+     *
+     * @param store idempotency store
+     */
+    public IdempotencyLedger(IdempotencyStore store) {
+        this(store, new SystemTimeClock());
+    }
+
+    /**
+     * Creates a ledger backed by the given store.
+     *
+     * @param store idempotency store
+     * @param clock clock used to timestamp records
+     */
+    public IdempotencyLedger(IdempotencyStore store, Clock clock) {
+        this.store = store;
+        this.clock = clock;
+    }
+
+    /**
+     * Builds the idempotency key of an operation.
+     *
+     * @param memberId ID of the member performing the operation
+     * @param operation operation name, e.g. "transfer"
+     * @param refId caller supplied reference ID
+     * @return idempotency key
+     */
+    public static String key(String memberId, String operation, String refId) {
+        return memberId + "/" + operation + "/" + refId;
+    }
+
+    /**
+     * Executes an operation at most once per key.
+     *
+     * @param key idempotency key
+     * @param operation operation to execute
+     * @param <T> type of the created resource
+     * @return the created resource
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Observable<T> execute(final String key, final IdempotentOperation<T> operation) {
+        Observable<T> existing = (Observable<T>) inFlight.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        AtomicReference<Observable<T>> self = new AtomicReference<>();
+        Observable<T> shared = Observable
+                .defer(() -> resolve(key, operation))
+                .doFinally(() -> inFlight.remove(key, self.get()))
+                .cache();
+        self.set(shared);
+        existing = (Observable<T>) inFlight.putIfAbsent(key, shared);
+        return existing != null ? existing : shared;
+    }
+
+    /**
+     * Gets the recorded outcome for a key.
+     *
+     * @param key idempotency key
+     * @return the record, or null if the key has never been used
+     */
+    @Nullable
+    public IdempotencyRecord getRecord(String key) {
+        return store.get(key);
+    }
+
+    /**
+     * Forgets the outcome for a key, so that the next call under it is submitted again.
+     *
+     * @param key idempotency key
+     */
+    public void forget(String key) {
+        store.remove(key);
+    }
+
+    private <T> Observable<T> resolve(String key, IdempotentOperation<T> operation) {
+        IdempotencyRecord record = store.get(key);
+        if (record == null || record.getStatus() == FAILED) {
+            return submit(key, operation);
+        }
+        if (record.getStatus() == SUCCEEDED && record.getResultId() != null) {
+            return operation.fetch(record.getResultId());
+        }
+        return operation
+                .reconcile()
+                .take(1)
+                .doOnNext(result -> record(key, SUCCEEDED, operation.resultId(result)))
+                .switchIfEmpty(Observable.defer(() -> submit(key, operation)));
+    }
+
+    private <T> Observable<T> submit(String key, IdempotentOperation<T> operation) {
+        record(key, IN_FLIGHT, null);
+        return operation
+                .submit()
+                .doOnNext(result -> record(key, SUCCEEDED, operation.resultId(result)))
+                .doOnError(error -> {
+                    if (!isAmbiguous(error)) {
+                        record(key, FAILED, null);
+                    }
+                });
+    }
+
+    private void record(
+            String key,
+            IdempotencyRecord.Status status,
+            @Nullable String resultId) {
+        store.put(IdempotencyRecord.create(key, status, resultId, clock.getTime()));
+    }
+
+    /**
+     * Whether the error leaves the outcome of the call unknown: the request may or may not
+     * have been applied by the server.
+     */
+    private static boolean isAmbiguous(Throwable error) {
+        if (error instanceof TimeoutException) {
+            return true;
+        }
+        if (!(error instanceof StatusRuntimeException) && !(error instanceof StatusException)) {
+            return false;
+        }
+        Status.Code code = Status.fromThrowable(error).getCode();
+        return code == DEADLINE_EXCEEDED
+                || code == UNAVAILABLE
+                || code == CANCELLED
+                || code == UNKNOWN;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.idempotency;
+
+import com.google.auto.value.AutoValue;
+
+import javax.annotation.Nullable;
+
+/**
+ * The last known outcome of an operation submitted under an idempotency key.
+ */
+@AutoValue
+public abstract class IdempotencyRecord {
+    /**
+     * Outcome of an idempotent operation.
+     */
+    public enum Status {
+        /**
+         * The operation was submitted, but its outcome is not known yet. Either the call
+         * is still running or it ended ambiguously (e.g. timed out).
+         */
+        IN_FLIGHT,
+        /**
+         * The operation completed; the record holds the ID of the created resource.
+         */
+        SUCCEEDED,
+        /**
+         * The operation was rejected by the server and can be safely resubmitted.
+         */
+        FAILED
+    }
+
+    /**
+     * Creates a record.
+     *
+     * @param key idempotency key
+     * @param status operation status
+     * @param resultId ID of the created resource, if the operation succeeded
+     * @param updatedAtMs time of the last status change, in epoch milliseconds
+     * @return record
+     */
+    public static IdempotencyRecord create(
+            String key,
+            Status status,
+            @Nullable String resultId,
+            long updatedAtMs) {
+        return new AutoValue_IdempotencyRecord(key, status, resultId, updatedAtMs);
+    }
+
+    public abstract String getKey();
+
+    public abstract Status getStatus();
+
+    @Nullable
+    public abstract String getResultId();
+
+    public abstract long getUpdatedAtMs();
+}
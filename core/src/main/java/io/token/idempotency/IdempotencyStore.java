@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.idempotency;
+
+import io.token.exceptions.IdempotencyStoreException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Provides storage for {@link IdempotencyRecord}s.
+ */
+public interface IdempotencyStore {
+    /**
+     * Gets the record for a given idempotency key.
+     *
+     * @param key idempotency key
+     * @return the record, or null if the key has never been used
+     * @throws IdempotencyStoreException if an error is encountered while reading the record
+     */
+    @Nullable
+    IdempotencyRecord get(String key);
+
+    /**
+     * Puts a record into the storage, replacing any previous record for the same key.
+     *
+     * @param record record to store
+     * @throws IdempotencyStoreException if an error is encountered while storing the record
+     */
+    void put(IdempotencyRecord record);
+
+    /**
+     * Removes the record for a given idempotency key.
+     *
+     * @param key idempotency key
+     */
+    void remove(String key);
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.idempotency;
+
+import io.reactivex.Observable;
+
+/**
+ * A non-idempotent gateway call, e.g. a transfer or token creation, together with the
+ * lookups the {@link IdempotencyLedger} needs to recover its outcome on a retry.
+ *
+ * @param <T> type of the created resource
+ */
+public interface IdempotentOperation<T> {
+    /**
+     * Submits the operation to the gateway.
+     *
+     * @return the created resource
+     */
+    Observable<T> submit();
+
+    /**
+     * Extracts the ID of a created resource, used to look it up later.
+     *
+     * @param result the created resource
+     * @return resource ID
+     */
+    String resultId(T result);
+
+    /**
+     * Looks up a resource that was previously created by this operation.
+     *
+     * @param resultId resource ID
+     * @return the resource
+     */
+    Observable<T> fetch(String resultId);
+
+    /**
+     * Searches the gateway for a resource created by an earlier submission whose outcome
+     * is unknown, e.g. because the call timed out.
+     *
+     * @return the resource, or an empty observable if it was not created
+     */
+    Observable<T> reconcile();
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.idempotency;
+
+import io.reactivex.Observable;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.token.proto.PagedList;
+
+import javax.annotation.Nullable;
+
+/**
+ * Searches a paged gateway listing, e.g. the transfers of a token, for the first record
+ * matching a predicate. Used by {@link IdempotentOperation#reconcile()} implementations,
+ * where stopping at the first page would resubmit an operation that was in fact created.
+ */
+public final class PagedSearch {
+    private PagedSearch() {
+    }
+
+    /**
+     * Fetches pages, following the returned offsets, until a record matches or the
+     * listing is exhausted.
+     *
+     * @param pages fetches the page starting at an offset, null for the first page
+     * @param match predicate the record must satisfy
+     * @param <T> type of the records
+     * @return the first matching record, or an empty observable if none matches
+     */
+    public static <T> Observable<T> findFirst(
+            Function<String, Observable<PagedList<T, String>>> pages,
+            Predicate<T> match) {
+        return findFrom(null, pages, match);
+    }
+
+    private static <T> Observable<T> findFrom(
+            @Nullable String offset,
+            Function<String, Observable<PagedList<T, String>>> pages,
+            Predicate<T> match) {
+        return Observable.defer(() -> pages.apply(offset)).flatMap(page -> {
+            for (T record : page.getList()) {
+                if (match.test(record)) {
+                    return Observable.just(record);
+                }
+            }
+            String next = page.getOffset();
+            if (page.getList().isEmpty()
+                    || next == null
+                    || next.isEmpty()
+                    || next.equals(offset)) {
+                return Observable.<T>empty();
+            }
+            return findFrom(next, pages, match);
+        });
+    }
+}
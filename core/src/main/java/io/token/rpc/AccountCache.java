@@ -0,0 +1,673 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.grpc.Metadata.ASCII_STRING_MARSHALLER;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the accounts and balances read from the gateway, so that reads which can live with
+ * slightly old data are answered without a gateway call.
+ * <br>
+ * Responses are cached per member, on-behalf-of access token and signing key, so a read is
+ * only answered with data its caller was allowed to see. A read says how old the data it
+ * gets may be through its max staleness, see {@link Client#withMaxStaleness}; reads with
+ * no max staleness always go to the gateway and refresh the cache. A read answered with
+ * data older than the refresh-ahead share of its max staleness also refreshes the entry in
+ * the background, so that frequently read entries rarely expire.
+ * <br>
+ * Linking and unlinking accounts drop the cached data of the member, and creating a
+ * transfer drops its balances. The cached reads are indexed by member, so these only touch
+ * the entries of the member and reads of other members still in flight are still cached.
+ * Changes the client does not see, e.g. a transfer redeemed by another party, can be
+ * applied with {@link #invalidateAccount}.
+ */
+public final class AccountCache implements ClientInterceptor {
+    /**
+     * How old, in milliseconds, cached data returned to a call may be.
+     */
+    static final CallOptions.Key<Long> MAX_STALENESS_MS =
+            CallOptions.Key.createWithDefault("token-max-staleness-ms", null);
+
+    private static final Set<String> ACCOUNT_METHODS = ImmutableSet.of(
+            "GetAccount",
+            "GetAccounts");
+    private static final Set<String> BALANCE_METHODS = ImmutableSet.of(
+            "GetBalance",
+            "GetBalances");
+    private static final Set<String> ACCOUNT_CHANGING_METHODS = ImmutableSet.of(
+            "LinkAccounts",
+            "LinkAccountsOauth",
+            "UnlinkAccounts");
+    private static final Set<String> BALANCE_CHANGING_METHODS = ImmutableSet.of(
+            "CreateTransfer",
+            "CreateBulkTransfer");
+    private static final String ACCOUNT_ID_FIELD = "account_id";
+    private static final Metadata.Key<String> MEMBER_ID =
+            Metadata.Key.of("token-member-id", ASCII_STRING_MARSHALLER);
+    private static final Metadata.Key<String> ON_BEHALF_OF =
+            Metadata.Key.of("token-on-behalf-of", ASCII_STRING_MARSHALLER);
+    private static final Metadata.Key<String> KEY_ID =
+            Metadata.Key.of("token-key-id", ASCII_STRING_MARSHALLER);
+    /**
+     * Scope of the reads made through access tokens, which any member's changes may affect.
+     */
+    private static final String ON_BEHALF_OF_SCOPE = "*";
+
+    private final Cache<CacheKey, Entry> entries;
+    private final Cache<String, Scope> scopes;
+    private final long defaultMaxStalenessMs;
+    private final double refreshAheadRatio;
+    private final Clock clock;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private final AtomicLong totalHitAgeMs = new AtomicLong();
+    private final AtomicLong maxHitAgeMs = new AtomicLong();
+
+    private AccountCache(Builder builder) {
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(builder.maxEntries)
+                .<CacheKey, Entry>removalListener(this::onEntryRemoved)
+                .build();
+        // A member without cached reads keeps its scope until it is the least recently used
+        // one; dropping a scope drops the reads it indexes, so none escapes invalidation.
+        this.scopes = CacheBuilder.newBuilder()
+                .maximumSize(builder.maxEntries)
+                .<String, Scope>removalListener(this::onScopeRemoved)
+                .build();
+        this.defaultMaxStalenessMs = builder.defaultMaxStalenessMs;
+        this.refreshAheadRatio = builder.refreshAheadRatio;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * Creates a builder with the default settings.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> interceptCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions,
+            Channel next) {
+        if (method.getType() != MethodDescriptor.MethodType.UNARY) {
+            return next.newCall(method, callOptions);
+        }
+        String name = methodName(method.getFullMethodName());
+        if (ACCOUNT_METHODS.contains(name) || BALANCE_METHODS.contains(name)) {
+            return new CachedCall<>(method, callOptions, next);
+        }
+        if (ACCOUNT_CHANGING_METHODS.contains(name)) {
+            return new InvalidatingCall<>(method, callOptions, next, false);
+        }
+        if (BALANCE_CHANGING_METHODS.contains(name)) {
+            return new InvalidatingCall<>(method, callOptions, next, true);
+        }
+        return next.newCall(method, callOptions);
+    }
+
+    /**
+     * Drops the cached accounts and balances of a member. Reads made on behalf of other
+     * members through access tokens are dropped as well, since the cache does not know who
+     * granted the tokens.
+     *
+     * @param memberId member ID
+     */
+    public void invalidateMember(String memberId) {
+        invalidateScope(memberId, key -> true);
+        invalidateScope(ON_BEHALF_OF_SCOPE, key -> true);
+    }
+
+    /**
+     * Drops the cached data of an account, e.g. when notified that a transfer from it was
+     * redeemed. Cached account lists are dropped as well.
+     *
+     * @param accountId account ID
+     */
+    public void invalidateAccount(String accountId) {
+        invalidate(key -> key.accountIds.isEmpty() || key.accountIds.contains(accountId));
+    }
+
+    /**
+     * Drops all cached data.
+     */
+    public void invalidateAll() {
+        invalidate(key -> true);
+    }
+
+    /**
+     * Returns the number of reads answered from the cache.
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of reads sent to the gateway.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of background refreshes of entries that were about to expire.
+     *
+     * @return refresh count
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * Returns the number of entries dropped because the data they hold changed.
+     *
+     * @return invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Returns the mean age of the data returned by cache hits.
+     *
+     * @return mean age in milliseconds
+     */
+    public double getMeanHitAgeMs() {
+        long hits = hitCount.get();
+        return hits == 0 ? 0 : (double) totalHitAgeMs.get() / hits;
+    }
+
+    /**
+     * Returns the age of the oldest data returned by a cache hit.
+     *
+     * @return max age in milliseconds
+     */
+    public long getMaxHitAgeMs() {
+        return maxHitAgeMs.get();
+    }
+
+    private void invalidate(Predicate<CacheKey> predicate) {
+        generation.incrementAndGet();
+        for (CacheKey key : entries.asMap().keySet()) {
+            if (predicate.test(key) && entries.asMap().remove(key) != null) {
+                invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void invalidateScope(String name, Predicate<CacheKey> predicate) {
+        Scope scope = scopes.getIfPresent(name);
+        if (scope == null) {
+            // Reads still in flight hold a scope that is gone, and are not cached.
+            return;
+        }
+        scope.generation.incrementAndGet();
+        for (CacheKey key : scope.keys) {
+            if (predicate.test(key) && entries.asMap().remove(key) != null) {
+                invalidationCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void invalidateBalances(String memberId) {
+        Predicate<CacheKey> balances = key -> BALANCE_METHODS.contains(key.method);
+        invalidateScope(memberId, balances);
+        invalidateScope(ON_BEHALF_OF_SCOPE, balances);
+    }
+
+    private Generation generationOf(CacheKey key) {
+        Scope scope = scopes.getIfPresent(key.scope);
+        if (scope == null) {
+            Scope created = new Scope(key.scope);
+            scope = scopes.asMap().putIfAbsent(key.scope, created);
+            if (scope == null) {
+                scope = created;
+            }
+        }
+        return new Generation(scope, scope.generation.get(), generation.get());
+    }
+
+    private boolean store(CacheKey key, Object response, long storedAtMs, Generation from) {
+        // Data read before an invalidation may already be out of date.
+        if (!from.isCurrent()) {
+            return false;
+        }
+        Entry entry = new Entry(response, storedAtMs);
+        from.scope.keys.add(key);
+        entries.put(key, entry);
+        if (!from.isCurrent()) {
+            // Invalidated while storing.
+            entries.asMap().remove(key, entry);
+            return false;
+        }
+        return true;
+    }
+
+    private void onEntryRemoved(RemovalNotification<CacheKey, Entry> removal) {
+        if (removal.getCause() != RemovalCause.REPLACED) {
+            Scope scope = scopes.getIfPresent(removal.getKey().scope);
+            if (scope != null) {
+                scope.keys.remove(removal.getKey());
+            }
+        }
+    }
+
+    private void onScopeRemoved(RemovalNotification<String, Scope> removal) {
+        if (removal.getCause() != RemovalCause.REPLACED) {
+            for (CacheKey key : removal.getValue().keys) {
+                entries.invalidate(key);
+            }
+        }
+    }
+
+    private long maxStalenessMs(CallOptions callOptions) {
+        Long maxStalenessMs = callOptions.getOption(MAX_STALENESS_MS);
+        return maxStalenessMs != null ? maxStalenessMs : defaultMaxStalenessMs;
+    }
+
+    private static String methodName(String fullMethodName) {
+        return fullMethodName.substring(fullMethodName.lastIndexOf('/') + 1);
+    }
+
+    private static CacheKey keyOf(String method, Object request, Metadata headers) {
+        ByteString requestBytes = request instanceof Message
+                ? ((Message) request).toByteString()
+                : ByteString.copyFromUtf8(String.valueOf(request));
+        String memberId = headers.get(MEMBER_ID);
+        return new CacheKey(
+                method,
+                requestBytes,
+                memberId != null ? memberId : "",
+                headers.get(ON_BEHALF_OF),
+                headers.get(KEY_ID),
+                accountIdsOf(request));
+    }
+
+    private static Set<String> accountIdsOf(Object request) {
+        if (!(request instanceof Message)) {
+            return Collections.emptySet();
+        }
+        Message message = (Message) request;
+        FieldDescriptor field = message.getDescriptorForType().findFieldByName(ACCOUNT_ID_FIELD);
+        if (field == null || field.getJavaType() != FieldDescriptor.JavaType.STRING) {
+            return Collections.emptySet();
+        }
+        Set<String> accountIds = new HashSet<>();
+        if (field.isRepeated()) {
+            for (Object accountId : (List<?>) message.getField(field)) {
+                accountIds.add((String) accountId);
+            }
+        } else {
+            accountIds.add((String) message.getField(field));
+        }
+        return accountIds;
+    }
+
+    /**
+     * An account or balance read, answered from the cache when the cached data is recent
+     * enough.
+     */
+    private final class CachedCall<ReqT, ResT> extends DeferredCall<ReqT, ResT> {
+        private final Channel next;
+
+        private CachedCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions,
+                Channel next) {
+            super(method, callOptions, next);
+            this.next = next;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void onRequest(Metadata headers, ReqT request) {
+            CacheKey key = keyOf(methodName(getMethod().getFullMethodName()), request, headers);
+            long maxStalenessMs = maxStalenessMs(getCallOptions());
+            Entry entry = maxStalenessMs > 0 ? entries.getIfPresent(key) : null;
+            long now = clock.getTime();
+            if (entry == null || now - entry.storedAtMs > maxStalenessMs) {
+                missCount.incrementAndGet();
+                proceed(new Filling<>(getListener(), key, now));
+                return;
+            }
+            long ageMs = now - entry.storedAtMs;
+            // Keeps the scope of often read entries from being dropped.
+            scopes.getIfPresent(key.scope);
+            hitCount.incrementAndGet();
+            totalHitAgeMs.addAndGet(ageMs);
+            maxHitAgeMs.accumulateAndGet(ageMs, Math::max);
+            if (ageMs >= refreshAheadRatio * maxStalenessMs
+                    && entry.refreshing.compareAndSet(false, true)) {
+                refresh(key, entry, headers, request);
+            }
+            respond((ResT) entry.response);
+        }
+
+        private void refresh(CacheKey key, Entry entry, Metadata headers, ReqT request) {
+            refreshCount.incrementAndGet();
+            ClientCall<ReqT, ResT> call = next.newCall(getMethod(), getCallOptions());
+            long startedAtMs = clock.getTime();
+            Generation fromGeneration = generationOf(key);
+            call.start(new ClientCall.Listener<ResT>() {
+                private ResT response;
+
+                @Override
+                public void onMessage(ResT message) {
+                    this.response = message;
+                }
+
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    if (!status.isOk()
+                            || response == null
+                            || !store(key, response, startedAtMs, fromGeneration)) {
+                        entry.refreshing.set(false);
+                    }
+                }
+            }, headers);
+            call.request(2);
+            call.sendMessage(request);
+            call.halfClose();
+        }
+    }
+
+    /**
+     * Caches the response of a read sent to the gateway.
+     */
+    private final class Filling<ResT> extends SimpleForwardingClientCallListener<ResT> {
+        private final CacheKey key;
+        private final long startedAtMs;
+        private final Generation fromGeneration;
+        private ResT response;
+
+        private Filling(ClientCall.Listener<ResT> delegate, CacheKey key, long startedAtMs) {
+            super(delegate);
+            this.key = key;
+            this.startedAtMs = startedAtMs;
+            this.fromGeneration = generationOf(key);
+        }
+
+        @Override
+        public void onMessage(ResT message) {
+            this.response = message;
+            super.onMessage(message);
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            if (status.isOk() && response != null) {
+                store(key, response, startedAtMs, fromGeneration);
+            }
+            super.onClose(status, trailers);
+        }
+    }
+
+    /**
+     * A call that changes the accounts or balances of the member, dropping its cached data
+     * once it succeeded.
+     */
+    private final class InvalidatingCall<ReqT, ResT> extends DeferredCall<ReqT, ResT> {
+        private final boolean balancesOnly;
+
+        private InvalidatingCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions,
+                Channel next,
+                boolean balancesOnly) {
+            super(method, callOptions, next);
+            this.balancesOnly = balancesOnly;
+        }
+
+        @Override
+        protected void onRequest(Metadata headers, ReqT request) {
+            String memberId = headers.get(MEMBER_ID);
+            proceed(new SimpleForwardingClientCallListener<ResT>(getListener()) {
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    if (status.isOk() && memberId != null) {
+                        if (balancesOnly) {
+                            invalidateBalances(memberId);
+                        } else {
+                            invalidateMember(memberId);
+                        }
+                    }
+                    super.onClose(status, trailers);
+                }
+            });
+        }
+    }
+
+    /**
+     * The cached reads of a member, or of all members through access tokens.
+     */
+    private static final class Scope {
+        private final String name;
+        private final Set<CacheKey> keys = ConcurrentHashMap.newKeySet();
+        private final AtomicLong generation = new AtomicLong();
+
+        private Scope(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The invalidations a read started after; it is only cached if no invalidation of its
+     * scope or of all data happened since.
+     */
+    private final class Generation {
+        private final Scope scope;
+        private final long scopeGeneration;
+        private final long globalGeneration;
+
+        private Generation(Scope scope, long scopeGeneration, long globalGeneration) {
+            this.scope = scope;
+            this.scopeGeneration = scopeGeneration;
+            this.globalGeneration = globalGeneration;
+        }
+
+        private boolean isCurrent() {
+            return scope.generation.get() == scopeGeneration
+                    && generation.get() == globalGeneration
+                    && scopes.getIfPresent(scope.name) == scope;
+        }
+    }
+
+    /**
+     * Cached response of a read.
+     */
+    private static final class Entry {
+        private final Object response;
+        private final long storedAtMs;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(Object response, long storedAtMs) {
+            this.response = response;
+            this.storedAtMs = storedAtMs;
+        }
+    }
+
+    /**
+     * Identifies a read: the method and request, and who it is made by.
+     */
+    private static final class CacheKey {
+        private final String method;
+        private final ByteString request;
+        private final String memberId;
+        private final @Nullable String onBehalfOf;
+        private final @Nullable String keyId;
+        private final Set<String> accountIds;
+        private final String scope;
+        private final int hashCode;
+
+        private CacheKey(
+                String method,
+                ByteString request,
+                String memberId,
+                @Nullable String onBehalfOf,
+                @Nullable String keyId,
+                Set<String> accountIds) {
+            this.method = method;
+            this.request = request;
+            this.memberId = memberId;
+            this.onBehalfOf = onBehalfOf;
+            this.keyId = keyId;
+            this.accountIds = accountIds;
+            this.scope = onBehalfOf != null ? ON_BEHALF_OF_SCOPE : memberId;
+            this.hashCode = Objects.hash(method, request, memberId, onBehalfOf, keyId);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return hashCode == other.hashCode
+                    && method.equals(other.method)
+                    && request.equals(other.request)
+                    && memberId.equals(other.memberId)
+                    && Objects.equals(onBehalfOf, other.onBehalfOf)
+                    && Objects.equals(keyId, other.keyId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Builds an {@link AccountCache}.
+     */
+    public static final class Builder {
+        private long maxEntries = 10_000L;
+        private long defaultMaxStalenessMs;
+        private double refreshAheadRatio = 0.8;
+        private Clock clock = new SystemTimeClock();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets how many reads are cached at most; the least recently used ones are
+         * dropped first.
+         *
+         * @param maxEntries max number of cached reads
+         * @return this builder
+         */
+        public Builder maxEntries(long maxEntries) {
+            checkArgument(maxEntries > 0, "Max entries must be positive");
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets the max staleness of reads that do not set their own. Defaults to 0, i.e.
+         * such reads always go to the gateway.
+         *
+         * @param defaultMaxStalenessMs max staleness in milliseconds
+         * @return this builder
+         */
+        public Builder defaultMaxStaleness(long defaultMaxStalenessMs) {
+            checkArgument(defaultMaxStalenessMs >= 0, "Max staleness must not be negative");
+            this.defaultMaxStalenessMs = defaultMaxStalenessMs;
+            return this;
+        }
+
+        /**
+         * Sets the share of its max staleness after which a read answered from the cache
+         * refreshes the entry in the background.
+         *
+         * @param refreshAheadRatio share of the max staleness, between 0 and 1; 1 turns
+         *     refreshing ahead off
+         * @return this builder
+         */
+        public Builder refreshAhead(double refreshAheadRatio) {
+            checkArgument(refreshAheadRatio > 0 && refreshAheadRatio <= 1,
+                    "Refresh-ahead ratio must be in (0, 1]");
+            this.refreshAheadRatio = refreshAheadRatio;
+            return this;
+        }
+
+        /**
+         * Sets the clock, for testing.
+         *
+         * @param clock clock
+         * @return this builder
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Builds the cache.
+         *
+         * @return account cache
+         */
+        public AccountCache build() {
+            return new AccountCache(this);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.grpc.Status.Code.DEADLINE_EXCEEDED;
+import static io.grpc.Status.Code.INTERNAL;
+import static io.grpc.Status.Code.UNAVAILABLE;
+import static io.grpc.Status.Code.UNKNOWN;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import io.token.exceptions.BankCircuitOpenException;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Stops calling a bank whose recent calls failed too often.
+ * <br>
+ * Each bank has a circuit. While it is {@link State#CLOSED}, bank-backed calls go through
+ * and their outcomes are recorded. When the failure rate of the recent calls reaches the
+ * threshold, the circuit opens and calls to the bank fail right away with a
+ * {@link BankCircuitOpenException}. After the open duration, the circuit becomes
+ * {@link State#HALF_OPEN} and lets a few trial calls through: if they all succeed the
+ * circuit closes, otherwise it opens again.
+ * <br>
+ * The bank of a call is found by a {@link BankResolver}. Calls whose bank is not known
+ * are not affected. State changes are published through {@link #events()}.
+ */
+public final class BankCircuitBreaker implements ClientInterceptor {
+    /**
+     * State of a bank's circuit.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final double failureRateThreshold;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final long openDurationMs;
+    private final int halfOpenCalls;
+    private final Set<Status.Code> failureCodes;
+    private final Clock clock;
+    private final BankResolver banks;
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final Subject<BankCircuitEvent> events =
+            PublishSubject.<BankCircuitEvent>create().toSerialized();
+
+    private BankCircuitBreaker(Builder builder) {
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.windowSize = builder.windowSize;
+        this.minimumCalls = builder.minimumCalls;
+        this.openDurationMs = builder.openDurationMs;
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.failureCodes = Collections.unmodifiableSet(EnumSet.copyOf(builder.failureCodes));
+        this.clock = builder.clock;
+        this.banks = builder.banks;
+    }
+
+    /**
+     * Creates a new builder.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> interceptCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions,
+            Channel next) {
+        if (method.getType() != MethodDescriptor.MethodType.UNARY) {
+            return next.newCall(method, callOptions);
+        }
+        if (!BankResolver.isBankMethod(method.getFullMethodName())) {
+            return new LearningCall<>(next.newCall(method, callOptions));
+        }
+        return new GuardedCall<>(method, callOptions, next);
+    }
+
+    /**
+     * Returns the state changes of the circuits.
+     *
+     * @return observable of state changes
+     */
+    public Observable<BankCircuitEvent> events() {
+        return events;
+    }
+
+    /**
+     * Returns the state of a bank's circuit.
+     *
+     * @param bankId bank ID
+     * @return state
+     */
+    public State getState(String bankId) {
+        Circuit circuit = circuits.get(bankId);
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    /**
+     * Returns the state of each bank's circuit.
+     *
+     * @return states by bank ID
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new HashMap<>();
+        for (Map.Entry<String, Circuit> entry : circuits.entrySet()) {
+            states.put(entry.getKey(), entry.getValue().getState());
+        }
+        return Collections.unmodifiableMap(states);
+    }
+
+    /**
+     * Closes a bank's circuit, e.g. after the bank announced it is back.
+     *
+     * @param bankId bank ID
+     */
+    public void reset(String bankId) {
+        Circuit circuit = circuits.get(bankId);
+        if (circuit != null) {
+            publish(circuit.reset());
+        }
+    }
+
+    private Circuit circuitFor(String bankId) {
+        Circuit circuit = circuits.get(bankId);
+        return circuit != null
+                ? circuit
+                : circuits.computeIfAbsent(bankId, Circuit::new);
+    }
+
+    private void publish(@Nullable BankCircuitEvent event) {
+        if (event != null) {
+            events.onNext(event);
+        }
+    }
+
+    /**
+     * A call that is not bank-backed, only watched for the banks of accounts.
+     */
+    private final class LearningCall<ReqT, ResT> extends SimpleForwardingClientCall<ReqT, ResT> {
+        private LearningCall(ClientCall<ReqT, ResT> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void start(Listener<ResT> listener, Metadata headers) {
+            super.start(new SimpleForwardingClientCallListener<ResT>(listener) {
+                @Override
+                public void onMessage(ResT message) {
+                    banks.learn(message);
+                    super.onMessage(message);
+                }
+            }, headers);
+        }
+    }
+
+    /**
+     * A bank-backed call, rejected while its bank's circuit is open.
+     */
+    private final class GuardedCall<ReqT, ResT> extends DeferredCall<ReqT, ResT> {
+        private GuardedCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions,
+                Channel next) {
+            super(method, callOptions, next);
+        }
+
+        @Override
+        protected void onRequest(Metadata headers, ReqT request) {
+            String bankId = banks.bankOf(request);
+            if (bankId == null) {
+                proceed(getListener());
+                return;
+            }
+            Circuit circuit = circuitFor(bankId);
+            long retryAfterMs = circuit.tryAcquire();
+            if (retryAfterMs >= 0) {
+                reject(Status.UNAVAILABLE
+                        .withDescription("Circuit open for bank " + bankId)
+                        .withCause(new BankCircuitOpenException(bankId, retryAfterMs)));
+                return;
+            }
+            proceed(new SimpleForwardingClientCallListener<ResT>(getListener()) {
+                @Override
+                public void onMessage(ResT message) {
+                    banks.learn(message);
+                    super.onMessage(message);
+                }
+
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    circuit.onComplete(status);
+                    super.onClose(status, trailers);
+                }
+            });
+        }
+    }
+
+    /**
+     * The circuit of one bank, recording the outcomes of its recent calls in a ring.
+     */
+    private final class Circuit {
+        private final String bankId;
+        private final boolean[] failed = new boolean[windowSize];
+        private int recorded;
+        private int next;
+        private int failures;
+        private State state = State.CLOSED;
+        private long openedAtMs;
+        private int trialPermits;
+        private int trialSuccesses;
+
+        private Circuit(String bankId) {
+            this.bankId = bankId;
+        }
+
+        /**
+         * Takes a permit for a call.
+         *
+         * @return -1 if the call may go through, or the time until it may be tried again
+         */
+        private long tryAcquire() {
+            BankCircuitEvent event = null;
+            long retryAfterMs;
+            synchronized (this) {
+                long now = clock.getTime();
+                if (state == State.OPEN) {
+                    long openForMs = openedAtMs + openDurationMs - now;
+                    if (openForMs > 0) {
+                        return openForMs;
+                    }
+                    event = transition(State.HALF_OPEN, now);
+                    trialPermits = halfOpenCalls;
+                    trialSuccesses = 0;
+                }
+                if (state == State.CLOSED) {
+                    retryAfterMs = -1;
+                } else if (trialPermits > 0) {
+                    trialPermits--;
+                    retryAfterMs = -1;
+                } else {
+                    retryAfterMs = 0;
+                }
+            }
+            publish(event);
+            return retryAfterMs;
+        }
+
+        private void onComplete(Status status) {
+            BankCircuitEvent event = null;
+            synchronized (this) {
+                long now = clock.getTime();
+                if (status.getCode() == Status.Code.CANCELLED) {
+                    if (state == State.HALF_OPEN) {
+                        trialPermits++;
+                    }
+                    return;
+                }
+                boolean failure = failureCodes.contains(status.getCode());
+                if (state == State.HALF_OPEN) {
+                    if (failure) {
+                        event = open(now);
+                    } else if (++trialSuccesses >= halfOpenCalls) {
+                        clear();
+                        event = transition(State.CLOSED, now);
+                    }
+                } else if (state == State.CLOSED) {
+                    record(failure);
+                    if (recorded >= minimumCalls && failureRate() >= failureRateThreshold) {
+                        event = open(now);
+                    }
+                }
+            }
+            publish(event);
+        }
+
+        @Nullable
+        private synchronized BankCircuitEvent reset() {
+            clear();
+            return state == State.CLOSED ? null : transition(State.CLOSED, clock.getTime());
+        }
+
+        private synchronized State getState() {
+            return state;
+        }
+
+        private void record(boolean failure) {
+            if (recorded == windowSize && failed[next]) {
+                failures--;
+            }
+            failed[next] = failure;
+            if (failure) {
+                failures++;
+            }
+            next = (next + 1) % windowSize;
+            recorded = Math.min(recorded + 1, windowSize);
+        }
+
+        private double failureRate() {
+            return recorded == 0 ? 0 : (double) failures / recorded;
+        }
+
+        private void clear() {
+            recorded = 0;
+            next = 0;
+            failures = 0;
+        }
+
+        private BankCircuitEvent open(long now) {
+            openedAtMs = now;
+            return transition(State.OPEN, now);
+        }
+
+        private BankCircuitEvent transition(State newState, long now) {
+            BankCircuitEvent event = BankCircuitEvent.create(
+                    bankId,
+                    state,
+                    newState,
+                    failureRate(),
+                    now);
+            state = newState;
+            return event;
+        }
+    }
+
+    /**
+     * Builds a {@link BankCircuitBreaker}.
+     */
+    public static final class Builder {
+        private double failureRateThreshold = 0.5;
+        private int windowSize = 50;
+        private int minimumCalls = 20;
+        private long openDurationMs = 30_000L;
+        private int halfOpenCalls = 3;
+        private final Set<Status.Code> failureCodes =
+                EnumSet.of(UNAVAILABLE, DEADLINE_EXCEEDED, INTERNAL, UNKNOWN);
+        private Clock clock = new SystemTimeClock();
+        private BankResolver banks = new BankResolver();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the failure rate at which a circuit opens.
+         *
+         * @param failureRateThreshold failure rate between 0 and 1
+         * @return this builder
+         */
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            checkArgument(failureRateThreshold > 0 && failureRateThreshold <= 1,
+                    "Failure rate threshold must be in (0, 1]");
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * Sets how many recent calls the failure rate is computed from.
+         *
+         * @param windowSize number of recent calls a circuit remembers
+         * @param minimumCalls number of calls needed before a circuit can open
+         * @return this builder
+         */
+        public Builder window(int windowSize, int minimumCalls) {
+            checkArgument(minimumCalls >= 1 && minimumCalls <= windowSize,
+                    "Minimum calls must be between 1 and the window size");
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * Sets how long a circuit stays open before trial calls are let through.
+         *
+         * @param openDurationMs open duration in milliseconds
+         * @return this builder
+         */
+        public Builder openDuration(long openDurationMs) {
+            checkArgument(openDurationMs > 0, "Open duration must be positive");
+            this.openDurationMs = openDurationMs;
+            return this;
+        }
+
+        /**
+         * Sets how many trial calls a half-open circuit lets through; all of them have to
+         * succeed for the circuit to close.
+         *
+         * @param halfOpenCalls number of trial calls
+         * @return this builder
+         */
+        public Builder halfOpenCalls(int halfOpenCalls) {
+            checkArgument(halfOpenCalls >= 1, "At least one trial call is needed");
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        /**
+         * Sets the status codes that count as failures of the bank. Other statuses count
+         * as successes, since the bank answered.
+         *
+         * @param codes failure status codes
+         * @return this builder
+         */
+        public Builder failOn(Status.Code... codes) {
+            checkArgument(codes.length > 0, "At least one status code is needed");
+            this.failureCodes.clear();
+            Collections.addAll(this.failureCodes, codes);
+            return this;
+        }
+
+        /**
+         * Sets the clock, for testing.
+         *
+         * @param clock clock
+         * @return this builder
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Sets the resolver that finds the bank of a call, e.g. one shared with the other
+         * interceptors of the channel, so that the banks they learn apply to all of them.
+         *
+         * @param banks bank resolver
+         * @return this builder
+         */
+        public Builder bankResolver(BankResolver banks) {
+            this.banks = banks;
+            return this;
+        }
+
+        /**
+         * Builds the circuit breaker.
+         *
+         * @return circuit breaker
+         */
+        public BankCircuitBreaker build() {
+            return new BankCircuitBreaker(this);
+        }
+    }
+}
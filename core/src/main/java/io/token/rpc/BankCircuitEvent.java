@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import com.google.auto.value.AutoValue;
+import io.token.rpc.BankCircuitBreaker.State;
+
+/**
+ * A change of the state of a bank's circuit in a {@link BankCircuitBreaker}.
+ */
+@AutoValue
+public abstract class BankCircuitEvent {
+    public static BankCircuitEvent create(
+            String bankId,
+            State previousState,
+            State state,
+            double failureRate,
+            long timeMs) {
+        return new AutoValue_BankCircuitEvent(bankId, previousState, state, failureRate, timeMs);
+    }
+
+    /**
+     * Get the bank ID.
+     *
+     * @return bank ID
+     */
+    public abstract String getBankId();
+
+    /**
+     * Get the state before the change.
+     *
+     * @return previous state
+     */
+    public abstract State getPreviousState();
+
+    /**
+     * Get the new state.
+     *
+     * @return state
+     */
+    public abstract State getState();
+
+    /**
+     * Get the failure rate of the recent calls to the bank when the state changed.
+     *
+     * @return failure rate between 0 and 1
+     */
+    public abstract double getFailureRate();
+
+    /**
+     * Get the time of the change.
+     *
+     * @return time in epoch milliseconds
+     */
+    public abstract long getTimeMs();
+}
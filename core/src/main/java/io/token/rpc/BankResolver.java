@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import io.token.proto.common.account.AccountProtos.Account;
+import io.token.proto.common.token.TokenProtos.TokenRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Finds the bank a gateway call goes to.
+ * <br>
+ * Requests name their bank directly through a bank ID, or indirectly through an account or
+ * a token request. The banks of accounts and token requests are learned from the gateway
+ * responses that carry them, e.g. the accounts returned when listing or linking accounts.
+ * One resolver can be shared by several interceptors, which then learn banks for each other.
+ */
+public final class BankResolver {
+    /**
+     * Gateway methods whose outcome depends on the bank.
+     */
+    static final Set<String> BANK_METHODS = ImmutableSet.of(
+            "GetBalance",
+            "GetBalances",
+            "GetTransaction",
+            "GetTransactions",
+            "GetStandingOrder",
+            "GetStandingOrders",
+            "LinkAccounts",
+            "LinkAccountsOauth",
+            "CreateTransfer",
+            "CreateBulkTransfer",
+            "CreateStandingOrder",
+            "ConfirmFunds",
+            "ResolveTransferDestinations",
+            "InitiateBankAuthorization");
+
+    private static final String BANK_ID_FIELD = "bank_id";
+    private static final String ACCOUNT_ID_FIELD = "account_id";
+    private static final String TOKEN_REQUEST_ID_FIELD = "token_request_id";
+    private static final long MAX_ENTRIES = 100_000L;
+
+    private final Cache<String, String> accountBanks = newCache();
+    private final Cache<String, String> tokenRequestBanks = newCache();
+
+    /**
+     * Checks whether a gateway method depends on the bank.
+     *
+     * @param fullMethodName full gRPC method name or the bare method name
+     * @return true if the call reaches the bank
+     */
+    public static boolean isBankMethod(String fullMethodName) {
+        return BANK_METHODS.contains(
+                fullMethodName.substring(fullMethodName.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Records the bank of an account, for accounts not seen in a gateway response.
+     *
+     * @param accountId account ID
+     * @param bankId bank ID
+     */
+    public void learnAccountBank(String accountId, String bankId) {
+        accountBanks.put(accountId, bankId);
+    }
+
+    /**
+     * Returns the bank a request goes to.
+     *
+     * @param request request message
+     * @return bank ID, or null if not known
+     */
+    @Nullable
+    public String bankOf(Object request) {
+        if (!(request instanceof Message)) {
+            return null;
+        }
+        Message message = (Message) request;
+        String bankId = stringField(message, BANK_ID_FIELD);
+        if (bankId != null) {
+            return bankId;
+        }
+        String accountId = stringField(message, ACCOUNT_ID_FIELD);
+        if (accountId != null) {
+            return accountBanks.getIfPresent(accountId);
+        }
+        String tokenRequestId = stringField(message, TOKEN_REQUEST_ID_FIELD);
+        return tokenRequestId != null ? tokenRequestBanks.getIfPresent(tokenRequestId) : null;
+    }
+
+    /**
+     * Learns the banks of the accounts and token requests in a response.
+     *
+     * @param response response message
+     */
+    public void learn(Object response) {
+        if (!(response instanceof Message)) {
+            return;
+        }
+        for (Map.Entry<FieldDescriptor, Object> field
+                : ((Message) response).getAllFields().entrySet()) {
+            FieldDescriptor descriptor = field.getKey();
+            if (descriptor.getJavaType() != FieldDescriptor.JavaType.MESSAGE) {
+                continue;
+            }
+            Descriptor type = descriptor.getMessageType();
+            if (type != Account.getDescriptor() && type != TokenRequest.getDescriptor()) {
+                continue;
+            }
+            if (descriptor.isRepeated()) {
+                for (Object value : (List<?>) field.getValue()) {
+                    learnValue(value);
+                }
+            } else {
+                learnValue(field.getValue());
+            }
+        }
+    }
+
+    private void learnValue(Object value) {
+        if (value instanceof Account) {
+            Account account = (Account) value;
+            put(accountBanks, account.getId(), account.getBankId());
+        } else if (value instanceof TokenRequest) {
+            TokenRequest tokenRequest = (TokenRequest) value;
+            put(tokenRequestBanks,
+                    tokenRequest.getId(),
+                    tokenRequest.getRequestOptions().getBankId());
+        }
+    }
+
+    private static void put(Cache<String, String> cache, String id, String bankId) {
+        if (!id.isEmpty() && !bankId.isEmpty()) {
+            cache.put(id, bankId);
+        }
+    }
+
+    @Nullable
+    private static String stringField(Message message, String name) {
+        FieldDescriptor field = message.getDescriptorForType().findFieldByName(name);
+        if (field == null || field.getJavaType() != FieldDescriptor.JavaType.STRING) {
+            return null;
+        }
+        Object value;
+        if (field.isRepeated()) {
+            value = message.getRepeatedFieldCount(field) > 0
+                    ? message.getRepeatedField(field, 0)
+                    : null;
+        } else {
+            value = message.getField(field);
+        }
+        return value == null || ((String) value).isEmpty() ? null : (String) value;
+    }
+
+    private static Cache<String, String> newCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(MAX_ENTRIES)
+                .build();
+    }
+}
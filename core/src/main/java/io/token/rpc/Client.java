@@ -31,12 +31,14 @@ import static io.token.proto.common.token.TokenProtos.TokenSignature.Action.ENDO
 import static io.token.rpc.util.Converters.toCompletable;
 import static io.token.util.Util.toObservable;
 
+import io.grpc.Deadline;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.functions.Function;
 import io.token.exceptions.BankAuthorizationRequiredException;
 import io.token.exceptions.RequestException;
 import io.token.exceptions.StepUpRequiredException;
+import io.token.idempotency.IdempotencyLedger;
 import io.token.proto.PagedList;
 import io.token.proto.banklink.Banklink.OauthBankAuthorization;
 import io.token.proto.common.account.AccountProtos.Account;
@@ -119,6 +121,7 @@ public class Client {
     protected final String memberId;
     protected final CryptoEngine crypto;
     protected final GatewayProvider gateway;
+    protected final @Nullable IdempotencyLedger idempotencyLedger;
     protected boolean customerInitiated = false;
     protected CustomerTrackingMetadata customerTrackingMetadata = CustomerTrackingMetadata
             .getDefaultInstance();
@@ -131,9 +134,64 @@ public class Client {
      * @param gateway gateway gRPC stub
      */
     protected Client(String memberId, CryptoEngine crypto, GatewayProvider gateway) {
+        this(memberId, crypto, gateway, null);
+    }
+
+    /**
+     * Creates a client instance.
+     *
+     * @param memberId member id
+     * @param crypto the crypto engine used to sign for authentication, request payloads, etc
+     * @param gateway gateway gRPC stub
+     * @param idempotencyLedger ledger used to make retries of non-idempotent calls safe,
+     *     or null to submit every call as is
+     */
+    protected Client(
+            String memberId,
+            CryptoEngine crypto,
+            GatewayProvider gateway,
+            @Nullable IdempotencyLedger idempotencyLedger) {
         this.memberId = memberId;
         this.crypto = crypto;
         this.gateway = gateway;
+        this.idempotencyLedger = idempotencyLedger;
+    }
+
+    /**
+     * Creates a new instance whose calls all share the given deadline, instead of getting
+     * the deadline of their method. Calls chained inside one operation, e.g. fetching the
+     * member before updating it, then draw from a single budget.
+     *
+     * @param deadline deadline of the calls
+     * @return new client instance
+     */
+    public Client withDeadline(Deadline deadline) {
+        Client updated = new Client(
+                memberId,
+                crypto,
+                withDeadline(gateway, deadline),
+                idempotencyLedger);
+        updated.customerInitiated = customerInitiated;
+        updated.customerTrackingMetadata = customerTrackingMetadata;
+        return updated;
+    }
+
+    /**
+     * Creates a clone of this client whose account and balance reads accept cached data up
+     * to the given age, if the channel has an {@link AccountCache}.
+     *
+     * @param maxStalenessMs max age of cached data in milliseconds
+     * @return new client instance
+     */
+    public Client withMaxStaleness(long maxStalenessMs) {
+        Client updated = new Client(
+                memberId,
+                crypto,
+                withMaxStaleness(gateway, maxStalenessMs),
+                idempotencyLedger);
+        updated.customerInitiated = customerInitiated;
+        updated.customerTrackingMetadata = customerTrackingMetadata;
+        return updated;
     }
 
     /**
@@ -712,6 +770,32 @@ public class Client {
         return memberId.hashCode();
     }
 
+    /**
+     * Wraps a gateway provider so that every stub it returns carries a deadline.
+     *
+     * @param gateway gateway provider
+     * @param deadline deadline of the calls
+     * @return gateway provider
+     */
+    protected static GatewayProvider withDeadline(GatewayProvider gateway, Deadline deadline) {
+        return context -> gateway.withAuthentication(context).withDeadline(deadline);
+    }
+
+    /**
+     * Wraps a gateway provider so that the reads made through it accept cached data up to
+     * the given age.
+     *
+     * @param gateway gateway provider
+     * @param maxStalenessMs max age of cached data in milliseconds
+     * @return gateway provider
+     */
+    protected static GatewayProvider withMaxStaleness(
+            GatewayProvider gateway,
+            long maxStalenessMs) {
+        return context -> gateway.withAuthentication(context)
+                .withOption(AccountCache.MAX_STALENESS_MS, maxStalenessMs);
+    }
+
     protected AuthenticationContext authenticationContext() {
         return AuthenticationContext.create(
                 null,
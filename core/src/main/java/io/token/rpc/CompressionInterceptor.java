@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.MessageLite;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientStreamTracer;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Compresses the requests of chosen gateway methods, and measures how well the requests and
+ * responses of every method compress.
+ * <br>
+ * A request is compressed with the codec of its method, unless it is smaller than the size
+ * threshold, where compressing costs more than it saves. By default only the methods that
+ * upload large requests are compressed; with a default codec, every request over the
+ * threshold is. Responses are compressed by the gateway with a codec the client accepts;
+ * gRPC advertises gzip by default.
+ * <br>
+ * Requests are compressed with gzip only: the SDK builds its channels with the default
+ * compressor registry, which has no other codec every gateway understands.
+ */
+public final class CompressionInterceptor implements ClientInterceptor {
+    /**
+     * The gzip codec, known to every gRPC client and server.
+     */
+    public static final String GZIP = "gzip";
+    private static final String IDENTITY = "identity";
+
+    /**
+     * Gateway methods with large requests, compressed by default. Reads have small requests
+     * and only gain from response compression, which is up to the gateway.
+     */
+    static final Set<String> LARGE_REQUEST_METHODS = ImmutableSet.of(
+            "CreateBlob",
+            "CreateBulkTransfer");
+
+    private final Map<String, String> codecs;
+    private final @Nullable String defaultCodec;
+    private final int thresholdBytes;
+    private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<>();
+
+    private CompressionInterceptor(Builder builder) {
+        this.codecs = ImmutableMap.copyOf(builder.codecs);
+        this.defaultCodec = builder.defaultCodec;
+        this.thresholdBytes = builder.thresholdBytes;
+    }
+
+    /**
+     * Creates a builder that compresses the large request methods with gzip.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> interceptCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions,
+            Channel next) {
+        String fullMethodName = method.getFullMethodName();
+        Counters methodCounters = counters.computeIfAbsent(fullMethodName, name -> new Counters());
+        CallOptions options = callOptions.withStreamTracerFactory(methodCounters);
+        String codec = codecOf(fullMethodName);
+        if (codec == null) {
+            return next.newCall(method, options);
+        }
+        return new SimpleForwardingClientCall<ReqT, ResT>(
+                next.newCall(method, options.withCompression(codec))) {
+            @Override
+            public void sendMessage(ReqT message) {
+                setMessageCompression(!(message instanceof MessageLite)
+                        || ((MessageLite) message).getSerializedSize() >= thresholdBytes);
+                super.sendMessage(message);
+            }
+        };
+    }
+
+    /**
+     * Returns the bytes sent and received per gateway method, before and after compression.
+     *
+     * @return compression stats by full gRPC method name
+     */
+    public Map<String, CompressionStats> getStats() {
+        Map<String, CompressionStats> stats = new HashMap<>();
+        counters.forEach((method, methodCounters) -> stats.put(method, methodCounters.stats()));
+        return stats;
+    }
+
+    /**
+     * Returns the bytes sent and received by all gateway methods, before and after
+     * compression.
+     *
+     * @return compression stats
+     */
+    public CompressionStats getTotalStats() {
+        long requestBytes = 0;
+        long requestWireBytes = 0;
+        long responseBytes = 0;
+        long responseWireBytes = 0;
+        for (Counters methodCounters : counters.values()) {
+            requestBytes += methodCounters.requestBytes.get();
+            requestWireBytes += methodCounters.requestWireBytes.get();
+            responseBytes += methodCounters.responseBytes.get();
+            responseWireBytes += methodCounters.responseWireBytes.get();
+        }
+        return CompressionStats.create(
+                requestBytes,
+                requestWireBytes,
+                responseBytes,
+                responseWireBytes);
+    }
+
+    @Nullable
+    private String codecOf(String fullMethodName) {
+        String codec = codecs.get(fullMethodName.substring(fullMethodName.lastIndexOf('/') + 1));
+        if (codec == null) {
+            return defaultCodec;
+        }
+        return codec.equals(IDENTITY) ? null : codec;
+    }
+
+    /**
+     * Byte counts of one method, fed by a stream tracer on each of its calls.
+     */
+    private static final class Counters extends ClientStreamTracer.Factory {
+        private final AtomicLong requestBytes = new AtomicLong();
+        private final AtomicLong requestWireBytes = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+        private final AtomicLong responseWireBytes = new AtomicLong();
+
+        @Override
+        public ClientStreamTracer newClientStreamTracer(
+                ClientStreamTracer.StreamInfo info,
+                Metadata headers) {
+            return new ClientStreamTracer() {
+                @Override
+                public void outboundUncompressedSize(long bytes) {
+                    requestBytes.addAndGet(bytes);
+                }
+
+                @Override
+                public void outboundWireSize(long bytes) {
+                    requestWireBytes.addAndGet(bytes);
+                }
+
+                @Override
+                public void inboundUncompressedSize(long bytes) {
+                    responseBytes.addAndGet(bytes);
+                }
+
+                @Override
+                public void inboundWireSize(long bytes) {
+                    responseWireBytes.addAndGet(bytes);
+                }
+            };
+        }
+
+        private CompressionStats stats() {
+            return CompressionStats.create(
+                    requestBytes.get(),
+                    requestWireBytes.get(),
+                    responseBytes.get(),
+                    responseWireBytes.get());
+        }
+    }
+
+    /**
+     * Builds a {@link CompressionInterceptor}.
+     */
+    public static final class Builder {
+        private final Map<String, String> codecs = new HashMap<>();
+        private @Nullable String defaultCodec;
+        private int thresholdBytes = 1024;
+
+        private Builder() {
+            for (String method : LARGE_REQUEST_METHODS) {
+                codecs.put(method, GZIP);
+            }
+        }
+
+        /**
+         * Sets the codec the requests of a method are compressed with.
+         *
+         * @param method gateway method name, e.g. {@code GetTransactions}
+         * @param codec codec name, e.g. {@link #GZIP}
+         * @return this builder
+         */
+        public Builder compress(String method, String codec) {
+            codecs.put(method, codec);
+            return this;
+        }
+
+        /**
+         * Sends the requests of a method uncompressed, even when a default codec is set.
+         *
+         * @param method gateway method name
+         * @return this builder
+         */
+        public Builder noCompression(String method) {
+            codecs.put(method, IDENTITY);
+            return this;
+        }
+
+        /**
+         * Sets the codec used for the methods without a codec of their own.
+         *
+         * @param codec codec name, or null not to compress them
+         * @return this builder
+         */
+        public Builder defaultCodec(@Nullable String codec) {
+            this.defaultCodec = codec;
+            return this;
+        }
+
+        /**
+         * Sets the size under which requests are sent uncompressed.
+         *
+         * @param thresholdBytes size threshold in bytes
+         * @return this builder
+         */
+        public Builder threshold(int thresholdBytes) {
+            checkArgument(thresholdBytes >= 0, "Threshold must not be negative");
+            this.thresholdBytes = thresholdBytes;
+            return this;
+        }
+
+        /**
+         * Builds the interceptor.
+         *
+         * @return compression interceptor
+         */
+        public CompressionInterceptor build() {
+            checkState(defaultCodec == null || isKnown(defaultCodec),
+                    "Unknown codec: %s", defaultCodec);
+            for (String codec : codecs.values()) {
+                checkState(isKnown(codec), "Unknown codec: %s", codec);
+            }
+            return new CompressionInterceptor(this);
+        }
+
+        private boolean isKnown(String codec) {
+            return codec.equals(IDENTITY) || codec.equals(GZIP);
+        }
+    }
+}
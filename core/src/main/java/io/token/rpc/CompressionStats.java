@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * The bytes a gateway method sent and received, before and after compression.
+ */
+@AutoValue
+public abstract class CompressionStats {
+    public static CompressionStats create(
+            long requestBytes,
+            long requestWireBytes,
+            long responseBytes,
+            long responseWireBytes) {
+        return new AutoValue_CompressionStats(
+                requestBytes,
+                requestWireBytes,
+                responseBytes,
+                responseWireBytes);
+    }
+
+    /**
+     * Get the size of the requests before compression.
+     *
+     * @return size in bytes
+     */
+    public abstract long getRequestBytes();
+
+    /**
+     * Get the size of the requests as sent.
+     *
+     * @return size in bytes
+     */
+    public abstract long getRequestWireBytes();
+
+    /**
+     * Get the size of the responses after decompression.
+     *
+     * @return size in bytes
+     */
+    public abstract long getResponseBytes();
+
+    /**
+     * Get the size of the responses as received.
+     *
+     * @return size in bytes
+     */
+    public abstract long getResponseWireBytes();
+
+    /**
+     * Get how much smaller the requests were on the wire.
+     *
+     * @return uncompressed size divided by the wire size, or 1 if nothing was sent
+     */
+    public double getRequestRatio() {
+        return ratio(getRequestBytes(), getRequestWireBytes());
+    }
+
+    /**
+     * Get how much smaller the responses were on the wire.
+     *
+     * @return uncompressed size divided by the wire size, or 1 if nothing was received
+     */
+    public double getResponseRatio() {
+        return ratio(getResponseBytes(), getResponseWireBytes());
+    }
+
+    private static double ratio(long bytes, long wireBytes) {
+        return wireBytes == 0 ? 1 : (double) bytes / wireBytes;
+    }
+}
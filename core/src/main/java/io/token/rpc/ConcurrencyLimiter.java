@@ -0,0 +1,449 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.grpc.Metadata.ASCII_STRING_MARSHALLER;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Limits the gateway calls in flight per bank and per member, adapting each limit to the
+ * latency and overload errors observed, so that a degraded bank cannot pile up calls on
+ * the shared channel and stall the calls to other banks.
+ * <br>
+ * The bank of a call is found by a {@link BankResolver}; the member is the authenticated
+ * member. A call that would exceed a limit fails right away
+ * with RESOURCE_EXHAUSTED. The limits of members that made no call for a while are
+ * dropped, and so are the least recently used ones beyond a maximum number of members.
+ */
+public final class ConcurrencyLimiter implements ClientInterceptor {
+    private static final Metadata.Key<String> MEMBER_ID_KEY =
+            Metadata.Key.of("token-member-id", ASCII_STRING_MARSHALLER);
+
+    private final @Nullable LimitSettings bankSettings;
+    private final @Nullable LimitSettings memberSettings;
+    private final ConcurrentMap<String, ConcurrencyLimit> bankLimits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrencyLimit> memberLimits;
+    private final BankResolver banks;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private ConcurrencyLimiter(Builder builder) {
+        this.bankSettings = builder.settings(builder.bankLimits);
+        this.memberSettings = builder.settings(builder.memberLimits);
+        this.banks = builder.banks;
+        this.memberLimits = CacheBuilder.newBuilder()
+                .maximumSize(builder.maxMembers)
+                .expireAfterAccess(builder.memberIdleMs, MILLISECONDS)
+                .ticker(builder.ticker)
+                .<String, ConcurrencyLimit>build()
+                .asMap();
+    }
+
+    /**
+     * Creates a new builder.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> interceptCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions,
+            Channel next) {
+        if (method.getType() != MethodDescriptor.MethodType.UNARY) {
+            return next.newCall(method, callOptions);
+        }
+        return new LimitedCall<>(method, callOptions, next);
+    }
+
+    /**
+     * Returns the current limit of each bank.
+     *
+     * @return limits by bank ID
+     */
+    public Map<String, Integer> getBankLimits() {
+        return limitsOf(bankLimits);
+    }
+
+    /**
+     * Returns the current limit of each member.
+     *
+     * @return limits by member ID
+     */
+    public Map<String, Integer> getMemberLimits() {
+        return limitsOf(memberLimits);
+    }
+
+    /**
+     * Returns the number of calls in flight to a bank.
+     *
+     * @param bankId bank ID
+     * @return calls in flight
+     */
+    public int getBankInFlight(String bankId) {
+        ConcurrencyLimit limit = bankLimits.get(bankId);
+        return limit == null ? 0 : limit.getInFlight();
+    }
+
+    /**
+     * Returns the number of calls in flight for a member.
+     *
+     * @param memberId member ID
+     * @return calls in flight
+     */
+    public int getMemberInFlight(String memberId) {
+        ConcurrencyLimit limit = memberLimits.get(memberId);
+        return limit == null ? 0 : limit.getInFlight();
+    }
+
+    /**
+     * Returns the number of calls rejected because a limit was reached.
+     *
+     * @return rejected count
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @VisibleForTesting
+    @Nullable
+    ConcurrencyLimit memberLimit(String memberId) {
+        return limitFor(memberLimits, memberSettings, memberId);
+    }
+
+    private static Map<String, Integer> limitsOf(Map<String, ConcurrencyLimit> limits) {
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<String, ConcurrencyLimit> entry : limits.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getLimit());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Nullable
+    private ConcurrencyLimit limitFor(
+            ConcurrentMap<String, ConcurrencyLimit> limits,
+            @Nullable LimitSettings settings,
+            @Nullable String key) {
+        if (settings == null || key == null || key.isEmpty()) {
+            return null;
+        }
+        ConcurrencyLimit limit = limits.get(key);
+        if (limit != null) {
+            return limit;
+        }
+        ConcurrencyLimit created = settings.create();
+        limit = limits.putIfAbsent(key, created);
+        return limit != null ? limit : created;
+    }
+
+    private static boolean isOverload(Status status) {
+        switch (status.getCode()) {
+            case DEADLINE_EXCEEDED:
+            case UNAVAILABLE:
+            case RESOURCE_EXHAUSTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A unary call that waits for its request before taking the permits of its bank and
+     * member.
+     */
+    private final class LimitedCall<ReqT, ResT> extends DeferredCall<ReqT, ResT> {
+        private LimitedCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions,
+                Channel next) {
+            super(method, callOptions, next);
+        }
+
+        @Override
+        protected void onRequest(Metadata headers, ReqT request) {
+            String bankId = banks.bankOf(request);
+            String memberId = headers.get(MEMBER_ID_KEY);
+            ConcurrencyLimit bank = limitFor(bankLimits, bankSettings, bankId);
+            ConcurrencyLimit member = memberLimit(memberId);
+            if (bank != null && !bank.tryAcquire()) {
+                rejectLimited("bank " + bankId);
+                return;
+            }
+            if (member != null && !member.tryAcquire()) {
+                if (bank != null) {
+                    bank.onIgnore();
+                }
+                rejectLimited("member " + memberId);
+                return;
+            }
+            proceed(new Releasing(getListener(), bank, member));
+        }
+
+        private void rejectLimited(String limited) {
+            rejectedCount.incrementAndGet();
+            reject(Status.RESOURCE_EXHAUSTED.withDescription(
+                    "Concurrency limit reached for " + limited));
+        }
+
+        /**
+         * Releases the permits of the call when it completes.
+         */
+        private final class Releasing extends SimpleForwardingClientCallListener<ResT> {
+            private final @Nullable ConcurrencyLimit bank;
+            private final @Nullable ConcurrencyLimit member;
+            private final long startNanos = System.nanoTime();
+
+            private Releasing(
+                    Listener<ResT> delegate,
+                    @Nullable ConcurrencyLimit bank,
+                    @Nullable ConcurrencyLimit member) {
+                super(delegate);
+                this.bank = bank;
+                this.member = member;
+            }
+
+            @Override
+            public void onMessage(ResT message) {
+                banks.learn(message);
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+                long latencyMs = (System.nanoTime() - startNanos) / 1_000_000;
+                release(bank, status, latencyMs);
+                release(member, status, latencyMs);
+                super.onClose(status, trailers);
+            }
+
+            private void release(
+                    @Nullable ConcurrencyLimit limit,
+                    Status status,
+                    long latencyMs) {
+                if (limit == null) {
+                    return;
+                }
+                if (status.isOk()) {
+                    limit.onSuccess(latencyMs);
+                } else if (isOverload(status)) {
+                    limit.onOverload();
+                } else {
+                    limit.onIgnore();
+                }
+            }
+        }
+    }
+
+    /**
+     * Settings of the limits of one kind.
+     */
+    private static final class LimitSettings {
+        private final int initialLimit;
+        private final int minLimit;
+        private final int maxLimit;
+        private final double backoffRatio;
+        private final double latencyTolerance;
+
+        private LimitSettings(
+                int initialLimit,
+                int minLimit,
+                int maxLimit,
+                double backoffRatio,
+                double latencyTolerance) {
+            checkArgument(minLimit >= 1 && minLimit <= initialLimit && initialLimit <= maxLimit,
+                    "Limits must satisfy 1 <= min <= initial <= max");
+            checkArgument(backoffRatio > 0 && backoffRatio < 1, "Backoff ratio must be in (0, 1)");
+            checkArgument(latencyTolerance > 1, "Latency tolerance must be greater than 1");
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.backoffRatio = backoffRatio;
+            this.latencyTolerance = latencyTolerance;
+        }
+
+        private ConcurrencyLimit create() {
+            return new ConcurrencyLimit(
+                    initialLimit,
+                    minLimit,
+                    maxLimit,
+                    backoffRatio,
+                    latencyTolerance);
+        }
+    }
+
+    /**
+     * Builds a {@link ConcurrencyLimiter}.
+     */
+    public static final class Builder {
+        private int[] bankLimits = {20, 1, 200};
+        private int[] memberLimits = {50, 1, 500};
+        private double backoffRatio = 0.9;
+        private double latencyTolerance = 2.0;
+        private long maxMembers = 10_000;
+        private long memberIdleMs = 600_000;
+        private Ticker ticker = Ticker.systemTicker();
+        private BankResolver banks = new BankResolver();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the limits of the calls in flight to each bank.
+         *
+         * @param initialLimit limit before any call completed
+         * @param minLimit lowest limit
+         * @param maxLimit highest limit
+         * @return this builder
+         */
+        public Builder bankLimits(int initialLimit, int minLimit, int maxLimit) {
+            this.bankLimits = new int[] {initialLimit, minLimit, maxLimit};
+            return this;
+        }
+
+        /**
+         * Sets the limits of the calls in flight for each member.
+         *
+         * @param initialLimit limit before any call completed
+         * @param minLimit lowest limit
+         * @param maxLimit highest limit
+         * @return this builder
+         */
+        public Builder memberLimits(int initialLimit, int minLimit, int maxLimit) {
+            this.memberLimits = new int[] {initialLimit, minLimit, maxLimit};
+            return this;
+        }
+
+        /**
+         * Sets how many member limits are kept, and how long the limit of a member that
+         * makes no call is kept. A member whose limit was dropped starts again from the
+         * initial limit.
+         *
+         * @param maxMembers max number of members with a limit
+         * @param idleMs how long an unused limit is kept, in milliseconds
+         * @return this builder
+         */
+        public Builder memberEviction(long maxMembers, long idleMs) {
+            checkArgument(maxMembers > 0, "Max members must be positive");
+            checkArgument(idleMs > 0, "Idle time must be positive");
+            this.maxMembers = maxMembers;
+            this.memberIdleMs = idleMs;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder ticker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * Stops limiting calls per bank.
+         *
+         * @return this builder
+         */
+        public Builder noBankLimits() {
+            this.bankLimits = null;
+            return this;
+        }
+
+        /**
+         * Stops limiting calls per member.
+         *
+         * @return this builder
+         */
+        public Builder noMemberLimits() {
+            this.memberLimits = null;
+            return this;
+        }
+
+        /**
+         * Sets how limits react to overload.
+         *
+         * @param backoffRatio factor a limit is multiplied by after an overloaded call
+         * @param latencyTolerance how many times its usual latency a call may take before
+         *     it counts as overloaded
+         * @return this builder
+         */
+        public Builder adaptation(double backoffRatio, double latencyTolerance) {
+            this.backoffRatio = backoffRatio;
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        /**
+         * Sets the resolver that finds the bank of a call, e.g. one shared with the other
+         * interceptors of the channel, so that the banks they learn apply to all of them.
+         *
+         * @param banks bank resolver
+         * @return this builder
+         */
+        public Builder bankResolver(BankResolver banks) {
+            this.banks = banks;
+            return this;
+        }
+
+        /**
+         * Builds the limiter.
+         *
+         * @return concurrency limiter
+         */
+        public ConcurrencyLimiter build() {
+            return new ConcurrencyLimiter(this);
+        }
+
+        @Nullable
+        private LimitSettings settings(@Nullable int[] limits) {
+            return limits == null
+                    ? null
+                    : new LimitSettings(
+                            limits[0],
+                            limits[1],
+                            limits[2],
+                            backoffRatio,
+                            latencyTolerance);
+        }
+    }
+}
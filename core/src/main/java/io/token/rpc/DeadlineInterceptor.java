@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.MethodDescriptor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets the deadline of every call from a {@link DeadlinePolicy}. Calls that already carry
+ * a deadline, e.g. set through {@link Client#withDeadline}, keep it.
+ */
+public final class DeadlineInterceptor implements ClientInterceptor {
+    private final DeadlinePolicy policy;
+
+    /**
+     * Creates an interceptor.
+     *
+     * @param policy deadline policy
+     */
+    public DeadlineInterceptor(DeadlinePolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> interceptCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions,
+            Channel next) {
+        if (callOptions.getDeadline() == null) {
+            callOptions = callOptions.withDeadlineAfter(
+                    policy.timeoutMs(method.getFullMethodName()),
+                    TimeUnit.MILLISECONDS);
+        }
+        return next.newCall(method, callOptions);
+    }
+}
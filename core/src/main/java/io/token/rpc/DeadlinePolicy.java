@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps gateway methods to the deadline their calls get.
+ * <br>
+ * Every method belongs to a named timeout class, and every class has a timeout. Methods
+ * answered from the gateway's own data are in {@link #READ}, methods that have to reach
+ * the bank are in {@link #BANK} and everything else is in {@link #DEFAULT}. Classes that
+ * are not configured fall back to the default timeout, so a policy with no overrides
+ * behaves like the single global timeout it replaces.
+ */
+public final class DeadlinePolicy {
+    public static final String DEFAULT = "default";
+    public static final String READ = "read";
+    public static final String BANK = "bank";
+
+    private static final Map<String, String> DEFAULT_METHOD_CLASSES = defaultMethodClasses();
+
+    private final long defaultTimeoutMs;
+    private final Map<String, Long> classTimeouts;
+    private final Map<String, String> methodClasses;
+    private final Map<String, Long> methodTimeouts;
+    private final Map<String, Long> resolved = new ConcurrentHashMap<>();
+
+    private DeadlinePolicy(Builder builder, long defaultTimeoutMs) {
+        this.defaultTimeoutMs = defaultTimeoutMs;
+        this.classTimeouts = new HashMap<>(builder.classTimeouts);
+        this.methodClasses = new HashMap<>(DEFAULT_METHOD_CLASSES);
+        this.methodClasses.putAll(builder.methodClasses);
+        this.methodTimeouts = new HashMap<>(builder.methodTimeouts);
+    }
+
+    /**
+     * Creates a new builder.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the timeout of a gateway method.
+     *
+     * @param fullMethodName full gRPC method name, e.g.
+     *     "io.token.proto.gateway.GatewayService/GetAccount", or the bare method name
+     * @return timeout in milliseconds
+     */
+    public long timeoutMs(String fullMethodName) {
+        Long timeout = resolved.get(fullMethodName);
+        if (timeout == null) {
+            timeout = resolve(bareName(fullMethodName));
+            resolved.put(fullMethodName, timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Returns the timeout class of a gateway method.
+     *
+     * @param fullMethodName full gRPC method name or the bare method name
+     * @return timeout class name
+     */
+    public String timeoutClass(String fullMethodName) {
+        String timeoutClass = methodClasses.get(bareName(fullMethodName));
+        return timeoutClass != null ? timeoutClass : DEFAULT;
+    }
+
+    /**
+     * Returns the longest timeout any method can get.
+     *
+     * @return timeout in milliseconds
+     */
+    public long maxTimeoutMs() {
+        long max = defaultTimeoutMs;
+        for (long timeout : classTimeouts.values()) {
+            max = Math.max(max, timeout);
+        }
+        for (long timeout : methodTimeouts.values()) {
+            max = Math.max(max, timeout);
+        }
+        return max;
+    }
+
+    private long resolve(String method) {
+        Long timeout = methodTimeouts.get(method);
+        if (timeout != null) {
+            return timeout;
+        }
+        timeout = classTimeouts.get(timeoutClass(method));
+        return timeout != null ? timeout : defaultTimeoutMs;
+    }
+
+    private static String bareName(String fullMethodName) {
+        return fullMethodName.substring(fullMethodName.lastIndexOf('/') + 1);
+    }
+
+    private static Map<String, String> defaultMethodClasses() {
+        List<String> read = Arrays.asList(
+                "GetMember",
+                "GetAccount",
+                "GetAccounts",
+                "GetDefaultAccount",
+                "GetProfile",
+                "GetAliases",
+                "GetToken",
+                "GetTokens",
+                "GetTransfer",
+                "GetTransfers",
+                "GetBankInfo",
+                "GetBanks",
+                "ResolveAlias",
+                "GetDefaultAgent");
+        Map<String, String> classes = new HashMap<>();
+        for (String method : BankResolver.BANK_METHODS) {
+            classes.put(method, BANK);
+        }
+        for (String method : read) {
+            classes.put(method, READ);
+        }
+        return Collections.unmodifiableMap(classes);
+    }
+
+    /**
+     * Builds a {@link DeadlinePolicy}.
+     */
+    public static final class Builder {
+        private final Map<String, Long> classTimeouts = new HashMap<>();
+        private final Map<String, String> methodClasses = new HashMap<>();
+        private final Map<String, Long> methodTimeouts = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the timeout of a timeout class.
+         *
+         * @param timeoutClass class name, e.g. {@link #READ} or {@link #BANK}
+         * @param timeoutMs timeout in milliseconds
+         * @return this builder
+         */
+        public Builder timeoutClass(String timeoutClass, long timeoutMs) {
+            checkArgument(timeoutMs > 0, "Timeout must be positive");
+            classTimeouts.put(checkNotNull(timeoutClass), timeoutMs);
+            return this;
+        }
+
+        /**
+         * Moves a gateway method to a timeout class.
+         *
+         * @param method bare gateway method name, e.g. "GetTransactions"
+         * @param timeoutClass class name
+         * @return this builder
+         */
+        public Builder methodTimeoutClass(String method, String timeoutClass) {
+            methodClasses.put(checkNotNull(method), checkNotNull(timeoutClass));
+            return this;
+        }
+
+        /**
+         * Sets the timeout of a single gateway method, taking precedence over its class.
+         *
+         * @param method bare gateway method name, e.g. "LinkAccounts"
+         * @param timeoutMs timeout in milliseconds
+         * @return this builder
+         */
+        public Builder methodTimeout(String method, long timeoutMs) {
+            checkArgument(timeoutMs > 0, "Timeout must be positive");
+            methodTimeouts.put(checkNotNull(method), timeoutMs);
+            return this;
+        }
+
+        /**
+         * Builds the policy.
+         *
+         * @param defaultTimeoutMs timeout of the {@link #DEFAULT} class and of any class
+         *     without a timeout of its own
+         * @return policy
+         */
+        public DeadlinePolicy build(long defaultTimeoutMs) {
+            checkArgument(defaultTimeoutMs > 0, "Timeout must be positive");
+            return new DeadlinePolicy(this, defaultTimeoutMs);
+        }
+    }
+}
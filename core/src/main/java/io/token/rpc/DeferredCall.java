@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import javax.annotation.Nullable;
+
+/**
+ * A unary call that holds off starting until its request is complete, so that an
+ * interceptor can look at the request before deciding to {@link #proceed} with it, to
+ * {@link #reject} it or to {@link #respond} to it itself.
+ *
+ * @param <ReqT> request message type
+ * @param <ResT> response message type
+ */
+abstract class DeferredCall<ReqT, ResT> extends ClientCall<ReqT, ResT> {
+    private final MethodDescriptor<ReqT, ResT> method;
+    private final CallOptions callOptions;
+    private final Channel next;
+    private Listener<ResT> listener;
+    private Metadata headers;
+    private ReqT request;
+    private int requested;
+    private @Nullable ClientCall<ReqT, ResT> delegate;
+    private boolean closed;
+
+    DeferredCall(MethodDescriptor<ReqT, ResT> method, CallOptions callOptions, Channel next) {
+        this.method = method;
+        this.callOptions = callOptions;
+        this.next = next;
+    }
+
+    /**
+     * Decides what to do with the call once its request is complete. Implementations call
+     * one of {@link #proceed}, {@link #reject} and {@link #respond}.
+     *
+     * @param headers request headers
+     * @param request request message
+     */
+    protected abstract void onRequest(Metadata headers, ReqT request);
+
+    @Override
+    public final void start(Listener<ResT> listener, Metadata headers) {
+        this.listener = listener;
+        this.headers = headers;
+    }
+
+    @Override
+    public final void request(int numMessages) {
+        if (delegate != null) {
+            delegate.request(numMessages);
+        } else {
+            requested += numMessages;
+        }
+    }
+
+    @Override
+    public final void sendMessage(ReqT message) {
+        this.request = message;
+    }
+
+    @Override
+    public final void halfClose() {
+        if (!closed) {
+            onRequest(headers, request);
+        }
+    }
+
+    @Override
+    public final void cancel(@Nullable String message, @Nullable Throwable cause) {
+        if (delegate != null) {
+            delegate.cancel(message, cause);
+        } else if (!closed && listener != null) {
+            reject(Status.CANCELLED.withDescription(message).withCause(cause));
+        }
+    }
+
+    @Override
+    public final boolean isReady() {
+        return delegate == null || delegate.isReady();
+    }
+
+    protected final MethodDescriptor<ReqT, ResT> getMethod() {
+        return method;
+    }
+
+    protected final CallOptions getCallOptions() {
+        return callOptions;
+    }
+
+    protected final Listener<ResT> getListener() {
+        return listener;
+    }
+
+    /**
+     * Starts the call on the next channel.
+     *
+     * @param listener listener of the call, usually wrapping {@link #getListener()}
+     */
+    protected final void proceed(Listener<ResT> listener) {
+        ClientCall<ReqT, ResT> call = next.newCall(method, callOptions);
+        delegate = call;
+        call.start(listener, headers);
+        if (requested > 0) {
+            call.request(requested);
+        }
+        call.sendMessage(request);
+        call.halfClose();
+    }
+
+    /**
+     * Completes the call without starting it.
+     *
+     * @param status status to complete the call with
+     */
+    protected final void reject(Status status) {
+        closed = true;
+        listener.onClose(status, new Metadata());
+    }
+
+    /**
+     * Completes the call successfully with the given response, without starting it.
+     *
+     * @param response response message
+     */
+    protected final void respond(ResT response) {
+        closed = true;
+        listener.onHeaders(new Metadata());
+        listener.onMessage(response);
+        listener.onClose(Status.OK, new Metadata());
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link ManagedChannel} that keeps track of its calls in flight, so that it can be shut
+ * down without dropping them: {@link #drain} stops new calls, waits for the calls in flight
+ * to complete and only cancels the ones still running at the deadline.
+ */
+public final class DrainableChannel extends ManagedChannel {
+    private final ManagedChannel delegate;
+    private final ConcurrentMap<TrackedCall<?, ?>, String> inFlight = new ConcurrentHashMap<>();
+    private final Object completion = new Object();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private volatile boolean draining;
+
+    private DrainableChannel(ManagedChannel delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Wraps a channel to track its calls.
+     *
+     * @param channel channel to wrap
+     * @return drainable channel
+     */
+    public static DrainableChannel wrap(ManagedChannel channel) {
+        return channel instanceof DrainableChannel
+                ? (DrainableChannel) channel
+                : new DrainableChannel(channel);
+    }
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions) {
+        if (draining) {
+            rejectedCount.incrementAndGet();
+            return new RejectedCall<>();
+        }
+        return new TrackedCall<>(method, delegate.newCall(method, callOptions));
+    }
+
+    /**
+     * Returns the number of calls in flight.
+     *
+     * @return in-flight count
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Returns the number of calls in flight per gateway method.
+     *
+     * @return in-flight counts by full method name
+     */
+    public Map<String, Integer> getInFlightCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String method : inFlight.values()) {
+            counts.merge(method, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of calls refused because the channel was draining.
+     *
+     * @return rejected count
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Stops new calls, which fail with {@link Status#UNAVAILABLE}, and waits up to the given
+     * time for the calls in flight to complete. The calls still in flight then are
+     * cancelled; an interrupt ends the wait early, like the deadline. The channel is shut
+     * down afterwards.
+     *
+     * @param timeoutMs how long to wait for the calls in flight
+     * @return full method names of the cancelled calls
+     */
+    public List<String> drain(long timeoutMs) {
+        draining = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (completion) {
+            long remainingNanos;
+            while (!inFlight.isEmpty()
+                    && (remainingNanos = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(completion, remainingNanos);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        List<String> cancelled = new ArrayList<>();
+        for (Map.Entry<TrackedCall<?, ?>, String> call : inFlight.entrySet()) {
+            cancelled.add(call.getValue());
+            call.getKey().cancel("Client shut down before the call completed", null);
+        }
+        delegate.shutdown();
+        return cancelled;
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        draining = true;
+        delegate.shutdown();
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+        draining = true;
+        delegate.shutdownNow();
+        return this;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String authority() {
+        return delegate.authority();
+    }
+
+    @Override
+    public ConnectivityState getState(boolean requestConnection) {
+        return delegate.getState(requestConnection);
+    }
+
+    @Override
+    public void notifyWhenStateChanged(ConnectivityState source, Runnable callback) {
+        delegate.notifyWhenStateChanged(source, callback);
+    }
+
+    @Override
+    public void resetConnectBackoff() {
+        delegate.resetConnectBackoff();
+    }
+
+    @Override
+    public void enterIdle() {
+        delegate.enterIdle();
+    }
+
+    private void completed(TrackedCall<?, ?> call) {
+        if (inFlight.remove(call) != null && draining) {
+            synchronized (completion) {
+                completion.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A call counted as in flight from its start until it closes.
+     */
+    private final class TrackedCall<ReqT, ResT> extends SimpleForwardingClientCall<ReqT, ResT> {
+        private final String method;
+
+        private TrackedCall(MethodDescriptor<ReqT, ResT> method, ClientCall<ReqT, ResT> call) {
+            super(call);
+            this.method = method.getFullMethodName();
+        }
+
+        @Override
+        public void start(Listener<ResT> listener, Metadata headers) {
+            inFlight.put(this, method);
+            try {
+                super.start(new SimpleForwardingClientCallListener<ResT>(listener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        completed(TrackedCall.this);
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            } catch (RuntimeException ex) {
+                completed(this);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * A call made while the channel was draining.
+     */
+    private static final class RejectedCall<ReqT, ResT> extends ClientCall<ReqT, ResT> {
+        private Listener<ResT> listener;
+        private boolean closed;
+
+        @Override
+        public void start(Listener<ResT> listener, Metadata headers) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+        }
+
+        @Override
+        public void halfClose() {
+            close(Status.UNAVAILABLE.withDescription("Client is shutting down"));
+        }
+
+        @Override
+        public void cancel(@Nullable String message, @Nullable Throwable cause) {
+            close(Status.CANCELLED.withDescription(message).withCause(cause));
+        }
+
+        private void close(Status status) {
+            if (!closed && listener != null) {
+                closed = true;
+                listener.onClose(status, new Metadata());
+            }
+        }
+    }
+}
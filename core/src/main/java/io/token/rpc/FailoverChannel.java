@@ -0,0 +1,492 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.token.proto.gateway.Gateway.GetBanksCountriesRequest;
+import io.token.proto.gateway.Gateway.GetBanksCountriesResponse;
+import io.token.proto.gateway.GatewayServiceGrpc;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ManagedChannel} that spreads calls over several gateway endpoints, e.g. one per
+ * region, and fails over between them.
+ * <br>
+ * Each endpoint has a channel of its own. Calls go to the healthy endpoints of the best
+ * priority, picked at random with a weight inversely proportional to their recent latency;
+ * when no endpoint of that priority is healthy, the next priority takes over. Endpoints are
+ * probed with a cheap gateway call at a fixed interval, and marked unhealthy after a number
+ * of consecutive {@link Status.Code#UNAVAILABLE} calls or a failed probe. A probe that
+ * succeeds marks the endpoint healthy again, so calls fail back to it on their own.
+ * <br>
+ * A call stays on the endpoint it started on. If that endpoint goes down, the call fails
+ * with {@link Status.Code#UNAVAILABLE} rather than moving to another endpoint; a retry,
+ * e.g. by a {@link RetryInterceptor} of the client, is a new call and goes to a healthy
+ * endpoint. Calls that are not retried, such as most writes, fail.
+ */
+public final class FailoverChannel extends ManagedChannel {
+    private static final Logger logger = LoggerFactory.getLogger(FailoverChannel.class);
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private static final List<ConnectivityState> STATE_RANKS = ImmutableList.of(
+            ConnectivityState.READY,
+            ConnectivityState.CONNECTING,
+            ConnectivityState.IDLE,
+            ConnectivityState.TRANSIENT_FAILURE,
+            ConnectivityState.SHUTDOWN);
+
+    private final List<Endpoint> endpoints;
+    private final int failureThreshold;
+    private final long probeTimeoutMs;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong failoverCount = new AtomicLong();
+    private volatile int preferredPriority;
+
+    private FailoverChannel(Builder builder) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (GatewayEndpoint endpoint : builder.endpoints) {
+            endpoints.add(new Endpoint(endpoint, builder.channelFactory.apply(endpoint)));
+        }
+        endpoints.sort(Comparator.comparingInt(endpoint -> endpoint.endpoint.getPriority()));
+        this.endpoints = ImmutableList.copyOf(endpoints);
+        this.failureThreshold = builder.failureThreshold;
+        this.probeTimeoutMs = builder.probeTimeoutMs;
+        this.preferredPriority = this.endpoints.get(0).endpoint.getPriority();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("token-rpc-failover-%d")
+                .setDaemon(true)
+                .build());
+        scheduler.scheduleWithFixedDelay(
+                this::probe,
+                builder.probeIntervalMs,
+                builder.probeIntervalMs,
+                MILLISECONDS);
+    }
+
+    /**
+     * Creates a builder with the default settings.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions) {
+        Endpoint endpoint = pick();
+        return new RoutedCall<>(endpoint, endpoint.channel.newCall(method, callOptions));
+    }
+
+    /**
+     * Returns whether each endpoint is currently considered healthy.
+     *
+     * @return health by endpoint, in order of priority
+     */
+    public Map<GatewayEndpoint, Boolean> getHealth() {
+        Map<GatewayEndpoint, Boolean> health = new LinkedHashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            health.put(endpoint.endpoint, endpoint.healthy);
+        }
+        return health;
+    }
+
+    /**
+     * Returns the recent latency of each endpoint.
+     *
+     * @return smoothed latency in milliseconds by endpoint, in order of priority
+     */
+    public Map<GatewayEndpoint, Double> getLatencies() {
+        Map<GatewayEndpoint, Double> latencies = new LinkedHashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            latencies.put(endpoint.endpoint, endpoint.latencyMs);
+        }
+        return latencies;
+    }
+
+    /**
+     * Returns how many times the calls moved to endpoints of another priority, either
+     * failing over or failing back.
+     *
+     * @return failover count
+     */
+    public long getFailoverCount() {
+        return failoverCount.get();
+    }
+
+    @Override
+    public String authority() {
+        return endpoints.get(0).channel.authority();
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        scheduler.shutdownNow();
+        for (Endpoint endpoint : endpoints) {
+            endpoint.channel.shutdown();
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return endpoints.stream().allMatch(endpoint -> endpoint.channel.isShutdown());
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return endpoints.stream().allMatch(endpoint -> endpoint.channel.isTerminated());
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+        scheduler.shutdownNow();
+        for (Endpoint endpoint : endpoints) {
+            endpoint.channel.shutdownNow();
+        }
+        return this;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Endpoint endpoint : endpoints) {
+            long remainingNanos = Math.max(0, deadline - System.nanoTime());
+            if (!endpoint.channel.awaitTermination(remainingNanos, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the best state of the preferred endpoints, e.g. ready if any of them is.
+     */
+    @Override
+    public ConnectivityState getState(boolean requestConnection) {
+        ConnectivityState best = null;
+        for (Endpoint endpoint : preferred()) {
+            ConnectivityState state = endpoint.channel.getState(requestConnection);
+            if (best == null || STATE_RANKS.indexOf(state) < STATE_RANKS.indexOf(best)) {
+                best = state;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void notifyWhenStateChanged(ConnectivityState source, Runnable callback) {
+        pick().channel.notifyWhenStateChanged(source, callback);
+    }
+
+    @Override
+    public void resetConnectBackoff() {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.channel.resetConnectBackoff();
+        }
+    }
+
+    @Override
+    public void enterIdle() {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.channel.enterIdle();
+        }
+    }
+
+    /**
+     * Returns the healthy endpoints of the preferred priority, or all the endpoints of the
+     * best priority if none is healthy.
+     */
+    private List<Endpoint> preferred() {
+        List<Endpoint> preferred = new ArrayList<>();
+        int priority = preferredPriority;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.endpoint.getPriority() == priority && endpoint.healthy) {
+                preferred.add(endpoint);
+            }
+        }
+        if (preferred.isEmpty()) {
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.endpoint.getPriority() == priority) {
+                    preferred.add(endpoint);
+                }
+            }
+        }
+        return preferred;
+    }
+
+    private Endpoint pick() {
+        List<Endpoint> candidates = preferred();
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        double total = 0;
+        double[] weights = new double[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            weights[i] = 1 / Math.max(1, candidates.get(i).latencyMs);
+            total += weights[i];
+        }
+        double point = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < candidates.size(); i++) {
+            point -= weights[i];
+            if (point < 0) {
+                return candidates.get(i);
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    private void probe() {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.channel.getState(true) == ConnectivityState.TRANSIENT_FAILURE) {
+                endpoint.setHealthy(false);
+                continue;
+            }
+            long start = System.nanoTime();
+            Futures.addCallback(
+                    GatewayServiceGrpc.newFutureStub(endpoint.channel)
+                            .withDeadlineAfter(probeTimeoutMs, MILLISECONDS)
+                            .getBanksCountries(GetBanksCountriesRequest.getDefaultInstance()),
+                    new FutureCallback<GetBanksCountriesResponse>() {
+                        @Override
+                        public void onSuccess(GetBanksCountriesResponse result) {
+                            endpoint.succeeded(System.nanoTime() - start);
+                            endpoint.setHealthy(true);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable error) {
+                            // Any answer of the gateway, even an error, means it is up.
+                            Status.Code code = Status.fromThrowable(error).getCode();
+                            endpoint.setHealthy(!isOutage(code));
+                        }
+                    },
+                    directExecutor());
+        }
+    }
+
+    private static boolean isOutage(Status.Code code) {
+        return code == Status.Code.UNAVAILABLE || code == Status.Code.DEADLINE_EXCEEDED;
+    }
+
+    private void updatePreferredPriority() {
+        int priority = endpoints.get(0).endpoint.getPriority();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.healthy) {
+                priority = endpoint.endpoint.getPriority();
+                break;
+            }
+        }
+        int previous = preferredPriority;
+        if (priority != previous) {
+            preferredPriority = priority;
+            failoverCount.incrementAndGet();
+            logger.info("Gateway calls moved from priority {} to {}", previous, priority);
+        }
+    }
+
+    /**
+     * An endpoint, its channel and health.
+     */
+    private final class Endpoint {
+        private final GatewayEndpoint endpoint;
+        private final ManagedChannel channel;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile double latencyMs;
+
+        private Endpoint(GatewayEndpoint endpoint, ManagedChannel channel) {
+            this.endpoint = endpoint;
+            this.channel = channel;
+        }
+
+        private void succeeded(long latencyNanos) {
+            double sample = latencyNanos / 1_000_000.0;
+            double current = latencyMs;
+            // Races between updates only lose a sample.
+            latencyMs = current == 0
+                    ? sample
+                    : current + LATENCY_SMOOTHING * (sample - current);
+            consecutiveFailures.set(0);
+        }
+
+        private void failed() {
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                setHealthy(false);
+            }
+        }
+
+        private void setHealthy(boolean healthy) {
+            synchronized (FailoverChannel.this) {
+                if (this.healthy == healthy) {
+                    return;
+                }
+                this.healthy = healthy;
+                if (healthy) {
+                    consecutiveFailures.set(0);
+                }
+                updatePreferredPriority();
+            }
+            logger.info("Gateway endpoint {}:{} is {}",
+                    endpoint.getHostName(),
+                    endpoint.getPort(),
+                    healthy ? "healthy" : "unhealthy");
+        }
+    }
+
+    /**
+     * A call sent to an endpoint, recording its latency and outcome.
+     */
+    private static final class RoutedCall<ReqT, ResT>
+            extends SimpleForwardingClientCall<ReqT, ResT> {
+        private final Endpoint endpoint;
+
+        private RoutedCall(Endpoint endpoint, ClientCall<ReqT, ResT> call) {
+            super(call);
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void start(Listener<ResT> listener, Metadata headers) {
+            long start = System.nanoTime();
+            super.start(new SimpleForwardingClientCallListener<ResT>(listener) {
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    if (status.getCode() == Status.Code.UNAVAILABLE) {
+                        endpoint.failed();
+                    } else if (status.isOk()) {
+                        endpoint.succeeded(System.nanoTime() - start);
+                    }
+                    super.onClose(status, trailers);
+                }
+            }, headers);
+        }
+    }
+
+    /**
+     * Builds a {@link FailoverChannel}.
+     */
+    public static final class Builder {
+        private final List<GatewayEndpoint> endpoints = new ArrayList<>();
+        private @Nullable Function<GatewayEndpoint, ManagedChannel> channelFactory;
+        private long probeIntervalMs = 5_000L;
+        private long probeTimeoutMs = 2_000L;
+        private int failureThreshold = 3;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds an endpoint.
+         *
+         * @param endpoint endpoint
+         * @return this builder
+         */
+        public Builder endpoint(GatewayEndpoint endpoint) {
+            this.endpoints.add(endpoint);
+            return this;
+        }
+
+        /**
+         * Sets how the channel to each endpoint is created.
+         *
+         * @param channelFactory creates the channel to an endpoint
+         * @return this builder
+         */
+        public Builder channelFactory(Function<GatewayEndpoint, ManagedChannel> channelFactory) {
+            this.channelFactory = channelFactory;
+            return this;
+        }
+
+        /**
+         * Sets how often the endpoints are probed, and how long a probe may take.
+         *
+         * @param probeIntervalMs time between probes in milliseconds
+         * @param probeTimeoutMs probe timeout in milliseconds
+         * @return this builder
+         */
+        public Builder probe(long probeIntervalMs, long probeTimeoutMs) {
+            checkArgument(probeIntervalMs > 0 && probeTimeoutMs > 0,
+                    "Probe interval and timeout must be positive");
+            this.probeIntervalMs = probeIntervalMs;
+            this.probeTimeoutMs = probeTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Sets after how many consecutive unavailable calls an endpoint is marked unhealthy.
+         *
+         * @param failureThreshold number of consecutive failures
+         * @return this builder
+         */
+        public Builder failureThreshold(int failureThreshold) {
+            checkArgument(failureThreshold >= 1, "Failure threshold must be at least 1");
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * Builds the channel and starts probing the endpoints.
+         *
+         * @return failover channel
+         */
+        public FailoverChannel build() {
+            checkArgument(!endpoints.isEmpty(), "At least one endpoint is needed");
+            checkArgument(channelFactory != null, "Channel factory is not set");
+            return new FailoverChannel(this);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * A gateway endpoint a {@link FailoverChannel} can send calls to.
+ */
+@AutoValue
+public abstract class GatewayEndpoint {
+    public static GatewayEndpoint create(
+            String hostName,
+            int port,
+            boolean useSsl,
+            int priority) {
+        return new AutoValue_GatewayEndpoint(hostName, port, useSsl, priority);
+    }
+
+    /**
+     * Get the host name of the endpoint.
+     *
+     * @return host name
+     */
+    public abstract String getHostName();
+
+    /**
+     * Get the port of the endpoint.
+     *
+     * @return port
+     */
+    public abstract int getPort();
+
+    /**
+     * Get whether the endpoint is reached over TLS.
+     *
+     * @return true if TLS is used
+     */
+    public abstract boolean isUseSsl();
+
+    /**
+     * Get the priority of the endpoint; endpoints with a lower value are preferred.
+     *
+     * @return priority
+     */
+    public abstract int getPriority();
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ManagedChannel} that runs its calls through client interceptors, while its
+ * lifecycle stays with the underlying channel.
+ */
+public final class InterceptedManagedChannel extends ManagedChannel {
+    private final ManagedChannel delegate;
+    private final Channel intercepted;
+
+    private InterceptedManagedChannel(ManagedChannel delegate, Channel intercepted) {
+        this.delegate = delegate;
+        this.intercepted = intercepted;
+    }
+
+    /**
+     * Wraps a channel with interceptors. The last interceptor is the first to see a call.
+     *
+     * @param channel channel to wrap
+     * @param interceptors interceptors
+     * @return intercepted channel
+     */
+    public static ManagedChannel intercept(
+            ManagedChannel channel,
+            ClientInterceptor... interceptors) {
+        return new InterceptedManagedChannel(
+                channel,
+                ClientInterceptors.intercept(channel, interceptors));
+    }
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions) {
+        return intercepted.newCall(method, callOptions);
+    }
+
+    @Override
+    public String authority() {
+        return intercepted.authority();
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        delegate.shutdown();
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+        delegate.shutdownNow();
+        return this;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public ConnectivityState getState(boolean requestConnection) {
+        return delegate.getState(requestConnection);
+    }
+
+    @Override
+    public void notifyWhenStateChanged(ConnectivityState source, Runnable callback) {
+        delegate.notifyWhenStateChanged(source, callback);
+    }
+
+    @Override
+    public void resetConnectBackoff() {
+        delegate.resetConnectBackoff();
+    }
+
+    @Override
+    public void enterIdle() {
+        delegate.enterIdle();
+    }
+}
@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static io.grpc.Metadata.ASCII_STRING_MARSHALLER;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Deadline;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Lets identical reads that are in flight at the same time share one gateway call.
+ * <br>
+ * Two reads are identical when they call the same method with the same request on behalf
+ * of the same member and authentication context, i.e. with the same authentication headers
+ * apart from the signature and its timestamp. The first read is sent; the others wait for
+ * its outcome, which is delivered to all of them. A read only joins a call whose deadline
+ * is not later than its own, so no read waits longer than it asked to.
+ */
+public final class RequestCoalescer implements ClientInterceptor {
+    private static final Set<String> PER_CALL_HEADERS = ImmutableSet.of(
+            "token-signature",
+            "token-created-at-ms");
+
+    private final ConcurrentMap<FlightKey, Flight<?>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong savedCount = new AtomicLong();
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> interceptCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions,
+            Channel next) {
+        if (method.getType() != MethodDescriptor.MethodType.UNARY
+                || !RetryPolicy.isReadMethod(method.getFullMethodName())) {
+            return next.newCall(method, callOptions);
+        }
+        return new CoalescedCall<>(method, callOptions, next);
+    }
+
+    /**
+     * Returns the number of reads sent to the gateway.
+     *
+     * @return sent count
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Returns the number of reads that shared the call of an identical read instead of
+     * being sent.
+     *
+     * @return saved count
+     */
+    public long getSavedCount() {
+        return savedCount.get();
+    }
+
+    private static FlightKey keyOf(String method, Object request, Metadata headers) {
+        TreeMap<String, String> authentication = new TreeMap<>();
+        for (String name : headers.keys()) {
+            if (!name.endsWith(Metadata.BINARY_HEADER_SUFFIX)
+                    && !PER_CALL_HEADERS.contains(name)) {
+                authentication.put(
+                        name,
+                        String.valueOf(headers.getAll(
+                                Metadata.Key.of(name, ASCII_STRING_MARSHALLER))));
+            }
+        }
+        ByteString requestBytes = request instanceof Message
+                ? ((Message) request).toByteString()
+                : ByteString.copyFromUtf8(String.valueOf(request));
+        return new FlightKey(method, requestBytes, authentication);
+    }
+
+    /**
+     * A read that is sent, or joins the call of an identical read.
+     */
+    private final class CoalescedCall<ReqT, ResT> extends ClientCall<ReqT, ResT> {
+        private final MethodDescriptor<ReqT, ResT> method;
+        private final CallOptions callOptions;
+        private final Channel next;
+        private Listener<ResT> listener;
+        private Metadata headers;
+        private ReqT request;
+        private @Nullable Flight<ResT> flight;
+        private boolean cancelled;
+
+        private CoalescedCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions,
+                Channel next) {
+            this.method = method;
+            this.callOptions = callOptions;
+            this.next = next;
+        }
+
+        @Override
+        public void start(Listener<ResT> listener, Metadata headers) {
+            this.listener = listener;
+            this.headers = headers;
+        }
+
+        @Override
+        public void request(int numMessages) {
+            // A flight requests the single response itself.
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+            this.request = message;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void halfClose() {
+            if (cancelled) {
+                return;
+            }
+            FlightKey key = keyOf(method.getFullMethodName(), request, headers);
+            Deadline deadline = callOptions.getDeadline();
+            while (true) {
+                Flight<ResT> existing = (Flight<ResT>) flights.get(key);
+                if (existing != null) {
+                    if (existing.join(listener, deadline)) {
+                        savedCount.incrementAndGet();
+                        flight = existing;
+                        return;
+                    }
+                    break;
+                }
+                Flight<ResT> created = new Flight<>(key, deadline);
+                created.join(listener, deadline);
+                if (flights.putIfAbsent(key, created) == null) {
+                    sentCount.incrementAndGet();
+                    flight = created;
+                    created.send(next.newCall(method, callOptions), headers, request);
+                    return;
+                }
+            }
+            // The identical read in flight may outlive this one: send this one on its own.
+            sentCount.incrementAndGet();
+            Flight<ResT> own = new Flight<>(null, deadline);
+            own.join(listener, deadline);
+            flight = own;
+            own.send(next.newCall(method, callOptions), headers, request);
+        }
+
+        @Override
+        public void cancel(@Nullable String message, @Nullable Throwable cause) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            if (listener != null && (flight == null || flight.leave(listener, message, cause))) {
+                listener.onClose(
+                        Status.CANCELLED.withDescription(message).withCause(cause),
+                        new Metadata());
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+    }
+
+    /**
+     * A gateway call shared by identical reads.
+     */
+    private final class Flight<ResT> extends ClientCall.Listener<ResT> {
+        private final @Nullable FlightKey key;
+        private final @Nullable Deadline deadline;
+        private final List<ClientCall.Listener<ResT>> subscribers = new ArrayList<>();
+        private ClientCall<?, ResT> call;
+        private Metadata responseHeaders;
+        private ResT response;
+        private boolean closed;
+
+        private Flight(@Nullable FlightKey key, @Nullable Deadline deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+
+        private synchronized boolean join(
+                ClientCall.Listener<ResT> subscriber,
+                @Nullable Deadline subscriberDeadline) {
+            if (closed) {
+                return false;
+            }
+            if (subscriberDeadline != null
+                    && (deadline == null || subscriberDeadline.isBefore(deadline))) {
+                return false;
+            }
+            subscribers.add(subscriber);
+            return true;
+        }
+
+        /**
+         * Removes a subscriber, cancelling the call when no subscriber is left.
+         *
+         * @return true if the subscriber was still waiting and has to be closed
+         */
+        private boolean leave(
+                ClientCall.Listener<ResT> subscriber,
+                @Nullable String message,
+                @Nullable Throwable cause) {
+            boolean last;
+            synchronized (this) {
+                if (closed || !subscribers.remove(subscriber)) {
+                    return false;
+                }
+                last = subscribers.isEmpty();
+                if (last) {
+                    closed = true;
+                }
+            }
+            if (last) {
+                if (key != null) {
+                    flights.remove(key, this);
+                }
+                call.cancel(message, cause);
+            }
+            return true;
+        }
+
+        private <ReqT> void send(ClientCall<ReqT, ResT> call, Metadata headers, ReqT request) {
+            this.call = call;
+            call.start(this, headers);
+            call.request(2);
+            call.sendMessage(request);
+            call.halfClose();
+        }
+
+        @Override
+        public void onHeaders(Metadata headers) {
+            this.responseHeaders = headers;
+        }
+
+        @Override
+        public void onMessage(ResT message) {
+            this.response = message;
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            if (key != null) {
+                flights.remove(key, this);
+            }
+            List<ClientCall.Listener<ResT>> waiting;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                waiting = new ArrayList<>(subscribers);
+            }
+            for (ClientCall.Listener<ResT> subscriber : waiting) {
+                if (status.isOk()) {
+                    if (responseHeaders != null) {
+                        subscriber.onHeaders(copyOf(responseHeaders));
+                    }
+                    if (response != null) {
+                        subscriber.onMessage(response);
+                    }
+                }
+                subscriber.onClose(status, copyOf(trailers));
+            }
+        }
+
+        private Metadata copyOf(Metadata metadata) {
+            Metadata copy = new Metadata();
+            copy.merge(metadata);
+            return copy;
+        }
+    }
+
+    /**
+     * Identifies identical reads.
+     */
+    private static final class FlightKey {
+        private final String method;
+        private final ByteString request;
+        private final TreeMap<String, String> authentication;
+        private final int hashCode;
+
+        private FlightKey(
+                String method,
+                ByteString request,
+                TreeMap<String, String> authentication) {
+            this.method = method;
+            this.request = request;
+            this.authentication = authentication;
+            this.hashCode = Objects.hash(method, request, authentication);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FlightKey)) {
+                return false;
+            }
+            FlightKey other = (FlightKey) obj;
+            return hashCode == other.hashCode
+                    && method.equals(other.method)
+                    && request.equals(other.request)
+                    && authentication.equals(other.authentication);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
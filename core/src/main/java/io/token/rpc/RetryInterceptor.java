@@ -0,0 +1,469 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Deadline;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Retries and hedges unary gateway calls according to a {@link RetryPolicy}.
+ * <br>
+ * The response of an attempt is held back until the attempt completes, so a failed
+ * attempt can be replaced without the caller noticing. Attempts share the deadline of the
+ * call: install this interceptor beneath the {@link DeadlineInterceptor}.
+ */
+public final class RetryInterceptor implements ClientInterceptor {
+    private static final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("token-rpc-retry-%d")
+                    .setDaemon(true)
+                    .build());
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final RetryPolicy policy;
+    private final Budget budget;
+    private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+
+    /**
+     * Creates an interceptor.
+     *
+     * @param policy retry policy
+     */
+    public RetryInterceptor(RetryPolicy policy) {
+        this.policy = policy;
+        this.budget = new Budget(policy.getBudgetTokens(), policy.getBudgetTokenRatio());
+    }
+
+    @Override
+    public <ReqT, ResT> ClientCall<ReqT, ResT> interceptCall(
+            MethodDescriptor<ReqT, ResT> method,
+            CallOptions callOptions,
+            Channel next) {
+        if (method.getType() != MethodDescriptor.MethodType.UNARY
+                || policy.getMaxAttempts() == 1) {
+            return next.newCall(method, callOptions);
+        }
+        return new RetryingCall<>(method, callOptions, next);
+    }
+
+    /**
+     * Returns the number of retries sent after a failed attempt.
+     *
+     * @return retry count
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Returns the number of hedged attempts sent while an earlier attempt was running.
+     *
+     * @return hedge count
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Returns the number of failures returned without a retry because the budget was
+     * exhausted.
+     *
+     * @return throttled count
+     */
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * A unary call made of one or more attempts.
+     */
+    private final class RetryingCall<ReqT, ResT> extends ClientCall<ReqT, ResT> {
+        private final MethodDescriptor<ReqT, ResT> method;
+        private final CallOptions callOptions;
+        private final Channel next;
+        private final List<Attempt> active = new ArrayList<>();
+        private Listener<ResT> listener;
+        private Metadata headers;
+        private ReqT request;
+        private boolean read;
+        private boolean retryable;
+        private int attempts;
+        private boolean cancelled;
+        private boolean done;
+        private @Nullable ScheduledFuture<?> retryTimer;
+        private @Nullable ScheduledFuture<?> hedgeTimer;
+
+        private RetryingCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions,
+                Channel next) {
+            this.method = method;
+            this.callOptions = callOptions;
+            this.next = next;
+        }
+
+        @Override
+        public void start(Listener<ResT> listener, Metadata headers) {
+            this.listener = listener;
+            this.headers = headers;
+        }
+
+        @Override
+        public void request(int numMessages) {
+            // Attempts request their single response themselves.
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+            this.request = message;
+        }
+
+        @Override
+        public void halfClose() {
+            read = policy.isRead(method.getFullMethodName());
+            retryable = read || RetryPolicy.carriesRefId(request);
+            startAttempt();
+            if (read && policy.isHedging()) {
+                scheduleHedge();
+            }
+        }
+
+        @Override
+        public void cancel(@Nullable String message, @Nullable Throwable cause) {
+            List<Attempt> attemptsToCancel;
+            boolean noAttempts;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                cancelled = true;
+                cancelTimers();
+                noAttempts = active.isEmpty();
+                done = noAttempts;
+                attemptsToCancel = startedAttempts(active, message, cause);
+            }
+            for (Attempt attempt : attemptsToCancel) {
+                attempt.call.cancel(message, cause);
+            }
+            if (noAttempts && listener != null) {
+                listener.onClose(
+                        Status.CANCELLED.withDescription(message).withCause(cause),
+                        new Metadata());
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        private boolean startAttempt() {
+            Attempt attempt;
+            synchronized (this) {
+                if (done || cancelled) {
+                    return false;
+                }
+                attempts++;
+                attempt = new Attempt(next.newCall(method, attemptOptions()));
+                active.add(attempt);
+            }
+            // Started outside the lock. A cancel that arrives before the attempt has started
+            // is only recorded, since a call must not be started after it is cancelled, and
+            // is applied here once the attempt is running; its onClose then completes the
+            // call.
+            attempt.start();
+            boolean cancelNow;
+            synchronized (this) {
+                attempt.started = true;
+                cancelNow = attempt.cancelRequested;
+            }
+            if (cancelNow) {
+                attempt.call.cancel(attempt.cancelMessage, attempt.cancelCause);
+            }
+            return true;
+        }
+
+        /**
+         * Returns the attempts that have started, to be cancelled by the caller once the
+         * lock is released, and records the cancel for the others. Must hold the lock.
+         */
+        private List<Attempt> startedAttempts(
+                List<Attempt> attempts,
+                @Nullable String message,
+                @Nullable Throwable cause) {
+            List<Attempt> started = new ArrayList<>();
+            for (Attempt attempt : attempts) {
+                if (attempt.started) {
+                    started.add(attempt);
+                } else {
+                    attempt.cancelRequested = true;
+                    attempt.cancelMessage = message;
+                    attempt.cancelCause = cause;
+                }
+            }
+            return started;
+        }
+
+        private CallOptions attemptOptions() {
+            long timeoutMs = policy.getPerAttemptTimeoutMs();
+            if (timeoutMs == 0) {
+                return callOptions;
+            }
+            Deadline attemptDeadline = Deadline.after(timeoutMs, MILLISECONDS);
+            Deadline deadline = callOptions.getDeadline();
+            return deadline != null && deadline.isBefore(attemptDeadline)
+                    ? callOptions
+                    : callOptions.withDeadline(attemptDeadline);
+        }
+
+        private void scheduleHedge() {
+            long delayMs = hedgeDelayMs(method.getFullMethodName());
+            if (delayMs < 0) {
+                return;
+            }
+            synchronized (this) {
+                if (!done && !cancelled) {
+                    hedgeTimer = scheduler.schedule(this::hedge, delayMs, MILLISECONDS);
+                }
+            }
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (done
+                        || cancelled
+                        || attempts >= policy.getMaxAttempts()
+                        || !budget.canRetry()) {
+                    return;
+                }
+            }
+            if (startAttempt()) {
+                hedgeCount.incrementAndGet();
+                scheduleHedge();
+            }
+        }
+
+        private void onAttemptClosed(Attempt attempt, Status status, Metadata trailers) {
+            List<Attempt> losers;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                active.remove(attempt);
+                if (status.isOk()) {
+                    budget.onSuccess();
+                    latencyWindow(method.getFullMethodName()).record(attempt.elapsedMs());
+                } else if (!cancelled && retryable && policy.isRetryable(status)) {
+                    budget.onFailure();
+                    if (!active.isEmpty()) {
+                        // A hedged attempt is still running and may succeed.
+                        return;
+                    }
+                    if (scheduleRetry()) {
+                        return;
+                    }
+                }
+                done = true;
+                cancelTimers();
+                losers = startedAttempts(active, "Another attempt completed", null);
+                active.clear();
+            }
+            for (Attempt loser : losers) {
+                loser.call.cancel("Another attempt completed", null);
+            }
+            if (status.isOk()) {
+                if (attempt.responseHeaders != null) {
+                    listener.onHeaders(attempt.responseHeaders);
+                }
+                if (attempt.response != null) {
+                    listener.onMessage(attempt.response);
+                }
+            }
+            listener.onClose(status, trailers);
+        }
+
+        private boolean scheduleRetry() {
+            if (attempts >= policy.getMaxAttempts()) {
+                return false;
+            }
+            if (!budget.canRetry()) {
+                throttledCount.incrementAndGet();
+                return false;
+            }
+            long backoffMs = policy.backoffMs(attempts);
+            Deadline deadline = callOptions.getDeadline();
+            if (deadline != null && deadline.timeRemaining(MILLISECONDS) <= backoffMs) {
+                return false;
+            }
+            retryCount.incrementAndGet();
+            retryTimer = scheduler.schedule(this::startAttempt, backoffMs, MILLISECONDS);
+            return true;
+        }
+
+        private void cancelTimers() {
+            if (retryTimer != null) {
+                retryTimer.cancel(false);
+            }
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+            }
+        }
+
+        /**
+         * A single attempt, holding back its response until it completes.
+         */
+        private final class Attempt extends ClientCall.Listener<ResT> {
+            private final ClientCall<ReqT, ResT> call;
+            private final long startNanos = System.nanoTime();
+            // Guarded by the lock of the call.
+            private boolean started;
+            private boolean cancelRequested;
+            private @Nullable String cancelMessage;
+            private @Nullable Throwable cancelCause;
+            private Metadata responseHeaders;
+            private ResT response;
+
+            private Attempt(ClientCall<ReqT, ResT> call) {
+                this.call = call;
+            }
+
+            private void start() {
+                Metadata attemptHeaders = new Metadata();
+                attemptHeaders.merge(headers);
+                call.start(this, attemptHeaders);
+                call.request(2);
+                call.sendMessage(request);
+                call.halfClose();
+            }
+
+            private long elapsedMs() {
+                return (System.nanoTime() - startNanos) / 1_000_000;
+            }
+
+            @Override
+            public void onHeaders(Metadata headers) {
+                this.responseHeaders = headers;
+            }
+
+            @Override
+            public void onMessage(ResT message) {
+                this.response = message;
+            }
+
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+                onAttemptClosed(this, status, trailers);
+            }
+        }
+    }
+
+    private long hedgeDelayMs(String method) {
+        long p95 = latencyWindow(method).percentile95();
+        return p95 < 0 ? -1 : Math.max(p95, policy.getMinHedgeDelayMs());
+    }
+
+    private LatencyWindow latencyWindow(String method) {
+        LatencyWindow window = latencies.get(method);
+        return window != null
+                ? window
+                : latencies.computeIfAbsent(method, m -> new LatencyWindow());
+    }
+
+    /**
+     * Recent latencies of one method.
+     */
+    private static final class LatencyWindow {
+        private static final int SIZE = 128;
+        private static final int RECOMPUTE_EVERY = 16;
+
+        private final long[] samples = new long[SIZE];
+        private long count;
+        private volatile long percentile95 = -1;
+
+        private synchronized void record(long latencyMs) {
+            samples[(int) (count % SIZE)] = latencyMs;
+            count++;
+            if (count >= MIN_HEDGE_SAMPLES
+                    && (count == MIN_HEDGE_SAMPLES || count % RECOMPUTE_EVERY == 0)) {
+                long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, SIZE));
+                Arrays.sort(sorted);
+                percentile95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+            }
+        }
+
+        private long percentile95() {
+            return percentile95;
+        }
+    }
+
+    /**
+     * Token bucket that bounds retries, kept in thousandths of a token.
+     */
+    private static final class Budget {
+        private final int maxTokens;
+        private final int tokenRatio;
+        private final AtomicInteger tokens;
+
+        private Budget(int maxTokens, double tokenRatio) {
+            this.maxTokens = maxTokens * 1000;
+            this.tokenRatio = (int) (tokenRatio * 1000);
+            this.tokens = new AtomicInteger(this.maxTokens);
+        }
+
+        private boolean canRetry() {
+            return tokens.get() > maxTokens / 2;
+        }
+
+        private void onFailure() {
+            tokens.updateAndGet(current -> Math.max(0, current - 1000));
+        }
+
+        private void onSuccess() {
+            tokens.updateAndGet(current -> Math.min(maxTokens, current + tokenRatio));
+        }
+    }
+}
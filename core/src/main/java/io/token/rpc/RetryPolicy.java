@@ -0,0 +1,349 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.grpc.Status.Code.DEADLINE_EXCEEDED;
+import static io.grpc.Status.Code.UNAVAILABLE;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import io.grpc.Status;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which gateway calls are retried, how often and how fast.
+ * <br>
+ * Reads, i.e. methods whose name starts with "Get" or "Resolve", are retried with
+ * exponential backoff and can be hedged: when a read takes longer than the 95th
+ * percentile of its method, a second copy is sent and the first answer wins. Writes are
+ * only retried when their request carries a refId, which lets the gateway recognize
+ * repeated submissions, and are never hedged.
+ * <br>
+ * Retries draw from a budget shared by all calls of a client. Every retryable failure
+ * takes a token from it and every success puts back a fraction of one; once the budget
+ * is half empty, failures are returned to the caller as they are, so that retries cannot
+ * multiply the load on a gateway that is already failing.
+ */
+public final class RetryPolicy {
+    private static final String REF_ID_FIELD = "ref_id";
+    private static final String PAYLOAD_FIELD = "payload";
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final double backoffMultiplier;
+    private final long perAttemptTimeoutMs;
+    private final boolean hedging;
+    private final long minHedgeDelayMs;
+    private final int budgetTokens;
+    private final double budgetTokenRatio;
+    private final Set<Status.Code> retryableCodes;
+    private final Set<String> reads;
+    private final Set<String> writes;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMs = builder.initialBackoffMs;
+        this.maxBackoffMs = builder.maxBackoffMs;
+        this.backoffMultiplier = builder.backoffMultiplier;
+        this.perAttemptTimeoutMs = builder.perAttemptTimeoutMs;
+        this.hedging = builder.hedging;
+        this.minHedgeDelayMs = builder.minHedgeDelayMs;
+        this.budgetTokens = builder.budgetTokens;
+        this.budgetTokenRatio = builder.budgetTokenRatio;
+        this.retryableCodes = Collections.unmodifiableSet(EnumSet.copyOf(builder.retryableCodes));
+        this.reads = Collections.unmodifiableSet(new HashSet<>(builder.reads));
+        this.writes = Collections.unmodifiableSet(new HashSet<>(builder.writes));
+    }
+
+    /**
+     * Creates a policy with the default settings: up to 3 attempts, backoff from 100ms to
+     * 2s, retries on UNAVAILABLE and DEADLINE_EXCEEDED, no hedging.
+     *
+     * @return retry policy
+     */
+    public static RetryPolicy defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Creates a new builder.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Checks whether a gateway method is an idempotent read.
+     *
+     * @param fullMethodName full gRPC method name or the bare method name
+     * @return true if the method only reads
+     */
+    public boolean isRead(String fullMethodName) {
+        String method = fullMethodName.substring(fullMethodName.lastIndexOf('/') + 1);
+        if (reads.contains(method)) {
+            return true;
+        }
+        if (writes.contains(method)) {
+            return false;
+        }
+        return isReadMethod(method);
+    }
+
+    /**
+     * Checks whether a gateway method is a read by its name alone.
+     *
+     * @param fullMethodName full gRPC method name or the bare method name
+     * @return true if the method name starts with "Get" or "Resolve"
+     */
+    public static boolean isReadMethod(String fullMethodName) {
+        String method = fullMethodName.substring(fullMethodName.lastIndexOf('/') + 1);
+        return method.startsWith("Get") || method.startsWith("Resolve");
+    }
+
+    /**
+     * Checks whether a failed call may be attempted again.
+     *
+     * @param status status of the failed call
+     * @return true if the status is retryable
+     */
+    public boolean isRetryable(Status status) {
+        return retryableCodes.contains(status.getCode());
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getPerAttemptTimeoutMs() {
+        return perAttemptTimeoutMs;
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    public long getMinHedgeDelayMs() {
+        return minHedgeDelayMs;
+    }
+
+    public int getBudgetTokens() {
+        return budgetTokens;
+    }
+
+    public double getBudgetTokenRatio() {
+        return budgetTokenRatio;
+    }
+
+    /**
+     * Returns how long to wait before a retry, with full jitter.
+     *
+     * @param attempts number of attempts made so far
+     * @return backoff in milliseconds
+     */
+    long backoffMs(int attempts) {
+        double backoff = initialBackoffMs * Math.pow(backoffMultiplier, attempts - 1);
+        long capped = (long) Math.min(backoff, maxBackoffMs);
+        return capped <= 0 ? 0 : ThreadLocalRandom.current().nextLong(capped + 1);
+    }
+
+    /**
+     * Checks whether a request carries a refId, either directly or in its payload, as
+     * transfer and token creation requests do.
+     *
+     * @param request request message
+     * @return true if a non-empty refId is set
+     */
+    static boolean carriesRefId(Object request) {
+        if (!(request instanceof Message)) {
+            return false;
+        }
+        Message message = (Message) request;
+        if (hasRefId(message)) {
+            return true;
+        }
+        FieldDescriptor payload = message.getDescriptorForType().findFieldByName(PAYLOAD_FIELD);
+        return payload != null
+                && !payload.isRepeated()
+                && payload.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+                && message.hasField(payload)
+                && hasRefId((Message) message.getField(payload));
+    }
+
+    private static boolean hasRefId(Message message) {
+        FieldDescriptor refId = message.getDescriptorForType().findFieldByName(REF_ID_FIELD);
+        return refId != null
+                && !refId.isRepeated()
+                && refId.getJavaType() == FieldDescriptor.JavaType.STRING
+                && !((String) message.getField(refId)).isEmpty();
+    }
+
+    /**
+     * Builds a {@link RetryPolicy}.
+     */
+    public static final class Builder {
+        private int maxAttempts = 3;
+        private long initialBackoffMs = 100;
+        private long maxBackoffMs = 2_000;
+        private double backoffMultiplier = 2.0;
+        private long perAttemptTimeoutMs;
+        private boolean hedging;
+        private long minHedgeDelayMs = 50;
+        private int budgetTokens = 10;
+        private double budgetTokenRatio = 0.1;
+        private final Set<Status.Code> retryableCodes = EnumSet.of(UNAVAILABLE, DEADLINE_EXCEEDED);
+        private final Set<String> reads = new HashSet<>();
+        private final Set<String> writes = new HashSet<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the maximum number of attempts of a call, including the first one and any
+         * hedged copies.
+         *
+         * @param maxAttempts maximum number of attempts
+         * @return this builder
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            checkArgument(maxAttempts >= 1, "At least one attempt is needed");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the exponential backoff between attempts.
+         *
+         * @param initialBackoffMs upper bound of the first backoff
+         * @param maxBackoffMs upper bound of any backoff
+         * @param multiplier growth of the bound after each attempt
+         * @return this builder
+         */
+        public Builder backoff(long initialBackoffMs, long maxBackoffMs, double multiplier) {
+            checkArgument(initialBackoffMs >= 0 && maxBackoffMs >= initialBackoffMs,
+                    "Invalid backoff bounds");
+            checkArgument(multiplier >= 1, "Backoff multiplier must be at least 1");
+            this.initialBackoffMs = initialBackoffMs;
+            this.maxBackoffMs = maxBackoffMs;
+            this.backoffMultiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Sets the timeout of a single attempt. An attempt that times out is retried as
+         * long as the deadline of the call has not passed. By default an attempt can use
+         * all of the call's deadline.
+         *
+         * @param perAttemptTimeoutMs attempt timeout in milliseconds, or 0 for none
+         * @return this builder
+         */
+        public Builder perAttemptTimeout(long perAttemptTimeoutMs) {
+            checkArgument(perAttemptTimeoutMs >= 0, "Timeout must not be negative");
+            this.perAttemptTimeoutMs = perAttemptTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Enables hedged reads. A read that has not completed after the 95th percentile of
+         * its method's recent latencies, and at least after the given delay, is sent again.
+         *
+         * @param minHedgeDelayMs minimum delay before a hedged attempt
+         * @return this builder
+         */
+        public Builder hedgeReads(long minHedgeDelayMs) {
+            checkArgument(minHedgeDelayMs >= 0, "Delay must not be negative");
+            this.hedging = true;
+            this.minHedgeDelayMs = minHedgeDelayMs;
+            return this;
+        }
+
+        /**
+         * Sets the retry budget.
+         *
+         * @param tokens size of the budget; retries stop while less than half is left
+         * @param tokenRatio fraction of a token a successful call puts back
+         * @return this builder
+         */
+        public Builder budget(int tokens, double tokenRatio) {
+            checkArgument(tokens > 0, "Budget must be positive");
+            checkArgument(tokenRatio > 0 && tokenRatio <= 1, "Token ratio must be in (0, 1]");
+            this.budgetTokens = tokens;
+            this.budgetTokenRatio = tokenRatio;
+            return this;
+        }
+
+        /**
+         * Sets the status codes that are retried.
+         *
+         * @param codes retryable status codes
+         * @return this builder
+         */
+        public Builder retryOn(Status.Code... codes) {
+            checkArgument(codes.length > 0, "At least one status code is needed");
+            this.retryableCodes.clear();
+            Collections.addAll(this.retryableCodes, codes);
+            return this;
+        }
+
+        /**
+         * Marks a gateway method as an idempotent read.
+         *
+         * @param method bare gateway method name
+         * @return this builder
+         */
+        public Builder read(String method) {
+            writes.remove(method);
+            reads.add(method);
+            return this;
+        }
+
+        /**
+         * Marks a gateway method as a write, e.g. a "Get" method with side effects.
+         *
+         * @param method bare gateway method name
+         * @return this builder
+         */
+        public Builder write(String method) {
+            reads.remove(method);
+            writes.add(method);
+            return this;
+        }
+
+        /**
+         * Builds the policy.
+         *
+         * @return retry policy
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
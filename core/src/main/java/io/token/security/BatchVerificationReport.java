@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.List;
+
+/**
+ * The outcome of verifying a batch of signatures with {@link BatchVerifier#verify}.
+ */
+@AutoValue
+public abstract class BatchVerificationReport {
+    public static BatchVerificationReport create(
+            int itemCount,
+            List<Integer> failedIndexes,
+            long durationMs) {
+        return new AutoValue_BatchVerificationReport(itemCount, failedIndexes, durationMs);
+    }
+
+    /**
+     * Get the number of signatures verified.
+     *
+     * @return item count
+     */
+    public abstract int getItemCount();
+
+    /**
+     * Get the positions in the batch of the signatures that failed to verify, in order.
+     *
+     * @return failed indexes
+     */
+    public abstract List<Integer> getFailedIndexes();
+
+    /**
+     * Get how long verification took.
+     *
+     * @return duration in milliseconds
+     */
+    public abstract long getDurationMs();
+
+    /**
+     * Returns whether every signature in the batch verified.
+     *
+     * @return true if no signature failed
+     */
+    public boolean allVerified() {
+        return getFailedIndexes().isEmpty();
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.security.crypto.Crypto;
+import io.token.security.crypto.CryptoRegistry;
+import io.token.security.crypto.CryptoType;
+
+import java.io.Closeable;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies many signatures together, e.g. the payload signatures of a list of tokens or a
+ * burst of webhook events, and reports which of them failed.
+ * <br>
+ * A verifier is created once per distinct key of a batch. Batches are split into chunks
+ * verified in parallel by the calling thread and a pool of worker threads; small batches
+ * are verified on the calling thread only. Crypto types pinned to a JCA provider by the
+ * {@link CryptoProviders}, e.g. Ed25519 to the JDK's provider, are verified with that
+ * provider.
+ */
+public final class BatchVerifier implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(BatchVerifier.class);
+    private static final int CHUNK_SIZE = 32;
+
+    private final int parallelism;
+    private final int inlineBelow;
+    private final CryptoProviders providers;
+    private final @Nullable ExecutorService pool;
+
+    private BatchVerifier(Builder builder) {
+        this.parallelism = builder.parallelism;
+        this.inlineBelow = builder.inlineBelow;
+        this.providers = builder.providers;
+        this.pool = parallelism == 1
+                ? null
+                : Executors.newFixedThreadPool(parallelism - 1, new ThreadFactoryBuilder()
+                        .setNameFormat("token-batch-verify-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /**
+     * Creates a builder with the default settings.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Verifies the signatures of a batch. A signature fails if it does not match its
+     * payload, or if its key cannot be used.
+     *
+     * @param items payloads with their signatures and keys
+     * @return report listing the failed items
+     */
+    public BatchVerificationReport verify(List<SignedPayload> items) {
+        return verify(items, this::verifierFor);
+    }
+
+    /**
+     * Verifies the signatures of a batch with verifiers created by the caller, e.g. verifiers
+     * kept across batches. The verifier of each distinct key is asked for once per batch.
+     *
+     * @param items payloads with their signatures and keys
+     * @param verifierFactory creates the verifier of a key
+     * @return report listing the failed items
+     */
+    public BatchVerificationReport verify(
+            List<SignedPayload> items,
+            Function<Key, Verifier> verifierFactory) {
+        long start = System.nanoTime();
+        boolean[] failed = new boolean[items.size()];
+        Map<Key, Verifier> verifiers = new ConcurrentHashMap<>();
+        int chunkCount = (items.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        AtomicInteger nextChunk = new AtomicInteger();
+        Runnable worker = () -> {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                int end = Math.min(items.size(), (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                    failed[i] = !verify(items.get(i), verifiers, verifierFactory);
+                }
+            }
+        };
+
+        if (pool == null || items.size() < inlineBelow) {
+            worker.run();
+        } else {
+            List<Future<?>> helpers = new ArrayList<>();
+            for (int i = 1; i < Math.min(parallelism, chunkCount); i++) {
+                helpers.add(pool.submit(worker));
+            }
+            worker.run();
+            awaitAll(helpers);
+        }
+
+        List<Integer> failedIndexes = new ArrayList<>();
+        for (int i = 0; i < failed.length; i++) {
+            if (failed[i]) {
+                failedIndexes.add(i);
+            }
+        }
+        return BatchVerificationReport.create(
+                items.size(),
+                Collections.unmodifiableList(failedIndexes),
+                NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static boolean verify(
+            SignedPayload item,
+            Map<Key, Verifier> verifiers,
+            Function<Key, Verifier> verifierFactory) {
+        try {
+            verifiers.computeIfAbsent(item.getKey(), verifierFactory)
+                    .verify(item.getPayload(), item.getSignature());
+            return true;
+        } catch (RuntimeException e) {
+            logger.debug("Signature with key {} failed to verify", item.getKey().getId(), e);
+            return false;
+        }
+    }
+
+    private Verifier verifierFor(Key key) {
+        Crypto crypto = CryptoRegistry.getInstance().cryptoFor(key.getAlgorithm());
+        PublicKey publicKey = crypto.toPublicKey(key.getPublicKey());
+        CryptoType cryptoType = toCryptoType(key.getAlgorithm());
+        Verifier verifier = cryptoType == null
+                ? null
+                : providers.verifier(cryptoType, publicKey);
+        return verifier != null ? verifier : crypto.verifier(publicKey);
+    }
+
+    private static void awaitAll(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Batch verification failed", e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Nullable
+    private static CryptoType toCryptoType(Key.Algorithm algorithm) {
+        switch (algorithm) {
+            case ED25519:
+                return CryptoType.EDDSA;
+            case ECDSA_SHA256:
+                return CryptoType.ECDSA_SHA256;
+            case RS256:
+                return CryptoType.RS256;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Builds a {@link BatchVerifier}.
+     */
+    public static final class Builder {
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int inlineBelow = 64;
+        private CryptoProviders providers = CryptoProviders.none();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets how many threads verify a batch, including the calling thread.
+         *
+         * @param parallelism number of threads
+         * @return this builder
+         */
+        public Builder parallelism(int parallelism) {
+            checkArgument(parallelism > 0, "Parallelism must be positive");
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the batch size below which a batch is verified on the calling thread only.
+         *
+         * @param inlineBelow batch size
+         * @return this builder
+         */
+        public Builder inlineBelow(int inlineBelow) {
+            checkArgument(inlineBelow >= 0, "Batch size must not be negative");
+            this.inlineBelow = inlineBelow;
+            return this;
+        }
+
+        /**
+         * Sets the JCA providers to verify pinned crypto types with.
+         *
+         * @param providers crypto providers
+         * @return this builder
+         */
+        public Builder providers(CryptoProviders providers) {
+            this.providers = providers;
+            return this;
+        }
+
+        /**
+         * Builds the verifier.
+         *
+         * @return batch verifier
+         */
+        public BatchVerifier build() {
+            return new BatchVerifier(this);
+        }
+    }
+}
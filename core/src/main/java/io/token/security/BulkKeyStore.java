@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link KeyStore} that can list its members and load the keys of many members at once,
+ * e.g. to warm it up with the members about to be used after a restart.
+ */
+public interface BulkKeyStore extends KeyStore {
+    /**
+     * Lists the members with keys in the storage.
+     *
+     * @return member IDs
+     */
+    List<String> listMembers();
+
+    /**
+     * Deletes one key of a member in place, e.g. a key replaced by a rotation, leaving the
+     * other keys of the member usable throughout. Does nothing if the member has no such
+     * key.
+     *
+     * @param memberId Id of member
+     * @param keyId ID of the key to delete
+     */
+    void deleteKey(String memberId, String keyId);
+
+    /**
+     * Loads the keys of the given members on a bounded pool of threads, so that their first
+     * use does not wait for reading and decoding them. Stores that keep decoded keys keep
+     * the loaded ones, up to their bound; the others only get their files cached by the OS.
+     * Blocks until done.
+     *
+     * @param memberIds members whose keys to load
+     * @param parallelism number of threads loading keys
+     * @param listener notified of the progress from the loading threads, or null
+     * @return preload report
+     */
+    default PreloadReport preload(
+            Collection<String> memberIds,
+            int parallelism,
+            @Nullable PreloadListener listener) {
+        return KeyPreloader.preload(this, memberIds, parallelism, listener);
+    }
+
+    /**
+     * Notified as members get loaded by {@link #preload}.
+     */
+    interface PreloadListener {
+        /**
+         * Called after the keys of a member were loaded, or failed to load.
+         *
+         * @param doneCount number of members done so far
+         * @param totalCount number of members to load
+         */
+        void onProgress(int doneCount, int totalCount);
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.token.security.crypto.CryptoType;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * The JCA providers that signing and verification are pinned to, by crypto type. Crypto
+ * types without a pinned provider are signed and verified by the security library, with
+ * whichever provider it picks.
+ * <br>
+ * Keys are translated into keys of the pinned provider once per signer or verifier, so keys
+ * generated or stored by another provider can be used.
+ */
+public final class CryptoProviders {
+    private static final CryptoProviders NONE = builder().build();
+
+    private final Map<CryptoType, Pin> pins;
+
+    private CryptoProviders(Map<CryptoType, Pin> pins) {
+        this.pins = pins;
+    }
+
+    /**
+     * Returns the providers that pin no crypto type.
+     *
+     * @return crypto providers
+     */
+    public static CryptoProviders none() {
+        return NONE;
+    }
+
+    /**
+     * Creates a builder that pins no crypto type.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the provider a crypto type is pinned to.
+     *
+     * @param cryptoType crypto type
+     * @return provider, or null if the crypto type is not pinned
+     */
+    @Nullable
+    public Provider getProvider(CryptoType cryptoType) {
+        Pin pin = pins.get(cryptoType);
+        return pin == null ? null : pin.provider;
+    }
+
+    /**
+     * Creates a signer with the provider the crypto type is pinned to.
+     *
+     * @param cryptoType crypto type
+     * @param key key to sign with
+     * @return signer, or null if the crypto type is not pinned
+     */
+    @Nullable
+    Signer signer(CryptoType cryptoType, SecretKey key) {
+        Pin pin = pins.get(cryptoType);
+        return pin == null
+                ? null
+                : new JcaSigner(key.getId(), pin.translate(key.getPrivateKey()), pin);
+    }
+
+    /**
+     * Creates a verifier with the provider the crypto type is pinned to.
+     *
+     * @param cryptoType crypto type
+     * @param key key to verify with
+     * @return verifier, or null if the crypto type is not pinned
+     */
+    @Nullable
+    Verifier verifier(CryptoType cryptoType, SecretKey key) {
+        return verifier(cryptoType, key.getPublicKey());
+    }
+
+    /**
+     * Creates a verifier with the provider the crypto type is pinned to.
+     *
+     * @param cryptoType crypto type
+     * @param publicKey key to verify with
+     * @return verifier, or null if the crypto type is not pinned
+     */
+    @Nullable
+    Verifier verifier(CryptoType cryptoType, PublicKey publicKey) {
+        Pin pin = pins.get(cryptoType);
+        return pin == null ? null : new JcaVerifier(pin.translate(publicKey), pin);
+    }
+
+    private static String defaultSignatureAlgorithm(CryptoType cryptoType) {
+        switch (cryptoType) {
+            case EDDSA:
+                return "Ed25519";
+            case ECDSA_SHA256:
+                return "SHA256withECDSA";
+            case RS256:
+                return "SHA256withRSA";
+            default:
+                throw new IllegalArgumentException("Unsupported crypto type: " + cryptoType);
+        }
+    }
+
+    private static String keyAlgorithm(CryptoType cryptoType) {
+        switch (cryptoType) {
+            case EDDSA:
+                return "Ed25519";
+            case ECDSA_SHA256:
+                return "EC";
+            case RS256:
+                return "RSA";
+            default:
+                throw new IllegalArgumentException("Unsupported crypto type: " + cryptoType);
+        }
+    }
+
+    /**
+     * A provider and the algorithms a crypto type uses with it.
+     */
+    static final class Pin {
+        private final Provider provider;
+        private final String signatureAlgorithm;
+        private final String keyAlgorithm;
+
+        private Pin(Provider provider, String signatureAlgorithm, String keyAlgorithm) {
+            this.provider = provider;
+            this.signatureAlgorithm = signatureAlgorithm;
+            this.keyAlgorithm = keyAlgorithm;
+        }
+
+        String getSignatureAlgorithm() {
+            return signatureAlgorithm;
+        }
+
+        Signature newSignature() throws GeneralSecurityException {
+            return Signature.getInstance(signatureAlgorithm, provider);
+        }
+
+        private PrivateKey translate(PrivateKey key) {
+            try {
+                return KeyFactory.getInstance(keyAlgorithm, provider)
+                        .generatePrivate(new PKCS8EncodedKeySpec(key.getEncoded()));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(
+                        "Unable to use key with provider " + provider.getName(),
+                        e);
+            }
+        }
+
+        private PublicKey translate(PublicKey key) {
+            try {
+                return KeyFactory.getInstance(keyAlgorithm, provider)
+                        .generatePublic(new X509EncodedKeySpec(key.getEncoded()));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(
+                        "Unable to use key with provider " + provider.getName(),
+                        e);
+            }
+        }
+    }
+
+    /**
+     * Builds {@link CryptoProviders}.
+     */
+    public static final class Builder {
+        private final Map<CryptoType, Pin> pins = new EnumMap<>(CryptoType.class);
+
+        private Builder() {
+        }
+
+        /**
+         * Pins a crypto type to an installed provider.
+         *
+         * @param cryptoType crypto type
+         * @param providerName name of the provider, e.g. "SunEC"
+         * @return this builder
+         */
+        public Builder pin(CryptoType cryptoType, String providerName) {
+            Provider provider = Security.getProvider(providerName);
+            checkArgument(provider != null, "Provider not installed: %s", providerName);
+            return pin(cryptoType, provider);
+        }
+
+        /**
+         * Pins a crypto type to a provider, using the standard signature algorithm of the
+         * crypto type: Ed25519, SHA256withECDSA or SHA256withRSA.
+         *
+         * @param cryptoType crypto type
+         * @param provider provider
+         * @return this builder
+         */
+        public Builder pin(CryptoType cryptoType, Provider provider) {
+            return pin(cryptoType, provider, defaultSignatureAlgorithm(cryptoType));
+        }
+
+        /**
+         * Pins a crypto type to a provider, using the given signature algorithm, for
+         * providers that name it differently.
+         *
+         * @param cryptoType crypto type
+         * @param provider provider
+         * @param signatureAlgorithm JCA signature algorithm name
+         * @return this builder
+         */
+        public Builder pin(CryptoType cryptoType, Provider provider, String signatureAlgorithm) {
+            Pin pin = new Pin(provider, signatureAlgorithm, keyAlgorithm(cryptoType));
+            try {
+                pin.newSignature();
+                KeyFactory.getInstance(pin.keyAlgorithm, provider);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalArgumentException(
+                        "Provider " + provider.getName() + " does not support " + cryptoType,
+                        e);
+            }
+            pins.put(cryptoType, pin);
+            return this;
+        }
+
+        /**
+         * Builds the providers.
+         *
+         * @return crypto providers
+         */
+        public CryptoProviders build() {
+            return new CryptoProviders(new EnumMap<>(pins));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.annotation.Nullable;
+
+/**
+ * A size-bounded cache of the keys decoded from {@link EncodedKey}s, so that the JCA key
+ * objects of the members in use are kept, and those of the other members are not. The least
+ * recently used keys are dropped first.
+ */
+final class DecodedKeyCache {
+    private final @Nullable Cache<String, Decoded> keys;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxKeys max number of decoded keys, or 0 to decode keys on every use
+     */
+    DecodedKeyCache(long maxKeys) {
+        this.keys = maxKeys > 0
+                ? CacheBuilder.newBuilder().maximumSize(maxKeys).<String, Decoded>build()
+                : null;
+    }
+
+    /**
+     * Returns a key of a member, decoding it if it is not cached, or if the cached key was
+     * decoded from other bytes.
+     *
+     * @param memberId member ID
+     * @param key encoded key
+     * @return decoded key
+     */
+    SecretKey get(String memberId, EncodedKey key) {
+        if (keys == null) {
+            return key.decode();
+        }
+        String cacheKey = cacheKey(memberId, key.getId());
+        Decoded decoded = keys.getIfPresent(cacheKey);
+        if (decoded == null || !decoded.encoded.equals(key)) {
+            decoded = new Decoded(key, key.decode());
+            keys.put(cacheKey, decoded);
+        }
+        return decoded.key;
+    }
+
+    /**
+     * Drops a decoded key, e.g. when it is replaced or deleted.
+     *
+     * @param memberId member ID
+     * @param keyId key ID
+     */
+    void invalidate(String memberId, String keyId) {
+        if (keys != null) {
+            keys.invalidate(cacheKey(memberId, keyId));
+        }
+    }
+
+    /**
+     * Returns the number of decoded keys.
+     *
+     * @return key count
+     */
+    long size() {
+        return keys == null ? 0 : keys.size();
+    }
+
+    private static String cacheKey(String memberId, String keyId) {
+        return memberId + '\n' + keyId;
+    }
+
+    /**
+     * A decoded key, and the bytes it was decoded from.
+     */
+    private static final class Decoded {
+        private final EncodedKey encoded;
+        private final SecretKey key;
+
+        private Decoded(EncodedKey encoded, SecretKey key) {
+            this.encoded = encoded;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import io.token.exceptions.KeyIOException;
+import io.token.proto.common.security.SecurityProtos.Key.Level;
+import io.token.util.Clock;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * A secret key as stored: its metadata and the encoded bytes of its key pair, decoded into
+ * JCA keys only when asked for.
+ */
+final class EncodedKey {
+    private final String id;
+    private final Level level;
+    private final String privateKeyAlgorithm;
+    private final byte[] privateKey;
+    private final String publicKeyAlgorithm;
+    private final byte[] publicKey;
+    private final @Nullable Long expiresAtMs;
+
+    private EncodedKey(
+            String id,
+            Level level,
+            String privateKeyAlgorithm,
+            byte[] privateKey,
+            String publicKeyAlgorithm,
+            byte[] publicKey,
+            @Nullable Long expiresAtMs) {
+        this.id = id;
+        this.level = level;
+        this.privateKeyAlgorithm = privateKeyAlgorithm;
+        this.privateKey = privateKey;
+        this.publicKeyAlgorithm = publicKeyAlgorithm;
+        this.publicKey = publicKey;
+        this.expiresAtMs = expiresAtMs;
+    }
+
+    static EncodedKey of(SecretKey key) {
+        return new EncodedKey(
+                key.getId(),
+                key.getLevel(),
+                key.getPrivateKey().getAlgorithm(),
+                key.getPrivateKey().getEncoded(),
+                key.getPublicKey().getAlgorithm(),
+                key.getPublicKey().getEncoded(),
+                key.getExpiresAtMs());
+    }
+
+    /**
+     * Reads a list of keys written by {@link #writeAll}.
+     *
+     * @param in input
+     * @return keys
+     * @throws IOException if the input ends early
+     */
+    static List<EncodedKey> readAll(DataInputStream in) throws IOException {
+        int keyCount = in.readInt();
+        List<EncodedKey> keys = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            keys.add(read(in));
+        }
+        return keys;
+    }
+
+    /**
+     * Writes a list of keys.
+     *
+     * @param out output
+     * @param keys keys
+     * @throws IOException if the output cannot be written
+     */
+    static void writeAll(DataOutputStream out, List<EncodedKey> keys) throws IOException {
+        out.writeInt(keys.size());
+        for (EncodedKey key : keys) {
+            key.write(out);
+        }
+    }
+
+    private static EncodedKey read(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        Level level = Level.forNumber(in.readInt());
+        String privateKeyAlgorithm = in.readUTF();
+        byte[] privateKey = new byte[in.readInt()];
+        in.readFully(privateKey);
+        String publicKeyAlgorithm = in.readUTF();
+        byte[] publicKey = new byte[in.readInt()];
+        in.readFully(publicKey);
+        Long expiresAtMs = in.readBoolean() ? in.readLong() : null;
+        return new EncodedKey(
+                id,
+                level,
+                privateKeyAlgorithm,
+                privateKey,
+                publicKeyAlgorithm,
+                publicKey,
+                expiresAtMs);
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeUTF(id);
+        out.writeInt(level.getNumber());
+        out.writeUTF(privateKeyAlgorithm);
+        out.writeInt(privateKey.length);
+        out.write(privateKey);
+        out.writeUTF(publicKeyAlgorithm);
+        out.writeInt(publicKey.length);
+        out.write(publicKey);
+        out.writeBoolean(expiresAtMs != null);
+        if (expiresAtMs != null) {
+            out.writeLong(expiresAtMs);
+        }
+    }
+
+    String getId() {
+        return id;
+    }
+
+    Level getLevel() {
+        return level;
+    }
+
+    boolean isExpired(Clock clock) {
+        return expiresAtMs != null && expiresAtMs < clock.getTime();
+    }
+
+    /**
+     * Decodes the key pair with the key factories of its algorithms.
+     *
+     * @return secret key
+     * @throws KeyIOException if the key cannot be decoded
+     */
+    SecretKey decode() {
+        try {
+            PrivateKey privateKey = KeyFactory.getInstance(privateKeyAlgorithm)
+                    .generatePrivate(new PKCS8EncodedKeySpec(this.privateKey));
+            PublicKey publicKey = KeyFactory.getInstance(publicKeyAlgorithm)
+                    .generatePublic(new X509EncodedKeySpec(this.publicKey));
+            return SecretKey.create(
+                    id,
+                    level,
+                    new KeyPair(publicKey, privateKey),
+                    expiresAtMs);
+        } catch (GeneralSecurityException e) {
+            throw new KeyIOException("Unable to decode key: " + id, e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EncodedKey)) {
+            return false;
+        }
+        EncodedKey other = (EncodedKey) o;
+        return id.equals(other.id)
+                && level == other.level
+                && privateKeyAlgorithm.equals(other.privateKeyAlgorithm)
+                && Arrays.equals(privateKey, other.privateKey)
+                && publicKeyAlgorithm.equals(other.publicKeyAlgorithm)
+                && Arrays.equals(publicKey, other.publicKey)
+                && Objects.equals(expiresAtMs, other.expiresAtMs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, level, Arrays.hashCode(publicKey), expiresAtMs);
+    }
+}
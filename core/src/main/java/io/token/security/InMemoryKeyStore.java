@@ -42,7 +42,7 @@ import java.util.Set;
 /**
  * In memory implementation of the {@link KeyStore}. Used for testing.
  */
-public final class InMemoryKeyStore implements KeyStore {
+public final class InMemoryKeyStore implements BulkKeyStore {
     private final Table<String, String, SecretKey> keys = HashBasedTable.create();
     private final Clock clock;
 
@@ -102,6 +102,11 @@ public final class InMemoryKeyStore implements KeyStore {
         return secretKeys;
     }
 
+    @Override
+    public List<String> listMembers() {
+        return new ArrayList<>(keys.rowKeySet());
+    }
+
     /**
      * Deletes keys for a specific member.
      *
@@ -114,4 +119,9 @@ public final class InMemoryKeyStore implements KeyStore {
             keys.remove(memberId, keyId);
         }
     }
+
+    @Override
+    public void deleteKey(String memberId, String keyId) {
+        keys.remove(memberId, keyId);
+    }
 }
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.protobuf.Message;
+import io.token.proto.ProtoJson;
+import io.token.util.codec.ByteEncoding;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+
+/**
+ * Signs payloads with a pinned JCA provider. Each thread initializes its own
+ * {@link Signature} once and reuses it for the following payloads.
+ */
+final class JcaSigner implements Signer {
+    private final String keyId;
+    private final String algorithm;
+    private final ThreadLocal<Signature> signatures;
+
+    JcaSigner(String keyId, PrivateKey privateKey, CryptoProviders.Pin pin) {
+        this.keyId = keyId;
+        this.algorithm = pin.getSignatureAlgorithm();
+        this.signatures = ThreadLocal.withInitial(() -> {
+            try {
+                Signature signature = pin.newSignature();
+                signature.initSign(privateKey);
+                return signature;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to create signer for key " + keyId, e);
+            }
+        });
+    }
+
+    @Override
+    public String getKeyId() {
+        return keyId;
+    }
+
+    @Override
+    public String sign(Message message) {
+        return sign(ProtoJson.toJson(message));
+    }
+
+    @Override
+    public String sign(String payload) {
+        Signature signature = signatures.get();
+        try {
+            signature.update(payload.getBytes(UTF_8));
+            return ByteEncoding.serialize(signature.sign());
+        } catch (GeneralSecurityException e) {
+            signatures.remove();
+            throw new IllegalStateException("Unable to sign with key " + keyId, e);
+        }
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.protobuf.Message;
+import io.token.proto.ProtoJson;
+import io.token.util.codec.ByteEncoding;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+
+/**
+ * Verifies signatures with a pinned JCA provider. Each thread initializes its own
+ * {@link Signature} once and reuses it for the following signatures.
+ */
+final class JcaVerifier implements Verifier {
+    private final ThreadLocal<Signature> signatures;
+
+    JcaVerifier(PublicKey publicKey, CryptoProviders.Pin pin) {
+        this.signatures = ThreadLocal.withInitial(() -> {
+            try {
+                Signature signature = pin.newSignature();
+                signature.initVerify(publicKey);
+                return signature;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to create verifier", e);
+            }
+        });
+    }
+
+    @Override
+    public void verify(Message message, String signature) {
+        verify(ProtoJson.toJson(message), signature);
+    }
+
+    @Override
+    public void verify(String payload, String signature) {
+        Signature verifier = signatures.get();
+        boolean verified;
+        try {
+            verifier.update(payload.getBytes(UTF_8));
+            verified = verifier.verify(ByteEncoding.parse(signature));
+        } catch (SignatureException | IllegalArgumentException e) {
+            signatures.remove();
+            throw new InvalidSignatureException(e);
+        }
+        if (!verified) {
+            throw new InvalidSignatureException("Invalid signature");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.token.security.BulkKeyStore.PreloadListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the keys of many members in parallel, by listing the keys of each.
+ */
+final class KeyPreloader {
+    private static final Logger logger = LoggerFactory.getLogger(KeyPreloader.class);
+
+    private KeyPreloader() {
+    }
+
+    static PreloadReport preload(
+            KeyStore store,
+            Collection<String> memberIds,
+            int parallelism,
+            @Nullable PreloadListener listener) {
+        checkArgument(parallelism > 0, "Parallelism must be positive");
+        long start = System.nanoTime();
+        List<String> members = new ArrayList<>(memberIds);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger keyCount = new AtomicInteger();
+        AtomicInteger failedCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("key-preload-%d")
+                .setDaemon(true)
+                .build());
+        for (int i = 0; i < Math.min(parallelism, members.size()); i++) {
+            pool.execute(() -> {
+                int m;
+                while ((m = next.getAndIncrement()) < members.size()
+                        && !Thread.currentThread().isInterrupted()) {
+                    String memberId = members.get(m);
+                    try {
+                        keyCount.addAndGet(store.listKeys(memberId).size());
+                    } catch (RuntimeException e) {
+                        failedCount.incrementAndGet();
+                        logger.debug("Failed to preload keys of {}", memberId, e);
+                    }
+                    int doneCount = done.incrementAndGet();
+                    if (listener != null) {
+                        listener.onProgress(doneCount, members.size());
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return PreloadReport.create(
+                done.get() - failedCount.get(),
+                keyCount.get(),
+                failedCount.get(),
+                NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import static io.token.exceptions.KeyNotFoundException.keyExpired;
+import static io.token.exceptions.KeyNotFoundException.keyNotFoundForId;
+import static io.token.exceptions.KeyNotFoundException.keyNotFoundForLevel;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.token.exceptions.KeyIOException;
+import io.token.proto.common.security.SecurityProtos;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * In memory implementation of the {@link KeyStore} for many members.
+ * <br>
+ * Where {@link InMemoryKeyStore} holds the decoded keys of every member, this store holds
+ * only their encoded bytes, in direct buffers outside of the Java heap. Keys are decoded
+ * when used, and the most recently used ones are kept in a size-bounded cache.
+ */
+public final class OffHeapKeyStore implements BulkKeyStore {
+    private final ConcurrentMap<String, ByteBuffer> members = new ConcurrentHashMap<>();
+    private final DecodedKeyCache decodedKeys;
+    private final Clock clock;
+
+    /**
+     * Creates a new key store.
+     *
+     * @param maxDecodedKeys max number of decoded keys kept, or 0 to decode keys on every use
+     * @param clock clock
+     */
+    @VisibleForTesting
+    public OffHeapKeyStore(long maxDecodedKeys, Clock clock) {
+        this.decodedKeys = new DecodedKeyCache(maxDecodedKeys);
+        this.clock = clock;
+    }
+
+    /**
+     * Creates a new key store.
+     *
+     * @param maxDecodedKeys max number of decoded keys kept, or 0 to decode keys on every use
+     */
+    public OffHeapKeyStore(long maxDecodedKeys) {
+        this(maxDecodedKeys, new SystemTimeClock());
+    }
+
+    @Override
+    public void put(String memberId, SecretKey key) {
+        if (key.isExpired(clock)) {
+            throw keyExpired(key.getId());
+        }
+        EncodedKey encoded = EncodedKey.of(key);
+        members.compute(memberId, (id, buffer) -> {
+            List<EncodedKey> keys = decode(buffer);
+            keys.removeIf(existing -> existing.getId().equals(encoded.getId()));
+            keys.add(encoded);
+            return encode(keys);
+        });
+        decodedKeys.invalidate(memberId, key.getId());
+    }
+
+    @Override
+    public SecretKey getByLevel(String memberId, SecurityProtos.Key.Level keyLevel) {
+        for (EncodedKey key : decode(members.get(memberId))) {
+            if (key.getLevel() == keyLevel && !key.isExpired(clock)) {
+                return decodedKeys.get(memberId, key);
+            }
+        }
+        throw keyNotFoundForLevel(keyLevel);
+    }
+
+    @Override
+    public SecretKey getById(String memberId, String keyId) {
+        for (EncodedKey key : decode(members.get(memberId))) {
+            if (key.getId().equals(keyId)) {
+                if (key.isExpired(clock)) {
+                    throw keyExpired(keyId);
+                }
+                return decodedKeys.get(memberId, key);
+            }
+        }
+        throw keyNotFoundForId(keyId);
+    }
+
+    @Override
+    public List<SecretKey> listKeys(String memberId) {
+        List<SecretKey> keys = new ArrayList<>();
+        for (EncodedKey key : decode(members.get(memberId))) {
+            if (!key.isExpired(clock)) {
+                keys.add(decodedKeys.get(memberId, key));
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public List<String> listMembers() {
+        return new ArrayList<>(members.keySet());
+    }
+
+    /**
+     * Deletes keys for a specific member.
+     *
+     * @param memberId Id of member
+     */
+    @Override
+    public void deleteKeys(String memberId) {
+        for (EncodedKey key : decode(members.remove(memberId))) {
+            decodedKeys.invalidate(memberId, key.getId());
+        }
+    }
+
+    @Override
+    public void deleteKey(String memberId, String keyId) {
+        members.computeIfPresent(memberId, (id, buffer) -> {
+            List<EncodedKey> keys = decode(buffer);
+            keys.removeIf(existing -> existing.getId().equals(keyId));
+            return keys.isEmpty() ? null : encode(keys);
+        });
+        decodedKeys.invalidate(memberId, keyId);
+    }
+
+    /**
+     * Returns the number of decoded keys kept.
+     *
+     * @return decoded key count
+     */
+    public long getDecodedKeyCount() {
+        return decodedKeys.size();
+    }
+
+    private static List<EncodedKey> decode(@Nullable ByteBuffer buffer) {
+        if (buffer == null) {
+            return new ArrayList<>();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        try {
+            return EncodedKey.readAll(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new KeyIOException("Failed to read keys", e);
+        }
+    }
+
+    private static ByteBuffer encode(List<EncodedKey> keys) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            EncodedKey.writeAll(new DataOutputStream(bytes), keys);
+        } catch (IOException e) {
+            throw new KeyIOException("Failed to write keys", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+        buffer.put(bytes.toByteArray());
+        buffer.flip();
+        return buffer;
+    }
+}
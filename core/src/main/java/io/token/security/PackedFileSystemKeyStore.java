@@ -0,0 +1,1026 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static io.token.exceptions.KeyNotFoundException.keyExpired;
+import static io.token.exceptions.KeyNotFoundException.keyNotFoundForId;
+import static io.token.exceptions.KeyNotFoundException.keyNotFoundForLevel;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.token.exceptions.KeyIOException;
+import io.token.proto.common.security.SecurityProtos.Key.Level;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A key store that packs the keys of many members into a few files on the local file
+ * system, where {@link UnsecuredFileSystemKeyStore} needs a directory per member and a file
+ * per key.
+ * <br>
+ * Members are spread over shards by a hash of their ID. Each shard has an append-only log,
+ * where every change of a member's keys appends a record of all the member's keys, and an
+ * index: a memory-mapped hash table from member to its latest record. Superseded records
+ * are dropped by compacting the log in the background. If the store was not closed cleanly,
+ * the index of each changed shard is rebuilt from its log, discarding a partially written
+ * record at the end of the log. No support is provided for security of key files.
+ */
+public final class PackedFileSystemKeyStore implements BulkKeyStore, Closeable {
+    private static final Logger logger =
+            LoggerFactory.getLogger(PackedFileSystemKeyStore.class);
+    private static final int RECORD_MAGIC = 0x4b455953;
+    private static final int RECORD_HEADER_BYTES = 12;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final Shard[] shards;
+    private final DecodedKeyCache decodedKeys;
+    private final Clock clock;
+    private final boolean syncWrites;
+    private final double compactionRatio;
+    private final long compactionMinBytes;
+    private final ExecutorService compactor;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new key store with the default settings.
+     *
+     * @param keyStoreRoot the directory containing keys, or to add keys to.  Must exist.
+     */
+    public PackedFileSystemKeyStore(File keyStoreRoot) {
+        this(builder(keyStoreRoot));
+    }
+
+    private PackedFileSystemKeyStore(Builder builder) {
+        File root = builder.keyStoreRoot;
+        File[] logs = root.listFiles((dir, name) ->
+                name.startsWith("shard-") && name.endsWith(".log"));
+        checkArgument(
+                logs == null || logs.length == 0 || logs.length == builder.shards,
+                "Key store has %s shards",
+                logs == null ? 0 : logs.length);
+        this.decodedKeys = new DecodedKeyCache(builder.maxDecodedKeys);
+        this.clock = builder.clock;
+        this.syncWrites = builder.syncWrites;
+        this.compactionRatio = builder.compactionRatio;
+        this.compactionMinBytes = builder.compactionMinBytes;
+        this.compactor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("key-store-compaction-%d")
+                .setDaemon(true)
+                .build());
+        this.shards = new Shard[builder.shards];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(root, i);
+        }
+    }
+
+    /**
+     * Creates a builder of a key store in the given directory.
+     *
+     * @param keyStoreRoot the directory containing keys, or to add keys to.  Must exist.
+     * @return builder
+     */
+    public static Builder builder(File keyStoreRoot) {
+        checkArgument(keyStoreRoot.isDirectory(), "keyStoreRoot must be a directory");
+        checkArgument(keyStoreRoot.canWrite(), "keyStoreRoot must be writable");
+        return new Builder(keyStoreRoot);
+    }
+
+    @Override
+    public void put(String memberId, SecretKey key) {
+        if (key.isExpired(clock)) {
+            throw keyExpired(key.getId());
+        }
+        EncodedKey encoded = EncodedKey.of(key);
+        decodedKeys.invalidate(memberId, key.getId());
+        update(memberId, keys -> {
+            keys.removeIf(existing -> existing.getId().equals(encoded.getId()));
+            keys.add(encoded);
+        });
+    }
+
+    @Override
+    public SecretKey getByLevel(String memberId, Level keyLevel) {
+        for (EncodedKey key : keysOf(memberId)) {
+            if (key.getLevel() == keyLevel && !key.isExpired(clock)) {
+                return decodedKeys.get(memberId, key);
+            }
+        }
+        throw keyNotFoundForLevel(keyLevel);
+    }
+
+    @Override
+    public SecretKey getById(String memberId, String keyId) {
+        for (EncodedKey key : keysOf(memberId)) {
+            if (key.getId().equals(keyId)) {
+                if (key.isExpired(clock)) {
+                    throw keyExpired(keyId);
+                }
+                return decodedKeys.get(memberId, key);
+            }
+        }
+        throw keyNotFoundForId(keyId);
+    }
+
+    @Override
+    public List<SecretKey> listKeys(String memberId) {
+        List<SecretKey> keys = new ArrayList<>();
+        for (EncodedKey key : keysOf(memberId)) {
+            if (!key.isExpired(clock)) {
+                keys.add(decodedKeys.get(memberId, key));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Deletes keys for a specific member.
+     *
+     * @param memberId Id of member
+     */
+    @Override
+    public void deleteKeys(String memberId) {
+        update(memberId, keys -> {
+            for (EncodedKey key : keys) {
+                decodedKeys.invalidate(memberId, key.getId());
+            }
+            keys.clear();
+        });
+    }
+
+    @Override
+    public void deleteKey(String memberId, String keyId) {
+        if (keysOf(memberId).stream().noneMatch(key -> key.getId().equals(keyId))) {
+            return;
+        }
+        decodedKeys.invalidate(memberId, keyId);
+        update(memberId, keys -> keys.removeIf(existing -> existing.getId().equals(keyId)));
+    }
+
+    @Override
+    public List<String> listMembers() {
+        List<String> memberIds = new ArrayList<>();
+        for (Shard shard : shards) {
+            shard.listMembers(memberIds);
+        }
+        return memberIds;
+    }
+
+    /**
+     * Compacts the logs of all the shards now, instead of waiting for their superseded
+     * records to reach the compaction ratio.
+     */
+    public void compact() {
+        for (Shard shard : shards) {
+            try {
+                shard.compact();
+            } catch (IOException e) {
+                throw new KeyIOException("Failed to compact " + shard.logFile, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the logs, including the records not compacted yet.
+     *
+     * @return size in bytes
+     */
+    public long getLogBytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            bytes += shard.logLength;
+        }
+        return bytes;
+    }
+
+    /**
+     * Flushes the logs and marks the indexes clean, so that they are not rebuilt when the
+     * store is opened again.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        compactor.shutdown();
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+
+    private List<EncodedKey> keysOf(String memberId) {
+        long hash = hash(memberId);
+        return shard(hash).read(memberId, hash);
+    }
+
+    private void update(String memberId, Consumer<List<EncodedKey>> change) {
+        long hash = hash(memberId);
+        Shard shard = shard(hash);
+        if (shard.update(memberId, hash, change) && shard.compacting.compareAndSet(false, true)) {
+            try {
+                compactor.execute(shard::compactInBackground);
+            } catch (RejectedExecutionException e) {
+                shard.compacting.set(false);
+            }
+        }
+    }
+
+    private Shard shard(long hash) {
+        checkState(!closed, "Key store is closed");
+        return shards[(int) ((hash >>> 32) & (shards.length - 1))];
+    }
+
+    private static long hash(String memberId) {
+        long hash = Hashing.murmur3_128().hashString(memberId, UTF_8).asLong();
+        // Zero marks an empty index slot.
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    @Nullable
+    private static Record readRecord(FileChannel channel, long position, long limit)
+            throws IOException {
+        if (limit - position < RECORD_HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(channel, header, position);
+        int payloadBytes = header.getInt(4);
+        if (header.getInt(0) != RECORD_MAGIC
+                || payloadBytes < 0
+                || payloadBytes > limit - position - RECORD_HEADER_BYTES) {
+            return null;
+        }
+        byte[] payload = new byte[payloadBytes];
+        readFully(channel, ByteBuffer.wrap(payload), position + RECORD_HEADER_BYTES);
+        if (checksum(payload) != header.getInt(8)) {
+            return null;
+        }
+        return Record.decode(payload);
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The log and index of the members whose ID hashes to one shard.
+     */
+    private final class Shard {
+        private final File logFile;
+        private final File indexFile;
+        private final File compactLogFile;
+        private final File compactIndexFile;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final AtomicBoolean compacting = new AtomicBoolean();
+        private final Object compactionLock = new Object();
+        private volatile FileChannel log;
+        private Index index;
+        private volatile long logLength;
+        private long garbageBytes;
+
+        private Shard(File root, int number) {
+            String name = String.format("shard-%04d", number);
+            this.logFile = new File(root, name + ".log");
+            this.indexFile = new File(root, name + ".idx");
+            this.compactLogFile = new File(root, name + ".log.compact");
+            this.compactIndexFile = new File(root, name + ".idx.compact");
+            try {
+                open();
+            } catch (IOException e) {
+                throw new KeyIOException("Failed to open " + logFile, e);
+            }
+        }
+
+        private void open() throws IOException {
+            Files.deleteIfExists(compactLogFile.toPath());
+            Files.deleteIfExists(compactIndexFile.toPath());
+            log = FileChannel.open(logFile.toPath(), CREATE, READ, WRITE);
+            index = Index.open(indexFile);
+            if (index != null && index.isClean() && index.getCoveredLength() == log.size()) {
+                logLength = log.size();
+                garbageBytes = index.getGarbageBytes();
+            } else {
+                recover();
+            }
+        }
+
+        /**
+         * Rebuilds the index from the log, which ends at the last complete record.
+         */
+        private void recover() throws IOException {
+            index = Index.create(indexFile, INITIAL_INDEX_CAPACITY);
+            garbageBytes = 0;
+            long length = log.size();
+            long position = 0;
+            while (position < length) {
+                Record record = readRecord(position, length);
+                if (record == null) {
+                    logger.warn(
+                            "Discarding {} bytes of a partial record at the end of {}",
+                            length - position,
+                            logFile);
+                    log.truncate(position);
+                    break;
+                }
+                Located current = locate(record.memberId, hash(record.memberId));
+                index(record, position, current);
+                position += record.length;
+            }
+            logLength = position;
+            index.setState(logLength, garbageBytes);
+        }
+
+        private List<EncodedKey> read(String memberId, long hash) {
+            lock.readLock().lock();
+            try {
+                Located current = locate(memberId, hash);
+                return current == null ? Collections.emptyList() : current.record.keys;
+            } catch (IOException e) {
+                throw new KeyIOException("Failed to read keys from " + logFile, e);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void listMembers(List<String> memberIds) {
+            lock.readLock().lock();
+            try {
+                for (int slot = 0; slot < index.capacity; slot++) {
+                    if (index.hashAt(slot) == 0) {
+                        continue;
+                    }
+                    Record record = readRecord(index.offsetAt(slot), logLength);
+                    if (record == null) {
+                        throw new KeyIOException("Corrupt key record in " + logFile);
+                    }
+                    if (!record.keys.isEmpty()) {
+                        memberIds.add(record.memberId);
+                    }
+                }
+            } catch (IOException e) {
+                throw new KeyIOException("Failed to read keys from " + logFile, e);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Appends a record of the changed keys of a member.
+         *
+         * @return true if the log should be compacted
+         */
+        private boolean update(
+                String memberId,
+                long hash,
+                Consumer<List<EncodedKey>> change) {
+            lock.writeLock().lock();
+            try {
+                Located current = locate(memberId, hash);
+                List<EncodedKey> keys = current == null
+                        ? new ArrayList<>()
+                        : new ArrayList<>(current.record.keys);
+                change.accept(keys);
+                if (keys.isEmpty() && (current == null || current.record.keys.isEmpty())) {
+                    return false;
+                }
+                markDirty();
+                byte[] bytes = Record.encode(memberId, keys);
+                long position = logLength;
+                writeFully(log, ByteBuffer.wrap(bytes), position);
+                if (syncWrites) {
+                    log.force(false);
+                }
+                index(new Record(memberId, keys, bytes.length), position, current);
+                logLength = position + bytes.length;
+                index.setState(logLength, garbageBytes);
+                return garbageBytes >= compactionMinBytes
+                        && garbageBytes >= compactionRatio * logLength;
+            } catch (IOException e) {
+                throw new KeyIOException("Failed to write keys to " + logFile, e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void index(Record record, long position, @Nullable Located current)
+                throws IOException {
+            if (current == null) {
+                index.insert(hash(record.memberId), position);
+            } else {
+                index.set(current.slot, position);
+                if (!current.record.keys.isEmpty()) {
+                    garbageBytes += current.record.length;
+                }
+            }
+            if (record.keys.isEmpty()) {
+                garbageBytes += record.length;
+            }
+        }
+
+        @Nullable
+        private Located locate(String memberId, long hash) throws IOException {
+            for (int slot = index.find(hash, -1); slot >= 0; slot = index.find(hash, slot)) {
+                long offset = index.offsetAt(slot);
+                Record record = readRecord(offset, log.size());
+                if (record == null) {
+                    throw new KeyIOException("Corrupt key record at " + offset + " in " + logFile);
+                }
+                if (record.memberId.equals(memberId)) {
+                    return new Located(slot, record);
+                }
+            }
+            return null;
+        }
+
+        @Nullable
+        private Record readRecord(long position, long limit) throws IOException {
+            return PackedFileSystemKeyStore.readRecord(log, position, limit);
+        }
+
+        private void markDirty() {
+            if (index.isClean()) {
+                index.setClean(false);
+                index.force();
+            }
+        }
+
+        private void compactInBackground() {
+            try {
+                compact();
+            } catch (IOException | KeyIOException e) {
+                logger.warn("Failed to compact {}", logFile, e);
+            } finally {
+                compacting.set(false);
+            }
+        }
+
+        /**
+         * Copies the latest record of each member with keys to a new log, and swaps it in.
+         * <br>
+         * The records are copied without holding the lock, from a snapshot of the index taken
+         * under the read lock; the log is append-only, so the snapshot's records stay in place.
+         * The write lock is only taken to copy the records appended since the snapshot and
+         * swap the files. The current log stays open until the new one has replaced it, so a
+         * failure at any point leaves the shard usable. Until the new index is marked clean
+         * on close, a crash at any point rebuilds the index from whichever log is in place.
+         */
+        private void compact() throws IOException {
+            synchronized (compactionLock) {
+                FileChannel source;
+                long snapshotLength;
+                int capacity;
+                long[] hashes;
+                long[] offsets;
+                int count = 0;
+                lock.readLock().lock();
+                try {
+                    if (closed || garbageBytes == 0) {
+                        return;
+                    }
+                    source = log;
+                    snapshotLength = logLength;
+                    capacity = index.capacity;
+                    hashes = new long[index.size];
+                    offsets = new long[index.size];
+                    for (int slot = 0; slot < index.capacity; slot++) {
+                        if (index.hashAt(slot) != 0) {
+                            hashes[count] = index.hashAt(slot);
+                            offsets[count++] = index.offsetAt(slot);
+                        }
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+
+                Compaction compaction =
+                        new Compaction(compactLogFile, compactIndexFile, capacity);
+                try {
+                    for (int i = 0; i < count; i++) {
+                        Record record = readRecord(source, offsets[i], snapshotLength);
+                        if (record == null) {
+                            throw new KeyIOException("Corrupt key record in " + logFile);
+                        }
+                        if (!record.keys.isEmpty()) {
+                            compaction.append(hashes[i], record, null);
+                        }
+                    }
+                    swap(compaction, snapshotLength);
+                } catch (IOException | RuntimeException e) {
+                    compaction.discard();
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Copies the records appended since the snapshot and swaps the new log and index in,
+         * holding the write lock.
+         */
+        private void swap(Compaction compaction, long snapshotLength) throws IOException {
+            lock.writeLock().lock();
+            try {
+                if (closed) {
+                    compaction.discard();
+                    return;
+                }
+                long before = logLength;
+                long position = snapshotLength;
+                while (position < logLength) {
+                    Record record = readRecord(log, position, logLength);
+                    if (record == null) {
+                        throw new KeyIOException("Corrupt key record at " + position
+                                + " in " + logFile);
+                    }
+                    long hash = hash(record.memberId);
+                    Located current = compaction.locate(record.memberId, hash);
+                    if (!record.keys.isEmpty() || current != null) {
+                        compaction.append(hash, record, current);
+                    }
+                    position += record.length;
+                }
+                compaction.out.force(true);
+                compaction.index.setState(compaction.length, compaction.garbageBytes);
+                compaction.index.force();
+
+                markDirty();
+                Files.move(compactLogFile.toPath(), logFile.toPath(), ATOMIC_MOVE);
+                // The new log is in place; from here on the shard uses it even if moving the
+                // index fails, in which case the index is rebuilt on the next open.
+                FileChannel old = log;
+                log = compaction.out;
+                index = compaction.index;
+                logLength = compaction.length;
+                garbageBytes = compaction.garbageBytes;
+                try {
+                    old.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close the compacted {}", logFile, e);
+                }
+                try {
+                    index.moveTo(indexFile);
+                } catch (IOException e) {
+                    logger.warn("Failed to move the compacted index of {}", logFile, e);
+                }
+                logger.debug("Compacted {} from {} to {} bytes", logFile, before, logLength);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void close() {
+            lock.writeLock().lock();
+            try {
+                index.setState(logLength, garbageBytes);
+                log.force(true);
+                index.setClean(true);
+                index.force();
+                log.close();
+            } catch (IOException e) {
+                throw new KeyIOException("Failed to close " + logFile, e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * The new log and index of a shard being compacted.
+     */
+    private static final class Compaction {
+        private final File logFile;
+        private final File indexFile;
+        private final FileChannel out;
+        private final Index index;
+        private long length;
+        private long garbageBytes;
+
+        private Compaction(File logFile, File indexFile, int capacity) throws IOException {
+            this.logFile = logFile;
+            this.indexFile = indexFile;
+            this.out = FileChannel.open(logFile.toPath(), CREATE, TRUNCATE_EXISTING, READ, WRITE);
+            try {
+                this.index = Index.create(indexFile, capacity);
+            } catch (IOException | RuntimeException e) {
+                out.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Appends the latest record of a member, replacing its earlier one in the new log.
+         */
+        private void append(long hash, Record record, @Nullable Located current)
+                throws IOException {
+            byte[] bytes = Record.encode(record.memberId, record.keys);
+            writeFully(out, ByteBuffer.wrap(bytes), length);
+            if (current == null) {
+                index.insert(hash, length);
+            } else {
+                index.set(current.slot, length);
+                if (!current.record.keys.isEmpty()) {
+                    garbageBytes += current.record.length;
+                }
+            }
+            if (record.keys.isEmpty()) {
+                garbageBytes += bytes.length;
+            }
+            length += bytes.length;
+        }
+
+        @Nullable
+        private Located locate(String memberId, long hash) throws IOException {
+            for (int slot = index.find(hash, -1); slot >= 0; slot = index.find(hash, slot)) {
+                Record record = readRecord(out, index.offsetAt(slot), length);
+                if (record != null && record.memberId.equals(memberId)) {
+                    return new Located(slot, record);
+                }
+            }
+            return null;
+        }
+
+        private void discard() {
+            try {
+                out.close();
+                Files.deleteIfExists(logFile.toPath());
+                Files.deleteIfExists(indexFile.toPath());
+            } catch (IOException e) {
+                logger.warn("Failed to delete {}", logFile, e);
+            }
+        }
+    }
+
+    /**
+     * The latest record of a member, and the index slot pointing to it.
+     */
+    private static final class Located {
+        private final int slot;
+        private final Record record;
+
+        private Located(int slot, Record record) {
+            this.slot = slot;
+            this.record = record;
+        }
+    }
+
+    /**
+     * A log record: all the keys of a member at one point in time. A record without keys
+     * marks deleted keys.
+     */
+    private static final class Record {
+        private final String memberId;
+        private final List<EncodedKey> keys;
+        private final int length;
+
+        private Record(String memberId, List<EncodedKey> keys, int length) {
+            this.memberId = memberId;
+            this.keys = keys;
+            this.length = length;
+        }
+
+        private static byte[] encode(String memberId, List<EncodedKey> keys) throws IOException {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeUTF(memberId);
+            EncodedKey.writeAll(out, keys);
+            byte[] payloadBytes = payload.toByteArray();
+            return ByteBuffer.allocate(RECORD_HEADER_BYTES + payloadBytes.length)
+                    .putInt(RECORD_MAGIC)
+                    .putInt(payloadBytes.length)
+                    .putInt(checksum(payloadBytes))
+                    .put(payloadBytes)
+                    .array();
+        }
+
+        private static Record decode(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            String memberId = in.readUTF();
+            return new Record(
+                    memberId,
+                    Collections.unmodifiableList(EncodedKey.readAll(in)),
+                    RECORD_HEADER_BYTES + payload.length);
+        }
+    }
+
+    /**
+     * A memory-mapped, open-addressing hash table from member ID hash to the position of the
+     * member's latest record in the log. The header records whether the store was closed
+     * cleanly, and how much of the log the index covers.
+     */
+    private static final class Index {
+        private static final int MAGIC = 0x4b494458;
+        private static final int HEADER_BYTES = 32;
+        private static final int SLOT_BYTES = 16;
+        private static final int CAPACITY = 4;
+        private static final int SIZE = 8;
+        private static final int CLEAN = 12;
+        private static final int COVERED_LENGTH = 16;
+        private static final int GARBAGE_BYTES = 24;
+
+        private File file;
+        private MappedByteBuffer buffer;
+        private int capacity;
+        private int size;
+
+        private Index(File file) {
+            this.file = file;
+        }
+
+        private static Index create(File file, int capacity) throws IOException {
+            Index index = new Index(file);
+            index.map(capacity);
+            return index;
+        }
+
+        @Nullable
+        private static Index open(File file) throws IOException {
+            if (!file.isFile() || file.length() < HEADER_BYTES) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), READ, WRITE)) {
+                MappedByteBuffer buffer = channel.map(READ_WRITE, 0, channel.size());
+                int capacity = buffer.getInt(CAPACITY);
+                if (buffer.getInt(0) != MAGIC
+                        || Integer.bitCount(capacity) != 1
+                        || channel.size() != HEADER_BYTES + (long) capacity * SLOT_BYTES) {
+                    return null;
+                }
+                Index index = new Index(file);
+                index.buffer = buffer;
+                index.capacity = capacity;
+                index.size = buffer.getInt(SIZE);
+                return index;
+            }
+        }
+
+        private void map(int newCapacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), CREATE, READ, WRITE)) {
+                channel.truncate(0);
+                buffer = channel.map(
+                        READ_WRITE,
+                        0,
+                        HEADER_BYTES + (long) newCapacity * SLOT_BYTES);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(CAPACITY, newCapacity);
+            capacity = newCapacity;
+            size = 0;
+        }
+
+        private int find(long hash, int after) {
+            int mask = capacity - 1;
+            int slot = after < 0 ? (int) hash & mask : (after + 1) & mask;
+            for (long slotHash = hashAt(slot); slotHash != 0; slotHash = hashAt(slot)) {
+                if (slotHash == hash) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(long hash, long offset) throws IOException {
+            if ((size + 1) * 2L > capacity) {
+                grow();
+            }
+            int mask = capacity - 1;
+            int slot = (int) hash & mask;
+            while (hashAt(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            buffer.putLong(HEADER_BYTES + slot * SLOT_BYTES, hash);
+            set(slot, offset);
+            buffer.putInt(SIZE, ++size);
+        }
+
+        private void grow() throws IOException {
+            long[] hashes = new long[size];
+            long[] offsets = new long[size];
+            int count = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (hashAt(slot) != 0) {
+                    hashes[count] = hashAt(slot);
+                    offsets[count++] = offsetAt(slot);
+                }
+            }
+            boolean clean = isClean();
+            long coveredLength = getCoveredLength();
+            long garbageBytes = getGarbageBytes();
+            map(capacity * 2);
+            for (int i = 0; i < count; i++) {
+                insert(hashes[i], offsets[i]);
+            }
+            setClean(clean);
+            setState(coveredLength, garbageBytes);
+        }
+
+        private long hashAt(int slot) {
+            return buffer.getLong(HEADER_BYTES + slot * SLOT_BYTES);
+        }
+
+        private long offsetAt(int slot) {
+            return buffer.getLong(HEADER_BYTES + slot * SLOT_BYTES + 8);
+        }
+
+        private void set(int slot, long offset) {
+            buffer.putLong(HEADER_BYTES + slot * SLOT_BYTES + 8, offset);
+        }
+
+        private boolean isClean() {
+            return buffer.getInt(CLEAN) != 0;
+        }
+
+        private void setClean(boolean clean) {
+            buffer.putInt(CLEAN, clean ? 1 : 0);
+        }
+
+        private long getCoveredLength() {
+            return buffer.getLong(COVERED_LENGTH);
+        }
+
+        private long getGarbageBytes() {
+            return buffer.getLong(GARBAGE_BYTES);
+        }
+
+        private void setState(long coveredLength, long garbageBytes) {
+            buffer.putLong(COVERED_LENGTH, coveredLength);
+            buffer.putLong(GARBAGE_BYTES, garbageBytes);
+        }
+
+        private void force() {
+            buffer.force();
+        }
+
+        /**
+         * Moves the index file, which stays mapped.
+         */
+        private void moveTo(File target) throws IOException {
+            Files.move(file.toPath(), target.toPath(), ATOMIC_MOVE);
+            file = target;
+        }
+    }
+
+    /**
+     * Builds a {@link PackedFileSystemKeyStore}.
+     */
+    public static final class Builder {
+        private final File keyStoreRoot;
+        private int shards = 64;
+        private boolean syncWrites = true;
+        private double compactionRatio = 0.5;
+        private long compactionMinBytes = 1 << 20;
+        private long maxDecodedKeys;
+        private Clock clock = new SystemTimeClock();
+
+        private Builder(File keyStoreRoot) {
+            this.keyStoreRoot = keyStoreRoot;
+        }
+
+        /**
+         * Sets the number of shards. It cannot be changed once keys are stored.
+         *
+         * @param shards number of shards, a power of two
+         * @return this builder
+         */
+        public Builder shards(int shards) {
+            checkArgument(Integer.bitCount(shards) == 1, "Shards must be a power of two");
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Sets whether each change is flushed to the disk before it returns. Turning it off
+         * speeds up bulk imports, at the risk of losing the latest changes on a power loss.
+         *
+         * @param syncWrites whether to flush each change
+         * @return this builder
+         */
+        public Builder syncWrites(boolean syncWrites) {
+            this.syncWrites = syncWrites;
+            return this;
+        }
+
+        /**
+         * Sets when a shard's log is compacted: once its superseded records take up the
+         * given share of the log, and at least the given size.
+         *
+         * @param ratio share of superseded records, between 0 and 1
+         * @param minBytes min size of superseded records in bytes
+         * @return this builder
+         */
+        public Builder compactAt(double ratio, long minBytes) {
+            checkArgument(ratio > 0 && ratio <= 1, "Ratio must be between 0 and 1");
+            checkArgument(minBytes >= 0, "Min bytes must not be negative");
+            this.compactionRatio = ratio;
+            this.compactionMinBytes = minBytes;
+            return this;
+        }
+
+        /**
+         * Sets how many decoded keys are kept, so that the keys in use are not decoded
+         * on every use. Defaults to 0, decoding keys on every use.
+         *
+         * @param maxDecodedKeys max number of decoded keys
+         * @return this builder
+         */
+        public Builder decodedKeys(long maxDecodedKeys) {
+            checkArgument(maxDecodedKeys >= 0, "Max decoded keys must not be negative");
+            this.maxDecodedKeys = maxDecodedKeys;
+            return this;
+        }
+
+        /**
+         * Sets the clock, for testing.
+         *
+         * @param clock clock
+         * @return this builder
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Opens the key store, recovering the shards that were not closed cleanly.
+         *
+         * @return key store
+         */
+        public PackedFileSystemKeyStore build() {
+            return new PackedFileSystemKeyStore(this);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * The outcome of loading the keys of many members with {@link BulkKeyStore#preload}.
+ */
+@AutoValue
+public abstract class PreloadReport {
+    public static PreloadReport create(
+            int memberCount,
+            int keyCount,
+            int failedCount,
+            long durationMs) {
+        return new AutoValue_PreloadReport(memberCount, keyCount, failedCount, durationMs);
+    }
+
+    /**
+     * Get the number of members whose keys were loaded.
+     *
+     * @return member count
+     */
+    public abstract int getMemberCount();
+
+    /**
+     * Get the number of keys loaded.
+     *
+     * @return key count
+     */
+    public abstract int getKeyCount();
+
+    /**
+     * Get the number of members whose keys failed to load.
+     *
+     * @return failed member count
+     */
+    public abstract int getFailedCount();
+
+    /**
+     * Get how long loading took.
+     *
+     * @return duration in milliseconds
+     */
+    public abstract long getDurationMs();
+}
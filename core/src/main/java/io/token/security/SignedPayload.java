@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import com.google.auto.value.AutoValue;
+import com.google.protobuf.Message;
+import io.token.proto.ProtoJson;
+import io.token.proto.common.security.SecurityProtos.Key;
+
+/**
+ * A payload, its signature and the public key it was signed with, to be verified by a
+ * {@link BatchVerifier}.
+ */
+@AutoValue
+public abstract class SignedPayload {
+    public static SignedPayload create(String payload, String signature, Key key) {
+        return new AutoValue_SignedPayload(payload, signature, key);
+    }
+
+    public static SignedPayload create(Message payload, String signature, Key key) {
+        return create(ProtoJson.toJson(payload), signature, key);
+    }
+
+    /**
+     * Get the signed payload.
+     *
+     * @return payload
+     */
+    public abstract String getPayload();
+
+    /**
+     * Get the signature of the payload.
+     *
+     * @return signature
+     */
+    public abstract String getSignature();
+
+    /**
+     * Get the public key of the signer.
+     *
+     * @return key
+     */
+    public abstract Key getKey();
+}
@@ -37,10 +37,18 @@ import io.token.security.keystore.SecretKeyPair;
 import java.security.KeyPair;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Token implementation of the {@link CryptoEngine}. The keys are persisted
  * in the provided storage.
+ * <br>
+ * The signers and verifiers created for a key are kept and reused while the key store
+ * returns the same key, so an engine shared across calls creates them once per key.
+ * <br>
+ * Crypto types pinned to a JCA provider by the {@link CryptoProviders} are signed and
+ * verified with that provider.
  */
 public final class TokenCryptoEngine implements CryptoEngine {
     public static final CryptoType DEFAULT_CRYPTO_TYPE = CryptoType.EDDSA;
@@ -49,6 +57,10 @@ public final class TokenCryptoEngine implements CryptoEngine {
     private final KeyStore keyStore;
     private final Crypto crypto;
     private final CryptoType cryptoType;
+    private final CryptoProviders providers;
+    private final ConcurrentMap<String, KeyBound<Signer>> signers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, KeyBound<Verifier>> verifiers =
+            new ConcurrentHashMap<>();
 
     /**
      * Creates an instance of a crypto engine for the default crypto type (EDDSA).
@@ -68,9 +80,26 @@ public final class TokenCryptoEngine implements CryptoEngine {
      * @param cryptoType crypto type
      */
     public TokenCryptoEngine(String memberId, KeyStore keyStore, CryptoType cryptoType) {
+        this(memberId, keyStore, cryptoType, CryptoProviders.none());
+    }
+
+    /**
+     * Creates an instance that signs and verifies with the pinned providers.
+     *
+     * @param memberId member ID
+     * @param keyStore key store
+     * @param cryptoType crypto type
+     * @param providers JCA providers pinned by crypto type
+     */
+    public TokenCryptoEngine(
+            String memberId,
+            KeyStore keyStore,
+            CryptoType cryptoType,
+            CryptoProviders providers) {
         this.memberId = memberId;
         this.keyStore = keyStore;
         this.cryptoType = cryptoType;
+        this.providers = providers;
         this.crypto = CryptoRegistry.getInstance().cryptoFor(cryptoType);
     }
 
@@ -99,20 +128,27 @@ public final class TokenCryptoEngine implements CryptoEngine {
 
     @Override
     public Signer createSigner(Level keyLevel) {
-        SecretKey key = keyStore.getByLevel(memberId, keyLevel);
-        return crypto.signer(key.getId(), key.getPrivateKey());
+        return signerFor(keyStore.getByLevel(memberId, keyLevel));
     }
 
     @Override
     public Signer createSigner(String keyId) {
-        SecretKey key = keyStore.getById(memberId, keyId);
-        return crypto.signer(key.getId(), key.getPrivateKey());
+        return signerFor(keyStore.getById(memberId, keyId));
     }
 
     @Override
     public Verifier createVerifier(String keyId) {
         SecretKey key = keyStore.getById(memberId, keyId);
-        return crypto.verifier(key.getPublicKey());
+        KeyBound<Verifier> cached = verifiers.get(keyId);
+        if (cached != null && cached.isFor(key)) {
+            return cached.value;
+        }
+        Verifier verifier = providers.verifier(cryptoType, key);
+        if (verifier == null) {
+            verifier = crypto.verifier(key.getPublicKey());
+        }
+        verifiers.put(keyId, new KeyBound<>(key, verifier));
+        return verifier;
     }
 
     @Override
@@ -141,6 +177,21 @@ public final class TokenCryptoEngine implements CryptoEngine {
     @Override
     public void deleteKeys() {
         keyStore.deleteKeys(memberId);
+        signers.clear();
+        verifiers.clear();
+    }
+
+    private Signer signerFor(SecretKey key) {
+        KeyBound<Signer> cached = signers.get(key.getId());
+        if (cached != null && cached.isFor(key)) {
+            return cached.value;
+        }
+        Signer signer = providers.signer(cryptoType, key);
+        if (signer == null) {
+            signer = crypto.signer(key.getId(), key.getPrivateKey());
+        }
+        signers.put(key.getId(), new KeyBound<>(key, signer));
+        return signer;
     }
 
     private static Algorithm toKeyAlgorithm(CryptoType cryptoType) {
@@ -155,4 +206,21 @@ public final class TokenCryptoEngine implements CryptoEngine {
                 return null;
         }
     }
+
+    /**
+     * A signer or verifier, and the key it was created for.
+     */
+    private static final class KeyBound<T> {
+        private final SecretKey key;
+        private final T value;
+
+        private KeyBound(SecretKey key, T value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        private boolean isFor(SecretKey other) {
+            return key == other || key.equals(other);
+        }
+    }
 }
@@ -22,18 +22,31 @@
 
 package io.token.security;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static io.token.security.TokenCryptoEngine.DEFAULT_CRYPTO_TYPE;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.token.security.crypto.CryptoType;
 
+import java.util.concurrent.ExecutionException;
+
 /**
  * Creates {@link CryptoEngine} instances bound to a given member id.
  * Uses a provided key store to persist keys.
+ * <br>
+ * The engine of a member is shared by the callers asking for it, so that its signers and
+ * verifiers are reused across member lookups. A bounded number of engines is kept, the
+ * least recently used ones are dropped first.
  */
 public class TokenCryptoEngineFactory implements CryptoEngineFactory {
+    private static final long DEFAULT_MAX_ENGINES = 10_000L;
+
     private final KeyStore keyStore;
     private final CryptoType cryptoType;
-
+    private final CryptoProviders providers;
+    private final Cache<String, CryptoEngine> engines;
 
     /**
      * Creates a new instance of the factory that uses supplied store
@@ -42,23 +55,62 @@ public class TokenCryptoEngineFactory implements CryptoEngineFactory {
      * @param keyStore key store
      */
     public TokenCryptoEngineFactory(KeyStore keyStore) {
-        this.keyStore = keyStore;
-        this.cryptoType = DEFAULT_CRYPTO_TYPE;
+        this(keyStore, DEFAULT_CRYPTO_TYPE);
     }
 
     public TokenCryptoEngineFactory(KeyStore keyStore, CryptoType cryptoType) {
+        this(keyStore, cryptoType, DEFAULT_MAX_ENGINES);
+    }
+
+    /**
+     * Creates a new instance of the factory that uses supplied store
+     * to persist the keys.
+     *
+     * @param keyStore key store
+     * @param cryptoType crypto type
+     * @param maxEngines max number of member engines kept
+     */
+    public TokenCryptoEngineFactory(KeyStore keyStore, CryptoType cryptoType, long maxEngines) {
+        this(keyStore, cryptoType, maxEngines, CryptoProviders.none());
+    }
+
+    /**
+     * Creates a new instance of the factory that uses supplied store
+     * to persist the keys, and signs and verifies with the pinned providers.
+     *
+     * @param keyStore key store
+     * @param cryptoType crypto type
+     * @param maxEngines max number of member engines kept
+     * @param providers JCA providers pinned by crypto type
+     */
+    public TokenCryptoEngineFactory(
+            KeyStore keyStore,
+            CryptoType cryptoType,
+            long maxEngines,
+            CryptoProviders providers) {
+        checkArgument(maxEngines > 0, "Max engines must be positive");
         this.keyStore = keyStore;
         this.cryptoType = cryptoType;
+        this.providers = providers;
+        this.engines = CacheBuilder.newBuilder()
+                .maximumSize(maxEngines)
+                .build();
     }
 
     /**
-     * Creates a new {@link CryptoEngine} for the given member.
+     * Returns the {@link CryptoEngine} of the given member, creating it if it is not kept.
      *
      * @param memberId member id
      * @return crypto engine instance
      */
     @Override
     public CryptoEngine create(String memberId) {
-        return new TokenCryptoEngine(memberId, keyStore, cryptoType);
+        try {
+            return engines.get(
+                    memberId,
+                    () -> new TokenCryptoEngine(memberId, keyStore, cryptoType, providers));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException("Failed to create crypto engine", e.getCause());
+        }
     }
 }
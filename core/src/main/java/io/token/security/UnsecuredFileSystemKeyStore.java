@@ -60,7 +60,7 @@ import java.util.List;
  * Keys are stored in a single root directory, with a subdirectory containing each member's keys.
  * No support is provided for security of key files.
  */
-public final class UnsecuredFileSystemKeyStore implements KeyStore {
+public final class UnsecuredFileSystemKeyStore implements BulkKeyStore {
     private final File keyStoreRoot;
     private final KeyCodec codec;
     private final Clock clock;
@@ -145,6 +145,31 @@ public final class UnsecuredFileSystemKeyStore implements KeyStore {
         }
     }
 
+    @Override
+    public void deleteKey(String memberId, String keyId) {
+        File keyFile = getKeyFile(memberId, keyId);
+        if (keyFile.exists() && !keyFile.delete()) {
+            throw new KeyIOException("Failed to delete key file " + keyFile);
+        }
+    }
+
+    @Override
+    public List<String> listMembers() {
+        List<String> memberIds = Lists.newArrayList();
+        File[] memberPaths = keyStoreRoot.listFiles(File::isDirectory);
+        if (memberPaths == null) {
+            return memberIds;
+        }
+        for (File memberPath : memberPaths) {
+            String[] keyFiles = memberPath.list();
+            if (keyFiles != null && keyFiles.length > 0) {
+                // Reverses getMemberPath, assuming memberId does not contain '_'.
+                memberIds.add(memberPath.getName().replace("_", ":"));
+            }
+        }
+        return memberIds;
+    }
+
     private File getMemberPath(String memberId) {
         // Assumes memberId does not contain file separators, other than ':' which
         // has special meaning on Windows.
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.token.util.codec.ByteEncoding;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates random nonces and sortable IDs without blocking.
+ * <br>
+ * Each thread draws from its own pseudo-random generator, seeded from a shared
+ * {@link SecureRandom} when the thread first asks for one and reseeded periodically, so
+ * threads neither wait for entropy nor contend on the provider.
+ * <br>
+ * Sortable IDs are 26 characters of Crockford base32 encoding a millisecond timestamp, a
+ * sequence number and 64 random bits. The IDs generated by one process sort in the order
+ * they were generated; IDs generated within one millisecond are told apart by the sequence
+ * number, which borrows from the next milliseconds if more than 65536 are generated.
+ */
+public final class NonceGenerator {
+    private static final SecureRandom SEEDS = new SecureRandom();
+    private static final NonceGenerator INSTANCE = new NonceGenerator(new SystemTimeClock());
+    private static final int NONCE_NUM_BYTES = 12;
+    private static final int SEED_NUM_BYTES = 32;
+    private static final int RESEED_INTERVAL = 1 << 16;
+    private static final int SORTABLE_ID_LENGTH = 26;
+    private static final int SEQUENCE_BITS = 16;
+    private static final char[] BASE32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private final Clock clock;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadLocal<ThreadRandom> randoms = ThreadLocal.withInitial(ThreadRandom::new);
+
+    @VisibleForTesting
+    NonceGenerator(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the shared generator instance.
+     *
+     * @return nonce generator
+     */
+    public static NonceGenerator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Generates a random nonce, in the format of {@link Util#generateNonce()}.
+     *
+     * @return nonce
+     */
+    public String nonce() {
+        byte[] bytes = new byte[NONCE_NUM_BYTES];
+        randoms.get().nextBytes(bytes);
+        return ByteEncoding.serializeHumanReadable(bytes);
+    }
+
+    /**
+     * Generates random nonces, drawing the random bytes of all of them at once.
+     *
+     * @param count number of nonces
+     * @return nonces
+     */
+    public List<String> nonces(int count) {
+        checkArgument(count >= 0, "Count must not be negative");
+        byte[] bytes = new byte[count * NONCE_NUM_BYTES];
+        randoms.get().nextBytes(bytes);
+        List<String> nonces = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            nonces.add(ByteEncoding.serializeHumanReadable(Arrays.copyOfRange(
+                    bytes,
+                    i * NONCE_NUM_BYTES,
+                    (i + 1) * NONCE_NUM_BYTES)));
+        }
+        return nonces;
+    }
+
+    /**
+     * Generates an ID that sorts after the IDs generated before it, e.g. for reference IDs.
+     *
+     * @return sortable ID
+     */
+    public String sortableId() {
+        return sortableIds(1).get(0);
+    }
+
+    /**
+     * Generates IDs that sort in order and after the IDs generated before them, reserving
+     * their sequence numbers at once.
+     *
+     * @param count number of IDs
+     * @return sortable IDs, in order
+     */
+    public List<String> sortableIds(int count) {
+        checkArgument(count >= 0, "Count must not be negative");
+        List<String> ids = new ArrayList<>(count);
+        if (count == 0) {
+            return ids;
+        }
+        long now = clock.getTime() << SEQUENCE_BITS;
+        long last = sequence.updateAndGet(previous -> Math.max(previous, now - 1) + count);
+        ThreadRandom random = randoms.get();
+        for (long next = last - count + 1; next <= last; next++) {
+            ids.add(encode(next, random.nextLong()));
+        }
+        return ids;
+    }
+
+    private static String encode(long high, long low) {
+        char[] chars = new char[SORTABLE_ID_LENGTH];
+        for (int i = SORTABLE_ID_LENGTH - 1; i >= 0; i--) {
+            chars[i] = BASE32[(int) (low & 31)];
+            low = (low >>> 5) | (high << 59);
+            high >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The generator of one thread.
+     */
+    private static final class ThreadRandom {
+        private final SecureRandom random;
+        private int uses;
+
+        private ThreadRandom() {
+            SecureRandom random;
+            try {
+                random = SecureRandom.getInstance("SHA1PRNG");
+            } catch (NoSuchAlgorithmException e) {
+                random = new SecureRandom();
+            }
+            this.random = random;
+            reseed();
+        }
+
+        private void nextBytes(byte[] bytes) {
+            reseedIfDue();
+            random.nextBytes(bytes);
+        }
+
+        private long nextLong() {
+            reseedIfDue();
+            return random.nextLong();
+        }
+
+        private void reseedIfDue() {
+            if (++uses >= RESEED_INTERVAL) {
+                uses = 0;
+                reseed();
+            }
+        }
+
+        private void reseed() {
+            // Seeds are drawn with nextBytes, which does not wait for entropy the way
+            // generateSeed may.
+            byte[] seed = new byte[SEED_NUM_BYTES];
+            SEEDS.nextBytes(seed);
+            random.setSeed(seed);
+        }
+    }
+}
@@ -43,10 +43,8 @@ import io.token.proto.common.member.MemberProtos.MemberOperationMetadata.AddAlia
 import io.token.proto.common.member.MemberProtos.MemberRecoveryRulesOperation;
 import io.token.proto.common.member.MemberProtos.RecoveryRule;
 import io.token.proto.common.security.SecurityProtos.Key;
-import io.token.util.codec.ByteEncoding;
 
 import java.nio.charset.Charset;
-import java.security.SecureRandom;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 
@@ -61,18 +59,13 @@ public class Util {
      */
     public static final String TOKEN_REALM = "token";
 
-    private static final int NONCE_NUM_BYTES = 12;
-
     /**
      * Generates a random string.
      *
      * @return generated random string
      */
     public static String generateNonce() {
-        SecureRandom random = new SecureRandom();
-        byte[] bytes = new byte[NONCE_NUM_BYTES];
-        random.nextBytes(bytes);
-        return ByteEncoding.serializeHumanReadable(bytes);
+        return NonceGenerator.getInstance().nonce();
     }
 
     /**
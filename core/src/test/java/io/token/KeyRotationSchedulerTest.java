@@ -0,0 +1,165 @@
+package io.token;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.PRIVILEGED;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.security.CryptoEngine;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.Signer;
+import io.token.security.TokenCryptoEngineFactory;
+import io.token.util.TestClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class KeyRotationSchedulerTest {
+    private static final long DAY_MS = 24 * 3_600_000L;
+
+    private final TestClock clock = new TestClock();
+    private final InMemoryKeyStore keyStore = new InMemoryKeyStore(clock);
+    private final TokenCryptoEngineFactory cryptoFactory = new TokenCryptoEngineFactory(keyStore);
+    private final List<List<Key>> approved = new ArrayList<>();
+    private final List<List<String>> removed = new ArrayList<>();
+    private int approveFailures;
+    private final KeyRotationScheduler scheduler = KeyRotationScheduler
+            .builder(keyStore, cryptoFactory, memberId -> Observable.just(new Member(
+                    memberId,
+                    null,
+                    null,
+                    null,
+                    SANDBOX) {
+                @Override
+                public Completable approveKeys(List<Key> keys) {
+                    if (approveFailures > 0) {
+                        approveFailures--;
+                        return Completable.error(new IllegalStateException());
+                    }
+                    approved.add(keys);
+                    return Completable.complete();
+                }
+
+                @Override
+                public Completable removeKeys(List<String> keyIds) {
+                    removed.add(keyIds);
+                    return Completable.complete();
+                }
+            }))
+            .rotateAhead(7 * DAY_MS)
+            .keyLifetime(90 * DAY_MS)
+            .gracePeriod(DAY_MS)
+            .jitter(0)
+            .clock(clock)
+            .build();
+
+    @Test
+    public void rotatesKeysBeforeTheyExpire() {
+        Key old = cryptoFactory.create("m:1")
+                .generateKey(PRIVILEGED, clock.getTime() + 10 * DAY_MS);
+
+        scheduler.scan();
+        assertThat(scheduler.getPendingCount()).isZero();
+
+        clock.tick(4 * DAY_MS);
+        scheduler.scan();
+        assertThat(scheduler.runNext()).isTrue();
+
+        assertThat(approved).hasSize(1);
+        assertThat(approved.get(0)).hasSize(1);
+        assertThat(approved.get(0).get(0).getLevel()).isEqualTo(PRIVILEGED);
+        assertThat(keyStore.listKeys("m:1")).hasSize(2);
+        assertThat(scheduler.getRotatedKeyCount()).isEqualTo(1);
+
+        scheduler.scan();
+        assertThat(scheduler.getPendingCount()).isEqualTo(1);
+        assertThat(scheduler.runNext()).isFalse();
+
+        clock.tick(DAY_MS + 1);
+        assertThat(scheduler.runNext()).isTrue();
+        assertThat(removed).containsExactly(singletonList(old.getId()));
+        assertThat(scheduler.getRemovedKeyCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void signsWithTheReplacementAfterRemoval() {
+        Key old = cryptoFactory.create("m:1")
+                .generateKey(PRIVILEGED, clock.getTime() + 3 * DAY_MS);
+        scheduler.scan();
+        assertThat(scheduler.runNext()).isTrue();
+        Key replacement = approved.get(0).get(0);
+
+        clock.tick(DAY_MS + 1);
+        assertThat(scheduler.runNext()).isTrue();
+
+        assertThat(removed).containsExactly(singletonList(old.getId()));
+        assertThat(keyStore.listKeys("m:1")).hasSize(1);
+        CryptoEngine crypto = cryptoFactory.create("m:1");
+        Signer signer = crypto.createSigner(PRIVILEGED);
+        assertThat(signer.getKeyId()).isEqualTo(replacement.getId());
+        String signature = signer.sign("payload");
+        crypto.createVerifier(replacement.getId()).verify("payload", signature);
+    }
+
+    @Test
+    public void retriesWithTheSameReplacements() {
+        cryptoFactory.create("m:1").generateKey(PRIVILEGED, clock.getTime() + 3 * DAY_MS);
+        approveFailures = 1;
+
+        scheduler.scan();
+        assertThat(scheduler.runNext()).isTrue();
+        assertThat(scheduler.getFailureCount()).isEqualTo(1);
+        assertThat(approved).isEmpty();
+
+        scheduler.scan();
+        assertThat(scheduler.runNext()).isTrue();
+
+        assertThat(approved).hasSize(1);
+        assertThat(keyStore.listKeys("m:1")).hasSize(2);
+    }
+
+    @Test
+    public void failsSlowCalls() {
+        KeyRotationScheduler slow = KeyRotationScheduler
+                .builder(keyStore, cryptoFactory, memberId -> Observable.never())
+                .jitter(0)
+                .callTimeout(50)
+                .clock(clock)
+                .build();
+        cryptoFactory.create("m:1").generateKey(PRIVILEGED, clock.getTime() + 3 * DAY_MS);
+
+        slow.scan();
+        assertThat(slow.runNext()).isTrue();
+
+        assertThat(slow.getFailureCount()).isEqualTo(1);
+        assertThat(slow.getPendingCount()).isZero();
+        slow.scan();
+        assertThat(slow.getPendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void spreadsRotationsOverTheJitterWindow() {
+        KeyRotationScheduler jittered = KeyRotationScheduler
+                .builder(keyStore, cryptoFactory, memberId -> Observable.empty())
+                .jitter(DAY_MS)
+                .clock(clock)
+                .build();
+        for (int i = 0; i < 20; i++) {
+            cryptoFactory.create("m:" + i).generateKey(PRIVILEGED, clock.getTime() + 3 * DAY_MS);
+        }
+
+        jittered.scan();
+
+        assertThat(jittered.getPendingCount()).isEqualTo(20);
+        int ran = 0;
+        while (jittered.runNext()) {
+            ran++;
+        }
+        assertThat(ran).isLessThan(20);
+    }
+}
@@ -0,0 +1,115 @@
+package io.token;
+
+import static io.token.proto.common.alias.AliasProtos.Alias.Type.EMAIL;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.PRIVILEGED;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Deadline;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.token.TokenClient.TokenCluster;
+import io.token.proto.common.alias.AliasProtos.Alias;
+import io.token.proto.gateway.GatewayServiceGrpc;
+import io.token.rpc.Client;
+import io.token.security.CryptoEngine;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.TokenCryptoEngine;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+public class MemberDeadlineTest {
+    private final List<String> methods = new ArrayList<>();
+    private final List<Deadline> deadlines = new ArrayList<>();
+    private final Member member;
+
+    public MemberDeadlineTest() {
+        CryptoEngine crypto = new TokenCryptoEngine("m:1", new InMemoryKeyStore());
+        crypto.generateKey(PRIVILEGED);
+        Channel channel = new RespondingChannel();
+        Client client = new Client(
+                "m:1",
+                crypto,
+                context -> GatewayServiceGrpc.newFutureStub(channel)) {
+        };
+        member = new Member("m:1", "", null, client, TokenCluster.SANDBOX);
+    }
+
+    @Test
+    public void sharesOneDeadlineAcrossNestedCalls() {
+        Alias alias = Alias.newBuilder().setType(EMAIL).setValue("steve@example.com").build();
+
+        member.withTimeout(2_000).addAliases(Collections.singletonList(alias)).blockingAwait();
+
+        assertThat(methods).containsExactly(
+                "io.token.proto.gateway.GatewayService/GetMember",
+                "io.token.proto.gateway.GatewayService/UpdateMember");
+        assertThat(deadlines.get(0)).isNotNull();
+        assertThat(deadlines.get(0).timeRemaining(MILLISECONDS)).isBetween(1_000L, 2_000L);
+        assertThat(deadlines.get(1)).isSameAs(deadlines.get(0));
+    }
+
+    @Test
+    public void leavesTheMemberWithoutDeadline() {
+        member.withTimeout(2_000);
+
+        member.lastHash().blockingSingle();
+
+        assertThat(deadlines).containsExactly((Deadline) null);
+    }
+
+    /**
+     * Records the method and deadline of every call, and answers it with an empty response.
+     */
+    private final class RespondingChannel extends Channel {
+        @Override
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            methods.add(method.getFullMethodName());
+            deadlines.add(callOptions.getDeadline());
+            return new ClientCall<ReqT, ResT>() {
+                private Listener<ResT> listener;
+
+                @Override
+                public void start(Listener<ResT> listener, Metadata headers) {
+                    this.listener = listener;
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(@Nullable String message, @Nullable Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                    listener.onMessage(method.parseResponse(
+                            new ByteArrayInputStream(new byte[0])));
+                    listener.onClose(Status.OK, new Metadata());
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "localhost";
+        }
+    }
+}
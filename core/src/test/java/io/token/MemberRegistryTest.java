@@ -0,0 +1,91 @@
+package io.token;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+import io.token.util.TestClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MemberRegistryTest {
+    private final TestClock clock = new TestClock();
+    private final List<PublishSubject<Member>> fetches = new ArrayList<>();
+    private final MemberRegistry<Member> registry = MemberRegistry.builder()
+            .ttl(60_000)
+            .refreshAfter(10_000)
+            .clock(clock)
+            .build(memberId -> {
+                PublishSubject<Member> fetch = PublishSubject.create();
+                fetches.add(fetch);
+                return fetch;
+            });
+
+    @Test
+    public void collapsesConcurrentLookups() {
+        Observable<Member> first = registry.get("m:1");
+        Observable<Member> second = registry.get("m:1");
+        List<Member> members = new ArrayList<>();
+        first.subscribe(members::add);
+        second.subscribe(members::add);
+
+        complete(0, member("realm-1"));
+
+        assertThat(fetches).hasSize(1);
+        assertThat(members).hasSize(2);
+        assertThat(members.get(0)).isSameAs(members.get(1));
+        assertThat(registry.get("m:1").blockingSingle()).isSameAs(members.get(0));
+    }
+
+    @Test
+    public void refreshesStaleMembersInTheBackground() {
+        registry.get("m:1").subscribe();
+        Member original = member("realm-1");
+        complete(0, original);
+
+        clock.tick(10_000);
+        assertThat(registry.get("m:1").blockingSingle()).isSameAs(original);
+        assertThat(registry.get("m:1").blockingSingle()).isSameAs(original);
+        assertThat(fetches).hasSize(2);
+
+        Member refreshed = member("realm-2");
+        complete(1, refreshed);
+        assertThat(registry.get("m:1").blockingSingle()).isSameAs(refreshed);
+        assertThat(registry.getFetchCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void dropsFailedFetches() {
+        registry.get("m:1").subscribe(member -> { }, error -> { });
+        fetches.get(0).onError(new IllegalStateException());
+
+        registry.get("m:1").subscribe();
+
+        assertThat(fetches).hasSize(2);
+    }
+
+    @Test
+    public void evictsMembers() {
+        registry.get("m:1").subscribe();
+        complete(0, member("realm-1"));
+
+        registry.evict("m:1");
+        registry.get("m:1").subscribe();
+
+        assertThat(fetches).hasSize(2);
+        assertThat(registry.size()).isEqualTo(1);
+    }
+
+    private void complete(int fetch, Member member) {
+        fetches.get(fetch).onNext(member);
+        fetches.get(fetch).onComplete();
+    }
+
+    private static Member member(String realmId) {
+        return new Member("m:1", null, realmId, null, SANDBOX);
+    }
+}
@@ -0,0 +1,157 @@
+package io.token;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.token.security.CryptoEngine;
+import io.token.security.CryptoEngineFactory;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.TokenCryptoEngineFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TokenClientWarmUpTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final TokenCryptoEngineFactory cryptoFactory =
+            new TokenCryptoEngineFactory(new InMemoryKeyStore());
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void waitsForTheConnection() {
+        FakeChannel channel = new FakeChannel(100);
+        TokenClient client = new TokenClient(channel, cryptoFactory, SANDBOX);
+
+        WarmUpReport report = client.warmUp(5_000, emptyList(), false);
+
+        assertThat(report.isReady()).isTrue();
+        assertThat(report.getConnectMs()).isGreaterThanOrEqualTo(90);
+        assertThat(report.getCallMs()).isEqualTo(-1);
+        assertThat(report.getFailures()).isEmpty();
+        assertThat(client.getWarmUpReport()).contains(report);
+    }
+
+    @Test
+    public void reportsTimeout() {
+        FakeChannel channel = new FakeChannel(10_000);
+        TokenClient client = new TokenClient(channel, cryptoFactory, SANDBOX);
+
+        WarmUpReport report = client.warmUp(50, emptyList(), false);
+
+        assertThat(report.isReady()).isFalse();
+    }
+
+    @Test
+    public void loadsMemberKeys() {
+        CryptoEngine crypto = cryptoFactory.create("m:1");
+        crypto.generateKey(LOW);
+        crypto.generateKey(STANDARD);
+        TokenClient client = new TokenClient(new FakeChannel(0), cryptoFactory, SANDBOX);
+
+        WarmUpReport report = client.warmUp(1_000, singletonList("m:1"), false);
+
+        assertThat(report.getKeyCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void recordsFailedSteps() {
+        cryptoFactory.create("m:1").generateKey(LOW);
+        CryptoEngineFactory failing = memberId -> {
+            if (memberId.equals("m:2")) {
+                throw new IllegalStateException("key store unavailable");
+            }
+            return cryptoFactory.create(memberId);
+        };
+        TokenClient client = new TokenClient(new FakeChannel(0), failing, SANDBOX);
+
+        WarmUpReport report = client.warmUp(1_000, Arrays.asList("m:2", "m:1"), false);
+
+        assertThat(report.isReady()).isTrue();
+        assertThat(report.getKeyCount()).isEqualTo(1);
+        assertThat(report.getFailures()).hasSize(1);
+        assertThat(report.getFailures().get(0))
+                .startsWith("keys of m:2")
+                .contains("key store unavailable");
+    }
+
+    private class FakeChannel extends ManagedChannel {
+        private final long connectMs;
+        private volatile ConnectivityState state = ConnectivityState.IDLE;
+
+        private FakeChannel(long connectMs) {
+            this.connectMs = connectMs;
+        }
+
+        @Override
+        public synchronized ConnectivityState getState(boolean requestConnection) {
+            if (requestConnection && state == ConnectivityState.IDLE) {
+                state = ConnectivityState.CONNECTING;
+                executor.schedule(
+                        () -> state = ConnectivityState.READY,
+                        connectMs,
+                        TimeUnit.MILLISECONDS);
+            }
+            return state;
+        }
+
+        @Override
+        public void notifyWhenStateChanged(ConnectivityState source, Runnable callback) {
+            executor.schedule(callback, 10, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public ManagedChannel shutdown() {
+            return this;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public ManagedChannel shutdownNow() {
+            return this;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String authority() {
+            return "test";
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package io.token.idempotency;
+
+import static io.token.idempotency.IdempotencyRecord.Status.FAILED;
+import static io.token.idempotency.IdempotencyRecord.Status.IN_FLIGHT;
+import static io.token.idempotency.IdempotencyRecord.Status.SUCCEEDED;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.grpc.Status;
+import io.reactivex.Observable;
+import io.reactivex.functions.Function;
+import io.token.exceptions.IdempotencyStoreException;
+import io.token.proto.PagedList;
+import io.token.util.TestClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IdempotencyLedgerTest {
+    private static final String KEY = IdempotencyLedger.key("m:1", "transfer", "ref-1");
+
+    @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void retryAfterSuccess_fetchesExisting() {
+        IdempotencyLedger ledger = new IdempotencyLedger(new InMemoryIdempotencyStore());
+        FakeOperation operation = new FakeOperation();
+
+        assertThat(ledger.execute(KEY, operation).blockingFirst()).isEqualTo("t:1");
+        assertThat(ledger.execute(KEY, operation).blockingFirst()).isEqualTo("t:1");
+
+        assertThat(operation.submits.get()).isEqualTo(1);
+        assertThat(operation.fetches.get()).isEqualTo(1);
+        assertThat(ledger.getRecord(KEY).getStatus()).isEqualTo(SUCCEEDED);
+    }
+
+    @Test
+    public void retryAfterTimeout_reconciles() {
+        IdempotencyLedger ledger = new IdempotencyLedger(new InMemoryIdempotencyStore());
+        FakeOperation operation = new FakeOperation();
+        operation.error = Status.DEADLINE_EXCEEDED.asRuntimeException();
+
+        assertThat(ledger.execute(KEY, operation).onErrorResumeNext(Observable.empty())
+                .blockingIterable()).isEmpty();
+        assertThat(ledger.getRecord(KEY).getStatus()).isEqualTo(IN_FLIGHT);
+
+        operation.error = null;
+        operation.reconciled = "t:1";
+        assertThat(ledger.execute(KEY, operation).blockingFirst()).isEqualTo("t:1");
+        assertThat(operation.submits.get()).isEqualTo(1);
+        assertThat(ledger.getRecord(KEY).getResultId()).isEqualTo("t:1");
+    }
+
+    @Test
+    public void retryAfterRejection_resubmits() {
+        IdempotencyLedger ledger = new IdempotencyLedger(new InMemoryIdempotencyStore());
+        FakeOperation operation = new FakeOperation();
+        operation.error = Status.INVALID_ARGUMENT.asRuntimeException();
+
+        assertThat(ledger.execute(KEY, operation).onErrorResumeNext(Observable.empty())
+                .blockingIterable()).isEmpty();
+        assertThat(ledger.getRecord(KEY).getStatus()).isEqualTo(FAILED);
+
+        operation.error = null;
+        assertThat(ledger.execute(KEY, operation).blockingFirst()).isEqualTo("t:2");
+        assertThat(operation.submits.get()).isEqualTo(2);
+        assertThat(operation.reconciles.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void concurrentSubmits_shareOneCall() throws Exception {
+        IdempotencyLedger ledger = new IdempotencyLedger(new InMemoryIdempotencyStore());
+        FakeOperation operation = new FakeOperation();
+        operation.release = new CountDownLatch(1);
+        int callers = 16;
+        CountDownLatch started = new CountDownLatch(callers);
+        ExecutorService threads = Executors.newFixedThreadPool(callers);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(threads.submit(() -> {
+                Observable<String> result = ledger.execute(KEY, operation);
+                started.countDown();
+                return result.blockingFirst();
+            }));
+        }
+
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        operation.release.countDown();
+        for (Future<String> result : results) {
+            assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo("t:1");
+        }
+        threads.shutdown();
+
+        assertThat(operation.submits.get()).isEqualTo(1);
+        assertThat(operation.fetches.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void pagedSearch_followsOffsets() {
+        List<List<String>> pages = Arrays.asList(
+                Arrays.asList("a", "b"),
+                Arrays.asList("c", "d"),
+                Arrays.asList("e"));
+        List<String> offsets = new ArrayList<>();
+        Function<String, Observable<PagedList<String, String>>> fetch =
+                offset -> {
+                    offsets.add(offset);
+                    int page = offset == null ? 0 : Integer.parseInt(offset);
+                    return Observable.just(page < pages.size()
+                            ? PagedList.create(pages.get(page), String.valueOf(page + 1))
+                            : PagedList.create(Collections.<String>emptyList(), offset));
+                };
+
+        assertThat(PagedSearch.findFirst(fetch, "e"::equals).blockingFirst()).isEqualTo("e");
+        assertThat(offsets).containsExactly(null, "1", "2");
+
+        offsets.clear();
+        assertThat(PagedSearch.findFirst(fetch, "z"::equals).blockingIterable()).isEmpty();
+        assertThat(offsets).containsExactly(null, "1", "2", "3");
+    }
+
+    @Test
+    public void fileStore_survivesReopen() throws Exception {
+        File file = tempDir.newFile("ledger");
+        FileIdempotencyStore store = new FileIdempotencyStore(file);
+        new IdempotencyLedger(store).execute(KEY, new FakeOperation()).blockingFirst();
+        store.close();
+
+        FileIdempotencyStore reopened = new FileIdempotencyStore(file);
+        assertThat(reopened.get(KEY).getStatus()).isEqualTo(SUCCEEDED);
+        assertThat(reopened.get(KEY).getResultId()).isEqualTo("t:1");
+        reopened.close();
+    }
+
+    @Test
+    public void fileStore_dropsTornTail() throws Exception {
+        File file = tempDir.newFile("ledger");
+        FileIdempotencyStore store = new FileIdempotencyStore(file);
+        store.put(IdempotencyRecord.create(KEY, SUCCEEDED, "t:1", 0));
+        store.close();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("m:1/transfer/ref-2\tSUCC".getBytes("UTF-8"));
+        }
+
+        FileIdempotencyStore reopened = new FileIdempotencyStore(file);
+        String key = IdempotencyLedger.key("m:1", "transfer", "ref-3");
+        reopened.put(IdempotencyRecord.create(key, IN_FLIGHT, null, 0));
+        reopened.close();
+
+        FileIdempotencyStore recovered = new FileIdempotencyStore(file);
+        assertThat(recovered.get(KEY).getResultId()).isEqualTo("t:1");
+        assertThat(recovered.get(key).getStatus()).isEqualTo(IN_FLIGHT);
+        recovered.close();
+    }
+
+    @Test
+    public void fileStore_compacts() throws Exception {
+        File file = tempDir.newFile("ledger");
+        FileIdempotencyStore store = new FileIdempotencyStore(file, false, 10);
+        for (int i = 0; i < 100; i++) {
+            store.put(IdempotencyRecord.create(KEY, IN_FLIGHT, null, i));
+        }
+        store.close();
+
+        assertThat(file.length()).isLessThan(10 * 50);
+        FileIdempotencyStore reopened = new FileIdempotencyStore(file);
+        assertThat(reopened.get(KEY).getUpdatedAtMs()).isEqualTo(99);
+        reopened.close();
+    }
+
+    @Test
+    public void fileStore_dropsExpiredRecords() throws Exception {
+        File file = tempDir.newFile("ledger");
+        TestClock clock = new TestClock();
+        String inFlight = IdempotencyLedger.key("m:1", "transfer", "ref-2");
+        String failed = IdempotencyLedger.key("m:1", "transfer", "ref-3");
+        FileIdempotencyStore store = new FileIdempotencyStore(file, false, 10, 1_000, clock);
+        store.put(IdempotencyRecord.create(KEY, SUCCEEDED, "t:1", clock.getTime()));
+        store.put(IdempotencyRecord.create(inFlight, IN_FLIGHT, null, clock.getTime()));
+        store.close();
+
+        clock.tick(2_000);
+        FileIdempotencyStore reopened = new FileIdempotencyStore(file, false, 10, 1_000, clock);
+        assertThat(reopened.get(KEY)).isNull();
+        assertThat(reopened.get(inFlight).getStatus()).isEqualTo(IN_FLIGHT);
+
+        reopened.put(IdempotencyRecord.create(failed, FAILED, null, clock.getTime()));
+        clock.tick(2_000);
+        for (int i = 0; i < 10; i++) {
+            String key = IdempotencyLedger.key("m:1", "transfer", "new-" + i);
+            reopened.put(IdempotencyRecord.create(key, SUCCEEDED, "t:" + i, clock.getTime()));
+        }
+        assertThat(reopened.get(failed)).isNull();
+        assertThat(reopened.get(inFlight).getStatus()).isEqualTo(IN_FLIGHT);
+        reopened.close();
+    }
+
+    @Test
+    public void fileStore_keepsWritingAfterFailedCompaction() throws Exception {
+        File file = tempDir.newFile("ledger");
+        FileIdempotencyStore store = new FileIdempotencyStore(file, false, 10);
+        // The compacted file cannot be written where a directory is in the way.
+        tempDir.newFolder("ledger.tmp");
+
+        assertThatThrownBy(store::compact).isInstanceOf(IdempotencyStoreException.class);
+        store.put(IdempotencyRecord.create(KEY, SUCCEEDED, "t:1", 0));
+        store.close();
+
+        FileIdempotencyStore reopened = new FileIdempotencyStore(file);
+        assertThat(reopened.get(KEY).getResultId()).isEqualTo("t:1");
+        reopened.close();
+    }
+
+    private static class FakeOperation implements IdempotentOperation<String> {
+        private final AtomicInteger submits = new AtomicInteger();
+        private final AtomicInteger fetches = new AtomicInteger();
+        private final AtomicInteger reconciles = new AtomicInteger();
+        private RuntimeException error;
+        private String reconciled;
+        private CountDownLatch release;
+
+        @Override
+        public Observable<String> submit() {
+            int count = submits.incrementAndGet();
+            if (release != null) {
+                return Observable.fromCallable(() -> {
+                    release.await();
+                    return "t:" + count;
+                });
+            }
+            return error != null
+                    ? Observable.error(error)
+                    : Observable.just("t:" + count);
+        }
+
+        @Override
+        public String resultId(String result) {
+            return result;
+        }
+
+        @Override
+        public Observable<String> fetch(String resultId) {
+            fetches.incrementAndGet();
+            return Observable.just(resultId);
+        }
+
+        @Override
+        public Observable<String> reconcile() {
+            reconciles.incrementAndGet();
+            return reconciled != null ? Observable.just(reconciled) : Observable.empty();
+        }
+    }
+}
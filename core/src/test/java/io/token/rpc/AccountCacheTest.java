@@ -0,0 +1,234 @@
+package io.token.rpc;
+
+import static io.grpc.Metadata.ASCII_STRING_MARSHALLER;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.token.proto.gateway.Gateway.GetBalanceRequest;
+import io.token.util.TestClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AccountCacheTest {
+    private static final MethodDescriptor<GetBalanceRequest, String> GET_BALANCE =
+            method("GetBalance");
+    private static final MethodDescriptor<GetBalanceRequest, String> UNLINK_ACCOUNTS =
+            method("UnlinkAccounts");
+
+    private final TestClock clock = new TestClock();
+    private final AccountCache cache = AccountCache.builder()
+            .refreshAhead(0.5)
+            .clock(clock)
+            .build();
+    private final List<ClientCall.Listener<String>> sent = new ArrayList<>();
+
+    @Test
+    public void answersRecentEnoughReads() {
+        List<String> responses = new ArrayList<>();
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        complete(0, "balance");
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+
+        assertThat(sent).hasSize(1);
+        assertThat(responses).containsExactly("balance", "balance");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void readsWithoutMaxStalenessGoToTheGateway() {
+        List<String> responses = new ArrayList<>();
+        call(GET_BALANCE, "a:1", "m:1", 0, responses);
+        complete(0, "old");
+        call(GET_BALANCE, "a:1", "m:1", 0, responses);
+        complete(1, "new");
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+
+        assertThat(sent).hasSize(2);
+        assertThat(responses).containsExactly("old", "new", "new");
+    }
+
+    @Test
+    public void keepsMembersApart() {
+        List<String> responses = new ArrayList<>();
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        complete(0, "balance");
+        call(GET_BALANCE, "a:1", "m:2", 10_000, responses);
+
+        assertThat(sent).hasSize(2);
+        assertThat(cache.getHitCount()).isZero();
+    }
+
+    @Test
+    public void expiresAndRefreshesAhead() {
+        List<String> responses = new ArrayList<>();
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        complete(0, "old");
+        clock.tick(6_000);
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+
+        assertThat(responses).containsExactly("old", "old");
+        assertThat(sent).hasSize(2);
+        assertThat(cache.getRefreshCount()).isEqualTo(1);
+        assertThat(cache.getMaxHitAgeMs()).isGreaterThanOrEqualTo(6_000);
+
+        complete(1, "new");
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        assertThat(responses).containsExactly("old", "old", "new");
+
+        clock.tick(11_000);
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        assertThat(sent).hasSize(3);
+    }
+
+    @Test
+    public void invalidatesOnUnlink() {
+        List<String> responses = new ArrayList<>();
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        complete(0, "balance");
+        call(UNLINK_ACCOUNTS, "a:1", "m:1", 0, responses);
+        complete(1, "unlinked");
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+
+        assertThat(sent).hasSize(3);
+        assertThat(cache.getInvalidationCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void invalidatesAccount() {
+        List<String> responses = new ArrayList<>();
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        complete(0, "balance");
+        call(GET_BALANCE, "a:2", "m:1", 10_000, responses);
+        complete(1, "balance");
+        cache.invalidateAccount("a:1");
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        call(GET_BALANCE, "a:2", "m:1", 10_000, responses);
+
+        assertThat(sent).hasSize(3);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void doesNotCacheDataReadBeforeAnInvalidation() {
+        List<String> responses = new ArrayList<>();
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        cache.invalidateMember("m:1");
+        complete(0, "balance");
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+
+        assertThat(sent).hasSize(2);
+    }
+
+    @Test
+    public void invalidatesOnlyTheChangedMember() {
+        List<String> responses = new ArrayList<>();
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        call(GET_BALANCE, "a:2", "m:2", 10_000, responses);
+        complete(1, "balance");
+        call(UNLINK_ACCOUNTS, "a:2", "m:2", 0, responses);
+        complete(2, "unlinked");
+        complete(0, "balance");
+        call(GET_BALANCE, "a:1", "m:1", 10_000, responses);
+        call(GET_BALANCE, "a:2", "m:2", 10_000, responses);
+
+        assertThat(sent).hasSize(4);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getInvalidationCount()).isEqualTo(1);
+    }
+
+    private void complete(int index, String response) {
+        sent.get(index).onMessage(response);
+        sent.get(index).onClose(Status.OK, new Metadata());
+    }
+
+    private void call(
+            MethodDescriptor<GetBalanceRequest, String> method,
+            String accountId,
+            String memberId,
+            long maxStalenessMs,
+            List<String> out) {
+        Metadata headers = new Metadata();
+        headers.put(Metadata.Key.of("token-member-id", ASCII_STRING_MARSHALLER), memberId);
+        ClientCall<GetBalanceRequest, String> call = cache.interceptCall(
+                method,
+                CallOptions.DEFAULT.withOption(AccountCache.MAX_STALENESS_MS, maxStalenessMs),
+                new FakeChannel());
+        call.start(new ClientCall.Listener<String>() {
+            @Override
+            public void onMessage(String message) {
+                out.add(message);
+            }
+        }, headers);
+        call.request(2);
+        call.sendMessage(GetBalanceRequest.newBuilder().setAccountId(accountId).build());
+        call.halfClose();
+    }
+
+    private static MethodDescriptor<GetBalanceRequest, String> method(String name) {
+        return MethodDescriptor.<GetBalanceRequest, String>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName("io.token.proto.gateway.GatewayService/" + name)
+                .setRequestMarshaller(new NoopMarshaller<>())
+                .setResponseMarshaller(new NoopMarshaller<>())
+                .build();
+    }
+
+    private class FakeChannel extends Channel {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            return new ClientCall<ReqT, ResT>() {
+                @Override
+                public void start(Listener<ResT> listener, Metadata headers) {
+                    sent.add((Listener<String>) listener);
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(String message, Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "test";
+        }
+    }
+
+    private static class NoopMarshaller<T> implements MethodDescriptor.Marshaller<T> {
+        @Override
+        public InputStream stream(T value) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public T parse(InputStream stream) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package io.token.rpc;
+
+import static io.token.rpc.BankCircuitBreaker.State.CLOSED;
+import static io.token.rpc.BankCircuitBreaker.State.HALF_OPEN;
+import static io.token.rpc.BankCircuitBreaker.State.OPEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.reactivex.observers.TestObserver;
+import io.token.exceptions.BankCircuitOpenException;
+import io.token.proto.gateway.Gateway.GetBalanceRequest;
+import io.token.util.TestClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BankCircuitBreakerTest {
+    private static final MethodDescriptor<GetBalanceRequest, Object> GET_BALANCE =
+            MethodDescriptor.<GetBalanceRequest, Object>newBuilder()
+                    .setType(MethodDescriptor.MethodType.UNARY)
+                    .setFullMethodName("io.token.proto.gateway.GatewayService/GetBalance")
+                    .setRequestMarshaller(new NoopMarshaller<>())
+                    .setResponseMarshaller(new NoopMarshaller<>())
+                    .build();
+
+    private final TestClock clock = new TestClock();
+    private final BankResolver banks = new BankResolver();
+    private final AtomicInteger sent = new AtomicInteger();
+    private Status nextStatus = Status.OK;
+    private BankCircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        breaker = BankCircuitBreaker.builder()
+                .window(4, 4)
+                .failureRateThreshold(0.5)
+                .openDuration(1_000)
+                .halfOpenCalls(1)
+                .clock(clock)
+                .bankResolver(banks)
+                .build();
+        banks.learnAccountBank("a:1", "iron");
+    }
+
+    @Test
+    public void opensAfterFailuresAndRecovers() {
+        TestObserver<BankCircuitEvent> events = breaker.events().test();
+
+        call("a:1");
+        call("a:1");
+        nextStatus = Status.UNAVAILABLE;
+        call("a:1");
+        assertThat(breaker.getState("iron")).isEqualTo(CLOSED);
+        call("a:1");
+        assertThat(breaker.getState("iron")).isEqualTo(OPEN);
+
+        Status rejected = call("a:1");
+        assertThat(rejected.getCause()).isInstanceOf(BankCircuitOpenException.class);
+        assertThat(((BankCircuitOpenException) rejected.getCause()).getBankId())
+                .isEqualTo("iron");
+        assertThat(sent.get()).isEqualTo(4);
+
+        clock.tick(1_000);
+        nextStatus = Status.OK;
+        assertThat(call("a:1").isOk()).isTrue();
+        assertThat(breaker.getState("iron")).isEqualTo(CLOSED);
+
+        events.assertValueCount(3);
+        assertThat(events.values().get(0).getState()).isEqualTo(OPEN);
+        assertThat(events.values().get(1).getState()).isEqualTo(HALF_OPEN);
+        assertThat(events.values().get(2).getState()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    public void ignoresCallsOfUnknownBanks() {
+        nextStatus = Status.UNAVAILABLE;
+        for (int i = 0; i < 10; i++) {
+            call("a:unknown");
+        }
+
+        assertThat(sent.get()).isEqualTo(10);
+        assertThat(breaker.getStates()).isEmpty();
+    }
+
+    private Status call(String accountId) {
+        Status[] result = new Status[1];
+        ClientCall<GetBalanceRequest, Object> call = breaker.interceptCall(
+                GET_BALANCE,
+                CallOptions.DEFAULT,
+                new FakeChannel());
+        call.start(new ClientCall.Listener<Object>() {
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+                result[0] = status;
+            }
+        }, new Metadata());
+        call.request(1);
+        call.sendMessage(GetBalanceRequest.newBuilder().setAccountId(accountId).build());
+        call.halfClose();
+        return result[0];
+    }
+
+    private class FakeChannel extends Channel {
+        @Override
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            return new ClientCall<ReqT, ResT>() {
+                private Listener<ResT> listener;
+
+                @Override
+                public void start(Listener<ResT> listener, Metadata headers) {
+                    this.listener = listener;
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(String message, Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                    sent.incrementAndGet();
+                    listener.onClose(nextStatus, new Metadata());
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "test";
+        }
+    }
+
+    private static class NoopMarshaller<T> implements MethodDescriptor.Marshaller<T> {
+        @Override
+        public InputStream stream(T value) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public T parse(InputStream stream) {
+            return null;
+        }
+    }
+}
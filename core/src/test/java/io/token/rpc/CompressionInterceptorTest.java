@@ -0,0 +1,169 @@
+package io.token.rpc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.base.Strings;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientStreamTracer;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.token.proto.gateway.Gateway.GetTransactionsRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompressionInterceptorTest {
+    private static final MethodDescriptor<GetTransactionsRequest, String> GET_TRANSACTIONS =
+            method("GetTransactions");
+    private static final MethodDescriptor<GetTransactionsRequest, String> GET_BALANCE =
+            method("GetBalance");
+    private static final MethodDescriptor<GetTransactionsRequest, String> CREATE_BLOB =
+            method("CreateBlob");
+
+    private final List<CallOptions> options = new ArrayList<>();
+    private final List<Boolean> compressed = new ArrayList<>();
+
+    @Test
+    public void compressesLargeRequestsOfChosenMethods() {
+        CompressionInterceptor compression = CompressionInterceptor.builder()
+                .threshold(1024)
+                .build();
+
+        call(compression, CREATE_BLOB, 2_000);
+        call(compression, CREATE_BLOB, 10);
+        call(compression, GET_TRANSACTIONS, 2_000);
+
+        assertThat(options.get(0).getCompressor()).isEqualTo(CompressionInterceptor.GZIP);
+        assertThat(options.get(2).getCompressor()).isNull();
+        assertThat(compressed).containsExactly(true, false);
+    }
+
+    @Test
+    public void rejectsCodecsOtherThanGzip() {
+        assertThatThrownBy(() -> CompressionInterceptor.builder()
+                .compress("GetTransactions", "snappy")
+                .build())
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> CompressionInterceptor.builder()
+                .defaultCodec("snappy")
+                .build())
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void appliesTheDefaultCodec() {
+        CompressionInterceptor compression = CompressionInterceptor.builder()
+                .defaultCodec(CompressionInterceptor.GZIP)
+                .noCompression("GetTransactions")
+                .build();
+
+        call(compression, GET_TRANSACTIONS, 2_000);
+        call(compression, GET_BALANCE, 2_000);
+
+        assertThat(options.get(0).getCompressor()).isNull();
+        assertThat(options.get(1).getCompressor()).isEqualTo(CompressionInterceptor.GZIP);
+    }
+
+    @Test
+    public void measuresCompressionRatios() {
+        CompressionInterceptor compression = CompressionInterceptor.builder().build();
+        call(compression, GET_TRANSACTIONS, 2_000);
+
+        ClientStreamTracer tracer = options.get(0).getStreamTracerFactories().get(0)
+                .newClientStreamTracer(
+                        ClientStreamTracer.StreamInfo.newBuilder().build(),
+                        new Metadata());
+        tracer.outboundUncompressedSize(2_000);
+        tracer.outboundWireSize(500);
+        tracer.inboundUncompressedSize(30_000);
+        tracer.inboundWireSize(6_000);
+
+        CompressionStats stats = compression.getStats().get(GET_TRANSACTIONS.getFullMethodName());
+        assertThat(stats.getRequestRatio()).isEqualTo(4.0);
+        assertThat(stats.getResponseRatio()).isEqualTo(5.0);
+        assertThat(compression.getTotalStats().getResponseBytes()).isEqualTo(30_000);
+    }
+
+    private void call(
+            CompressionInterceptor compression,
+            MethodDescriptor<GetTransactionsRequest, String> method,
+            int requestSize) {
+        ClientCall<GetTransactionsRequest, String> call = compression.interceptCall(
+                method,
+                CallOptions.DEFAULT,
+                new FakeChannel());
+        call.start(new ClientCall.Listener<String>() {}, new Metadata());
+        call.sendMessage(GetTransactionsRequest.newBuilder()
+                .setAccountId(Strings.repeat("a", requestSize))
+                .build());
+        call.halfClose();
+    }
+
+    private static MethodDescriptor<GetTransactionsRequest, String> method(String name) {
+        return MethodDescriptor.<GetTransactionsRequest, String>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName("io.token.proto.gateway.GatewayService/" + name)
+                .setRequestMarshaller(new NoopMarshaller<>())
+                .setResponseMarshaller(new NoopMarshaller<>())
+                .build();
+    }
+
+    private class FakeChannel extends Channel {
+        @Override
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            options.add(callOptions);
+            return new ClientCall<ReqT, ResT>() {
+                @Override
+                public void start(Listener<ResT> listener, Metadata headers) {
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(String message, Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+
+                @Override
+                public void setMessageCompression(boolean enabled) {
+                    compressed.add(enabled);
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "test";
+        }
+    }
+
+    private static class NoopMarshaller<T> implements MethodDescriptor.Marshaller<T> {
+        @Override
+        public InputStream stream(T value) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public T parse(InputStream stream) {
+            return null;
+        }
+    }
+}
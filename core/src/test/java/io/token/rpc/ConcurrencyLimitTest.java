@@ -0,0 +1,87 @@
+package io.token.rpc;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class ConcurrencyLimitTest {
+    @Test
+    public void rejectsOverLimit() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(2, 1, 10, 0.5, 2.0);
+
+        assertThat(limit.tryAcquire()).isTrue();
+        assertThat(limit.tryAcquire()).isTrue();
+        assertThat(limit.tryAcquire()).isFalse();
+        assertThat(limit.getInFlight()).isEqualTo(2);
+
+        limit.onIgnore();
+        assertThat(limit.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void growsWhileBusyAndFast() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(2, 1, 3, 0.5, 2.0);
+
+        for (int i = 0; i < 5; i++) {
+            limit.tryAcquire();
+            limit.tryAcquire();
+            limit.onSuccess(10);
+            limit.onIgnore();
+        }
+
+        assertThat(limit.getLimit()).isEqualTo(3);
+    }
+
+    @Test
+    public void shrinksOnOverloadAndSlowCalls() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(8, 1, 10, 0.5, 2.0);
+
+        limit.tryAcquire();
+        limit.onOverload();
+        assertThat(limit.getLimit()).isEqualTo(4);
+
+        limit.tryAcquire();
+        limit.onSuccess(10);
+        limit.tryAcquire();
+        limit.onSuccess(100);
+        assertThat(limit.getLimit()).isEqualTo(2);
+
+        for (int i = 0; i < 5; i++) {
+            limit.tryAcquire();
+            limit.onOverload();
+        }
+        assertThat(limit.getLimit()).isEqualTo(1);
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    @Test
+    public void dropsIdleMemberLimits() {
+        AtomicLong nanos = new AtomicLong();
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+                .memberEviction(2, 1_000)
+                .ticker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return nanos.get();
+                    }
+                })
+                .build();
+
+        ConcurrencyLimit limit = limiter.memberLimit("m:1");
+        nanos.addAndGet(MILLISECONDS.toNanos(999));
+        assertThat(limiter.memberLimit("m:1")).isSameAs(limit);
+
+        nanos.addAndGet(MILLISECONDS.toNanos(1_000));
+        assertThat(limiter.getMemberLimits()).isEmpty();
+        assertThat(limiter.memberLimit("m:1")).isNotSameAs(limit);
+
+        limiter.memberLimit("m:2");
+        limiter.memberLimit("m:3");
+        assertThat(limiter.getMemberLimits()).hasSize(2);
+    }
+}
@@ -0,0 +1,115 @@
+package io.token.rpc;
+
+import static io.token.rpc.DeadlinePolicy.BANK;
+import static io.token.rpc.DeadlinePolicy.READ;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Deadline;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+public class DeadlineInterceptorTest {
+    private static final String SERVICE = "io.token.proto.gateway.GatewayService/";
+
+    private final DeadlineInterceptor interceptor = new DeadlineInterceptor(
+            DeadlinePolicy.builder()
+                    .timeoutClass(READ, 2_000)
+                    .timeoutClass(BANK, 30_000)
+                    .build(10_000));
+    private final List<Deadline> deadlines = new ArrayList<>();
+
+    @Test
+    public void appliesTheDeadlineOfTheTimeoutClass() {
+        call("GetAccount", CallOptions.DEFAULT);
+        call("GetTransactions", CallOptions.DEFAULT);
+        call("CreateBlob", CallOptions.DEFAULT);
+
+        assertThat(deadlines.get(0).timeRemaining(MILLISECONDS)).isBetween(1_000L, 2_000L);
+        assertThat(deadlines.get(1).timeRemaining(MILLISECONDS)).isBetween(29_000L, 30_000L);
+        assertThat(deadlines.get(2).timeRemaining(MILLISECONDS)).isBetween(9_000L, 10_000L);
+    }
+
+    @Test
+    public void keepsAnExistingDeadline() {
+        Deadline deadline = Deadline.after(60, SECONDS);
+
+        call("GetAccount", CallOptions.DEFAULT.withDeadline(deadline));
+
+        assertThat(deadlines).containsExactly(deadline);
+    }
+
+    private void call(String method, CallOptions callOptions) {
+        interceptor.interceptCall(unary(SERVICE + method), callOptions, new RecordingChannel());
+    }
+
+    private static MethodDescriptor<Object, Object> unary(String fullMethodName) {
+        return MethodDescriptor.<Object, Object>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName(fullMethodName)
+                .setRequestMarshaller(new UnusedMarshaller())
+                .setResponseMarshaller(new UnusedMarshaller())
+                .build();
+    }
+
+    /**
+     * Records the deadline of every call it creates; the calls do nothing.
+     */
+    private final class RecordingChannel extends Channel {
+        @Override
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            deadlines.add(callOptions.getDeadline());
+            return new ClientCall<ReqT, ResT>() {
+                @Override
+                public void start(Listener<ResT> listener, Metadata headers) {
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(@Nullable String message, @Nullable Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "localhost";
+        }
+    }
+
+    private static final class UnusedMarshaller implements MethodDescriptor.Marshaller<Object> {
+        @Override
+        public InputStream stream(Object value) {
+            throw new UnsupportedOperationException("Not sent over the wire");
+        }
+
+        @Override
+        public Object parse(InputStream stream) {
+            throw new UnsupportedOperationException("Not sent over the wire");
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.token.rpc;
+
+import static io.token.rpc.DeadlinePolicy.BANK;
+import static io.token.rpc.DeadlinePolicy.DEFAULT;
+import static io.token.rpc.DeadlinePolicy.READ;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class DeadlinePolicyTest {
+    private static final String SERVICE = "io.token.proto.gateway.GatewayService/";
+
+    @Test
+    public void unconfiguredClassesUseDefaultTimeout() {
+        DeadlinePolicy policy = DeadlinePolicy.builder().build(10_000);
+
+        assertThat(policy.timeoutMs(SERVICE + "GetAccount")).isEqualTo(10_000);
+        assertThat(policy.timeoutMs(SERVICE + "GetTransactions")).isEqualTo(10_000);
+        assertThat(policy.timeoutMs(SERVICE + "UpdateMember")).isEqualTo(10_000);
+        assertThat(policy.maxTimeoutMs()).isEqualTo(10_000);
+    }
+
+    @Test
+    public void resolvesMethodThenClassThenDefault() {
+        DeadlinePolicy policy = DeadlinePolicy.builder()
+                .timeoutClass(READ, 2_000)
+                .timeoutClass(BANK, 30_000)
+                .methodTimeout("LinkAccounts", 60_000)
+                .methodTimeoutClass("UpdateMember", READ)
+                .build(10_000);
+
+        assertThat(policy.timeoutClass(SERVICE + "GetAccount")).isEqualTo(READ);
+        assertThat(policy.timeoutClass("CreateBlob")).isEqualTo(DEFAULT);
+        assertThat(policy.timeoutMs(SERVICE + "GetAccount")).isEqualTo(2_000);
+        assertThat(policy.timeoutMs(SERVICE + "GetTransactions")).isEqualTo(30_000);
+        assertThat(policy.timeoutMs(SERVICE + "LinkAccounts")).isEqualTo(60_000);
+        assertThat(policy.timeoutMs(SERVICE + "UpdateMember")).isEqualTo(2_000);
+        assertThat(policy.timeoutMs("CreateBlob")).isEqualTo(10_000);
+        assertThat(policy.maxTimeoutMs()).isEqualTo(60_000);
+    }
+}
@@ -0,0 +1,183 @@
+package io.token.rpc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DrainableChannelTest {
+    private static final MethodDescriptor<String, String> GET_BALANCE =
+            method("GetBalance");
+    private static final MethodDescriptor<String, String> CREATE_TRANSFER =
+            method("CreateTransfer");
+
+    private final List<ClientCall.Listener<String>> sent = new ArrayList<>();
+    private final List<String> cancelled = new ArrayList<>();
+    private final DrainableChannel channel = DrainableChannel.wrap(new FakeChannel());
+
+    @Test
+    public void countsCallsInFlight() {
+        call(GET_BALANCE, new ArrayList<>());
+        call(GET_BALANCE, new ArrayList<>());
+        call(CREATE_TRANSFER, new ArrayList<>());
+
+        assertThat(channel.getInFlightCount()).isEqualTo(3);
+        assertThat(channel.getInFlightCounts())
+                .containsEntry(GET_BALANCE.getFullMethodName(), 2)
+                .containsEntry(CREATE_TRANSFER.getFullMethodName(), 1);
+
+        sent.get(0).onClose(Status.OK, new Metadata());
+        assertThat(channel.getInFlightCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void waitsForCallsInFlight() throws Exception {
+        call(CREATE_TRANSFER, new ArrayList<>());
+        Thread completer = new Thread(() -> {
+            sleep(50);
+            sent.get(0).onClose(Status.OK, new Metadata());
+        });
+        completer.start();
+
+        assertThat(channel.drain(5_000)).isEmpty();
+        completer.join();
+        assertThat(cancelled).isEmpty();
+    }
+
+    @Test
+    public void cancelsCallsStillInFlightAtTheDeadline() {
+        call(GET_BALANCE, new ArrayList<>());
+        call(CREATE_TRANSFER, new ArrayList<>());
+        sent.get(0).onClose(Status.OK, new Metadata());
+
+        assertThat(channel.drain(50)).containsExactly(CREATE_TRANSFER.getFullMethodName());
+        assertThat(cancelled).hasSize(1);
+    }
+
+    @Test
+    public void rejectsNewCallsWhileDraining() {
+        channel.drain(0);
+        List<Status> statuses = new ArrayList<>();
+        call(GET_BALANCE, statuses);
+
+        assertThat(sent).isEmpty();
+        assertThat(statuses).extracting(Status::getCode).containsExactly(Status.Code.UNAVAILABLE);
+        assertThat(channel.getRejectedCount()).isEqualTo(1);
+    }
+
+    private void call(MethodDescriptor<String, String> method, List<Status> out) {
+        ClientCall<String, String> call = channel.newCall(method, CallOptions.DEFAULT);
+        call.start(new ClientCall.Listener<String>() {
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+                out.add(status);
+            }
+        }, new Metadata());
+        call.request(1);
+        call.sendMessage("request");
+        call.halfClose();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static MethodDescriptor<String, String> method(String name) {
+        return MethodDescriptor.<String, String>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName("io.token.proto.gateway.GatewayService/" + name)
+                .setRequestMarshaller(new NoopMarshaller<>())
+                .setResponseMarshaller(new NoopMarshaller<>())
+                .build();
+    }
+
+    private class FakeChannel extends ManagedChannel {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            return new ClientCall<ReqT, ResT>() {
+                @Override
+                public void start(Listener<ResT> listener, Metadata headers) {
+                    sent.add((Listener<String>) listener);
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(String message, Throwable cause) {
+                    cancelled.add(message);
+                }
+
+                @Override
+                public void halfClose() {
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "test";
+        }
+
+        @Override
+        public ManagedChannel shutdown() {
+            return this;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public ManagedChannel shutdownNow() {
+            return this;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    private static class NoopMarshaller<T> implements MethodDescriptor.Marshaller<T> {
+        @Override
+        public InputStream stream(T value) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public T parse(InputStream stream) {
+            return null;
+        }
+    }
+}
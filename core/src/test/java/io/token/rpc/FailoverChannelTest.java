@@ -0,0 +1,210 @@
+package io.token.rpc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.token.proto.gateway.Gateway.GetBanksCountriesResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FailoverChannelTest {
+    private static final MethodDescriptor<String, String> GET_BALANCE =
+            MethodDescriptor.<String, String>newBuilder()
+                    .setType(MethodDescriptor.MethodType.UNARY)
+                    .setFullMethodName("io.token.proto.gateway.GatewayService/GetBalance")
+                    .setRequestMarshaller(new NoopMarshaller<>())
+                    .setResponseMarshaller(new NoopMarshaller<>())
+                    .build();
+    private static final GatewayEndpoint PRIMARY =
+            GatewayEndpoint.create("eu.example.com", 443, true, 0);
+    private static final GatewayEndpoint SECONDARY =
+            GatewayEndpoint.create("us.example.com", 443, true, 1);
+
+    private final Map<GatewayEndpoint, FakeChannel> channels = new HashMap<>();
+    private FailoverChannel channel;
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+    }
+
+    @Test
+    public void prefersTheBestPriority() {
+        channel = build(60_000);
+        for (int i = 0; i < 10; i++) {
+            call();
+        }
+
+        assertThat(channels.get(PRIMARY).calls).hasSize(10);
+        assertThat(channels.get(SECONDARY).calls).isEmpty();
+    }
+
+    @Test
+    public void failsOverAfterConsecutiveUnavailableCalls() {
+        channel = build(60_000);
+        for (int i = 0; i < 3; i++) {
+            call();
+            channels.get(PRIMARY).calls.get(i).onClose(Status.UNAVAILABLE, new Metadata());
+        }
+        call();
+
+        assertThat(channels.get(SECONDARY).calls).hasSize(1);
+        assertThat(channel.getHealth()).containsEntry(PRIMARY, false);
+        assertThat(channel.getFailoverCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void failsBackOnceTheProbeSucceeds() throws Exception {
+        channel = build(20);
+        channels.get(PRIMARY).down = true;
+        awaitHealth(PRIMARY, false);
+        call();
+        assertThat(channels.get(SECONDARY).calls).hasSize(1);
+
+        channels.get(PRIMARY).down = false;
+        awaitHealth(PRIMARY, true);
+        call();
+        assertThat(channels.get(PRIMARY).calls).hasSize(1);
+        assertThat(channel.getFailoverCount()).isEqualTo(2);
+    }
+
+    private FailoverChannel build(long probeIntervalMs) {
+        channels.put(PRIMARY, new FakeChannel());
+        channels.put(SECONDARY, new FakeChannel());
+        return FailoverChannel.builder()
+                .endpoint(SECONDARY)
+                .endpoint(PRIMARY)
+                .channelFactory(channels::get)
+                .probe(probeIntervalMs, 1_000)
+                .failureThreshold(3)
+                .build();
+    }
+
+    private void awaitHealth(GatewayEndpoint endpoint, boolean healthy) throws Exception {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (channel.getHealth().get(endpoint) != healthy
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(channel.getHealth()).containsEntry(endpoint, healthy);
+    }
+
+    private void call() {
+        ClientCall<String, String> call = channel.newCall(GET_BALANCE, CallOptions.DEFAULT);
+        call.start(new ClientCall.Listener<String>() {}, new Metadata());
+        call.request(1);
+        call.sendMessage("request");
+        call.halfClose();
+    }
+
+    private static class FakeChannel extends ManagedChannel {
+        private final List<ClientCall.Listener<?>> calls = new ArrayList<>();
+        private volatile boolean down;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            boolean probe = method.getFullMethodName().endsWith("/GetBanksCountries");
+            return new ClientCall<ReqT, ResT>() {
+                private Listener<ResT> listener;
+
+                @Override
+                public void start(Listener<ResT> listener, Metadata headers) {
+                    this.listener = listener;
+                    if (!probe) {
+                        calls.add(listener);
+                    }
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(String message, Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                    if (!probe) {
+                        return;
+                    }
+                    if (down) {
+                        listener.onClose(Status.UNAVAILABLE, new Metadata());
+                    } else {
+                        listener.onMessage((ResT) GetBanksCountriesResponse.getDefaultInstance());
+                        listener.onClose(Status.OK, new Metadata());
+                    }
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public ConnectivityState getState(boolean requestConnection) {
+            return down ? ConnectivityState.TRANSIENT_FAILURE : ConnectivityState.READY;
+        }
+
+        @Override
+        public String authority() {
+            return "test";
+        }
+
+        @Override
+        public ManagedChannel shutdown() {
+            return this;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public ManagedChannel shutdownNow() {
+            return this;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    private static class NoopMarshaller<T> implements MethodDescriptor.Marshaller<T> {
+        @Override
+        public InputStream stream(T value) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public T parse(InputStream stream) {
+            return null;
+        }
+    }
+}
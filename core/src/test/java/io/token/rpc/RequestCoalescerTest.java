@@ -0,0 +1,136 @@
+package io.token.rpc;
+
+import static io.grpc.Metadata.ASCII_STRING_MARSHALLER;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.token.proto.gateway.Gateway.GetBalanceRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+    private static final MethodDescriptor<GetBalanceRequest, String> GET_BALANCE =
+            MethodDescriptor.<GetBalanceRequest, String>newBuilder()
+                    .setType(MethodDescriptor.MethodType.UNARY)
+                    .setFullMethodName("io.token.proto.gateway.GatewayService/GetBalance")
+                    .setRequestMarshaller(new NoopMarshaller<>())
+                    .setResponseMarshaller(new NoopMarshaller<>())
+                    .build();
+
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+    private final List<ClientCall.Listener<String>> sent = new ArrayList<>();
+
+    @Test
+    public void sharesIdenticalReads() {
+        List<String> responses = new ArrayList<>();
+        call("a:1", "m:1", "sig-1", responses);
+        call("a:1", "m:1", "sig-2", responses);
+        call("a:1", "m:1", "sig-3", responses);
+
+        assertThat(sent).hasSize(1);
+        sent.get(0).onMessage("balance");
+        sent.get(0).onClose(Status.OK, new Metadata());
+
+        assertThat(responses).containsExactly("balance", "balance", "balance");
+        assertThat(coalescer.getSentCount()).isEqualTo(1);
+        assertThat(coalescer.getSavedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void keepsDifferentReadsApart() {
+        List<String> responses = new ArrayList<>();
+        call("a:1", "m:1", "sig", responses);
+        call("a:2", "m:1", "sig", responses);
+        call("a:1", "m:2", "sig", responses);
+
+        assertThat(sent).hasSize(3);
+        assertThat(coalescer.getSavedCount()).isZero();
+    }
+
+    @Test
+    public void sendsAgainOnceTheFlightCompleted() {
+        List<String> responses = new ArrayList<>();
+        call("a:1", "m:1", "sig", responses);
+        sent.get(0).onClose(Status.UNAVAILABLE, new Metadata());
+        call("a:1", "m:1", "sig", responses);
+
+        assertThat(sent).hasSize(2);
+    }
+
+    private void call(String accountId, String memberId, String signature, List<String> out) {
+        Metadata headers = new Metadata();
+        headers.put(Metadata.Key.of("token-member-id", ASCII_STRING_MARSHALLER), memberId);
+        headers.put(Metadata.Key.of("token-signature", ASCII_STRING_MARSHALLER), signature);
+        ClientCall<GetBalanceRequest, String> call = coalescer.interceptCall(
+                GET_BALANCE,
+                CallOptions.DEFAULT,
+                new FakeChannel());
+        call.start(new ClientCall.Listener<String>() {
+            @Override
+            public void onMessage(String message) {
+                out.add(message);
+            }
+        }, headers);
+        call.request(2);
+        call.sendMessage(GetBalanceRequest.newBuilder().setAccountId(accountId).build());
+        call.halfClose();
+    }
+
+    private class FakeChannel extends Channel {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            return new ClientCall<ReqT, ResT>() {
+                @Override
+                public void start(Listener<ResT> listener, Metadata headers) {
+                    sent.add((Listener<String>) listener);
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(String message, Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "test";
+        }
+    }
+
+    private static class NoopMarshaller<T> implements MethodDescriptor.Marshaller<T> {
+        @Override
+        public InputStream stream(T value) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public T parse(InputStream stream) {
+            return null;
+        }
+    }
+}
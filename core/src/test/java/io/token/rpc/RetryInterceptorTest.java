@@ -0,0 +1,358 @@
+package io.token.rpc;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.token.proto.common.transfer.TransferProtos.TransferPayload;
+import io.token.proto.gateway.Gateway.CreateTransferRequest;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RetryInterceptorTest {
+    private static final MethodDescriptor<Object, Object> GET_ACCOUNT =
+            unary("io.token.proto.gateway.GatewayService/GetAccount");
+    private static final MethodDescriptor<Object, Object> CREATE_TRANSFER =
+            unary("io.token.proto.gateway.GatewayService/CreateTransfer");
+
+    private final ScheduledExecutorService transport = Executors.newScheduledThreadPool(2);
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final Queue<Status> failures = new ConcurrentLinkedQueue<>();
+    private final List<String> attemptThreads = new CopyOnWriteArrayList<>();
+    private final List<String> violations = new CopyOnWriteArrayList<>();
+    private volatile boolean hang;
+    private volatile @Nullable Runnable onNewCall;
+
+    @After
+    public void tearDown() {
+        transport.shutdownNow();
+        assertThat(violations).isEmpty();
+    }
+
+    @Test
+    public void retriesReadsAfterBackoff() throws Exception {
+        RetryInterceptor interceptor = new RetryInterceptor(RetryPolicy.builder()
+                .backoff(20, 20, 1.0)
+                .build());
+        failures.add(Status.UNAVAILABLE);
+
+        CompletableFuture<Status> closed = new CompletableFuture<>();
+        start(interceptor, GET_ACCOUNT, "request", closed);
+
+        assertThat(closed.get(1, SECONDS)).isEqualTo(Status.OK);
+        assertThat(attempts.get()).isEqualTo(2);
+        assertThat(interceptor.getRetryCount()).isEqualTo(1);
+        // The retry is scheduled after the backoff rather than sent from the failed attempt.
+        assertThat(attemptThreads.get(1)).startsWith("token-rpc-retry-");
+    }
+
+    @Test
+    public void doesNotRetryNonRetryableStatuses() throws Exception {
+        RetryInterceptor interceptor = new RetryInterceptor(RetryPolicy.defaults());
+        failures.add(Status.NOT_FOUND);
+
+        CompletableFuture<Status> closed = new CompletableFuture<>();
+        start(interceptor, GET_ACCOUNT, "request", closed);
+
+        assertThat(closed.get(1, SECONDS).getCode()).isEqualTo(Status.Code.NOT_FOUND);
+        assertThat(attempts.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void doesNotRetryWritesWithoutRefId() throws Exception {
+        RetryInterceptor interceptor = new RetryInterceptor(noBackoff());
+        failures.add(Status.UNAVAILABLE);
+
+        CompletableFuture<Status> closed = new CompletableFuture<>();
+        start(interceptor, CREATE_TRANSFER, transferRequest(""), closed);
+
+        assertThat(closed.get(1, SECONDS).getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+        assertThat(attempts.get()).isEqualTo(1);
+        assertThat(interceptor.getRetryCount()).isZero();
+    }
+
+    @Test
+    public void retriesWritesWithRefId() throws Exception {
+        RetryInterceptor interceptor = new RetryInterceptor(noBackoff());
+        failures.add(Status.UNAVAILABLE);
+
+        CompletableFuture<Status> closed = new CompletableFuture<>();
+        start(interceptor, CREATE_TRANSFER, transferRequest("ref-1"), closed);
+
+        assertThat(closed.get(1, SECONDS)).isEqualTo(Status.OK);
+        assertThat(attempts.get()).isEqualTo(2);
+        assertThat(interceptor.getRetryCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void throttlesRetriesOnceBudgetIsHalfEmpty() throws Exception {
+        // 10 tokens, and retries stop once 5 or fewer are left.
+        RetryInterceptor interceptor = new RetryInterceptor(noBackoff());
+        for (int i = 0; i < 10; i++) {
+            failures.add(Status.UNAVAILABLE);
+        }
+
+        assertThat(failedAttempts(interceptor)).isEqualTo(3);
+        assertThat(failedAttempts(interceptor)).isEqualTo(2);
+        assertThat(failedAttempts(interceptor)).isEqualTo(1);
+        assertThat(interceptor.getRetryCount()).isEqualTo(3);
+        assertThat(interceptor.getThrottledCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void hedgesSlowReads() throws Exception {
+        RetryInterceptor interceptor = new RetryInterceptor(hedgingPolicy());
+        warmUp(interceptor);
+
+        hang = true;
+        int before = attempts.get();
+        start(interceptor, GET_ACCOUNT, "request", new CompletableFuture<>());
+        Thread.sleep(200);
+
+        assertThat(attempts.get() - before).isGreaterThan(1);
+        assertThat(interceptor.getHedgeCount()).isPositive();
+    }
+
+    @Test
+    public void startsNoAttemptAfterCancel() throws Exception {
+        RetryInterceptor interceptor = new RetryInterceptor(hedgingPolicy());
+        warmUp(interceptor);
+
+        hang = true;
+        for (int i = 0; i < 20; i++) {
+            CompletableFuture<Status> closed = new CompletableFuture<>();
+            ClientCall<Object, Object> call = start(interceptor, GET_ACCOUNT, "request", closed);
+            Thread.sleep(i % 5);
+            call.cancel("cancelled by caller", null);
+
+            assertThat(closed.get(1, SECONDS).getCode()).isEqualTo(Status.Code.CANCELLED);
+            int afterClose = attempts.get();
+            Thread.sleep(50);
+            assertThat(attempts.get()).isEqualTo(afterClose);
+        }
+    }
+
+    @Test
+    public void closesWhenCancelledWhileAnAttemptStarts() throws Exception {
+        RetryInterceptor interceptor = new RetryInterceptor(RetryPolicy.defaults());
+        hang = true;
+
+        for (int i = 0; i < 200; i++) {
+            CompletableFuture<Status> closed = new CompletableFuture<>();
+            AtomicReference<ClientCall<Object, Object>> call = new AtomicReference<>();
+            CountDownLatch created = new CountDownLatch(1);
+            Thread canceller = new Thread(() -> {
+                awaitQuietly(created);
+                call.get().cancel("cancelled by caller", null);
+            });
+            canceller.start();
+            // The attempt is created under the call's lock and started after it is
+            // released, racing the cancel.
+            onNewCall = created::countDown;
+            call.set(start(interceptor, GET_ACCOUNT, "request", closed, false));
+            call.get().halfClose();
+            canceller.join();
+
+            assertThat(closed.get(1, SECONDS).getCode()).isEqualTo(Status.Code.CANCELLED);
+        }
+    }
+
+    private static RetryPolicy hedgingPolicy() {
+        return RetryPolicy.builder()
+                .maxAttempts(5)
+                .hedgeReads(1)
+                .build();
+    }
+
+    private static RetryPolicy noBackoff() {
+        return RetryPolicy.builder()
+                .backoff(0, 0, 1.0)
+                .build();
+    }
+
+    private static CreateTransferRequest transferRequest(String refId) {
+        return CreateTransferRequest.newBuilder()
+                .setPayload(TransferPayload.newBuilder()
+                        .setTokenId("tt:1")
+                        .setRefId(refId))
+                .build();
+    }
+
+    private int failedAttempts(RetryInterceptor interceptor) throws Exception {
+        int before = attempts.get();
+        CompletableFuture<Status> closed = new CompletableFuture<>();
+        start(interceptor, GET_ACCOUNT, "request", closed);
+        assertThat(closed.get(1, SECONDS).getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+        return attempts.get() - before;
+    }
+
+    private void warmUp(RetryInterceptor interceptor) throws Exception {
+        for (int i = 0; i < 40; i++) {
+            CompletableFuture<Status> closed = new CompletableFuture<>();
+            start(interceptor, GET_ACCOUNT, "request", closed);
+            assertThat(closed.get(1, SECONDS)).isEqualTo(Status.OK);
+        }
+    }
+
+    private ClientCall<Object, Object> start(
+            RetryInterceptor interceptor,
+            MethodDescriptor<Object, Object> method,
+            Object request,
+            CompletableFuture<Status> closed) {
+        return start(interceptor, method, request, closed, true);
+    }
+
+    private ClientCall<Object, Object> start(
+            RetryInterceptor interceptor,
+            MethodDescriptor<Object, Object> method,
+            Object request,
+            CompletableFuture<Status> closed,
+            boolean halfClose) {
+        ClientCall<Object, Object> call = interceptor.interceptCall(
+                method,
+                CallOptions.DEFAULT,
+                new FakeChannel());
+        call.start(new ClientCall.Listener<Object>() {
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+                if (!closed.complete(status)) {
+                    violations.add("Closed twice");
+                }
+            }
+        }, new Metadata());
+        call.request(1);
+        call.sendMessage(request);
+        if (halfClose) {
+            call.halfClose();
+        }
+        return call;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static MethodDescriptor<Object, Object> unary(String fullMethodName) {
+        return MethodDescriptor.<Object, Object>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName(fullMethodName)
+                .setRequestMarshaller(new UnusedMarshaller())
+                .setResponseMarshaller(new UnusedMarshaller())
+                .build();
+    }
+
+    /**
+     * A transport that fails attempts with the queued statuses, then answers or hangs, and
+     * enforces that a call is not started after it is cancelled.
+     */
+    private final class FakeChannel extends Channel {
+        @Override
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            attempts.incrementAndGet();
+            attemptThreads.add(Thread.currentThread().getName());
+            Runnable hook = onNewCall;
+            onNewCall = null;
+            if (hook != null) {
+                hook.run();
+            }
+            boolean hangs = hang;
+            return new ClientCall<ReqT, ResT>() {
+                private Listener<ResT> listener;
+                private boolean cancelled;
+
+                @Override
+                public synchronized void start(Listener<ResT> listener, Metadata headers) {
+                    if (cancelled) {
+                        violations.add("Started after cancel");
+                        throw new IllegalStateException("Call was cancelled");
+                    }
+                    this.listener = listener;
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public void halfClose() {
+                    if (hangs) {
+                        return;
+                    }
+                    Status failure = failures.poll();
+                    if (failure != null) {
+                        listener.onClose(failure, new Metadata());
+                    } else {
+                        listener.onMessage((ResT) "response");
+                        listener.onClose(Status.OK, new Metadata());
+                    }
+                }
+
+                @Override
+                public synchronized void cancel(
+                        @Nullable String message,
+                        @Nullable Throwable cause) {
+                    if (cancelled || listener == null) {
+                        // Like a real call, a call cancelled before it starts never closes.
+                        cancelled = true;
+                        return;
+                    }
+                    cancelled = true;
+                    Listener<ResT> started = listener;
+                    // Like a real transport, report the cancellation asynchronously.
+                    transport.schedule(
+                            () -> started.onClose(Status.CANCELLED, new Metadata()),
+                            5,
+                            MILLISECONDS);
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "localhost";
+        }
+    }
+
+    private static final class UnusedMarshaller implements MethodDescriptor.Marshaller<Object> {
+        @Override
+        public InputStream stream(Object value) {
+            throw new UnsupportedOperationException("Not sent over the wire");
+        }
+
+        @Override
+        public Object parse(InputStream stream) {
+            throw new UnsupportedOperationException("Not sent over the wire");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.token.rpc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.Status;
+import io.token.proto.common.transfer.TransferProtos.TransferPayload;
+import io.token.proto.gateway.Gateway.CreateTransferRequest;
+import io.token.proto.gateway.Gateway.GetAccountRequest;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+    @Test
+    public void classifiesReadsAndWrites() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .read("LinkAccounts")
+                .write("GetNotifications")
+                .build();
+
+        assertThat(policy.isRead("io.token.proto.gateway.GatewayService/GetAccount")).isTrue();
+        assertThat(policy.isRead("GetTransactions")).isTrue();
+        assertThat(policy.isRead("ResolveAlias")).isTrue();
+        assertThat(policy.isRead("CreateTransfer")).isFalse();
+        assertThat(policy.isRead("UpdateMember")).isFalse();
+        assertThat(policy.isRead("LinkAccounts")).isTrue();
+        assertThat(policy.isRead("GetNotifications")).isFalse();
+    }
+
+    @Test
+    public void retriesTransientStatusesOnly() {
+        RetryPolicy policy = RetryPolicy.defaults();
+
+        assertThat(policy.isRetryable(Status.UNAVAILABLE)).isTrue();
+        assertThat(policy.isRetryable(Status.DEADLINE_EXCEEDED)).isTrue();
+        assertThat(policy.isRetryable(Status.NOT_FOUND)).isFalse();
+        assertThat(policy.isRetryable(Status.INVALID_ARGUMENT)).isFalse();
+    }
+
+    @Test
+    public void detectsRefIdInPayload() {
+        CreateTransferRequest withRefId = CreateTransferRequest.newBuilder()
+                .setPayload(TransferPayload.newBuilder().setRefId("ref"))
+                .build();
+        CreateTransferRequest withoutRefId = CreateTransferRequest.newBuilder()
+                .setPayload(TransferPayload.newBuilder().setTokenId("tt:1"))
+                .build();
+
+        assertThat(RetryPolicy.carriesRefId(withRefId)).isTrue();
+        assertThat(RetryPolicy.carriesRefId(withoutRefId)).isFalse();
+        assertThat(RetryPolicy.carriesRefId(GetAccountRequest.getDefaultInstance())).isFalse();
+    }
+
+    @Test
+    public void backoffIsBounded() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .backoff(100, 400, 2.0)
+                .build();
+
+        for (int attempt = 1; attempt < 10; attempt++) {
+            assertThat(policy.backoffMs(attempt)).isBetween(0L, 400L);
+        }
+    }
+}
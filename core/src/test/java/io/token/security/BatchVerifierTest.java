@@ -0,0 +1,85 @@
+package io.token.security;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.security.crypto.CryptoType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BatchVerifierTest {
+    private final CryptoEngine crypto = new TokenCryptoEngine("m", new InMemoryKeyStore());
+    private final Key standard = crypto.generateKey(STANDARD);
+    private final Key low = crypto.generateKey(LOW);
+
+    @Test
+    public void reportsFailedItems() {
+        List<SignedPayload> items = batch(1_000, 7, 500);
+
+        try (BatchVerifier verifier = BatchVerifier.builder().parallelism(4).build()) {
+            BatchVerificationReport report = verifier.verify(items);
+
+            assertThat(report.getItemCount()).isEqualTo(1_000);
+            assertThat(report.getFailedIndexes()).containsExactly(7, 500);
+            assertThat(report.allVerified()).isFalse();
+        }
+    }
+
+    @Test
+    public void verifiesSmallBatchesInline() {
+        try (BatchVerifier verifier = BatchVerifier.builder().build()) {
+            assertThat(verifier.verify(batch(10)).allVerified()).isTrue();
+            assertThat(verifier.verify(new ArrayList<>()).getItemCount()).isZero();
+        }
+    }
+
+    @Test
+    public void failsItemsWithUnusableKeys() {
+        List<SignedPayload> items = batch(3);
+        items.set(1, SignedPayload.create(
+                items.get(1).getPayload(),
+                items.get(1).getSignature(),
+                standard.toBuilder().setPublicKey("invalid").build()));
+
+        try (BatchVerifier verifier = BatchVerifier.builder().parallelism(1).build()) {
+            assertThat(verifier.verify(items).getFailedIndexes()).containsExactly(1);
+        }
+    }
+
+    @Test
+    public void verifiesWithPinnedProvider() {
+        CryptoProviders providers;
+        try {
+            providers = CryptoProviders.builder().pin(CryptoType.EDDSA, "SunEC").build();
+        } catch (IllegalArgumentException e) {
+            return; // no Ed25519 support in this JDK
+        }
+
+        try (BatchVerifier verifier = BatchVerifier.builder().providers(providers).build()) {
+            assertThat(verifier.verify(batch(200, 3)).getFailedIndexes()).containsExactly(3);
+        }
+    }
+
+    private List<SignedPayload> batch(int size, int... tampered) {
+        List<SignedPayload> items = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Key key = i % 2 == 0 ? standard : low;
+            String payload = "{\"tokenId\":\"tt:" + i + "\"}";
+            String signature = crypto.createSigner(key.getId()).sign(payload);
+            items.add(SignedPayload.create(payload, signature, key));
+        }
+        for (int i : tampered) {
+            SignedPayload item = items.get(i);
+            items.set(i, SignedPayload.create(
+                    item.getPayload() + " ",
+                    item.getSignature(),
+                    item.getKey()));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,108 @@
+package io.token.security;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import io.token.security.crypto.CryptoType;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CryptoProvidersTest {
+    private static final String PAYLOAD = "{\"transferId\":\"t:1\",\"status\":\"SUCCESS\"}";
+
+    @Test
+    public void signsAndVerifiesWithThePinnedProvider() {
+        for (CryptoType cryptoType : CryptoType.values()) {
+            int pinnedCount = 0;
+            for (Provider provider : Security.getProviders()) {
+                CryptoProviders providers;
+                try {
+                    providers = CryptoProviders.builder().pin(cryptoType, provider).build();
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                pinnedCount++;
+                CryptoEngine pinned = new TokenCryptoEngine(
+                        "m",
+                        new InMemoryKeyStore(),
+                        cryptoType,
+                        providers);
+                String keyId = pinned.generateKey(STANDARD).getId();
+                Signer signer = pinned.createSigner(STANDARD);
+                Verifier verifier = pinned.createVerifier(keyId);
+
+                assertThat(providers.getProvider(cryptoType)).isSameAs(provider);
+                assertThat(signer).isInstanceOf(JcaSigner.class);
+                assertThat(verifier).isInstanceOf(JcaVerifier.class);
+                assertThat(signer.getKeyId()).isEqualTo(keyId);
+                for (int i = 0; i < 3; i++) {
+                    String payload = PAYLOAD + i;
+                    verifier.verify(payload, signer.sign(payload));
+                }
+            }
+            if (cryptoType != CryptoType.EDDSA) {
+                // Every JDK ships providers for RSA and ECDSA; Ed25519 needs Java 15.
+                assertThat(pinnedCount).as("providers for %s", cryptoType).isPositive();
+            }
+        }
+    }
+
+    @Test
+    public void usesTheLibraryWhenNotPinned() {
+        CryptoEngine library = new TokenCryptoEngine(
+                "m",
+                new InMemoryKeyStore(),
+                CryptoType.RS256,
+                CryptoProviders.none());
+        String keyId = library.generateKey(STANDARD).getId();
+
+        assertThat(CryptoProviders.none().getProvider(CryptoType.RS256)).isNull();
+        assertThat(library.createSigner(STANDARD)).isNotInstanceOf(JcaSigner.class);
+        assertThat(library.createVerifier(keyId)).isNotInstanceOf(JcaVerifier.class);
+    }
+
+    @Test
+    public void pinnedSignaturesVerifyWithTheLibrary() {
+        for (CryptoType cryptoType : CryptoType.values()) {
+            for (CryptoProviders providers : pinnedProviders(cryptoType)) {
+                KeyStore keyStore = new InMemoryKeyStore();
+                CryptoEngine pinned = new TokenCryptoEngine("m", keyStore, cryptoType, providers);
+                CryptoEngine library = new TokenCryptoEngine("m", keyStore, cryptoType);
+                String keyId = pinned.generateKey(STANDARD).getId();
+
+                library.createVerifier(keyId)
+                        .verify(PAYLOAD, pinned.createSigner(STANDARD).sign(PAYLOAD));
+                pinned.createVerifier(keyId)
+                        .verify(PAYLOAD, library.createSigner(STANDARD).sign(PAYLOAD));
+                assertThatExceptionOfType(InvalidSignatureException.class).isThrownBy(() ->
+                        pinned.createVerifier(keyId).verify(
+                                PAYLOAD + " ",
+                                pinned.createSigner(STANDARD).sign(PAYLOAD)));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsUnsupportedProvider() {
+        assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() ->
+                CryptoProviders.builder().pin(CryptoType.RS256, "NoSuchProvider"));
+    }
+
+    private static List<CryptoProviders> pinnedProviders(CryptoType cryptoType) {
+        List<CryptoProviders> pinned = new ArrayList<>();
+        for (Provider provider : Security.getProviders()) {
+            try {
+                pinned.add(CryptoProviders.builder().pin(cryptoType, provider).build());
+            } catch (IllegalArgumentException e) {
+                // the provider does not support the crypto type
+            }
+        }
+        return pinned;
+    }
+}
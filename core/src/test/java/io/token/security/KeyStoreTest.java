@@ -8,6 +8,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import io.token.exceptions.KeyNotFoundException;
 import io.token.proto.common.security.SecurityProtos.Key.Level;
 import io.token.util.Clock;
 import io.token.util.TestClock;
@@ -16,6 +17,7 @@ import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.assertj.core.api.ThrowableAssert;
 import org.assertj.core.api.ThrowableAssert.ThrowingCallable;
@@ -29,6 +31,28 @@ abstract class KeyStoreTest {
         return createKeyStore(new TestClock());
     }
 
+    @Test
+    public void deleteKey() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        KeyPair keyPair = keyGen.genKeyPair();
+        BulkKeyStore store = (BulkKeyStore) createKeyStore();
+        SecretKey laptop = SecretKey.create("laptop", Level.STANDARD, keyPair);
+        SecretKey phone = SecretKey.create("phone", Level.STANDARD, keyPair);
+        store.put("steve", laptop);
+        store.put("steve", phone);
+        store.put("mary", laptop);
+
+        store.deleteKey("steve", "laptop");
+        store.deleteKey("steve", "tablet");
+
+        assertThat(store.listKeys("steve")).containsExactly(phone);
+        assertThat(store.getByLevel("steve", Level.STANDARD)).isEqualTo(phone);
+        assertThat(store.listKeys("mary")).containsExactly(laptop);
+        assertThatExceptionOfType(KeyNotFoundException.class)
+                .isThrownBy(() -> store.getById("steve", "laptop"));
+    }
+
     @Test
     public void putThenGet() throws Exception {
         KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
@@ -131,6 +155,29 @@ abstract class KeyStoreTest {
         });
     }
 
+    @Test
+    public void listMembersAndPreload() throws Exception {
+        BulkKeyStore store = (BulkKeyStore) createKeyStore();
+        KeyPair keyPair = generateKeyPair();
+        store.put("m:1", SecretKey.create("laptop", STANDARD, keyPair));
+        store.put("m:2", SecretKey.create("laptop", STANDARD, keyPair));
+        store.put("m:2", SecretKey.create("phone", PRIVILEGED, keyPair));
+        store.put("m:3", SecretKey.create("laptop", STANDARD, keyPair));
+        store.deleteKeys("m:3");
+
+        assertThat(store.listMembers()).containsExactlyInAnyOrder("m:1", "m:2");
+
+        AtomicInteger progress = new AtomicInteger();
+        PreloadReport report = store.preload(
+                store.listMembers(),
+                2,
+                (doneCount, totalCount) -> progress.incrementAndGet());
+        assertThat(report.getMemberCount()).isEqualTo(2);
+        assertThat(report.getKeyCount()).isEqualTo(3);
+        assertThat(report.getFailedCount()).isZero();
+        assertThat(progress.get()).isEqualTo(2);
+    }
+
     private KeyPair generateKeyPair() throws NoSuchAlgorithmException {
         KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
         keyGen.initialize(1024);
@@ -0,0 +1,64 @@
+package io.token.security;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.token.util.Clock;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import org.junit.Test;
+
+public class OffHeapKeyStoreTest extends KeyStoreTest {
+    @Override
+    KeyStore createKeyStore(Clock clock) {
+        return new OffHeapKeyStore(100, clock);
+    }
+
+    @Test
+    public void keepsRecentlyUsedKeysDecoded() throws Exception {
+        KeyPair keyPair = generateKeyPair();
+        OffHeapKeyStore store = new OffHeapKeyStore(2);
+        for (int i = 0; i < 5; i++) {
+            store.put("member-" + i, SecretKey.create("laptop", STANDARD, keyPair));
+            store.getById("member-" + i, "laptop");
+        }
+
+        SecretKey laptop = store.getById("member-4", "laptop");
+
+        assertThat(store.getById("member-4", "laptop")).isSameAs(laptop);
+        assertThat(store.getDecodedKeyCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void decodesReplacedKeys() throws Exception {
+        OffHeapKeyStore store = new OffHeapKeyStore(10);
+        store.put("steve", SecretKey.create("laptop", STANDARD, generateKeyPair()));
+        store.getById("steve", "laptop");
+
+        SecretKey replaced = SecretKey.create("laptop", LOW, generateKeyPair());
+        store.put("steve", replaced);
+
+        assertThat(store.getById("steve", "laptop")).isEqualTo(replaced);
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        OffHeapKeyStore store = new OffHeapKeyStore(10);
+        store.put("steve", SecretKey.create("laptop", STANDARD, generateKeyPair()));
+        store.getById("steve", "laptop");
+
+        store.deleteKeys("steve");
+
+        assertThat(store.listKeys("steve")).isEmpty();
+        assertThat(store.getDecodedKeyCount()).isZero();
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        return keyGen.genKeyPair();
+    }
+}
@@ -0,0 +1,160 @@
+package io.token.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.token.exceptions.KeyIOException;
+import io.token.proto.common.security.SecurityProtos.Key.Level;
+import io.token.util.Clock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackedFileSystemKeyStoreTest extends KeyStoreTest {
+    @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Override
+    KeyStore createKeyStore(Clock clock) {
+        return PackedFileSystemKeyStore.builder(tempDir.getRoot())
+                .shards(4)
+                .clock(clock)
+                .build();
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        SecretKey laptop = SecretKey.create("laptop", Level.STANDARD, generateKeyPair());
+        PackedFileSystemKeyStore store = open();
+        store.put("steve", laptop);
+        store.close();
+
+        store = open();
+        assertThat(store.getById("steve", "laptop")).isEqualTo(laptop);
+        store.close();
+    }
+
+    @Test
+    public void recoverFromPartialRecord() throws Exception {
+        SecretKey laptop = SecretKey.create("laptop", Level.STANDARD, generateKeyPair());
+        PackedFileSystemKeyStore crashed = open();
+        crashed.put("steve", laptop);
+        crashed.put("mary", laptop);
+        File[] logs = tempDir.getRoot().listFiles((dir, name) -> name.endsWith(".log"));
+        for (File log : logs) {
+            try (FileOutputStream out = new FileOutputStream(log, true)) {
+                out.write(new byte[] {0x4b, 0x45, 0x59, 0x53, 0, 0, 1});
+            }
+        }
+
+        PackedFileSystemKeyStore store = open();
+        assertThat(store.getById("steve", "laptop")).isEqualTo(laptop);
+        assertThat(store.getById("mary", "laptop")).isEqualTo(laptop);
+        store.put("steve", SecretKey.create("phone", Level.PRIVILEGED, generateKeyPair()));
+        assertThat(store.listKeys("steve")).hasSize(2);
+    }
+
+    @Test
+    public void compact() throws Exception {
+        KeyPair keyPair = generateKeyPair();
+        PackedFileSystemKeyStore store = open();
+        for (int i = 0; i < 20; i++) {
+            store.put("steve", SecretKey.create("laptop", Level.STANDARD, keyPair));
+        }
+        store.put("mary", SecretKey.create("laptop", Level.STANDARD, keyPair));
+        store.deleteKeys("mary");
+        long before = store.getLogBytes();
+
+        store.compact();
+
+        assertThat(store.getLogBytes()).isLessThan(before / 10);
+        assertThat(store.listKeys("steve")).hasSize(1);
+        assertThat(store.listKeys("mary")).isEmpty();
+        store.close();
+
+        store = open();
+        assertThat(store.listKeys("steve")).hasSize(1);
+        store.close();
+    }
+
+    @Test
+    public void compactKeepsConcurrentWrites() throws Exception {
+        KeyPair keyPair = generateKeyPair();
+        PackedFileSystemKeyStore store = open();
+        for (int i = 0; i < 200; i++) {
+            store.put("m:" + i, SecretKey.create("old", Level.STANDARD, keyPair));
+        }
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<?> writes = writer.submit(() -> {
+            for (int i = 0; i < 200; i++) {
+                store.put("m:" + i, SecretKey.create("new", Level.STANDARD, keyPair));
+                store.deleteKey("m:" + i, "old");
+            }
+        });
+        while (!writes.isDone()) {
+            store.compact();
+        }
+        writes.get();
+        writer.shutdown();
+        store.compact();
+
+        for (int i = 0; i < 200; i++) {
+            assertThat(store.listKeys("m:" + i)).extracting(SecretKey::getId)
+                    .containsExactly("new");
+        }
+        store.close();
+
+        PackedFileSystemKeyStore reopened = open();
+        for (int i = 0; i < 200; i++) {
+            assertThat(reopened.listKeys("m:" + i)).extracting(SecretKey::getId)
+                    .containsExactly("new");
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void failedCompactionKeepsStoreUsable() throws Exception {
+        KeyPair keyPair = generateKeyPair();
+        PackedFileSystemKeyStore store = open();
+        for (int i = 0; i < 20; i++) {
+            store.put("m:" + i, SecretKey.create("laptop", Level.STANDARD, keyPair));
+            store.put("m:" + i, SecretKey.create("laptop", Level.STANDARD, keyPair));
+        }
+        // The compacted logs cannot be written where directories are in the way.
+        for (int shard = 0; shard < 4; shard++) {
+            tempDir.newFolder(String.format("shard-%04d.log.compact", shard));
+        }
+
+        assertThatThrownBy(store::compact).isInstanceOf(KeyIOException.class);
+        store.put("steve", SecretKey.create("phone", Level.STANDARD, keyPair));
+        assertThat(store.listKeys("m:1")).hasSize(1);
+        assertThat(store.listKeys("steve")).hasSize(1);
+        store.close();
+
+        PackedFileSystemKeyStore reopened = open();
+        assertThat(reopened.listKeys("m:1")).hasSize(1);
+        assertThat(reopened.listKeys("steve")).hasSize(1);
+        reopened.close();
+    }
+
+    private PackedFileSystemKeyStore open() {
+        return PackedFileSystemKeyStore.builder(tempDir.getRoot())
+                .shards(4)
+                .compactAt(1, Long.MAX_VALUE)
+                .build();
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        return keyGen.genKeyPair();
+    }
+}
@@ -108,4 +108,26 @@ public class TokenCryptoEngineTest {
         cryptoEngineRsa.generateKey(LOW);
         assertThat(cryptoEngineRsa.getPublicKeys().get(0).getAlgorithm()).isEqualTo(RS256);
     }
+
+    @Test
+    public void createSigner_reusesSignersOfUnchangedKeys() {
+        KeyStore keyStore = new InMemoryKeyStore();
+        CryptoEngine cryptoEngine = new TokenCryptoEngine("member-id", keyStore);
+        SecurityProtos.Key key = cryptoEngine.generateKey(STANDARD);
+
+        Signer signer = cryptoEngine.createSigner(key.getId());
+
+        assertThat(cryptoEngine.createSigner(key.getId())).isSameAs(signer);
+        assertThat(cryptoEngine.createSigner(STANDARD)).isSameAs(signer);
+        assertThat(cryptoEngine.createVerifier(key.getId()))
+                .isSameAs(cryptoEngine.createVerifier(key.getId()));
+    }
+
+    @Test
+    public void factory_sharesEnginesPerMember() {
+        CryptoEngineFactory factory = new TokenCryptoEngineFactory(new InMemoryKeyStore());
+
+        assertThat(factory.create("member-id")).isSameAs(factory.create("member-id"));
+        assertThat(factory.create("member-id")).isNotSameAs(factory.create("other-id"));
+    }
 }
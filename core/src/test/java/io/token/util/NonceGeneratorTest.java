@@ -0,0 +1,90 @@
+package io.token.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class NonceGeneratorTest {
+    private static final int SEQUENCE_SIZE = 1 << 16;
+    private static final String BASE32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ";
+
+    private final TestClock clock = new TestClock();
+    private final NonceGenerator generator = new NonceGenerator(clock);
+
+    @Test
+    public void sortableIdsSortInGenerationOrder() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(generator.sortableId());
+            ids.addAll(generator.sortableIds(10));
+        }
+        clock.tick(-60_000);
+        ids.add(generator.sortableId());
+        clock.tick(120_000);
+        ids.add(generator.sortableId());
+
+        assertThat(ids).isSorted().doesNotHaveDuplicates();
+        assertThat(ids).allMatch(id -> id.matches("[0-9A-HJKMNP-TV-Z]{26}"));
+    }
+
+    @Test
+    public void generatesNoncesInBulk() {
+        List<String> nonces = generator.nonces(1_000);
+
+        assertThat(nonces).hasSize(1_000).doesNotHaveDuplicates();
+        assertThat(nonces.get(0).length()).isEqualTo(generator.nonce().length());
+        assertThat(generator.nonces(0)).isEmpty();
+    }
+
+    @Test
+    public void generatesNoncesOfTheUtilFormat() {
+        for (String nonce : generator.nonces(100)) {
+            assertThat(nonce).matches("[1-9A-HJ-NP-Za-km-z]{12,17}");
+        }
+        assertThat(generator.nonce()).matches("[1-9A-HJ-NP-Za-km-z]{12,17}");
+    }
+
+    @Test
+    public void borrowsFromTheNextMillisecondsAfterTheSequenceRollsOver() {
+        AtomicLong now = new AtomicLong(1_000);
+        NonceGenerator fixed = new NonceGenerator(now::get);
+
+        List<String> ids = fixed.sortableIds(SEQUENCE_SIZE + 10);
+        now.set(1_001);
+        ids.add(fixed.sortableId());
+        now.set(1_003);
+        ids.add(fixed.sortableId());
+
+        assertThat(ids).hasSize(SEQUENCE_SIZE + 12).isSorted().doesNotHaveDuplicates();
+        assertThat(timestampOf(ids.get(0))).isEqualTo(1_000);
+        assertThat(timestampOf(ids.get(SEQUENCE_SIZE - 1))).isEqualTo(1_000);
+        assertThat(timestampOf(ids.get(SEQUENCE_SIZE))).isEqualTo(1_001);
+        assertThat(timestampOf(ids.get(SEQUENCE_SIZE + 10))).isEqualTo(1_001);
+        assertThat(timestampOf(ids.get(SEQUENCE_SIZE + 11))).isEqualTo(1_003);
+    }
+
+    @Test
+    public void generatesTheRequestedCounts() {
+        assertThat(generator.sortableIds(0)).isEmpty();
+        assertThat(generator.sortableIds(1_000)).hasSize(1_000).doesNotHaveDuplicates();
+        assertThatThrownBy(() -> generator.nonces(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> generator.sortableIds(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // The timestamp is in the bits above the sequence number and the 64 random bits.
+    private static long timestampOf(String id) {
+        BigInteger value = BigInteger.ZERO;
+        for (char c : id.toCharArray()) {
+            value = value.shiftLeft(5).add(BigInteger.valueOf(BASE32.indexOf(c)));
+        }
+        return value.shiftRight(64 + 16).longValueExact();
+    }
+}
@@ -3,6 +3,8 @@ package io.token.sample;
 import io.token.proto.common.webhook.WebhookProtos.EventType;
 import io.token.proto.common.webhook.WebhookProtos.Webhook.Config;
 import io.token.tpp.Member;
+import io.token.tpp.TokenClient;
+import io.token.tpp.webhook.WebhookReceiver;
 
 /**
  * Manages the webhook config.
@@ -41,4 +43,21 @@ public class WebhookSample {
     public static void deleteWebhookConfig(Member tpp) {
         tpp.deleteWebhookConfigBlocking();
     }
+
+    /**
+     * Starts receiving webhook events on the given port.
+     *
+     * @param tokenClient the token client
+     * @param port port to listen on
+     * @return receiver, close it to stop receiving
+     */
+    public static WebhookReceiver receiveWebhooks(TokenClient tokenClient, int port) {
+        return WebhookReceiver.builder(tokenClient)
+                .port(port)
+                .handler(EventType.TRANSFER_STATUS_CHANGED.name(), event -> {
+                    // Process the event; throwing makes Token deliver it again later.
+                })
+                .build()
+                .start();
+    }
 }
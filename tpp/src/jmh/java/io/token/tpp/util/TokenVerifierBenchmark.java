@@ -0,0 +1,126 @@
+package io.token.tpp.util;
+
+import static io.token.proto.ProtoJson.toJson;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static io.token.proto.common.token.TokenProtos.TokenSignature.Action.ENDORSED;
+
+import com.google.common.base.Ticker;
+import io.reactivex.Observable;
+import io.token.MemberRegistry;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.security.SecurityProtos.Signature;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.token.TokenProtos.TokenPayload;
+import io.token.proto.common.token.TokenProtos.TokenSignature;
+import io.token.security.BatchVerifier;
+import io.token.security.CryptoEngine;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.Signer;
+import io.token.security.TokenCryptoEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures verifying a batch of tokens signed by a few members, with the member and
+ * verifier caches warm from earlier batches, and cold, i.e. emptied before every batch.
+ * <br>
+ * Run with {@code ./gradlew :tpp:jmh -Pjmh.include=TokenVerifierBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TokenVerifierBenchmark {
+    private static final int SIGNERS = 10;
+
+    @Param({"1000", "10000"})
+    public int tokens;
+
+    @Param({"warm", "cold"})
+    public String caches;
+
+    private final List<Member> members = new ArrayList<>();
+    private List<Token> batch;
+    private MemberRegistry.Fetcher<Member> fetcher;
+    private TokenVerifier verifier;
+
+    @Setup
+    public void setUp() {
+        List<Signer> signers = new ArrayList<>();
+        for (int i = 0; i < SIGNERS; i++) {
+            CryptoEngine crypto = new TokenCryptoEngine("m:" + i, new InMemoryKeyStore());
+            members.add(Member.newBuilder()
+                    .setId("m:" + i)
+                    .addKeys(crypto.generateKey(STANDARD))
+                    .build());
+            signers.add(crypto.createSigner(STANDARD));
+        }
+        batch = new ArrayList<>(tokens);
+        for (int i = 0; i < tokens; i++) {
+            batch.add(token(i, members.get(i % SIGNERS), signers.get(i % SIGNERS)));
+        }
+        fetcher = memberId -> Observable.just(
+                members.get(Integer.parseInt(memberId.substring(2))));
+        verifier = newVerifier();
+    }
+
+    /**
+     * Empties the caches before every batch when they are cold. A batch takes long enough
+     * for a per-invocation setup not to distort the measurement.
+     */
+    @Setup(Level.Invocation)
+    public void resetCaches() {
+        if (caches.equals("cold")) {
+            verifier = newVerifier();
+        }
+    }
+
+    @Benchmark
+    public List<VerifiedToken> verify() {
+        return verifier.verify(batch, fetcher).blockingSingle();
+    }
+
+    private static TokenVerifier newVerifier() {
+        return new TokenVerifier(
+                BatchVerifier.builder().build(),
+                new VerifierRegistry(SIGNERS * 2),
+                SIGNERS * 2,
+                300_000,
+                5_000,
+                Ticker.systemTicker());
+    }
+
+    private static Token token(int i, Member member, Signer signer) {
+        TokenPayload payload = TokenPayload.newBuilder()
+                .setVersion("1.0")
+                .setRefId("ref-" + i)
+                .build();
+        return Token.newBuilder()
+                .setId("tt:" + i)
+                .setPayload(payload)
+                .addPayloadSignatures(TokenSignature.newBuilder()
+                        .setAction(ENDORSED)
+                        .setSignature(Signature.newBuilder()
+                                .setMemberId(member.getId())
+                                .setKeyId(signer.getKeyId())
+                                .setSignature(signer.sign(toJson(payload) + ".endorsed"))))
+                .build();
+    }
+}
@@ -26,9 +26,11 @@ import static io.token.proto.common.blob.BlobProtos.Blob.AccessMode.PUBLIC;
 import static io.token.proto.gateway.Gateway.GetTokensRequest.Type.ACCESS;
 import static io.token.proto.gateway.Gateway.GetTokensRequest.Type.TRANSFER;
 import static io.token.util.Util.generateNonce;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import io.grpc.Deadline;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.functions.Function;
@@ -58,6 +60,8 @@ import io.token.proto.gateway.Gateway.VerifyEidasResponse;
 import io.token.tokenrequest.TokenRequest;
 import io.token.tokenrequest.TokenRequestResult;
 import io.token.tpp.rpc.Client;
+import io.token.tpp.util.TokenVerifier;
+import io.token.tpp.util.VerifiedToken;
 
 import java.util.Collections;
 import java.util.List;
@@ -216,6 +220,31 @@ public class Member extends io.token.Member implements Representable {
         return getBlob(blobId).blockingSingle();
     }
 
+    @Override
+    public Member withTimeout(long timeoutMs) {
+        return withDeadline(Deadline.after(timeoutMs, MILLISECONDS));
+    }
+
+    @Override
+    public Member withDeadline(Deadline deadline) {
+        return new Member(
+                memberId,
+                partnerId,
+                realmId,
+                client.withDeadline(deadline),
+                cluster);
+    }
+
+    @Override
+    public Member withMaxStaleness(long maxStalenessMs) {
+        return new Member(
+                memberId,
+                partnerId,
+                realmId,
+                client.withMaxStaleness(maxStalenessMs),
+                cluster);
+    }
+
     /**
      * Creates a {@link Representable} that acts as another member using the access token
      * that was granted by that member.
@@ -1147,6 +1176,93 @@ public class Member extends io.token.Member implements Representable {
         return getToken(tokenId).blockingSingle();
     }
 
+    /**
+     * Looks up access tokens owned by the member and verifies their payload signatures
+     * locally, against the keys of the signing members.
+     *
+     * @param offset optional offset to start at
+     * @param limit max number of records to return
+     * @return access tokens owned by the member, with their verification outcome
+     */
+    public Observable<PagedList<VerifiedToken, String>> getVerifiedAccessTokens(
+            @Nullable String offset,
+            int limit) {
+        return getAccessTokens(offset, limit).flatMap(this::verifyTokens);
+    }
+
+    /**
+     * Looks up access tokens owned by the member and verifies their payload signatures
+     * locally, against the keys of the signing members.
+     *
+     * @param offset optional offset to start at
+     * @param limit max number of records to return
+     * @return access tokens owned by the member, with their verification outcome
+     */
+    public PagedList<VerifiedToken, String> getVerifiedAccessTokensBlocking(
+            @Nullable String offset,
+            int limit) {
+        return getVerifiedAccessTokens(offset, limit).blockingSingle();
+    }
+
+    /**
+     * Looks up transfer tokens owned by the member and verifies their payload signatures
+     * locally, against the keys of the signing members.
+     *
+     * @param offset optional offset to start at
+     * @param limit max number of records to return
+     * @return transfer tokens owned by the member, with their verification outcome
+     */
+    public Observable<PagedList<VerifiedToken, String>> getVerifiedTransferTokens(
+            @Nullable String offset,
+            int limit) {
+        return getTransferTokens(offset, limit).flatMap(this::verifyTokens);
+    }
+
+    /**
+     * Looks up transfer tokens owned by the member and verifies their payload signatures
+     * locally, against the keys of the signing members.
+     *
+     * @param offset optional offset to start at
+     * @param limit max number of records to return
+     * @return transfer tokens owned by the member, with their verification outcome
+     */
+    public PagedList<VerifiedToken, String> getVerifiedTransferTokensBlocking(
+            @Nullable String offset,
+            int limit) {
+        return getVerifiedTransferTokens(offset, limit).blockingSingle();
+    }
+
+    /**
+     * Looks up an existing token and verifies its payload signatures locally, against the
+     * keys of the signing members.
+     *
+     * @param tokenId token id
+     * @return token returned by the server, with its verification outcome
+     */
+    public Observable<VerifiedToken> getVerifiedToken(String tokenId) {
+        return getToken(tokenId).flatMap(token -> TokenVerifier.getInstance()
+                .verify(Collections.singletonList(token), client::getMember)
+                .map(verified -> verified.get(0)));
+    }
+
+    /**
+     * Looks up an existing token and verifies its payload signatures locally, against the
+     * keys of the signing members.
+     *
+     * @param tokenId token id
+     * @return token returned by the server, with its verification outcome
+     */
+    public VerifiedToken getVerifiedTokenBlocking(String tokenId) {
+        return getVerifiedToken(tokenId).blockingSingle();
+    }
+
+    private Observable<PagedList<VerifiedToken, String>> verifyTokens(
+            PagedList<Token, String> tokens) {
+        return TokenVerifier.getInstance()
+                .verify(tokens.getList(), client::getMember)
+                .map(verified -> PagedList.create(verified, tokens.getOffset()));
+    }
+
     /**
      * Cancels the token by signing it. The signature is persisted along
      * with the token.
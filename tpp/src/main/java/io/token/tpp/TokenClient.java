@@ -29,6 +29,7 @@ import static io.token.proto.common.eidas.EidasProtos.EidasVerificationStatus.EI
 import static io.token.proto.common.member.MemberProtos.CreateMemberType.BUSINESS;
 import static io.token.security.crypto.CryptoType.RS256;
 import static io.token.tpp.exceptions.EidasRegistrationException.registrationException;
+import static io.token.tpp.util.Util.appendUrlEncoded;
 import static io.token.tpp.util.Util.hashString;
 import static io.token.tpp.util.Util.retryWithExponentialBackoffNoThrow;
 import static io.token.tpp.util.Util.urlEncode;
@@ -37,10 +38,11 @@ import static io.token.util.Util.getWebAppUrl;
 
 import com.google.common.annotations.VisibleForTesting;
 import io.grpc.ManagedChannel;
-import io.grpc.Metadata;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
 import io.reactivex.functions.Function;
+import io.token.idempotency.IdempotencyLedger;
 import io.token.proto.common.alias.AliasProtos.Alias;
 import io.token.proto.common.eidas.EidasProtos.EidasRecoveryPayload;
 import io.token.proto.common.eidas.EidasProtos.RegisterWithEidasPayload;
@@ -50,7 +52,6 @@ import io.token.proto.common.security.SecurityProtos;
 import io.token.proto.common.token.TokenProtos;
 import io.token.proto.gateway.Gateway.GetEidasVerificationStatusResponse;
 import io.token.proto.gateway.Gateway.RegisterWithEidasResponse;
-import io.token.rpc.client.lite.RpcChannelFactoryLite;
 import io.token.security.CryptoEngine;
 import io.token.security.CryptoEngineFactory;
 import io.token.security.InMemoryKeyStore;
@@ -71,20 +72,28 @@ import io.token.tpp.security.EidasKeyStore;
 import io.token.tpp.tokenrequest.TokenRequestCallback;
 import io.token.tpp.tokenrequest.TokenRequestCallbackParameters;
 import io.token.tpp.tokenrequest.TokenRequestTransferDestinationsCallbackParameters;
+import io.token.tpp.util.TokenMemberCache;
 import io.token.tpp.util.Util;
 
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.security.cert.CertificateEncodingException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 public class TokenClient extends io.token.TokenClient {
-    private static final String TOKEN_REQUEST_TEMPLATE_LEGACY =
-            "https://%s/app/request-token/%s?state=%s";
-    private static final String TOKEN_REQUEST_TEMPLATE = "https://%s/app/request-token/%s";
+    private static final String TOKEN_REQUEST_PATH = "/app/request-token/";
+    private static final String STATE_PARAMETER = "?state=";
+
+    private volatile String tokenRequestBaseUrl;
+    private final TokenMemberCache tokenMember = new TokenMemberCache(Observable.defer(
+            new Callable<ObservableSource<MemberProtos.Member>>() {
+                @Override
+                public ObservableSource<MemberProtos.Member> call() {
+                    return getTokenMember();
+                }
+            }));
 
     /**
      * Creates an instance of a Token SDK.
@@ -92,12 +101,14 @@ public class TokenClient extends io.token.TokenClient {
      * @param channel GRPC channel
      * @param cryptoFactory crypto factory instance
      * @param tokenCluster token cluster
+     * @param idempotencyLedger ledger used to deduplicate retried transfers, or null
      */
     TokenClient(
             ManagedChannel channel,
             CryptoEngineFactory cryptoFactory,
-            TokenCluster tokenCluster) {
-        super(channel, cryptoFactory, tokenCluster);
+            TokenCluster tokenCluster,
+            @Nullable IdempotencyLedger idempotencyLedger) {
+        super(channel, cryptoFactory, tokenCluster, idempotencyLedger);
     }
 
     /**
@@ -189,7 +200,8 @@ public class TokenClient extends io.token.TokenClient {
                         final Client client = ClientFactory.authenticated(
                                 channel,
                                 mem.memberId(),
-                                crypto);
+                                crypto,
+                                idempotencyLedger);
                         return new Member(
                                 mem.memberId(),
                                 mem.partnerId(),
@@ -263,7 +275,11 @@ public class TokenClient extends io.token.TokenClient {
     @VisibleForTesting
     public Observable<Member> setUpMember(final Alias alias, final String memberId) {
         CryptoEngine crypto = cryptoFactory.create(memberId);
-        final Client client = ClientFactory.authenticated(channel, memberId, crypto);
+        final Client client = ClientFactory.authenticated(
+                channel,
+                memberId,
+                crypto,
+                idempotencyLedger);
         return setUpMemberImpl(alias, memberId, null)
                 .map(new Function<io.token.Member, Member>() {
                     @Override
@@ -278,15 +294,43 @@ public class TokenClient extends io.token.TokenClient {
                 });
     }
 
+    private String tokenRequestBaseUrl() {
+        String baseUrl = tokenRequestBaseUrl;
+        if (baseUrl == null) {
+            baseUrl = "https://" + getWebAppUrl(tokenCluster) + TOKEN_REQUEST_PATH;
+            tokenRequestBaseUrl = baseUrl;
+        }
+        return baseUrl;
+    }
+
+    /**
+     * Looks up the Token member, whose keys sign callbacks and webhook requests.
+     *
+     * @return Token member
+     */
+    public Observable<MemberProtos.Member> getTokenMember() {
+        return ClientFactory.unauthenticated(channel).getTokenMember();
+    }
+
     /**
      * Return a Member set up to use some Token member's keys (assuming we have them).
+     * If the client was built with a member registry, a member looked up before is
+     * returned from it.
      *
      * @param memberId member id
      * @return member
      */
     public Observable<Member> getMember(String memberId) {
+        return getRegisteredMember(memberId, this::fetchMember);
+    }
+
+    private Observable<Member> fetchMember(String memberId) {
         CryptoEngine crypto = cryptoFactory.create(memberId);
-        final Client client = ClientFactory.authenticated(channel, memberId, crypto);
+        final Client client = ClientFactory.authenticated(
+                channel,
+                memberId,
+                crypto,
+                idempotencyLedger);
         return getMemberImpl(memberId, client)
                 .map(new Function<io.token.Member, Member>() {
                     @Override
@@ -332,7 +376,8 @@ public class TokenClient extends io.token.TokenClient {
                         final Client client = ClientFactory.authenticated(
                                 channel,
                                 mem.memberId(),
-                                cryptoEngine);
+                                cryptoEngine,
+                                idempotencyLedger);
                         return new Member(
                                 mem.memberId(),
                                 mem.partnerId(),
@@ -382,7 +427,8 @@ public class TokenClient extends io.token.TokenClient {
                         final Client client = ClientFactory.authenticated(
                                 channel,
                                 mem.memberId(),
-                                cryptoEngine);
+                                cryptoEngine,
+                                idempotencyLedger);
                         return new Member(
                                 mem.memberId(),
                                 mem.partnerId(),
@@ -431,7 +477,8 @@ public class TokenClient extends io.token.TokenClient {
                     final Client client = ClientFactory.authenticated(
                             channel,
                             member.getId(),
-                            cryptoEngine);
+                            cryptoEngine,
+                            idempotencyLedger);
                     return new Member(
                             member.getId(),
                             member.getPartnerId(),
@@ -550,10 +597,18 @@ public class TokenClient extends io.token.TokenClient {
      * @return token request url
      */
     public Observable<String> generateTokenRequestUrl(String requestId) {
-        return Observable.just(String.format(
-                TOKEN_REQUEST_TEMPLATE,
-                getWebAppUrl(tokenCluster),
-                requestId));
+        return Observable.just(tokenRequestUrl(requestId));
+    }
+
+    /**
+     * Generate a Token request URL from a request ID. This is a local computation that
+     * does not call the gateway.
+     *
+     * @param requestId request id
+     * @return token request url
+     */
+    public String tokenRequestUrl(String requestId) {
+        return tokenRequestBaseUrl() + requestId;
     }
 
     /**
@@ -585,11 +640,14 @@ public class TokenClient extends io.token.TokenClient {
             String csrfToken) {
         String csrfTokenHash = hashString(csrfToken);
         TokenRequestState tokenRequestState = TokenRequestState.create(csrfTokenHash, state);
-        return Observable.just(String.format(
-                TOKEN_REQUEST_TEMPLATE_LEGACY,
-                getWebAppUrl(tokenCluster),
-                requestId,
-                urlEncode(tokenRequestState.serialize())));
+        String baseUrl = tokenRequestBaseUrl();
+        String serializedState = tokenRequestState.serialize();
+        StringBuilder url = new StringBuilder(
+                baseUrl.length() + requestId.length() + serializedState.length() * 2)
+                .append(baseUrl)
+                .append(requestId)
+                .append(STATE_PARAMETER);
+        return Observable.just(appendUrlEncoded(url, serializedState).toString());
     }
 
     /**
@@ -600,7 +658,7 @@ public class TokenClient extends io.token.TokenClient {
      * @return token request url
      */
     public String generateTokenRequestUrlBlocking(String requestId) {
-        return generateTokenRequestUrl(requestId).blockingSingle();
+        return tokenRequestUrl(requestId);
     }
 
     /**
@@ -654,12 +712,17 @@ public class TokenClient extends io.token.TokenClient {
     public Observable<TokenRequestCallback> parseTokenRequestCallbackUrl(
             final String callbackUrl,
             final String csrfToken) {
-        try {
-            String queryString = new URL(callbackUrl).getQuery();
-            return parseTokenRequestCallbackParams(Util.parseQueryString(queryString), csrfToken);
-        } catch (MalformedURLException e) {
+        int queryStart = callbackUrl.indexOf('?');
+        if (queryStart < 0) {
             throw new IllegalArgumentException("Invalid callback URL: " + callbackUrl);
         }
+        int queryEnd = callbackUrl.indexOf('#', queryStart);
+        return parseTokenRequestCallbackParams(
+                Util.parseQueryString(
+                        callbackUrl,
+                        queryStart + 1,
+                        queryEnd < 0 ? callbackUrl.length() : queryEnd),
+                csrfToken);
     }
 
     /**
@@ -727,33 +790,52 @@ public class TokenClient extends io.token.TokenClient {
     public Observable<TokenRequestCallback> parseTokenRequestCallbackParams(
             final Map<String, String> callbackParams,
             final String csrfToken) {
-        UnauthenticatedClient unauthenticated = ClientFactory.unauthenticated(channel);
-        return unauthenticated.getTokenMember().map(new Function<MemberProtos.Member,
-                TokenRequestCallback>() {
-            @Override
-            public TokenRequestCallback apply(MemberProtos.Member tokenMember) throws Exception {
-                TokenRequestCallbackParameters params = TokenRequestCallbackParameters
-                        .create(callbackParams);
-
-                // check that CSRF token hashes match
-                TokenRequestState state = TokenRequestState.parse(params.getSerializedState());
-                if (!state.getCsrfTokenHash().equals(hashString(csrfToken))) {
-                    throw new InvalidStateException(csrfToken);
-                }
+        final TokenRequestCallbackParameters params;
+        final TokenProtos.TokenRequestStatePayload payload;
+        final TokenRequestCallback callback;
+        try {
+            params = TokenRequestCallbackParameters.create(callbackParams);
 
-                verifySignature(
-                        tokenMember,
-                        TokenProtos.TokenRequestStatePayload.newBuilder()
-                                .setTokenId(params.getTokenId())
-                                .setState(urlEncode(params.getSerializedState()))
-                                .build(),
-                        params.getSignature());
-
-                return TokenRequestCallback.create(
-                        params.getTokenId(),
-                        state.getInnerState());
+            // check that CSRF token hashes match
+            TokenRequestState state = TokenRequestState.parse(params.getSerializedState());
+            if (!state.getCsrfTokenHash().equals(hashString(csrfToken))) {
+                throw new InvalidStateException(csrfToken);
             }
-        });
+
+            payload = TokenProtos.TokenRequestStatePayload.newBuilder()
+                    .setTokenId(params.getTokenId())
+                    .setState(urlEncode(params.getSerializedState()))
+                    .build();
+            callback = TokenRequestCallback.create(params.getTokenId(), state.getInnerState());
+
+        } catch (RuntimeException e) {
+            return Observable.error(e);
+        }
+        // Verify with the cached Token member; if that fails, Token might have rotated or
+        // revoked its keys, so look the member up again.
+        return tokenMember.get().flatMap(
+                new Function<MemberProtos.Member, Observable<TokenRequestCallback>>() {
+                    @Override
+                    public Observable<TokenRequestCallback> apply(MemberProtos.Member member) {
+                        try {
+                            verifySignature(member, payload, params.getSignature());
+                            return Observable.just(callback);
+                        } catch (RuntimeException e) {
+                            return tokenMember.refresh().map(
+                                    new Function<MemberProtos.Member, TokenRequestCallback>() {
+                                        @Override
+                                        public TokenRequestCallback apply(
+                                                MemberProtos.Member refreshed) {
+                                            verifySignature(
+                                                    refreshed,
+                                                    payload,
+                                                    params.getSignature());
+                                            return callback;
+                                        }
+                                    });
+                        }
+                    }
+                });
     }
 
     /**
@@ -847,18 +929,13 @@ public class TokenClient extends io.token.TokenClient {
 
         @Override
         public TokenClient build() {
-            Metadata headers = getHeaders();
-            return new TokenClient(
-                    RpcChannelFactoryLite.getInstance()
-                            .builder(hostName, port, useSsl)
-                            .withTimeout(timeoutMs)
-                            .withMetadata(headers)
-                            .withClientSsl(sslConfig)
-                            .build(),
+            return configured(new TokenClient(
+                    buildChannel(),
                     cryptoEngine != null
                             ? cryptoEngine
                             : new TokenCryptoEngineFactory(new InMemoryKeyStore()),
-                    tokenCluster == null ? SANDBOX : tokenCluster);
+                    tokenCluster == null ? SANDBOX : tokenCluster,
+                    getIdempotencyLedger()));
         }
 
         @Override
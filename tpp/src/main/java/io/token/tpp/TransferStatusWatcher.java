@@ -0,0 +1,529 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
+import io.token.proto.PagedList;
+import io.token.proto.common.transaction.TransactionProtos.TransactionStatus;
+import io.token.proto.common.transfer.TransferProtos.Transfer;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the status of many pending transfers of a member and emits their status
+ * transitions.
+ * <br>
+ * Instead of polling {@link Member#getTransfer(String)} in a loop per transfer, the watcher
+ * periodically refreshes all transfers that are due in bulk: it first scans the most recent
+ * pages of {@link Member#getTransfers(String, int, String)}, then pages by token for
+ * transfers redeemed from the same token, and only looks up the remaining transfers one
+ * by one. A transfer is checked less often the longer its status stays unchanged, and
+ * stops being watched once it reaches a final status.
+ */
+public final class TransferStatusWatcher implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TransferStatusWatcher.class);
+    private static final Set<TransactionStatus> FINAL_STATUSES = statuses(
+            "SUCCESS",
+            "FAILURE_GENERIC",
+            "FAILURE_INSUFFICIENT_FUNDS",
+            "FAILURE_INVALID_CURRENCY",
+            "FAILURE_PERMISSION_DENIED",
+            "FAILURE_QUOTE_EXPIRED",
+            "FAILURE_INVALID_AMOUNT",
+            "FAILURE_INVALID_QUOTE",
+            "FAILURE_EXPIRED",
+            "FAILURE_CANCELED",
+            "FAILURE_DECLINED");
+
+    private final TransferSource transfers;
+    private final Clock clock;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final double backoffFactor;
+    private final int pageSize;
+    private final int maxScanPages;
+    private final int scanThreshold;
+    private final int maxConcurrency;
+    private final ConcurrentMap<String, Watched> watched = new ConcurrentHashMap<>();
+    private final Subject<TransferStatusTransition> transitions =
+            PublishSubject.<TransferStatusTransition>create().toSerialized();
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private final Disposable ticker;
+
+    private TransferStatusWatcher(Builder builder) {
+        this.transfers = builder.transfers;
+        this.clock = builder.clock;
+        this.minIntervalMs = builder.minIntervalMs;
+        this.maxIntervalMs = builder.maxIntervalMs;
+        this.backoffFactor = builder.backoffFactor;
+        this.pageSize = builder.pageSize;
+        this.maxScanPages = builder.maxScanPages;
+        this.scanThreshold = builder.scanThreshold;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.ticker = Observable
+                .interval(builder.tickMs, builder.tickMs, MILLISECONDS, builder.scheduler)
+                .subscribe(tick -> poll());
+    }
+
+    /**
+     * Creates a new {@link Builder} for a watcher of the given member's transfers.
+     *
+     * @param member member that redeemed the transfers
+     * @return builder
+     */
+    public static Builder builder(final Member member) {
+        return new Builder(new TransferSource() {
+            @Override
+            public Observable<Transfer> getTransfer(String transferId) {
+                return member.getTransfer(transferId);
+            }
+
+            @Override
+            public Observable<PagedList<Transfer, String>> getTransfers(
+                    @Nullable String offset,
+                    int limit,
+                    @Nullable String tokenId) {
+                return member.getTransfers(offset, limit, tokenId);
+            }
+        });
+    }
+
+    @VisibleForTesting
+    static Builder builder(TransferSource transfers) {
+        return new Builder(transfers);
+    }
+
+    /**
+     * Checks whether a transfer status is final, i.e. will not change anymore. Statuses
+     * not known to be final, including ones added to the protos later, are treated as
+     * pending, so that their transfers keep being watched.
+     *
+     * @param status transfer status
+     * @return true if the status is final
+     */
+    public static boolean isFinal(TransactionStatus status) {
+        return FINAL_STATUSES.contains(status);
+    }
+
+    /**
+     * Starts watching a transfer, e.g. one returned by {@link Member#redeemToken}.
+     * Transfers that already have a final status are ignored.
+     *
+     * @param transfer transfer to watch
+     */
+    public void watch(Transfer transfer) {
+        if (isFinal(transfer.getStatus())) {
+            return;
+        }
+        long now = clock.getTime();
+        watched.putIfAbsent(transfer.getId(), new Watched(
+                transfer.getId(),
+                transfer.getPayload().getTokenId(),
+                transfer.getStatus(),
+                now,
+                now + minIntervalMs));
+    }
+
+    /**
+     * Stops watching a transfer.
+     *
+     * @param transferId transfer ID
+     */
+    public void unwatch(String transferId) {
+        watched.remove(transferId);
+    }
+
+    /**
+     * Returns the number of transfers being watched.
+     *
+     * @return number of watched transfers
+     */
+    public int size() {
+        return watched.size();
+    }
+
+    /**
+     * Returns the status transitions of the watched transfers. The observable completes
+     * when the watcher is closed.
+     *
+     * @return status transitions
+     */
+    public Observable<TransferStatusTransition> statusTransitions() {
+        return transitions.hide();
+    }
+
+    @Override
+    public void close() {
+        ticker.dispose();
+        transitions.onComplete();
+    }
+
+    /**
+     * Refreshes all transfers that are due. Does nothing if the previous refresh is
+     * still running.
+     */
+    void poll() {
+        if (!polling.compareAndSet(false, true)) {
+            return;
+        }
+        long now = clock.getTime();
+        Map<String, Watched> due = new HashMap<>();
+        for (Watched w : watched.values()) {
+            if (w.nextCheckMs <= now) {
+                due.put(w.transferId, w);
+            }
+        }
+        if (due.isEmpty()) {
+            polling.set(false);
+            return;
+        }
+        Set<String> pending = ConcurrentHashMap.newKeySet();
+        pending.addAll(due.keySet());
+        refresh(due, pending)
+                .doFinally(() -> {
+                    // Transfers we could not refresh are retried with the same back off.
+                    for (String transferId : pending) {
+                        Watched w = watched.get(transferId);
+                        if (w != null) {
+                            w.nextCheckMs = clock.getTime() + delay(w);
+                        }
+                    }
+                    polling.set(false);
+                })
+                .subscribe(
+                        () -> { },
+                        error -> logger.warn("Failed to refresh transfer statuses", error));
+    }
+
+    private Completable refresh(Map<String, Watched> due, Set<String> pending) {
+        Observable<Transfer> scanned = due.size() >= scanThreshold
+                ? scan(null, 0, pending)
+                : Observable.empty();
+        return scanned
+                .concatWith(Observable.defer(() -> byToken(due, pending)))
+                .concatWith(Observable.defer(() -> individually(pending)))
+                .doOnNext(transfer -> {
+                    pending.remove(transfer.getId());
+                    update(transfer);
+                })
+                .ignoreElements();
+    }
+
+    /**
+     * Scans the most recent transfers page by page until all pending transfers are found.
+     */
+    private Observable<Transfer> scan(@Nullable String offset, int page, Set<String> pending) {
+        return transfers.getTransfers(offset, pageSize, null)
+                .onErrorResumeNext(logAndSkip("getTransfers"))
+                .concatMap(list -> {
+                    List<Transfer> found = new ArrayList<>();
+                    for (Transfer transfer : list.getList()) {
+                        if (pending.remove(transfer.getId())) {
+                            found.add(transfer);
+                        }
+                    }
+                    Observable<Transfer> matches = Observable.fromIterable(found);
+                    boolean more = !pending.isEmpty()
+                            && page + 1 < maxScanPages
+                            && list.getList().size() == pageSize
+                            && !Strings.isNullOrEmpty(list.getOffset());
+                    return more
+                            ? matches.concatWith(scan(list.getOffset(), page + 1, pending))
+                            : matches;
+                });
+    }
+
+    /**
+     * Looks up the transfers of every token that has more than one pending transfer.
+     */
+    private Observable<Transfer> byToken(Map<String, Watched> due, Set<String> pending) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String transferId : pending) {
+            String tokenId = due.get(transferId).tokenId;
+            if (!tokenId.isEmpty()) {
+                counts.merge(tokenId, 1, Integer::sum);
+            }
+        }
+        List<String> tokenIds = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) {
+                tokenIds.add(entry.getKey());
+            }
+        }
+        return Observable.fromIterable(tokenIds)
+                .flatMap(
+                        tokenId -> transfers.getTransfers(null, pageSize, tokenId)
+                                .onErrorResumeNext(logAndSkip("getTransfers")),
+                        maxConcurrency)
+                .flatMapIterable(PagedList::getList)
+                .filter(transfer -> pending.contains(transfer.getId()));
+    }
+
+    private Observable<Transfer> individually(Set<String> pending) {
+        return Observable.fromIterable(new ArrayList<>(pending))
+                .flatMap(
+                        transferId -> transfers.getTransfer(transferId)
+                                .onErrorResumeNext(logAndSkip("getTransfer")),
+                        maxConcurrency);
+    }
+
+    private void update(Transfer transfer) {
+        Watched w = watched.get(transfer.getId());
+        if (w == null) {
+            return;
+        }
+        long now = clock.getTime();
+        TransactionStatus previous = w.status;
+        if (previous != transfer.getStatus()) {
+            w.status = transfer.getStatus();
+            w.statusSinceMs = now;
+        }
+        if (isFinal(w.status)) {
+            watched.remove(w.transferId);
+        } else {
+            w.nextCheckMs = now + delay(w);
+        }
+        if (previous != transfer.getStatus()) {
+            transitions.onNext(TransferStatusTransition.create(previous, transfer));
+        }
+    }
+
+    /**
+     * Time until the next check of a transfer: a fraction of how long its status has
+     * not changed, within the configured bounds.
+     */
+    private long delay(Watched w) {
+        long age = Math.max(0, clock.getTime() - w.statusSinceMs);
+        long delay = (long) (age * backoffFactor);
+        return Math.min(maxIntervalMs, Math.max(minIntervalMs, delay));
+    }
+
+    /**
+     * Looks the statuses up by name, so that the list also applies to proto versions
+     * lacking some of them.
+     */
+    private static Set<TransactionStatus> statuses(String... names) {
+        Set<TransactionStatus> statuses = EnumSet.noneOf(TransactionStatus.class);
+        for (TransactionStatus status : TransactionStatus.values()) {
+            for (String name : names) {
+                if (status.name().equals(name)) {
+                    statuses.add(status);
+                }
+            }
+        }
+        return Collections.unmodifiableSet(statuses);
+    }
+
+    private static <T> Function<Throwable, Observable<T>> logAndSkip(String method) {
+        return error -> {
+            logger.debug("{} failed, will retry", method, error);
+            return Observable.empty();
+        };
+    }
+
+    /**
+     * Looks up the transfers of the member, e.g. {@link Member}.
+     */
+    interface TransferSource {
+        Observable<Transfer> getTransfer(String transferId);
+
+        Observable<PagedList<Transfer, String>> getTransfers(
+                @Nullable String offset,
+                int limit,
+                @Nullable String tokenId);
+    }
+
+    private static final class Watched {
+        private final String transferId;
+        private final String tokenId;
+        private volatile TransactionStatus status;
+        private volatile long statusSinceMs;
+        private volatile long nextCheckMs;
+
+        private Watched(
+                String transferId,
+                String tokenId,
+                TransactionStatus status,
+                long statusSinceMs,
+                long nextCheckMs) {
+            this.transferId = transferId;
+            this.tokenId = tokenId;
+            this.status = status;
+            this.statusSinceMs = statusSinceMs;
+            this.nextCheckMs = nextCheckMs;
+        }
+    }
+
+    /**
+     * Used to configure and create a {@link TransferStatusWatcher}.
+     */
+    public static final class Builder {
+        private static final long DEFAULT_TICK_MS = 1_000L;
+        private static final long DEFAULT_MIN_INTERVAL_MS = 2_000L;
+        private static final long DEFAULT_MAX_INTERVAL_MS = 300_000L;
+        private static final double DEFAULT_BACKOFF_FACTOR = 0.25;
+        private static final int DEFAULT_PAGE_SIZE = 100;
+        private static final int DEFAULT_MAX_SCAN_PAGES = 5;
+        private static final int DEFAULT_SCAN_THRESHOLD = 10;
+        private static final int DEFAULT_MAX_CONCURRENCY = 8;
+
+        private final TransferSource transfers;
+        private Clock clock = new SystemTimeClock();
+        private Scheduler scheduler = Schedulers.single();
+        private long tickMs = DEFAULT_TICK_MS;
+        private long minIntervalMs = DEFAULT_MIN_INTERVAL_MS;
+        private long maxIntervalMs = DEFAULT_MAX_INTERVAL_MS;
+        private double backoffFactor = DEFAULT_BACKOFF_FACTOR;
+        private int pageSize = DEFAULT_PAGE_SIZE;
+        private int maxScanPages = DEFAULT_MAX_SCAN_PAGES;
+        private int scanThreshold = DEFAULT_SCAN_THRESHOLD;
+        private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+        private Builder(TransferSource transfers) {
+            this.transfers = transfers;
+        }
+
+        /**
+         * Sets how often the watcher looks for transfers that are due.
+         *
+         * @param tickMs tick interval in milliseconds
+         * @return this builder instance
+         */
+        public Builder tick(long tickMs) {
+            Preconditions.checkArgument(tickMs > 0, "tickMs must be > 0");
+            this.tickMs = tickMs;
+            return this;
+        }
+
+        /**
+         * Sets the bounds of the interval between two checks of the same transfer. Within
+         * the bounds, a transfer is checked after {@code backoffFactor} times the time its
+         * status has not changed.
+         *
+         * @param minIntervalMs minimum interval in milliseconds
+         * @param maxIntervalMs maximum interval in milliseconds
+         * @param backoffFactor fraction of the status age to wait
+         * @return this builder instance
+         */
+        public Builder backoff(long minIntervalMs, long maxIntervalMs, double backoffFactor) {
+            Preconditions.checkArgument(
+                    minIntervalMs > 0 && maxIntervalMs >= minIntervalMs,
+                    "Invalid interval bounds");
+            Preconditions.checkArgument(backoffFactor >= 0, "backoffFactor must be >= 0");
+            this.minIntervalMs = minIntervalMs;
+            this.maxIntervalMs = maxIntervalMs;
+            this.backoffFactor = backoffFactor;
+            return this;
+        }
+
+        /**
+         * Sets how bulk lookups are paged. If at least {@code scanThreshold} transfers are
+         * due, up to {@code maxScanPages} pages of the most recent transfers are scanned
+         * before falling back to per token and per transfer lookups.
+         *
+         * @param pageSize number of transfers per page
+         * @param maxScanPages max number of recent pages to scan per refresh
+         * @param scanThreshold min number of due transfers to scan recent pages
+         * @return this builder instance
+         */
+        public Builder paging(int pageSize, int maxScanPages, int scanThreshold) {
+            Preconditions.checkArgument(pageSize > 0, "pageSize must be > 0");
+            Preconditions.checkArgument(maxScanPages >= 0, "maxScanPages must be >= 0");
+            this.pageSize = pageSize;
+            this.maxScanPages = maxScanPages;
+            this.scanThreshold = maxScanPages == 0 ? Integer.MAX_VALUE : scanThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the max number of concurrent lookups per refresh.
+         *
+         * @param maxConcurrency max concurrent lookups
+         * @return this builder instance
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be > 0");
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Sets the scheduler that drives the refreshes.
+         *
+         * @param scheduler scheduler
+         * @return this builder instance
+         */
+        public Builder scheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Sets the clock used to age transfer statuses.
+         *
+         * @param clock clock
+         * @return this builder instance
+         */
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Creates the watcher and starts refreshing.
+         *
+         * @return watcher
+         */
+        public TransferStatusWatcher build() {
+            return new TransferStatusWatcher(this);
+        }
+    }
+}
@@ -27,8 +27,12 @@ import static io.token.proto.common.token.TokenProtos.TokenSignature.Action.CANC
 import static io.token.rpc.util.Converters.toCompletable;
 import static io.token.util.Util.toObservable;
 
+import io.grpc.Deadline;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.token.idempotency.IdempotencyLedger;
+import io.token.idempotency.IdempotentOperation;
+import io.token.idempotency.PagedSearch;
 import io.token.proto.PagedList;
 import io.token.proto.common.blob.BlobProtos.Blob;
 import io.token.proto.common.eidas.EidasProtos.VerifyEidasPayload;
@@ -111,6 +115,8 @@ import javax.annotation.Nullable;
  * easier to use.
  */
 public final class Client extends io.token.rpc.Client {
+    private static final int RECONCILE_PAGE_SIZE = 100;
+
     private String onBehalfOf;
 
     /**
@@ -127,6 +133,22 @@ public final class Client extends io.token.rpc.Client {
         super(memberId, crypto, gateway);
     }
 
+    /**
+     * Creates a client instance.
+     *
+     * @param memberId member id
+     * @param crypto the crypto engine used to sign for authentication, request payloads, etc
+     * @param gateway gateway gRPC stub
+     * @param idempotencyLedger ledger used to make transfer retries safe, or null
+     */
+    Client(
+            String memberId,
+            CryptoEngine crypto,
+            GatewayProvider gateway,
+            @Nullable IdempotencyLedger idempotencyLedger) {
+        super(memberId, crypto, gateway, idempotencyLedger);
+    }
+
     /**
      * Replaces a member's public profile.
      *
@@ -180,7 +202,7 @@ public final class Client extends io.token.rpc.Client {
      * @return new client instance
      */
     public Client forAccessToken(String tokenId, boolean customerInitiated) {
-        Client updated = new Client(memberId, crypto, gateway);
+        Client updated = new Client(memberId, crypto, gateway, idempotencyLedger);
         updated.useAccessToken(tokenId, customerInitiated);
         return updated;
     }
@@ -202,11 +224,37 @@ public final class Client extends io.token.rpc.Client {
                                     + "Use forAccessToken(String, boolean) instead.")
                     .asRuntimeException();
         }
-        Client updated = new Client(memberId, crypto, gateway);
+        Client updated = new Client(memberId, crypto, gateway, idempotencyLedger);
         updated.useAccessToken(tokenId, customerTrackingMetadata);
         return updated;
     }
 
+    @Override
+    public Client withDeadline(Deadline deadline) {
+        Client updated = new Client(
+                memberId,
+                crypto,
+                withDeadline(gateway, deadline),
+                idempotencyLedger);
+        updated.onBehalfOf = onBehalfOf;
+        updated.customerInitiated = customerInitiated;
+        updated.customerTrackingMetadata = customerTrackingMetadata;
+        return updated;
+    }
+
+    @Override
+    public Client withMaxStaleness(long maxStalenessMs) {
+        Client updated = new Client(
+                memberId,
+                crypto,
+                withMaxStaleness(gateway, maxStalenessMs),
+                idempotencyLedger);
+        updated.onBehalfOf = onBehalfOf;
+        updated.customerInitiated = customerInitiated;
+        updated.customerTrackingMetadata = customerTrackingMetadata;
+        return updated;
+    }
+
     /**
      * Sets the On-Behalf-Of authentication value to be used
      * with this client.  The value must correspond to an existing
@@ -485,7 +533,41 @@ public final class Client extends io.token.rpc.Client {
      * @param transfer transfer parameters, such as amount, currency, etc
      * @return transfer record
      */
-    public Observable<Transfer> createTransfer(TransferProtos.TransferPayload transfer) {
+    public Observable<Transfer> createTransfer(final TransferProtos.TransferPayload transfer) {
+        if (idempotencyLedger == null || transfer.getRefId().isEmpty()) {
+            return submitTransfer(transfer);
+        }
+        return idempotencyLedger.execute(
+                IdempotencyLedger.key(memberId, "transfer", transfer.getRefId()),
+                new IdempotentOperation<Transfer>() {
+                    @Override
+                    public Observable<Transfer> submit() {
+                        return submitTransfer(transfer);
+                    }
+
+                    @Override
+                    public String resultId(Transfer result) {
+                        return result.getId();
+                    }
+
+                    @Override
+                    public Observable<Transfer> fetch(String transferId) {
+                        return getTransfer(transferId);
+                    }
+
+                    @Override
+                    public Observable<Transfer> reconcile() {
+                        return PagedSearch.findFirst(
+                                offset -> getTransfers(
+                                        offset,
+                                        RECONCILE_PAGE_SIZE,
+                                        transfer.getTokenId()),
+                                t -> t.getPayload().getRefId().equals(transfer.getRefId()));
+                    }
+                });
+    }
+
+    private Observable<Transfer> submitTransfer(TransferProtos.TransferPayload transfer) {
         Signer signer = crypto.createSigner(Key.Level.LOW);
         return toObservable(gateway
                 .withAuthentication(authenticationContext())
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.util;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.reactivex.Observable;
+import io.token.proto.common.member.MemberProtos.Member;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the Token member, whose keys verify the signatures Token puts on callbacks and
+ * webhook events, for a limited time.
+ * <br>
+ * The member expires after a TTL, so that keys Token revoked stop verifying. It can also be
+ * looked up again early, when a signature fails to verify, e.g. because Token rotated its
+ * keys. Early lookups happen at most once per refresh interval, so that requests with
+ * forged signatures do not each cause a gateway call. Lookups run without holding a lock
+ * and fail after a timeout; concurrent callers share the lookup in flight, so a burst of
+ * requests while the member is missing or due for refresh causes one gateway call.
+ */
+public final class TokenMemberCache {
+    public static final long DEFAULT_TTL_MS = 300_000L;
+    public static final long DEFAULT_MIN_REFRESH_INTERVAL_MS = 5_000L;
+    public static final long DEFAULT_TIMEOUT_MS = 10_000L;
+
+    private static final String KEY = "token";
+
+    private final Observable<Member> source;
+    private final long minRefreshIntervalNanos;
+    private final long timeoutMs;
+    private final Ticker ticker;
+    private final Cache<String, Fetched> members;
+    private final AtomicReference<Observable<Member>> inFlight = new AtomicReference<>();
+
+    /**
+     * Creates a cache with the default TTL, refresh interval and timeout.
+     *
+     * @param source looks the Token member up; subscribed to once per lookup
+     */
+    public TokenMemberCache(Observable<Member> source) {
+        this(source, DEFAULT_TTL_MS, DEFAULT_MIN_REFRESH_INTERVAL_MS, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param source looks the Token member up; subscribed to once per lookup
+     * @param ttlMs how long the member is kept, in milliseconds
+     * @param minRefreshIntervalMs min time between a lookup and an early one, in milliseconds
+     * @param timeoutMs max duration of a lookup, in milliseconds
+     */
+    public TokenMemberCache(
+            Observable<Member> source,
+            long ttlMs,
+            long minRefreshIntervalMs,
+            long timeoutMs) {
+        this(source, ttlMs, minRefreshIntervalMs, timeoutMs, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    TokenMemberCache(
+            Observable<Member> source,
+            long ttlMs,
+            long minRefreshIntervalMs,
+            long timeoutMs,
+            Ticker ticker) {
+        this.source = source;
+        this.minRefreshIntervalNanos = MILLISECONDS.toNanos(minRefreshIntervalMs);
+        this.timeoutMs = timeoutMs;
+        this.ticker = ticker;
+        this.members = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMs, MILLISECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Returns the Token member, looking it up if it is not cached or expired.
+     *
+     * @return Token member
+     */
+    public Observable<Member> get() {
+        Fetched cached = members.getIfPresent(KEY);
+        return cached != null ? Observable.just(cached.member) : fetch();
+    }
+
+    /**
+     * Looks the Token member up again, e.g. after a signature failed to verify with the
+     * cached one. Returns the cached member if it was looked up less than the refresh
+     * interval ago.
+     *
+     * @return Token member
+     */
+    public Observable<Member> refresh() {
+        Fetched cached = members.getIfPresent(KEY);
+        if (cached != null && ticker.read() - cached.fetchedAtNanos < minRefreshIntervalNanos) {
+            return Observable.just(cached.member);
+        }
+        return fetch();
+    }
+
+    private Observable<Member> fetch() {
+        while (true) {
+            Observable<Member> existing = inFlight.get();
+            if (existing != null) {
+                return existing;
+            }
+            AtomicReference<Observable<Member>> self = new AtomicReference<>();
+            Observable<Member> shared = Observable.defer(() -> source)
+                    .timeout(timeoutMs, MILLISECONDS)
+                    .doOnNext(member -> members.put(KEY, new Fetched(member, ticker.read())))
+                    .doFinally(() -> inFlight.compareAndSet(self.get(), null))
+                    .cache();
+            self.set(shared);
+            if (inFlight.compareAndSet(null, shared)) {
+                return shared;
+            }
+        }
+    }
+
+    private static final class Fetched {
+        private final Member member;
+        private final long fetchedAtNanos;
+
+        private Fetched(Member member, long fetchedAtNanos) {
+            this.member = member;
+            this.fetchedAtNanos = fetchedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.util;
+
+import static io.token.proto.ProtoJson.toJson;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.reactivex.Observable;
+import io.token.MemberRegistry;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.security.SecurityProtos.Signature;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.token.TokenProtos.TokenSignature;
+import io.token.security.BatchVerificationReport;
+import io.token.security.BatchVerifier;
+import io.token.security.SignedPayload;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies the payload signatures of tokens locally, against the keys of the signing
+ * members.
+ * <br>
+ * The signing members are fetched once per batch of tokens and kept for a limited time;
+ * their verifiers are kept in the {@link VerifierRegistry}, so they are reused across the
+ * tokens and batches signed by the same member. A cached member that lacks the key of a
+ * signature is fetched again, at most once per refresh interval, so that keys the member
+ * added since it was cached verify. The signatures of a batch are verified in parallel by a
+ * {@link BatchVerifier}.
+ */
+public final class TokenVerifier {
+    private static final Logger logger = LoggerFactory.getLogger(TokenVerifier.class);
+    private static final long DEFAULT_MAX_MEMBERS = 10_000L;
+    private static final long DEFAULT_MEMBER_TTL_MS = 300_000L;
+    private static final long DEFAULT_MIN_REFRESH_INTERVAL_MS = 5_000L;
+    private static final TokenVerifier INSTANCE = new TokenVerifier(
+            BatchVerifier.builder().build(),
+            VerifierRegistry.getInstance(),
+            DEFAULT_MAX_MEMBERS,
+            DEFAULT_MEMBER_TTL_MS,
+            DEFAULT_MIN_REFRESH_INTERVAL_MS,
+            Ticker.systemTicker());
+
+    private final BatchVerifier batchVerifier;
+    private final VerifierRegistry verifiers;
+    private final long minRefreshIntervalNanos;
+    private final Ticker ticker;
+    private final Cache<String, Fetched> members;
+
+    @VisibleForTesting
+    TokenVerifier(
+            BatchVerifier batchVerifier,
+            VerifierRegistry verifiers,
+            long maxMembers,
+            long memberTtlMs,
+            long minRefreshIntervalMs,
+            Ticker ticker) {
+        this.batchVerifier = batchVerifier;
+        this.verifiers = verifiers;
+        this.minRefreshIntervalNanos = MILLISECONDS.toNanos(minRefreshIntervalMs);
+        this.ticker = ticker;
+        this.members = CacheBuilder.newBuilder()
+                .maximumSize(maxMembers)
+                .expireAfterWrite(memberTtlMs, MILLISECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Returns the shared verifier instance.
+     *
+     * @return token verifier
+     */
+    public static TokenVerifier getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Verifies the payload signatures of tokens. A signature fails if its member cannot be
+     * fetched, its key is not a key of the member, or it does not match the token payload.
+     * A token without payload signatures is not verified.
+     *
+     * @param tokens tokens
+     * @param fetcher fetches a signing member by ID
+     * @return the tokens with their verification outcome, in the same order
+     */
+    public Observable<List<VerifiedToken>> verify(
+            List<Token> tokens,
+            MemberRegistry.Fetcher<Member> fetcher) {
+        Map<String, Set<String>> signerKeys = new LinkedHashMap<>();
+        for (Token token : tokens) {
+            for (TokenSignature signature : token.getPayloadSignaturesList()) {
+                signerKeys
+                        .computeIfAbsent(
+                                signature.getSignature().getMemberId(),
+                                memberId -> new HashSet<>())
+                        .add(signature.getSignature().getKeyId());
+            }
+        }
+        return Observable.fromIterable(signerKeys.entrySet())
+                .flatMap(signer -> lookUp(signer.getKey(), signer.getValue(), fetcher))
+                .toMap(Member::getId)
+                .toObservable()
+                .map(signers -> verify(tokens, signers));
+    }
+
+    /**
+     * Drops the cached keys of a member, e.g. after they changed.
+     *
+     * @param memberId member ID
+     */
+    public void invalidate(String memberId) {
+        members.invalidate(memberId);
+        verifiers.invalidate(memberId);
+    }
+
+    @VisibleForTesting
+    List<VerifiedToken> verify(List<Token> tokens, Map<String, Member> signers) {
+        List<SignedPayload> items = new ArrayList<>();
+        List<Integer> itemTokens = new ArrayList<>();
+        List<TokenSignature> itemSignatures = new ArrayList<>();
+        Map<Key, Member> keyOwners = new HashMap<>();
+        List<List<TokenSignature>> failed = new ArrayList<>();
+        for (int t = 0; t < tokens.size(); t++) {
+            Token token = tokens.get(t);
+            List<TokenSignature> tokenFailed = new ArrayList<>();
+            failed.add(tokenFailed);
+            String payload = null;
+            for (TokenSignature signature : token.getPayloadSignaturesList()) {
+                Signature tokenSignature = signature.getSignature();
+                Member signer = signers.get(tokenSignature.getMemberId());
+                Key key = signer == null ? null : keyOf(signer, tokenSignature.getKeyId());
+                if (key == null) {
+                    tokenFailed.add(signature);
+                    continue;
+                }
+                if (payload == null) {
+                    payload = toJson(token.getPayload());
+                }
+                items.add(SignedPayload.create(
+                        payload + "." + signature.getAction().name().toLowerCase(),
+                        tokenSignature.getSignature(),
+                        key));
+                itemTokens.add(t);
+                itemSignatures.add(signature);
+                keyOwners.put(key, signer);
+            }
+        }
+
+        BatchVerificationReport report = batchVerifier.verify(
+                items,
+                key -> verifiers.verifierFor(keyOwners.get(key), key.getId()));
+        for (int i : report.getFailedIndexes()) {
+            failed.get(itemTokens.get(i)).add(itemSignatures.get(i));
+        }
+
+        List<VerifiedToken> verified = new ArrayList<>(tokens.size());
+        for (int t = 0; t < tokens.size(); t++) {
+            verified.add(VerifiedToken.create(tokens.get(t), failed.get(t)));
+        }
+        return verified;
+    }
+
+    private Observable<Member> lookUp(
+            String memberId,
+            Set<String> keyIds,
+            MemberRegistry.Fetcher<Member> fetcher) {
+        Fetched cached = members.getIfPresent(memberId);
+        if (cached != null
+                && (hasKeys(cached.member, keyIds)
+                        || ticker.read() - cached.fetchedAtNanos < minRefreshIntervalNanos)) {
+            return Observable.just(cached.member);
+        }
+        if (cached != null) {
+            // The member may have added keys since it was cached.
+            invalidate(memberId);
+        }
+        return fetcher.fetch(memberId)
+                .doOnNext(member -> members.put(memberId, new Fetched(member, ticker.read())))
+                .onErrorResumeNext(error -> {
+                    logger.debug("Unable to fetch signing member {}", memberId, error);
+                    if (cached == null) {
+                        return Observable.empty();
+                    }
+                    // Keep the member, and wait a refresh interval before fetching it again.
+                    members.put(memberId, new Fetched(cached.member, ticker.read()));
+                    return Observable.just(cached.member);
+                });
+    }
+
+    private static boolean hasKeys(Member member, Set<String> keyIds) {
+        for (String keyId : keyIds) {
+            if (keyOf(member, keyId) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private static Key keyOf(Member member, String keyId) {
+        for (Key key : member.getKeysList()) {
+            if (key.getId().equals(keyId)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private static final class Fetched {
+        private final Member member;
+        private final long fetchedAtNanos;
+
+        private Fetched(Member member, long fetchedAtNanos) {
+            this.member = member;
+            this.fetchedAtNanos = fetchedAtNanos;
+        }
+    }
+}
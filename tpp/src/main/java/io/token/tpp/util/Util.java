@@ -33,14 +33,12 @@ import io.token.proto.common.member.MemberProtos.Member;
 import io.token.proto.common.security.SecurityProtos;
 import io.token.proto.common.security.SecurityProtos.Signature;
 import io.token.security.KeyNotFoundException;
-import io.token.security.crypto.Crypto;
-import io.token.security.crypto.CryptoRegistry;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.security.PublicKey;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ScheduledExecutorService;
@@ -60,6 +58,7 @@ public abstract class Util extends io.token.util.Util {
             .build();
 
     private static final ScheduledExecutorService scheduler = newSingleThreadScheduledExecutor();
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
     private Util() {
     }
@@ -71,13 +70,38 @@ public abstract class Util extends io.token.util.Util {
      * @return map of parameters in query string
      */
     public static Map<String, String> parseQueryString(String queryString) {
-        String[] params = queryString.split("&");
-        Map<String, String> parameters = new HashMap<>();
+        return parseQueryString(queryString, 0, queryString.length());
+    }
 
-        for (String param : params) {
-            String name = param.split("=")[0];
-            String value = param.split("=")[1];
-            parameters.put(name, value);
+    /**
+     * Returns map of query string parameters, given a region of a string that holds a query
+     * string. The values are not URL decoded; a parameter without a value maps to an empty
+     * string.
+     *
+     * @param string string containing the query string, e.g. a URL
+     * @param start index of the first character of the query string
+     * @param end index after the last character of the query string
+     * @return map of parameters in query string
+     */
+    public static Map<String, String> parseQueryString(String string, int start, int end) {
+        Map<String, String> parameters = new HashMap<>();
+        int paramStart = start;
+        while (paramStart < end) {
+            int paramEnd = string.indexOf('&', paramStart);
+            if (paramEnd < 0 || paramEnd > end) {
+                paramEnd = end;
+            }
+            if (paramEnd > paramStart) {
+                int equals = string.indexOf('=', paramStart);
+                if (equals < 0 || equals > paramEnd) {
+                    parameters.put(string.substring(paramStart, paramEnd), "");
+                } else {
+                    parameters.put(
+                            string.substring(paramStart, equals),
+                            string.substring(equals + 1, paramEnd));
+                }
+            }
+            paramStart = paramEnd + 1;
         }
         return parameters;
     }
@@ -89,11 +113,60 @@ public abstract class Util extends io.token.util.Util {
      * @return encoded string
      */
     public static String urlEncode(String string) {
-        try {
-            return URLEncoder.encode(string, UTF_8.name());
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e.getMessage());
+        return appendUrlEncoded(new StringBuilder(string.length() + 16), string).toString();
+    }
+
+    /**
+     * URL encodes a string in a single pass, appending the result to a builder. The
+     * encoding is the same as {@link URLEncoder} with UTF-8.
+     *
+     * @param out builder to append to
+     * @param string string to encode
+     * @return the builder
+     */
+    public static StringBuilder appendUrlEncoded(StringBuilder out, String string) {
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (isUnreserved(c)) {
+                out.append(c);
+            } else if (c == ' ') {
+                out.append('+');
+            } else if (c < 0x80) {
+                appendEscaped(out, c);
+            } else if (c < 0x800) {
+                appendEscaped(out, 0xc0 | (c >> 6));
+                appendEscaped(out, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < string.length()
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                appendEscaped(out, 0xf0 | (codePoint >> 18));
+                appendEscaped(out, 0x80 | ((codePoint >> 12) & 0x3f));
+                appendEscaped(out, 0x80 | ((codePoint >> 6) & 0x3f));
+                appendEscaped(out, 0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates can't be encoded in UTF-8; URLEncoder writes '?'.
+                appendEscaped(out, '?');
+            } else {
+                appendEscaped(out, 0xe0 | (c >> 12));
+                appendEscaped(out, 0x80 | ((c >> 6) & 0x3f));
+                appendEscaped(out, 0x80 | (c & 0x3f));
+            }
         }
+        return out;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || c == '.' || c == '-' || c == '*' || c == '_';
+    }
+
+    private static void appendEscaped(StringBuilder out, int b) {
+        out.append('%')
+                .append(HEX_DIGITS[(b >> 4) & 0xf])
+                .append(HEX_DIGITS[b & 0xf]);
     }
 
     /**
@@ -121,11 +194,50 @@ public abstract class Util extends io.token.util.Util {
             Member member,
             Message payload,
             Signature signature) {
-        SecurityProtos.Key key = getSigningKey(member, signature);
+        VerifierRegistry.getInstance()
+                .verifierFor(member, signature.getKeyId())
+                .verify(payload, signature.getSignature());
+    }
 
-        Crypto crypto = CryptoRegistry.getInstance().cryptoFor(key.getAlgorithm());
-        PublicKey publicKey = crypto.toPublicKey(key.getPublicKey());
-        crypto.verifier(publicKey).verify(payload, signature.getSignature());
+    /**
+     * Verify the signature of a string payload, e.g. the raw body of a webhook request.
+     *
+     * @param member member
+     * @param payload payload
+     * @param signature signature
+     */
+    public static void verifySignature(
+            Member member,
+            String payload,
+            Signature signature) {
+        VerifierRegistry.getInstance()
+                .verifierFor(member, signature.getKeyId())
+                .verify(payload, signature.getSignature());
+    }
+
+    /**
+     * Verify the signatures of many payloads signed by the same member. The member's keys
+     * are resolved once for the whole batch.
+     *
+     * @param member member
+     * @param payloads payloads
+     * @param signatures signatures, in the same order as the payloads
+     * @throws IllegalArgumentException if the number of payloads and signatures differ
+     */
+    public static void verifySignatures(
+            Member member,
+            List<? extends Message> payloads,
+            List<Signature> signatures) {
+        if (payloads.size() != signatures.size()) {
+            throw new IllegalArgumentException(
+                    "Got " + payloads.size() + " payloads and " + signatures.size()
+                            + " signatures");
+        }
+        VerifierRegistry.MemberKeys keys = VerifierRegistry.getInstance().keysOf(member);
+        for (int i = 0; i < payloads.size(); i++) {
+            Signature signature = signatures.get(i);
+            keys.verifier(signature.getKeyId()).verify(payloads.get(i), signature.getSignature());
+        }
     }
 
     /**
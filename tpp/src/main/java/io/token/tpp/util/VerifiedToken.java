@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.util;
+
+import com.google.auto.value.AutoValue;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.token.TokenProtos.TokenSignature;
+
+import java.util.List;
+
+/**
+ * A token and the outcome of verifying its payload signatures with {@link TokenVerifier}.
+ */
+@AutoValue
+public abstract class VerifiedToken {
+    public static VerifiedToken create(Token token, List<TokenSignature> failedSignatures) {
+        return new AutoValue_VerifiedToken(token, failedSignatures);
+    }
+
+    /**
+     * Get the token.
+     *
+     * @return token
+     */
+    public abstract Token getToken();
+
+    /**
+     * Get the payload signatures that failed to verify: signatures that do not match the
+     * payload, or whose key is not a key of the signing member.
+     *
+     * @return failed signatures
+     */
+    public abstract List<TokenSignature> getFailedSignatures();
+
+    /**
+     * Returns whether the token has payload signatures and every one of them verified. A
+     * token without payload signatures is not verified, since nobody vouched for it.
+     *
+     * @return true if at least one signature verified and none failed
+     */
+    public boolean isVerified() {
+        return getToken().getPayloadSignaturesCount() > 0 && getFailedSignatures().isEmpty();
+    }
+}
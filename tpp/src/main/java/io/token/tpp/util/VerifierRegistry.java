@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.security.KeyNotFoundException;
+import io.token.security.Verifier;
+import io.token.security.crypto.Crypto;
+import io.token.security.crypto.CryptoRegistry;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Caches the decoded public keys and verifiers of members, keyed by member ID and key ID,
+ * so that verifying a signature does not decode the key again.
+ * <br>
+ * The cache is kept in sync with the member passed in: when its key list differs from the
+ * one the cached entries were built from, the entries are rebuilt, reusing the verifiers
+ * of the keys that did not change.
+ */
+public final class VerifierRegistry {
+    private static final long DEFAULT_MAX_MEMBERS = 10_000L;
+    private static final VerifierRegistry INSTANCE = new VerifierRegistry(DEFAULT_MAX_MEMBERS);
+
+    private final Cache<String, MemberKeys> members;
+
+    @VisibleForTesting
+    VerifierRegistry(long maxMembers) {
+        this.members = CacheBuilder.newBuilder()
+                .maximumSize(maxMembers)
+                .build();
+    }
+
+    /**
+     * Returns the shared registry instance.
+     *
+     * @return registry
+     */
+    public static VerifierRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a verifier for a key of a member.
+     *
+     * @param member member
+     * @param keyId key ID
+     * @return verifier
+     * @throws KeyNotFoundException if the member does not own the key
+     */
+    public Verifier verifierFor(Member member, String keyId) {
+        return keysOf(member).verifier(keyId);
+    }
+
+    /**
+     * Drops the cached keys of a member.
+     *
+     * @param memberId member ID
+     */
+    public void invalidate(String memberId) {
+        members.invalidate(memberId);
+    }
+
+    /**
+     * Drops all cached keys.
+     */
+    public void invalidateAll() {
+        members.invalidateAll();
+    }
+
+    MemberKeys keysOf(Member member) {
+        List<Key> keys = member.getKeysList();
+        MemberKeys cached = members.getIfPresent(member.getId());
+        if (cached != null && cached.keys == keys) {
+            // Protos are immutable, so the same list instance means the same member message.
+            return cached;
+        }
+        long fingerprint = fingerprint(keys);
+        if (cached != null && cached.fingerprint == fingerprint) {
+            return cached;
+        }
+        MemberKeys updated = new MemberKeys(keys, fingerprint, cached);
+        members.put(member.getId(), updated);
+        return updated;
+    }
+
+    /**
+     * Fingerprints a key list from the hash codes of its keys, which the key messages
+     * compute once and keep, so that it is cheaper than comparing the lists.
+     */
+    @VisibleForTesting
+    static long fingerprint(List<Key> keys) {
+        long fingerprint = keys.size();
+        for (Key key : keys) {
+            fingerprint = fingerprint * 0x9E3779B97F4A7C15L + key.hashCode();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * The keys of one member, decoded on first use.
+     */
+    static final class MemberKeys {
+        private final List<Key> keys;
+        private final long fingerprint;
+        private final Map<String, Key> keysById;
+        private final ConcurrentMap<String, Verifier> verifiers = new ConcurrentHashMap<>();
+
+        private MemberKeys(List<Key> keys, long fingerprint, @Nullable MemberKeys previous) {
+            this.keys = keys;
+            this.fingerprint = fingerprint;
+            this.keysById = new HashMap<>();
+            for (Key key : keys) {
+                keysById.put(key.getId(), key);
+                if (previous != null) {
+                    Verifier verifier = previous.verifiers.get(key.getId());
+                    if (verifier != null && key.equals(previous.keysById.get(key.getId()))) {
+                        verifiers.put(key.getId(), verifier);
+                    }
+                }
+            }
+        }
+
+        Verifier verifier(String keyId) {
+            Verifier verifier = verifiers.get(keyId);
+            if (verifier != null) {
+                return verifier;
+            }
+            Key key = keysById.get(keyId);
+            if (key == null) {
+                throw new KeyNotFoundException(keyId);
+            }
+            return verifiers.computeIfAbsent(keyId, id -> {
+                Crypto crypto = CryptoRegistry.getInstance().cryptoFor(key.getAlgorithm());
+                return crypto.verifier(crypto.toPublicKey(key.getPublicKey()));
+            });
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.webhook;
+
+import com.google.auto.value.AutoValue;
+import com.google.protobuf.Message;
+import io.token.proto.ProtoJson;
+
+/**
+ * A verified webhook event.
+ */
+@AutoValue
+public abstract class WebhookEvent {
+    public static WebhookEvent create(String id, String type, String payload) {
+        return new AutoValue_WebhookEvent(id, type, payload);
+    }
+
+    /**
+     * Get the event ID. Redeliveries of the same event have the same ID.
+     *
+     * @return event id
+     */
+    public abstract String getId();
+
+    /**
+     * Get the event type, e.g. "TRANSFER_STATUS_CHANGED".
+     *
+     * @return event type
+     */
+    public abstract String getType();
+
+    /**
+     * Get the event payload as JSON.
+     *
+     * @return payload JSON
+     */
+    public abstract String getPayload();
+
+    /**
+     * Parses the event payload into a proto message.
+     *
+     * @param builder builder of the expected payload message
+     * @param <T> payload message type
+     * @return payload
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Message> T getPayload(Message.Builder builder) {
+        return (T) ProtoJson.fromJson(getPayload(), builder);
+    }
+}
@@ -0,0 +1,624 @@
+/**
+ * Copyright (c) 2020 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.webhook;
+
+import static io.token.tpp.util.Util.verifySignature;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.reactivex.Observable;
+import io.token.proto.ProtoJson;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.security.SecurityProtos.Signature;
+import io.token.tpp.TokenClient;
+import io.token.tpp.util.TokenMemberCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives webhook events sent by Token, verifies their signature and dispatches them to
+ * {@link WebhookHandler}s.
+ * <br>
+ * Requests are accepted by the JDK's NIO based HTTP server, so no servlet container is
+ * needed. The request body must be signed by the Token member; the signature is passed in
+ * the {@link #SIGNATURE_HEADER} header as the JSON of a {@link Signature}. The Token member
+ * is kept in a {@link TokenMemberCache}: it expires after a TTL and is looked up again when
+ * a signature fails to verify. If it cannot be looked up, the receiver responds with 503.
+ * <br>
+ * Handlers run on a bounded executor. When its queue is full, or the same event is being
+ * handled already, the receiver responds with 503 so that Token delivers the event again
+ * later. Events that were handled are remembered by ID, and redeliveries of them are
+ * acknowledged without calling the handler again.
+ */
+public final class WebhookReceiver implements Closeable {
+    public static final String SIGNATURE_HEADER = "token-signature";
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookReceiver.class);
+    private static final int SHUTDOWN_SECONDS = 10;
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final HttpServer server;
+    private final ExecutorService ioExecutor;
+    private final ThreadPoolExecutor handlerExecutor;
+    private final TokenMemberCache tokenMember;
+    private final Map<String, WebhookHandler> handlers;
+    private final @Nullable WebhookHandler defaultHandler;
+    private final String signatureHeader;
+    private final int maxBodyBytes;
+    private final ConcurrentMap<String, Delivery> deliveries;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong unavailable = new AtomicLong();
+
+    private WebhookReceiver(Builder builder) throws IOException {
+        this.tokenMember = new TokenMemberCache(
+                builder.tokenMember,
+                builder.tokenMemberTtlMs,
+                builder.tokenMemberRefreshMs,
+                TokenMemberCache.DEFAULT_TIMEOUT_MS);
+        this.handlers = new HashMap<>(builder.handlers);
+        this.defaultHandler = builder.defaultHandler;
+        this.signatureHeader = builder.signatureHeader;
+        this.maxBodyBytes = builder.maxBodyBytes;
+        Cache<String, Delivery> deliveries = CacheBuilder.newBuilder()
+                .maximumSize(builder.dedupeCapacity)
+                .expireAfterWrite(builder.dedupeTtlMs, TimeUnit.MILLISECONDS)
+                .build();
+        this.deliveries = deliveries.asMap();
+        this.ioExecutor = Executors.newFixedThreadPool(builder.ioThreads);
+        this.handlerExecutor = new ThreadPoolExecutor(
+                builder.handlerThreads,
+                builder.handlerThreads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(builder.queueCapacity),
+                new ThreadPoolExecutor.AbortPolicy());
+        InetSocketAddress address = builder.host == null
+                ? new InetSocketAddress(builder.port)
+                : new InetSocketAddress(builder.host, builder.port);
+        this.server = HttpServer.create(address, builder.backlog);
+        this.server.createContext(builder.path, this::receive);
+        this.server.setExecutor(ioExecutor);
+    }
+
+    /**
+     * Creates a new {@link Builder} that verifies events with the Token member looked up
+     * through the given client.
+     *
+     * @param client token client
+     * @return builder
+     */
+    public static Builder builder(final TokenClient client) {
+        return new Builder(Observable.defer(client::getTokenMember));
+    }
+
+    /**
+     * Creates a new {@link Builder} that verifies events with the given Token member.
+     *
+     * @param tokenMember looks the Token member up; subscribed to again when the member
+     *     expires or a signature fails to verify
+     * @return builder
+     */
+    public static Builder builder(Observable<Member> tokenMember) {
+        return new Builder(tokenMember);
+    }
+
+    /**
+     * Starts accepting requests.
+     *
+     * @return this receiver
+     */
+    public WebhookReceiver start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Returns the port the receiver listens on, useful if it was bound to port 0.
+     *
+     * @return port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of requests received.
+     *
+     * @return number of requests
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * Returns the number of redelivered events that were acknowledged without being handled.
+     *
+     * @return number of duplicates
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * Returns the number of events that were turned away because the handlers were busy.
+     *
+     * @return number of rejected events
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the number of requests with a missing or invalid signature.
+     *
+     * @return number of invalid requests
+     */
+    public long getInvalidCount() {
+        return invalid.get();
+    }
+
+    /**
+     * Returns the number of events whose handler threw.
+     *
+     * @return number of failed events
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of requests turned away because the Token member could not be
+     * looked up to verify them.
+     *
+     * @return number of requests
+     */
+    public long getUnavailableCount() {
+        return unavailable.get();
+    }
+
+    /**
+     * Stops accepting requests and waits for the running handlers to finish.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        handlerExecutor.shutdown();
+        try {
+            handlerExecutor.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        ioExecutor.shutdownNow();
+    }
+
+    private void receive(HttpExchange exchange) throws IOException {
+        received.incrementAndGet();
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405);
+            return;
+        }
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            respond(exchange, 413);
+            return;
+        }
+        String json = new String(body, UTF_8);
+        String signature = exchange.getRequestHeaders().getFirst(signatureHeader);
+        Verification verification = signature == null
+                ? Verification.INVALID
+                : verify(json, signature);
+        if (verification == Verification.UNAVAILABLE) {
+            unavailable.incrementAndGet();
+            retryLater(exchange);
+            return;
+        }
+        if (verification == Verification.INVALID) {
+            invalid.incrementAndGet();
+            respond(exchange, 401);
+            return;
+        }
+
+        WebhookEvent event;
+        try {
+            event = parse(json, body);
+        } catch (JsonParseException | IllegalStateException ex) {
+            respond(exchange, 400);
+            return;
+        }
+        // Claims the event atomically, so that concurrent deliveries of it are not both
+        // dispatched.
+        Delivery previous = deliveries.putIfAbsent(event.getId(), Delivery.IN_PROGRESS);
+        if (previous == Delivery.HANDLED) {
+            duplicates.incrementAndGet();
+            respond(exchange, 200);
+            return;
+        }
+        if (previous == Delivery.IN_PROGRESS) {
+            // The first delivery is still being handled; ask for a redelivery later,
+            // when it is known whether handling succeeded.
+            duplicates.incrementAndGet();
+            retryLater(exchange);
+            return;
+        }
+        try {
+            handlerExecutor.execute(() -> dispatch(exchange, event));
+        } catch (RejectedExecutionException ex) {
+            deliveries.remove(event.getId(), Delivery.IN_PROGRESS);
+            rejected.incrementAndGet();
+            retryLater(exchange);
+        }
+    }
+
+    private void dispatch(HttpExchange exchange, WebhookEvent event) {
+        int status;
+        try {
+            WebhookHandler handler = handlers.getOrDefault(event.getType(), defaultHandler);
+            if (handler != null) {
+                handler.handle(event);
+            }
+            deliveries.replace(event.getId(), Delivery.IN_PROGRESS, Delivery.HANDLED);
+            status = 200;
+        } catch (Exception ex) {
+            logger.warn("Failed to handle webhook event {}", event.getId(), ex);
+            deliveries.remove(event.getId(), Delivery.IN_PROGRESS);
+            failed.incrementAndGet();
+            status = 500;
+        }
+        try {
+            respond(exchange, status);
+        } catch (IOException ex) {
+            logger.debug("Failed to respond to webhook request", ex);
+        }
+    }
+
+    private Verification verify(String payload, String signatureJson) {
+        Signature signature;
+        try {
+            signature = (Signature) ProtoJson.fromJson(signatureJson, Signature.newBuilder());
+        } catch (RuntimeException ex) {
+            return Verification.INVALID;
+        }
+        Member member = lookUp(tokenMember.get());
+        if (member == null) {
+            return Verification.UNAVAILABLE;
+        }
+        if (verifies(member, payload, signature)) {
+            return Verification.VALID;
+        }
+        // Token might have rotated its keys since we looked the member up.
+        Member refreshed = lookUp(tokenMember.refresh());
+        if (refreshed == null) {
+            return Verification.UNAVAILABLE;
+        }
+        return refreshed != member && verifies(refreshed, payload, signature)
+                ? Verification.VALID
+                : Verification.INVALID;
+    }
+
+    @Nullable
+    private static Member lookUp(Observable<Member> member) {
+        try {
+            return member.blockingSingle();
+        } catch (RuntimeException ex) {
+            logger.warn("Failed to look up the Token member", ex);
+            return null;
+        }
+    }
+
+    private static boolean verifies(Member member, String payload, Signature signature) {
+        try {
+            verifySignature(member, payload, signature);
+            return true;
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    private static WebhookEvent parse(String json, byte[] body) {
+        JsonObject object = new JsonParser().parse(json).getAsJsonObject();
+        JsonElement id = object.get("id");
+        JsonElement type = object.has("type") ? object.get("type") : object.get("eventType");
+        JsonElement payload = object.get("payload");
+        return WebhookEvent.create(
+                id != null ? asString(id, "id") : Hashing.sha256().hashBytes(body).toString(),
+                type != null ? asString(type, "type") : "",
+                payload != null ? payload.toString() : json);
+    }
+
+    private static String asString(JsonElement element, String name) {
+        if (!element.isJsonPrimitive()) {
+            throw new JsonParseException("Field " + name + " is not a string: " + element);
+        }
+        return element.getAsString();
+    }
+
+    @Nullable
+    private byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (out.size() + read > maxBodyBytes) {
+                return null;
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void retryLater(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+        respond(exchange, 503);
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private enum Verification {
+        VALID,
+        INVALID,
+        UNAVAILABLE
+    }
+
+    private enum Delivery {
+        IN_PROGRESS,
+        HANDLED
+    }
+
+    /**
+     * Used to configure and create a {@link WebhookReceiver}.
+     */
+    public static final class Builder {
+        private static final int DEFAULT_IO_THREADS = 2;
+        private static final int DEFAULT_HANDLER_THREADS = 4;
+        private static final int DEFAULT_QUEUE_CAPACITY = 1_000;
+        private static final int DEFAULT_BACKLOG = 1_024;
+        private static final int DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+        private static final long DEFAULT_DEDUPE_CAPACITY = 100_000L;
+        private static final long DEFAULT_DEDUPE_TTL_MS = TimeUnit.HOURS.toMillis(24);
+
+        private final Observable<Member> tokenMember;
+        private final Map<String, WebhookHandler> handlers = new HashMap<>();
+        private WebhookHandler defaultHandler;
+        private String host;
+        private int port;
+        private String path = "/";
+        private String signatureHeader = SIGNATURE_HEADER;
+        private int ioThreads = DEFAULT_IO_THREADS;
+        private int handlerThreads = DEFAULT_HANDLER_THREADS;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private int backlog = DEFAULT_BACKLOG;
+        private int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+        private long dedupeCapacity = DEFAULT_DEDUPE_CAPACITY;
+        private long dedupeTtlMs = DEFAULT_DEDUPE_TTL_MS;
+        private long tokenMemberTtlMs = TokenMemberCache.DEFAULT_TTL_MS;
+        private long tokenMemberRefreshMs = TokenMemberCache.DEFAULT_MIN_REFRESH_INTERVAL_MS;
+
+        private Builder(Observable<Member> tokenMember) {
+            this.tokenMember = tokenMember;
+        }
+
+        /**
+         * Sets the address to listen on. By default the receiver listens on all interfaces.
+         *
+         * @param host host name or IP address
+         * @param port port, or 0 to pick a free one
+         * @return this builder instance
+         */
+        public Builder listen(@Nullable String host, int port) {
+            this.host = host;
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Sets the port to listen on.
+         *
+         * @param port port, or 0 to pick a free one
+         * @return this builder instance
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Sets the path of the webhook URL.
+         *
+         * @param path path, e.g. "/token/webhook"
+         * @return this builder instance
+         */
+        public Builder path(String path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * Sets the name of the header that carries the signature.
+         *
+         * @param signatureHeader header name
+         * @return this builder instance
+         */
+        public Builder signatureHeader(String signatureHeader) {
+            this.signatureHeader = signatureHeader;
+            return this;
+        }
+
+        /**
+         * Registers a handler for an event type, e.g. "TRANSFER_STATUS_CHANGED".
+         *
+         * @param eventType event type
+         * @param handler handler
+         * @return this builder instance
+         */
+        public Builder handler(String eventType, WebhookHandler handler) {
+            this.handlers.put(eventType, handler);
+            return this;
+        }
+
+        /**
+         * Registers a handler for the event types without a handler of their own. Events
+         * without a handler are acknowledged and dropped.
+         *
+         * @param handler handler
+         * @return this builder instance
+         */
+        public Builder defaultHandler(WebhookHandler handler) {
+            this.defaultHandler = handler;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that read and verify requests.
+         *
+         * @param ioThreads number of threads
+         * @return this builder instance
+         */
+        public Builder ioThreads(int ioThreads) {
+            Preconditions.checkArgument(ioThreads > 0, "ioThreads must be > 0");
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that run handlers and the number of events that can
+         * wait for one. Events beyond that are turned away with 503.
+         *
+         * @param handlerThreads number of threads
+         * @param queueCapacity max number of waiting events
+         * @return this builder instance
+         */
+        public Builder handlerPool(int handlerThreads, int queueCapacity) {
+            Preconditions.checkArgument(handlerThreads > 0, "handlerThreads must be > 0");
+            Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be > 0");
+            this.handlerThreads = handlerThreads;
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Sets the max number of pending connections.
+         *
+         * @param backlog connection backlog
+         * @return this builder instance
+         */
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * Sets the max accepted request body size.
+         *
+         * @param maxBodyBytes max body size in bytes
+         * @return this builder instance
+         */
+        public Builder maxBodyBytes(int maxBodyBytes) {
+            Preconditions.checkArgument(maxBodyBytes > 0, "maxBodyBytes must be > 0");
+            this.maxBodyBytes = maxBodyBytes;
+            return this;
+        }
+
+        /**
+         * Sets how many handled event IDs are remembered, and for how long, to recognize
+         * redeliveries.
+         *
+         * @param capacity max number of remembered events
+         * @param ttlMs how long an event is remembered, in milliseconds
+         * @return this builder instance
+         */
+        public Builder dedupe(long capacity, long ttlMs) {
+            Preconditions.checkArgument(capacity > 0, "capacity must be > 0");
+            Preconditions.checkArgument(ttlMs > 0, "ttlMs must be > 0");
+            this.dedupeCapacity = capacity;
+            this.dedupeTtlMs = ttlMs;
+            return this;
+        }
+
+        /**
+         * Sets how long the Token member is kept, and how soon after a lookup it may be
+         * looked up again because a signature failed to verify.
+         *
+         * @param ttlMs how long the member is kept, in milliseconds
+         * @param minRefreshIntervalMs min time between lookups, in milliseconds
+         * @return this builder instance
+         */
+        public Builder tokenMemberCache(long ttlMs, long minRefreshIntervalMs) {
+            Preconditions.checkArgument(ttlMs > 0, "ttlMs must be > 0");
+            Preconditions.checkArgument(
+                    minRefreshIntervalMs >= 0,
+                    "minRefreshIntervalMs must be >= 0");
+            this.tokenMemberTtlMs = ttlMs;
+            this.tokenMemberRefreshMs = minRefreshIntervalMs;
+            return this;
+        }
+
+        /**
+         * Creates the receiver and binds it to its address. Call
+         * {@link WebhookReceiver#start()} to start accepting requests.
+         *
+         * @return receiver
+         */
+        public WebhookReceiver build() {
+            try {
+                return new WebhookReceiver(this);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to bind webhook receiver", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package io.token.tpp;
+
+import static io.token.proto.common.transaction.TransactionProtos.TransactionStatus.FAILURE_GENERIC;
+import static io.token.proto.common.transaction.TransactionProtos.TransactionStatus.PENDING;
+import static io.token.proto.common.transaction.TransactionProtos.TransactionStatus.SUCCESS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.token.proto.PagedList;
+import io.token.proto.common.transaction.TransactionProtos.TransactionStatus;
+import io.token.proto.common.transfer.TransferProtos.Transfer;
+import io.token.proto.common.transfer.TransferProtos.TransferPayload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+public class TransferStatusWatcherTest {
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final FakeTransfers transfers = new FakeTransfers();
+    private final TestScheduler scheduler = new TestScheduler();
+
+    @Test
+    public void isFinal() {
+        assertThat(TransferStatusWatcher.isFinal(SUCCESS)).isTrue();
+        assertThat(TransferStatusWatcher.isFinal(FAILURE_GENERIC)).isTrue();
+        assertThat(TransferStatusWatcher.isFinal(PENDING)).isFalse();
+    }
+
+    @Test
+    public void emitsTransitionsUntilFinal() {
+        TransferStatusWatcher watcher = watcher(1_000, 1_000, 0);
+        TestObserver<TransferStatusTransition> observer = watcher.statusTransitions().test();
+        watcher.watch(transfers.put("t:1", "tt:1", PENDING));
+
+        advanceAndPoll(watcher, 1_000);
+        observer.assertNoValues();
+
+        transfers.put("t:1", "tt:1", SUCCESS);
+        advanceAndPoll(watcher, 1_000);
+
+        observer.assertValueCount(1);
+        TransferStatusTransition transition = observer.values().get(0);
+        assertThat(transition.getPreviousStatus()).isEqualTo(PENDING);
+        assertThat(transition.getStatus()).isEqualTo(SUCCESS);
+        assertThat(watcher.size()).isZero();
+
+        advanceAndPoll(watcher, 1_000);
+        assertThat(transfers.lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void ignoresFinalTransfers() {
+        TransferStatusWatcher watcher = watcher(1_000, 1_000, 0);
+        watcher.watch(transfers.put("t:1", "tt:1", FAILURE_GENERIC));
+
+        assertThat(watcher.size()).isZero();
+    }
+
+    @Test
+    public void backsOffWhileStatusIsUnchanged() {
+        TransferStatusWatcher watcher = watcher(1_000, 8_000, 0.5);
+        watcher.watch(transfers.put("t:1", "tt:1", PENDING));
+
+        List<Long> lookupTimes = new ArrayList<>();
+        long start = now.get();
+        for (int step = 0; step < 600; step++) {
+            int before = transfers.lookups.get();
+            advanceAndPoll(watcher, 100);
+            if (transfers.lookups.get() > before) {
+                lookupTimes.add(now.get() - start);
+            }
+        }
+
+        List<Long> gaps = new ArrayList<>();
+        for (int i = 1; i < lookupTimes.size(); i++) {
+            gaps.add(lookupTimes.get(i) - lookupTimes.get(i - 1));
+        }
+        assertThat(lookupTimes.get(0)).isEqualTo(1_000);
+        assertThat(gaps).isSorted();
+        assertThat(gaps.get(0)).isEqualTo(1_000);
+        assertThat(gaps.get(gaps.size() - 1)).isEqualTo(8_000);
+    }
+
+    @Test
+    public void retriesFailedLookups() {
+        TransferStatusWatcher watcher = watcher(1_000, 1_000, 0);
+        TestObserver<TransferStatusTransition> observer = watcher.statusTransitions().test();
+        watcher.watch(transfers.put("t:1", "tt:1", PENDING));
+        transfers.failing = true;
+
+        advanceAndPoll(watcher, 1_000);
+        advanceAndPoll(watcher, 500);
+        assertThat(transfers.lookups.get()).isEqualTo(1);
+
+        transfers.failing = false;
+        transfers.put("t:1", "tt:1", SUCCESS);
+        advanceAndPoll(watcher, 500);
+
+        assertThat(transfers.lookups.get()).isEqualTo(2);
+        observer.assertValueCount(1);
+        assertThat(watcher.size()).isZero();
+    }
+
+    @Test
+    public void scansInBulk() {
+        TransferStatusWatcher watcher = TransferStatusWatcher.builder(transfers)
+                .clock(now::get)
+                .scheduler(scheduler)
+                .backoff(1_000, 1_000, 0)
+                .paging(100, 5, 10)
+                .build();
+        for (int i = 0; i < 50; i++) {
+            watcher.watch(transfers.put("t:" + i, "tt:" + i, PENDING));
+        }
+
+        advanceAndPoll(watcher, 1_000);
+
+        assertThat(transfers.pages.get()).isEqualTo(1);
+        assertThat(transfers.lookups.get()).isZero();
+    }
+
+    @Test
+    public void unwatchAndCloseStopPolling() {
+        TransferStatusWatcher watcher = TransferStatusWatcher.builder(transfers)
+                .clock(now::get)
+                .scheduler(scheduler)
+                .tick(100)
+                .backoff(1_000, 1_000, 0)
+                .build();
+        TestObserver<TransferStatusTransition> observer = watcher.statusTransitions().test();
+        watcher.watch(transfers.put("t:1", "tt:1", PENDING));
+        watcher.watch(transfers.put("t:2", "tt:2", PENDING));
+
+        now.addAndGet(1_000);
+        scheduler.advanceTimeBy(100, MILLISECONDS);
+        assertThat(transfers.lookups.get()).isEqualTo(2);
+
+        watcher.unwatch("t:1");
+        now.addAndGet(1_000);
+        scheduler.advanceTimeBy(100, MILLISECONDS);
+        assertThat(transfers.lookups.get()).isEqualTo(3);
+
+        watcher.close();
+        observer.assertComplete();
+        now.addAndGet(1_000);
+        scheduler.advanceTimeBy(1_000, MILLISECONDS);
+        assertThat(transfers.lookups.get()).isEqualTo(3);
+    }
+
+    private TransferStatusWatcher watcher(long minMs, long maxMs, double factor) {
+        return TransferStatusWatcher.builder(transfers)
+                .clock(now::get)
+                .scheduler(scheduler)
+                .backoff(minMs, maxMs, factor)
+                .build();
+    }
+
+    private void advanceAndPoll(TransferStatusWatcher watcher, long ms) {
+        now.addAndGet(ms);
+        watcher.poll();
+    }
+
+    private static class FakeTransfers implements TransferStatusWatcher.TransferSource {
+        private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+        private final AtomicInteger lookups = new AtomicInteger();
+        private final AtomicInteger pages = new AtomicInteger();
+        private volatile boolean failing;
+
+        private Transfer put(String transferId, String tokenId, TransactionStatus status) {
+            Transfer transfer = Transfer.newBuilder()
+                    .setId(transferId)
+                    .setStatus(status)
+                    .setPayload(TransferPayload.newBuilder().setTokenId(tokenId))
+                    .build();
+            transfers.put(transferId, transfer);
+            return transfer;
+        }
+
+        @Override
+        public Observable<Transfer> getTransfer(String transferId) {
+            lookups.incrementAndGet();
+            return failing
+                    ? Observable.error(new IllegalStateException("unavailable"))
+                    : Observable.just(transfers.get(transferId));
+        }
+
+        @Override
+        public Observable<PagedList<Transfer, String>> getTransfers(
+                @Nullable String offset,
+                int limit,
+                @Nullable String tokenId) {
+            pages.incrementAndGet();
+            List<Transfer> page = new ArrayList<>();
+            for (Transfer transfer : transfers.values()) {
+                if (tokenId == null || tokenId.equals(transfer.getPayload().getTokenId())) {
+                    page.add(transfer);
+                }
+            }
+            return Observable.just(PagedList.create(page, ""));
+        }
+    }
+}
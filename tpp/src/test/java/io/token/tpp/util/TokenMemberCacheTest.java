@@ -0,0 +1,123 @@
+package io.token.tpp.util;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+import io.token.proto.common.member.MemberProtos.Member;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class TokenMemberCacheTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+    private final TokenMemberCache cache = new TokenMemberCache(
+            Observable.defer(() -> Observable.just(Member.newBuilder()
+                    .setId("token")
+                    .setLastHash("lookup-" + lookups.incrementAndGet())
+                    .build())),
+            60_000,
+            5_000,
+            1_000,
+            ticker);
+
+    @Test
+    public void keepsMemberUntilTtl() {
+        Member member = cache.get().blockingSingle();
+
+        advance(59_000);
+        assertThat(cache.get().blockingSingle()).isSameAs(member);
+
+        advance(1_000);
+        assertThat(cache.get().blockingSingle()).isNotEqualTo(member);
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void limitsEarlyLookups() {
+        Member member = cache.get().blockingSingle();
+
+        advance(1_000);
+        assertThat(cache.refresh().blockingSingle()).isSameAs(member);
+        assertThat(lookups.get()).isEqualTo(1);
+
+        advance(4_000);
+        assertThat(cache.refresh().blockingSingle()).isNotEqualTo(member);
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void failsSlowLookups() {
+        TokenMemberCache slow = new TokenMemberCache(Observable.never(), 60_000, 0, 10);
+
+        assertThat(slow.get().materialize().blockingFirst().getError())
+                .isInstanceOf(TimeoutException.class);
+    }
+
+    @Test
+    public void sharesLookupInFlight() {
+        PublishSubject<Member> lookup = PublishSubject.create();
+        TokenMemberCache pending = new TokenMemberCache(
+                Observable.defer(() -> {
+                    lookups.incrementAndGet();
+                    return lookup;
+                }),
+                60_000,
+                0,
+                1_000,
+                ticker);
+
+        TestObserver<Member> first = pending.get().test();
+        TestObserver<Member> second = pending.get().test();
+        TestObserver<Member> third = pending.refresh().test();
+        assertThat(lookups.get()).isEqualTo(1);
+
+        Member member = Member.newBuilder().setId("token").build();
+        lookup.onNext(member);
+        lookup.onComplete();
+        first.assertValue(member);
+        second.assertValue(member);
+        third.assertValue(member);
+    }
+
+    @Test
+    public void sharesFailedLookupAndRetriesAfterIt() {
+        PublishSubject<Member> lookup = PublishSubject.create();
+        TokenMemberCache pending = new TokenMemberCache(
+                Observable.defer(() -> {
+                    lookups.incrementAndGet();
+                    return lookup;
+                }),
+                60_000,
+                0,
+                1_000,
+                ticker);
+
+        TestObserver<Member> first = pending.refresh().test();
+        TestObserver<Member> second = pending.refresh().test();
+        lookup.onError(new IllegalStateException("unavailable"));
+        first.assertError(IllegalStateException.class);
+        second.assertError(IllegalStateException.class);
+        assertThat(lookups.get()).isEqualTo(1);
+
+        pending.refresh().test();
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    private void advance(long ms) {
+        nanos.addAndGet(MILLISECONDS.toNanos(ms));
+    }
+}
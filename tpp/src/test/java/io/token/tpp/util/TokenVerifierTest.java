@@ -0,0 +1,174 @@
+package io.token.tpp.util;
+
+import static io.token.proto.ProtoJson.toJson;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.PRIVILEGED;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static io.token.proto.common.token.TokenProtos.TokenSignature.Action.ENDORSED;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+import io.reactivex.Observable;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.security.SecurityProtos.Signature;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.token.TokenProtos.TokenPayload;
+import io.token.proto.common.token.TokenProtos.TokenSignature;
+import io.token.security.BatchVerifier;
+import io.token.security.CryptoEngine;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.Signer;
+import io.token.security.TokenCryptoEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TokenVerifierTest {
+    private static final int TOKENS = 2_000;
+
+    private final CryptoEngine crypto = new TokenCryptoEngine("m:payer", new InMemoryKeyStore());
+    private final Member payer = Member.newBuilder()
+            .setId("m:payer")
+            .addKeys(crypto.generateKey(STANDARD))
+            .build();
+    private final Signer signer = crypto.createSigner(STANDARD);
+    private final AtomicReference<Member> current = new AtomicReference<>(payer);
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicLong nanos = new AtomicLong();
+    private final TokenVerifier verifier = new TokenVerifier(
+            BatchVerifier.builder().build(),
+            new VerifierRegistry(10),
+            10,
+            60_000,
+            5_000,
+            new Ticker() {
+                @Override
+                public long read() {
+                    return nanos.get();
+                }
+            });
+
+    @Test
+    public void verifiesPayloadSignatures() {
+        Token valid = token(1);
+        Token tampered = valid.toBuilder()
+                .setPayload(valid.getPayload().toBuilder().setRefId("other"))
+                .build();
+        Token unknownSigner = valid.toBuilder()
+                .setPayloadSignatures(0, valid.getPayloadSignatures(0).toBuilder()
+                        .setSignature(valid.getPayloadSignatures(0).getSignature().toBuilder()
+                                .setMemberId("m:unknown")))
+                .build();
+
+        List<VerifiedToken> verified = verify(valid, tampered, unknownSigner);
+
+        assertThat(verified.get(0).isVerified()).isTrue();
+        assertThat(verified.get(0).getToken()).isEqualTo(valid);
+        assertThat(verified.get(1).getFailedSignatures())
+                .containsExactly(tampered.getPayloadSignatures(0));
+        assertThat(verified.get(2).isVerified()).isFalse();
+    }
+
+    @Test
+    public void fetchesEachSignerOnce() {
+        verify(token(1), token(2));
+        verify(token(3));
+
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void fetchesSignerAgainForNewKeys() {
+        verify(token(1));
+        current.set(payer.toBuilder().addKeys(crypto.generateKey(PRIVILEGED)).build());
+        Signer newSigner = crypto.createSigner(PRIVILEGED);
+
+        assertThat(verify(token(2, newSigner)).get(0).isVerified()).isTrue();
+        assertThat(fetches.get()).isEqualTo(2);
+
+        Token signed = token(3);
+        Token unknownKey = signed.toBuilder()
+                .setPayloadSignatures(0, signed.getPayloadSignatures(0).toBuilder()
+                        .setSignature(signed.getPayloadSignatures(0).getSignature().toBuilder()
+                                .setKeyId("unknown")))
+                .build();
+        assertThat(verify(unknownKey).get(0).isVerified()).isFalse();
+        assertThat(fetches.get()).isEqualTo(2);
+
+        nanos.addAndGet(MILLISECONDS.toNanos(5_000));
+        assertThat(verify(unknownKey).get(0).isVerified()).isFalse();
+        assertThat(fetches.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void doesNotVerifyUnsignedTokens() {
+        Token unsigned = token(1).toBuilder().clearPayloadSignatures().build();
+
+        VerifiedToken verified = verify(unsigned).get(0);
+
+        assertThat(verified.isVerified()).isFalse();
+        assertThat(verified.getFailedSignatures()).isEmpty();
+    }
+
+    @Test
+    public void verifiesLargeBatches() {
+        List<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < TOKENS; i++) {
+            Token token = token(i);
+            tokens.add(i % 100 == 7
+                    ? token.toBuilder()
+                            .setPayload(token.getPayload().toBuilder().setRefId("other"))
+                            .build()
+                    : token);
+        }
+
+        List<VerifiedToken> verified = verify(tokens.toArray(new Token[0]));
+
+        assertThat(verified).hasSize(TOKENS);
+        for (int i = 0; i < TOKENS; i++) {
+            assertThat(verified.get(i).getToken()).isEqualTo(tokens.get(i));
+            assertThat(verified.get(i).isVerified()).isEqualTo(i % 100 != 7);
+        }
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    private List<VerifiedToken> verify(Token... tokens) {
+        List<Token> list = new ArrayList<>();
+        Collections.addAll(list, tokens);
+        return verifier
+                .verify(list, memberId -> {
+                    fetches.incrementAndGet();
+                    return memberId.equals(payer.getId())
+                            ? Observable.just(current.get())
+                            : Observable.error(new IllegalArgumentException(memberId));
+                })
+                .blockingSingle();
+    }
+
+    private Token token(int i) {
+        return token(i, signer);
+    }
+
+    private Token token(int i, Signer signer) {
+        TokenPayload payload = TokenPayload.newBuilder()
+                .setVersion("1.0")
+                .setRefId("ref-" + i)
+                .build();
+        return Token.newBuilder()
+                .setId("tt:" + i)
+                .setPayload(payload)
+                .addPayloadSignatures(TokenSignature.newBuilder()
+                        .setAction(ENDORSED)
+                        .setSignature(Signature.newBuilder()
+                                .setMemberId(payer.getId())
+                                .setKeyId(signer.getKeyId())
+                                .setSignature(signer.sign(toJson(payload) + ".endorsed"))))
+                .build();
+    }
+}
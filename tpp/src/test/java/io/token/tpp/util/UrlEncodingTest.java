@@ -0,0 +1,48 @@
+package io.token.tpp.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URLEncoder;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class UrlEncodingTest {
+    @Test
+    public void urlEncode_matchesUrlEncoder() throws Exception {
+        String[] inputs = {
+                "",
+                "plain-text_1.2*",
+                "a b&c=d/e?f#g%h+i",
+                "{\"csrfTokenHash\":\"x\",\"innerState\":\"ünïcödé €\"}",
+                "emoji 😀 and lone \uD800 surrogate",
+        };
+        for (String input : inputs) {
+            assertThat(Util.urlEncode(input)).isEqualTo(URLEncoder.encode(input, "UTF-8"));
+        }
+    }
+
+    @Test
+    public void parseQueryString() {
+        Map<String, String> params = Util.parseQueryString("tokenId=tt%3A1&state=a%3Db&flag&&x=");
+
+        assertThat(params)
+                .containsEntry("tokenId", "tt%3A1")
+                .containsEntry("state", "a%3Db")
+                .containsEntry("flag", "")
+                .containsEntry("x", "")
+                .hasSize(4);
+    }
+
+    @Test
+    public void parseQueryString_region() {
+        String url = "https://tpp.com/callback?tokenId=tt&state=s#fragment";
+        int start = url.indexOf('?') + 1;
+        int end = url.indexOf('#');
+
+        assertThat(Util.parseQueryString(url, start, end))
+                .containsEntry("tokenId", "tt")
+                .containsEntry("state", "s")
+                .hasSize(2);
+    }
+}
@@ -0,0 +1,115 @@
+package io.token.tpp.util;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.security.SecurityProtos.Signature;
+import io.token.proto.common.token.TokenProtos.TokenPayload;
+import io.token.security.CryptoEngine;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.KeyNotFoundException;
+import io.token.security.Signer;
+import io.token.security.TokenCryptoEngine;
+import io.token.security.Verifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class VerifierRegistryTest {
+    private final CryptoEngine crypto = new TokenCryptoEngine("m:1", new InMemoryKeyStore());
+    private final Key lowKey = crypto.generateKey(LOW);
+    private final Key standardKey = crypto.generateKey(STANDARD);
+    private final VerifierRegistry registry = new VerifierRegistry(10);
+
+    @Test
+    public void reusesVerifiers() {
+        Member member = member(lowKey);
+        Verifier verifier = registry.verifierFor(member, lowKey.getId());
+
+        assertThat(registry.verifierFor(member, lowKey.getId())).isSameAs(verifier);
+        assertThat(registry.verifierFor(member.toBuilder().build(), lowKey.getId()))
+                .isSameAs(verifier);
+    }
+
+    @Test
+    public void followsKeyChanges() {
+        Verifier verifier = registry.verifierFor(member(lowKey), lowKey.getId());
+
+        Member added = member(lowKey, standardKey);
+        assertThat(registry.verifierFor(added, lowKey.getId())).isSameAs(verifier);
+        assertThat(registry.verifierFor(added, standardKey.getId())).isNotNull();
+
+        Member removed = member(standardKey);
+        assertThatThrownBy(() -> registry.verifierFor(removed, lowKey.getId()))
+                .isInstanceOf(KeyNotFoundException.class);
+
+        Member changed = member(lowKey.toBuilder().setLevel(STANDARD).build());
+        assertThat(registry.verifierFor(changed, lowKey.getId())).isNotSameAs(verifier);
+    }
+
+    @Test
+    public void invalidate() {
+        Member member = member(lowKey);
+        Verifier verifier = registry.verifierFor(member, lowKey.getId());
+
+        registry.invalidate(member.getId());
+
+        assertThat(registry.verifierFor(member, lowKey.getId())).isNotSameAs(verifier);
+    }
+
+    @Test
+    public void fingerprintDependsOnKeysAndOrder() {
+        long fingerprint = VerifierRegistry.fingerprint(Arrays.asList(lowKey, standardKey));
+
+        assertThat(VerifierRegistry.fingerprint(Arrays.asList(lowKey, standardKey)))
+                .isEqualTo(fingerprint);
+        assertThat(VerifierRegistry.fingerprint(Arrays.asList(standardKey, lowKey)))
+                .isNotEqualTo(fingerprint);
+        assertThat(VerifierRegistry.fingerprint(Collections.singletonList(lowKey)))
+                .isNotEqualTo(fingerprint);
+    }
+
+    @Test
+    public void verifySignatures() {
+        Member member = member(lowKey, standardKey);
+        Signer signer = crypto.createSigner(LOW);
+        List<TokenPayload> payloads = new ArrayList<>();
+        List<Signature> signatures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            TokenPayload payload = TokenPayload.newBuilder().setRefId("ref-" + i).build();
+            payloads.add(payload);
+            signatures.add(Signature.newBuilder()
+                    .setMemberId(member.getId())
+                    .setKeyId(signer.getKeyId())
+                    .setSignature(signer.sign(payload))
+                    .build());
+        }
+
+        Util.verifySignatures(member, payloads, signatures);
+
+        List<Signature> swapped = new ArrayList<>(signatures);
+        Collections.swap(swapped, 0, 1);
+        assertThatThrownBy(() -> Util.verifySignatures(member, payloads, swapped))
+                .isInstanceOf(RuntimeException.class);
+        assertThatThrownBy(() -> Util.verifySignatures(
+                member,
+                payloads,
+                signatures.subList(0, 9)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Member member(Key... keys) {
+        return Member.newBuilder()
+                .setId("m:1")
+                .addAllKeys(Arrays.asList(keys))
+                .build();
+    }
+}
@@ -0,0 +1,221 @@
+package io.token.tpp.webhook;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.token.proto.ProtoJson;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.security.SecurityProtos.Signature;
+import io.token.security.CryptoEngine;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.Signer;
+import io.token.security.TokenCryptoEngine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebhookReceiverLoadTest {
+    private static final int SENDERS = 16;
+    private static final int EVENTS = 2_000;
+    private static final int DELIVERIES_PER_EVENT = 2;
+
+    private final ConcurrentMap<String, AtomicInteger> handledEvents = new ConcurrentHashMap<>();
+    private Member tokenMember;
+    private Signer signer;
+    private WebhookReceiver receiver;
+
+    @Before
+    public void setUp() {
+        CryptoEngine crypto = new TokenCryptoEngine("token", new InMemoryKeyStore());
+        tokenMember = Member.newBuilder()
+                .setId("token")
+                .addKeys(crypto.generateKey(LOW))
+                .build();
+        signer = crypto.createSigner(LOW);
+        receiver = WebhookReceiver.builder(Observable.just(tokenMember))
+                .listen("127.0.0.1", 0)
+                .handlerPool(4, 64)
+                .handler("TRANSFER_STATUS_CHANGED", event -> handledEvents
+                        .computeIfAbsent(event.getId(), id -> new AtomicInteger())
+                        .incrementAndGet())
+                .build()
+                .start();
+    }
+
+    @After
+    public void tearDown() {
+        receiver.close();
+    }
+
+    @Test
+    public void handlesEveryEventOnce() throws Exception {
+        ExecutorService senders = Executors.newFixedThreadPool(SENDERS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < EVENTS * DELIVERIES_PER_EVENT; i++) {
+            String id = "event-" + (i % EVENTS);
+            results.add(senders.submit(() -> deliver(id)));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        senders.shutdown();
+
+        assertThat(handledEvents).hasSize(EVENTS);
+        for (AtomicInteger count : handledEvents.values()) {
+            assertThat(count.get()).isEqualTo(1);
+        }
+        assertThat(receiver.getDuplicateCount()).isGreaterThanOrEqualTo(EVENTS);
+        assertThat(receiver.getInvalidCount()).isZero();
+        assertThat(receiver.getFailedCount()).isZero();
+        assertThat(receiver.getUnavailableCount()).isZero();
+        assertThat(receiver.getReceivedCount()).isEqualTo(
+                EVENTS + receiver.getDuplicateCount() + receiver.getRejectedCount());
+    }
+
+    @Test
+    public void retriesWhenTokenMemberLookupFails() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        try (WebhookReceiver failing = WebhookReceiver
+                .builder(Observable.defer(() -> {
+                    lookups.incrementAndGet();
+                    return Observable.<Member>error(new IllegalStateException("unavailable"));
+                }))
+                .listen("127.0.0.1", 0)
+                .defaultHandler(event -> handledEvents
+                        .computeIfAbsent(event.getId(), id -> new AtomicInteger())
+                        .incrementAndGet())
+                .build()
+                .start()) {
+            String body = body("event-1");
+
+            assertThat(post(failing, body, ProtoJson.toJson(sign(body)))).isEqualTo(503);
+            assertThat(failing.getUnavailableCount()).isEqualTo(1);
+            assertThat(failing.getInvalidCount()).isZero();
+            assertThat(lookups.get()).isEqualTo(1);
+            assertThat(handledEvents).isEmpty();
+        }
+    }
+
+    @Test
+    public void looksUpTokenMemberAgainWhenKeysChange() throws Exception {
+        CryptoEngine rotated = new TokenCryptoEngine("token", new InMemoryKeyStore());
+        Member rotatedMember = Member.newBuilder()
+                .setId("token")
+                .addKeys(rotated.generateKey(LOW))
+                .build();
+        List<Member> members = new ArrayList<>();
+        members.add(tokenMember);
+        AtomicInteger lookups = new AtomicInteger();
+        try (WebhookReceiver refreshing = WebhookReceiver
+                .builder(Observable.defer(() -> Observable.just(
+                        members.get(Math.min(lookups.getAndIncrement(), members.size() - 1)))))
+                .listen("127.0.0.1", 0)
+                .tokenMemberCache(60_000, 0)
+                .defaultHandler(event -> { })
+                .build()
+                .start()) {
+            String first = body("event-1");
+            assertThat(post(refreshing, first, ProtoJson.toJson(sign(first)))).isEqualTo(200);
+            assertThat(lookups.get()).isEqualTo(1);
+
+            members.add(rotatedMember);
+            signer = rotated.createSigner(LOW);
+            String second = body("event-2");
+            assertThat(post(refreshing, second, ProtoJson.toJson(sign(second))))
+                    .isEqualTo(200);
+            assertThat(lookups.get()).isEqualTo(2);
+
+            String third = body("event-3");
+            assertThat(post(refreshing, third, ProtoJson.toJson(sign(third)))).isEqualTo(200);
+            assertThat(lookups.get()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidSignature() throws Exception {
+        String body = body("event-1");
+        Signature signature = sign(body("event-2"));
+
+        assertThat(post(body, ProtoJson.toJson(signature))).isEqualTo(401);
+        assertThat(post(body, null)).isEqualTo(401);
+        assertThat(handledEvents).isEmpty();
+    }
+
+    @Test
+    public void rejectsEventsWithMalformedFields() throws Exception {
+        String objectId = "{\"id\":{\"value\":\"event-1\"},"
+                + "\"type\":\"TRANSFER_STATUS_CHANGED\",\"payload\":{}}";
+        String nullType = "{\"id\":\"event-2\",\"type\":null,\"payload\":{}}";
+        String arrayType = "{\"id\":\"event-3\",\"type\":[\"TRANSFER_STATUS_CHANGED\"],"
+                + "\"payload\":{}}";
+
+        assertThat(post(objectId, ProtoJson.toJson(sign(objectId)))).isEqualTo(400);
+        assertThat(post(nullType, ProtoJson.toJson(sign(nullType)))).isEqualTo(400);
+        assertThat(post(arrayType, ProtoJson.toJson(sign(arrayType)))).isEqualTo(400);
+        assertThat(handledEvents).isEmpty();
+
+        String body = body("event-4");
+        assertThat(post(body, ProtoJson.toJson(sign(body)))).isEqualTo(200);
+    }
+
+    private Void deliver(String id) throws IOException, InterruptedException {
+        String body = body(id);
+        String signature = ProtoJson.toJson(sign(body));
+        int status;
+        while ((status = post(body, signature)) == 503) {
+            Thread.sleep(5);
+        }
+        assertThat(status).isEqualTo(200);
+        return null;
+    }
+
+    private int post(String body, String signature) throws IOException {
+        return post(receiver, body, signature);
+    }
+
+    private static int post(WebhookReceiver receiver, String body, String signature)
+            throws IOException {
+        URL url = new URL("http://127.0.0.1:" + receiver.getPort() + "/");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (signature != null) {
+            connection.setRequestProperty(WebhookReceiver.SIGNATURE_HEADER, signature);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(UTF_8));
+        }
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        return status;
+    }
+
+    private Signature sign(String body) {
+        return Signature.newBuilder()
+                .setMemberId("token")
+                .setKeyId(signer.getKeyId())
+                .setSignature(signer.sign(body))
+                .build();
+    }
+
+    private static String body(String id) {
+        return "{\"id\":\"" + id + "\",\"type\":\"TRANSFER_STATUS_CHANGED\","
+                + "\"payload\":{\"transferId\":\"t:" + id + "\",\"status\":\"SUCCESS\"}}";
+    }
+}
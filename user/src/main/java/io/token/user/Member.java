@@ -27,9 +27,11 @@ import static io.token.proto.common.blob.BlobProtos.Blob.AccessMode.PUBLIC;
 import static io.token.user.util.Util.findFirstCapturingGroup;
 import static io.token.user.util.Util.generateNonce;
 import static io.token.user.util.Util.getWebAppUrl;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import io.grpc.Deadline;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
@@ -112,6 +114,33 @@ public class Member extends io.token.Member {
         this.browserFactory = browserFactory;
     }
 
+    @Override
+    public Member withTimeout(long timeoutMs) {
+        return withDeadline(Deadline.after(timeoutMs, MILLISECONDS));
+    }
+
+    @Override
+    public Member withDeadline(Deadline deadline) {
+        return new Member(
+                memberId,
+                partnerId,
+                realmId,
+                client.withDeadline(deadline),
+                cluster,
+                browserFactory);
+    }
+
+    @Override
+    public Member withMaxStaleness(long maxStalenessMs) {
+        return new Member(
+                memberId,
+                partnerId,
+                realmId,
+                client.withMaxStaleness(maxStalenessMs),
+                cluster,
+                browserFactory);
+    }
+
     /**
      * Links a funding bank account to Token and returns it to the caller.
      *
@@ -32,11 +32,11 @@ import static java.util.Arrays.asList;
 
 import com.google.common.annotations.VisibleForTesting;
 import io.grpc.ManagedChannel;
-import io.grpc.Metadata;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.functions.Function;
 import io.token.DeviceInfo;
+import io.token.idempotency.IdempotencyLedger;
 import io.token.proto.common.alias.AliasProtos.Alias;
 import io.token.proto.common.blob.BlobProtos;
 import io.token.proto.common.member.MemberProtos.MemberRecoveryOperation;
@@ -47,7 +47,6 @@ import io.token.proto.common.notification.NotificationProtos.NotifyStatus;
 import io.token.proto.common.security.SecurityProtos;
 import io.token.proto.common.token.TokenProtos.TokenPayload;
 import io.token.proto.common.token.TokenProtos.TokenRequestOptions;
-import io.token.rpc.client.lite.RpcChannelFactoryLite;
 import io.token.security.CryptoEngine;
 import io.token.security.CryptoEngineFactory;
 import io.token.security.InMemoryKeyStore;
@@ -78,7 +77,25 @@ public class TokenClient extends io.token.TokenClient {
             CryptoEngineFactory cryptoFactory,
             TokenCluster tokenCluster,
             BrowserFactory browserFactory) {
-        super(channel, cryptoFactory, tokenCluster);
+        this(channel, cryptoFactory, tokenCluster, browserFactory, null);
+    }
+
+    /**
+     * Creates an instance of a Token SDK.
+     *
+     * @param channel GRPC channel
+     * @param cryptoFactory crypto factory instance
+     * @param tokenCluster token cluster
+     * @param browserFactory browser factory
+     * @param idempotencyLedger ledger used to deduplicate retried creations, or null
+     */
+    protected TokenClient(
+            ManagedChannel channel,
+            CryptoEngineFactory cryptoFactory,
+            TokenCluster tokenCluster,
+            BrowserFactory browserFactory,
+            @Nullable IdempotencyLedger idempotencyLedger) {
+        super(channel, cryptoFactory, tokenCluster, idempotencyLedger);
         this.browserFactory = browserFactory;
     }
 
@@ -164,7 +181,8 @@ public class TokenClient extends io.token.TokenClient {
                         final Client client = ClientFactory.authenticated(
                                 channel,
                                 mem.memberId(),
-                                crypto);
+                                crypto,
+                                idempotencyLedger);
                         return new Member(
                                 mem.memberId(),
                                 mem.partnerId(),
@@ -239,7 +257,11 @@ public class TokenClient extends io.token.TokenClient {
     @VisibleForTesting
     public Observable<Member> setUpMember(final Alias alias, final String memberId) {
         CryptoEngine crypto = cryptoFactory.create(memberId);
-        final Client client = ClientFactory.authenticated(channel, memberId, crypto);
+        final Client client = ClientFactory.authenticated(
+                channel,
+                memberId,
+                crypto,
+                idempotencyLedger);
         return setUpMemberImpl(alias, memberId, null)
                 .map(new Function<io.token.Member, Member>() {
                     @Override
@@ -257,13 +279,23 @@ public class TokenClient extends io.token.TokenClient {
 
     /**
      * Return a Member set up to use some Token member's keys (assuming we have them).
+     * If the client was built with a member registry, a member looked up before is
+     * returned from it.
      *
      * @param memberId member id
      * @return member
      */
     public Observable<Member> getMember(String memberId) {
+        return getRegisteredMember(memberId, this::fetchMember);
+    }
+
+    private Observable<Member> fetchMember(String memberId) {
         CryptoEngine crypto = cryptoFactory.create(memberId);
-        final Client client = ClientFactory.authenticated(channel, memberId, crypto);
+        final Client client = ClientFactory.authenticated(
+                channel,
+                memberId,
+                crypto,
+                idempotencyLedger);
         return getMemberImpl(memberId, client)
                 .map(new Function<io.token.Member, Member>() {
                     @Override
@@ -310,7 +342,8 @@ public class TokenClient extends io.token.TokenClient {
                         final Client client = ClientFactory.authenticated(
                                 channel,
                                 mem.memberId(),
-                                cryptoEngine);
+                                cryptoEngine,
+                                idempotencyLedger);
                         return new Member(
                                 mem.memberId(),
                                 mem.partnerId(),
@@ -361,7 +394,8 @@ public class TokenClient extends io.token.TokenClient {
                         final Client client = ClientFactory.authenticated(
                                 channel,
                                 mem.memberId(),
-                                cryptoEngine);
+                                cryptoEngine,
+                                idempotencyLedger);
                         return new Member(
                                 mem.memberId(),
                                 mem.partnerId(),
@@ -658,19 +692,14 @@ public class TokenClient extends io.token.TokenClient {
 
         @Override
         public TokenClient build() {
-            Metadata headers = getHeaders();
-            return new TokenClient(
-                    RpcChannelFactoryLite.getInstance()
-                            .builder(hostName, port, useSsl)
-                            .withTimeout(timeoutMs)
-                            .withMetadata(headers)
-                            .withClientSsl(sslConfig)
-                            .build(),
+            return configured(new TokenClient(
+                    buildChannel(),
                     cryptoEngine != null
                             ? cryptoEngine
                             : new TokenCryptoEngineFactory(new InMemoryKeyStore()),
                     tokenCluster == null ? SANDBOX : tokenCluster,
-                    browserFactory);
+                    browserFactory,
+                    getIdempotencyLedger()));
         }
 
         @Override
@@ -28,8 +28,12 @@ import static io.token.proto.common.token.TokenProtos.TokenSignature.Action.ENDO
 import static io.token.rpc.util.Converters.toCompletable;
 import static io.token.util.Util.toObservable;
 
+import io.grpc.Deadline;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.token.idempotency.IdempotencyLedger;
+import io.token.idempotency.IdempotentOperation;
+import io.token.idempotency.PagedSearch;
 import io.token.proto.PagedList;
 import io.token.proto.banklink.Banklink.BankAuthorization;
 import io.token.proto.common.account.AccountProtos.Account;
@@ -127,6 +131,8 @@ import javax.annotation.Nullable;
  * easier to use.
  */
 public final class Client extends io.token.rpc.Client {
+    private static final int RECONCILE_PAGE_SIZE = 100;
+
     /**
      * Creates a client instance.
      *
@@ -141,6 +147,46 @@ public final class Client extends io.token.rpc.Client {
         super(memberId, crypto, gateway);
     }
 
+    /**
+     * Creates a client instance.
+     *
+     * @param memberId member id
+     * @param crypto the crypto engine used to sign for authentication, request payloads, etc
+     * @param gateway gateway gRPC stub
+     * @param idempotencyLedger ledger used to make token and transfer retries safe, or null
+     */
+    Client(
+            String memberId,
+            CryptoEngine crypto,
+            GatewayProvider gateway,
+            @Nullable IdempotencyLedger idempotencyLedger) {
+        super(memberId, crypto, gateway, idempotencyLedger);
+    }
+
+    @Override
+    public Client withDeadline(Deadline deadline) {
+        Client updated = new Client(
+                memberId,
+                crypto,
+                withDeadline(gateway, deadline),
+                idempotencyLedger);
+        updated.customerInitiated = customerInitiated;
+        updated.customerTrackingMetadata = customerTrackingMetadata;
+        return updated;
+    }
+
+    @Override
+    public Client withMaxStaleness(long maxStalenessMs) {
+        Client updated = new Client(
+                memberId,
+                crypto,
+                withMaxStaleness(gateway, maxStalenessMs),
+                idempotencyLedger);
+        updated.customerInitiated = customerInitiated;
+        updated.customerTrackingMetadata = customerTrackingMetadata;
+        return updated;
+    }
+
     /**
      * Replaces a member's public profile.
      *
@@ -345,6 +391,43 @@ public final class Client extends io.token.rpc.Client {
      * @return token returned by server
      */
     public Observable<Token> createToken(
+            final TokenPayload payload,
+            @Nullable final String tokenRequestId,
+            final List<Signature> signatures) {
+        if (idempotencyLedger == null || payload.getRefId().isEmpty()) {
+            return submitToken(payload, tokenRequestId, signatures);
+        }
+        final GetTokensRequest.Type type = payload.hasAccess()
+                ? GetTokensRequest.Type.ACCESS
+                : GetTokensRequest.Type.TRANSFER;
+        return idempotencyLedger.execute(
+                IdempotencyLedger.key(memberId, "token", payload.getRefId()),
+                new IdempotentOperation<Token>() {
+                    @Override
+                    public Observable<Token> submit() {
+                        return submitToken(payload, tokenRequestId, signatures);
+                    }
+
+                    @Override
+                    public String resultId(Token result) {
+                        return result.getId();
+                    }
+
+                    @Override
+                    public Observable<Token> fetch(String tokenId) {
+                        return getToken(tokenId);
+                    }
+
+                    @Override
+                    public Observable<Token> reconcile() {
+                        return PagedSearch.findFirst(
+                                offset -> getTokens(type, offset, RECONCILE_PAGE_SIZE),
+                                t -> t.getPayload().getRefId().equals(payload.getRefId()));
+                    }
+                });
+    }
+
+    private Observable<Token> submitToken(
             TokenPayload payload,
             @Nullable String tokenRequestId,
             List<Signature> signatures) {
@@ -575,7 +658,41 @@ public final class Client extends io.token.rpc.Client {
      * @param transfer transfer parameters, such as amount, currency, etc
      * @return transfer record
      */
-    public Observable<Transfer> createTransfer(TransferPayload transfer) {
+    public Observable<Transfer> createTransfer(final TransferPayload transfer) {
+        if (idempotencyLedger == null || transfer.getRefId().isEmpty()) {
+            return submitTransfer(transfer);
+        }
+        return idempotencyLedger.execute(
+                IdempotencyLedger.key(memberId, "transfer", transfer.getRefId()),
+                new IdempotentOperation<Transfer>() {
+                    @Override
+                    public Observable<Transfer> submit() {
+                        return submitTransfer(transfer);
+                    }
+
+                    @Override
+                    public String resultId(Transfer result) {
+                        return result.getId();
+                    }
+
+                    @Override
+                    public Observable<Transfer> fetch(String transferId) {
+                        return getTransfer(transferId);
+                    }
+
+                    @Override
+                    public Observable<Transfer> reconcile() {
+                        return PagedSearch.findFirst(
+                                offset -> getTransfers(
+                                        offset,
+                                        RECONCILE_PAGE_SIZE,
+                                        transfer.getTokenId()),
+                                t -> t.getPayload().getRefId().equals(transfer.getRefId()));
+                    }
+                });
+    }
+
+    private Observable<Transfer> submitTransfer(TransferPayload transfer) {
         Signer signer = crypto.createSigner(Key.Level.LOW);
         return toObservable(gateway
                 .withAuthentication(authenticationContext())
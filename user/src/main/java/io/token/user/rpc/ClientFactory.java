@@ -23,6 +23,7 @@
 package io.token.user.rpc;
 
 import io.grpc.ManagedChannel;
+import io.token.idempotency.IdempotencyLedger;
 import io.token.proto.gateway.GatewayServiceGrpc;
 import io.token.proto.gateway.GatewayServiceGrpc.GatewayServiceFutureStub;
 import io.token.rpc.AuthenticationContext;
@@ -33,6 +34,8 @@ import io.token.rpc.client.Interceptor;
 import io.token.rpc.client.RpcChannelFactory;
 import io.token.security.CryptoEngine;
 
+import javax.annotation.Nullable;
+
 /**
  * A factory class that is used to create {@link Client} and {@link UnauthenticatedClient}
  * instances.
@@ -67,6 +70,24 @@ public abstract class ClientFactory {
             final ManagedChannel channel,
             final String memberId,
             final CryptoEngine crypto) {
+        return authenticated(channel, memberId, crypto, null);
+    }
+
+    /**
+     * Creates authenticated client backed by the specified channel. The supplied
+     * signer is used to authenticate the caller for every call.
+     *
+     * @param channel RPC channel to use
+     * @param memberId member id
+     * @param crypto crypto engine to use for signing requests, tokens, etc
+     * @param idempotencyLedger ledger used to deduplicate retried creations, or null
+     * @return newly created client
+     */
+    public static Client authenticated(
+            final ManagedChannel channel,
+            final String memberId,
+            final CryptoEngine crypto,
+            @Nullable final IdempotencyLedger idempotencyLedger) {
         final GatewayServiceFutureStub stub = GatewayServiceGrpc.newFutureStub(
                 RpcChannelFactory.intercept(
                         channel,
@@ -82,6 +103,6 @@ public abstract class ClientFactory {
             }
         };
 
-        return new Client(memberId, crypto, provider);
+        return new Client(memberId, crypto, provider, idempotencyLedger);
     }
 }
@@ -0,0 +1,91 @@
+package io.token.user.rpc;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Deadline;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.token.proto.gateway.GatewayServiceGrpc;
+import io.token.rpc.AuthenticationContext;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.TokenCryptoEngine;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+public class ClientDeadlineTest {
+    private final List<AuthenticationContext> contexts = new ArrayList<>();
+    private final List<Deadline> deadlines = new ArrayList<>();
+    private final Channel channel = new RespondingChannel();
+    private final Client client = new Client(
+            "m:1",
+            new TokenCryptoEngine("m:1", new InMemoryKeyStore()),
+            context -> {
+                contexts.add(context);
+                return GatewayServiceGrpc.newFutureStub(channel);
+            });
+
+    @Test
+    public void withDeadlineKeepsTheAuthenticationContext() {
+        Deadline deadline = Deadline.after(5, SECONDS);
+
+        client.getAccount("a:1").blockingSingle();
+        client.withDeadline(deadline).getAccount("a:1").blockingSingle();
+
+        assertThat(contexts.get(1)).isEqualTo(contexts.get(0));
+        assertThat(deadlines).containsExactly(null, deadline);
+    }
+
+    /**
+     * Records the deadline of every call, and answers it with an empty response.
+     */
+    private final class RespondingChannel extends Channel {
+        @Override
+        public <ReqT, ResT> ClientCall<ReqT, ResT> newCall(
+                MethodDescriptor<ReqT, ResT> method,
+                CallOptions callOptions) {
+            deadlines.add(callOptions.getDeadline());
+            return new ClientCall<ReqT, ResT>() {
+                private Listener<ResT> listener;
+
+                @Override
+                public void start(Listener<ResT> listener, Metadata headers) {
+                    this.listener = listener;
+                }
+
+                @Override
+                public void request(int numMessages) {
+                }
+
+                @Override
+                public void cancel(@Nullable String message, @Nullable Throwable cause) {
+                }
+
+                @Override
+                public void halfClose() {
+                    listener.onMessage(method.parseResponse(
+                            new ByteArrayInputStream(new byte[0])));
+                    listener.onClose(Status.OK, new Metadata());
+                }
+
+                @Override
+                public void sendMessage(ReqT message) {
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return "localhost";
+        }
+    }
+}